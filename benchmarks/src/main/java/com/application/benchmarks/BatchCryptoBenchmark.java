@@ -0,0 +1,65 @@
+// benchmarks/src/main/java/com/application/benchmarks/BatchCryptoBenchmark.java
+package com.application.benchmarks;
+
+import com.application.Backend.EncryptionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * encryptBatch/decryptBatch against the same messages sent through the per-message ByteBuffer API.
+ * Scores are batches per second; multiply by `count` for messages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchCryptoBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int count;
+
+    @Param({"64", "1024", "16384"})
+    public int size;
+
+    private EncryptionService service;
+    private List<ByteBuffer> plaintexts;
+    private List<ByteBuffer> frames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        service = new EncryptionService();
+        service.deriveRoomKey("BenchmarkRoom", "correct horse battery staple");
+        plaintexts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            plaintexts.add(ByteBuffer.wrap(new byte[size]));
+        }
+        frames = service.encryptBatch("BenchmarkRoom", plaintexts);
+    }
+
+    @Benchmark
+    public List<ByteBuffer> encryptBatch() throws Exception {
+        return service.encryptBatch("BenchmarkRoom", plaintexts);
+    }
+
+    @Benchmark
+    public List<ByteBuffer> decryptBatch() throws Exception {
+        return service.decryptBatch("BenchmarkRoom", frames, null);
+    }
+
+    @Benchmark
+    public List<ByteBuffer> encryptOneByOne() throws Exception {
+        List<ByteBuffer> results = new ArrayList<>(count);
+        for (ByteBuffer plaintext : plaintexts) {
+            ByteBuffer sealed = ByteBuffer.allocate(EncryptionService.encryptedLength(plaintext.remaining()));
+            service.encrypt("BenchmarkRoom", plaintext.duplicate(), sealed);
+            results.add(sealed);
+        }
+        return results;
+    }
+}
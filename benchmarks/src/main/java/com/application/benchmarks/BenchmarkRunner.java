@@ -0,0 +1,55 @@
+// benchmarks/src/main/java/com/application/benchmarks/BenchmarkRunner.java
+package com.application.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Entry point of benchmarks.jar.
+ *
+ * Without JMH options, runs the selected benchmarks (default: all) twice, single-threaded and
+ * with one thread per core, with the gc profiler (allocation rate, gc.alloc.rate.norm = bytes/op).
+ * Results go to jmh-results/&lt;t1|tN&gt;.json so runs from two releases can be compared
+ * (e.g. with jmh.morethan.io).
+ *
+ * Any argument starting with '-' hands the command line to the stock JMH runner instead.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            if (arg.startsWith("-")) {
+                org.openjdk.jmh.Main.main(args);
+                return;
+            }
+        }
+        String include = (args.length > 0) ? args[0] : "com\\.application\\.benchmarks\\..*";
+        File resultDir = new File("jmh-results");
+        if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + resultDir.getAbsolutePath());
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        run(include, 1, new File(resultDir, "t1.json"));
+        if (cores > 1) {
+            run(include, cores, new File(resultDir, "t" + cores + ".json"));
+        }
+    }
+
+    private static void run(String include, int threads, File resultFile) throws Exception {
+        System.out.println("[Benchmarks] Running '" + include + "' with " + threads + " thread(s) -> " + resultFile.getPath());
+        Options options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.getPath())
+                .build();
+        new Runner(options).run();
+    }
+}
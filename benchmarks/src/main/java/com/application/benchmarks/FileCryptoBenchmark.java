@@ -0,0 +1,82 @@
+// benchmarks/src/main/java/com/application/benchmarks/FileCryptoBenchmark.java
+package com.application.benchmarks;
+
+import com.application.Backend.EncryptionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File encryption/decryption of the chunked container: parallel (encryptFileChunked/decryptFileChunked)
+ * vs segment by segment through openDecryptingStream, as for a file still arriving.
+ * Reported as time per file; MB/s = fileSizeMb / score(s). Files live in the system temp dir
+ * and are served from the page cache after warmup, so this tracks CPU cost rather than the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Thread)
+public class FileCryptoBenchmark {
+
+    @Param({"16", "128"})
+    public int fileSizeMb;
+
+    private final EncryptionService service = new EncryptionService();
+    private final byte[] key = new byte[32];
+
+    private File plainFile;
+    private File chunkedEncrypted;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        new Random(42).nextBytes(key);
+        plainFile = File.createTempFile("bench-plain", ".bin");
+        chunkedEncrypted = File.createTempFile("bench-chunked", ".enc");
+        output = File.createTempFile("bench-out", ".bin");
+
+        byte[] block = new byte[1024 * 1024];
+        new Random(7).nextBytes(block);
+        try (RandomAccessFile file = new RandomAccessFile(plainFile, "rw")) {
+            for (int i = 0; i < fileSizeMb; i++) file.write(block);
+        }
+        chunkedEncrypted.delete(); // Otherwise the chunked encrypt below would try to resume it
+        service.encryptFileChunked(plainFile, chunkedEncrypted, key);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (File file : new File[]{plainFile, chunkedEncrypted, output}) {
+            if (file != null) file.delete();
+        }
+    }
+
+    @Benchmark
+    public void encryptChunked() throws Exception {
+        output.delete(); // Fresh container each time, never a resume
+        service.encryptFileChunked(plainFile, output, key);
+    }
+
+    @Benchmark
+    public void decryptChunked() throws Exception {
+        service.decryptFileChunked(chunkedEncrypted, output, key);
+    }
+
+    @Benchmark
+    public void decryptStream() throws Exception {
+        try (InputStream in = service.openDecryptingStream(new FileInputStream(chunkedEncrypted), key);
+             OutputStream out = new FileOutputStream(output)) {
+            in.transferTo(out);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// benchmarks/src/main/java/com/application/benchmarks/KeyDerivationBenchmark.java
+package com.application.benchmarks;
+
+import com.application.Backend.EncryptionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Room key derivation: full PBKDF2 (what a user waits for on join) and the LRU cache hit
+ * taken when switching back to a room.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class KeyDerivationBenchmark {
+
+    private static final String ROOM = "BenchmarkRoom";
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @State(Scope.Thread)
+    public static class ColdService {
+        EncryptionService service;
+
+        // A fresh service has an empty key cache, so every call runs PBKDF2
+        @Setup(Level.Invocation)
+        public void setUp() {
+            service = new EncryptionService();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WarmService {
+        EncryptionService service;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = new EncryptionService();
+            service.deriveRoomKey(ROOM, PASSWORD);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean deriveRoomKey(ColdService state) {
+        return state.service.deriveRoomKey(ROOM, PASSWORD);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean deriveRoomKeyCached(WarmService state) {
+        return state.service.deriveRoomKey(ROOM, PASSWORD);
+    }
+}
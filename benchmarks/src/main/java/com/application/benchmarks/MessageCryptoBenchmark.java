@@ -0,0 +1,86 @@
+// benchmarks/src/main/java/com/application/benchmarks/MessageCryptoBenchmark.java
+package com.application.benchmarks;
+
+import com.application.Backend.CipherSuite;
+import com.application.Backend.EncryptionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message crypto at chat-to-attachment sizes.
+ * One EncryptionService is shared by all benchmark threads, as it is in the app.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageCryptoBenchmark {
+
+    @Param({"16", "256", "1024", "4096", "16384", "65536", "262144"})
+    public int size;
+
+    @Param({"AES_256_GCM", "CHACHA20_POLY1305"})
+    public CipherSuite suite;
+
+    private EncryptionService service;
+    private String plaintext;
+    private String ciphertext;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        service = new EncryptionService();
+        service.deriveRoomKey("BenchmarkRoom", "correct horse battery staple");
+        service.setRoomCipherSuite("BenchmarkRoom", suite);
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+        plaintext = new String(chars);
+        ciphertext = service.encrypt(plaintext);
+        data = new byte[size];
+    }
+
+    /** Per-thread direct buffers for the ByteBuffer API (binary transport path). */
+    @State(Scope.Thread)
+    public static class Buffers {
+        ByteBuffer src;
+        ByteBuffer sealed;
+        ByteBuffer opened;
+
+        @Setup(Level.Trial)
+        public void setUp(MessageCryptoBenchmark benchmark) {
+            src = ByteBuffer.allocateDirect(benchmark.size);
+            sealed = ByteBuffer.allocateDirect(EncryptionService.encryptedLength(benchmark.size));
+            opened = ByteBuffer.allocateDirect(benchmark.size);
+        }
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return service.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return service.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public String encryptDataWithRoomKey() throws Exception {
+        return service.encryptDataWithRoomKey(data);
+    }
+
+    @Benchmark
+    public int encryptDecryptByteBuffer(Buffers buffers) throws Exception {
+        buffers.src.clear();
+        buffers.sealed.clear();
+        service.encrypt(buffers.src, buffers.sealed);
+        buffers.sealed.flip();
+        buffers.opened.clear();
+        return service.decrypt(buffers.sealed, buffers.opened);
+    }
+}
@@ -0,0 +1,142 @@
+// src/main/java/com/application/Backend/BroadcastDispatcher.java
+package com.application.Backend;
+
+import dev.onvoid.webrtc.RTCDataChannelBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends one message to many peers without blocking the caller (usually the EDT).
+ *
+ * dispatch() returns at once. The message is encoded (and encrypted) once by the Encoder, then handed to each
+ * peer's sender as its own task on a small shared pool, so a slow or failing peer only delays its own future.
+ * Broadcasts reach each peer in the order dispatch() was called.
+ *
+ * Encoders run one at a time, in dispatch order, on a single thread: in COUNTER nonce mode the encoder reserves
+ * the message's counter, and receivers expect counters to arrive in the order they were taken. Encoding in
+ * parallel let a later broadcast take a lower counter and reach peers after a higher one.
+ */
+public final class BroadcastDispatcher {
+
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Builds the frame each peer gets, once per broadcast, on a dispatcher thread. Peers may share a frame. */
+    interface Encoder {
+        Map<String, RTCDataChannelBuffer> encode(List<String> peerIds) throws Exception;
+    }
+
+    /** Hands one frame to one peer (e.g. OutboundQueue.send). */
+    interface PeerSender {
+        void send(String peerId, ByteBuffer frame, boolean binary) throws Exception;
+    }
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "broadcast-dispatch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private static final ExecutorService ENCODER = Executors.newSingleThreadExecutor(r -> { // FIFO: encodes in dispatch order
+        Thread t = new Thread(r, "broadcast-encode");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final PeerSender sender;
+    private final Map<String, CompletableFuture<Void>> lastSendByPeer = new LinkedHashMap<>(); // Guarded by itself
+
+    BroadcastDispatcher(PeerSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Encodes the message once and sends it to every peer in peerIds, asynchronously.
+     * @return Completes when every peer's send has finished, with who got the frame and why the others did not.
+     *         Completes exceptionally only if the encoder failed (then nothing was sent).
+     */
+    CompletableFuture<Result> dispatch(List<String> peerIds, Encoder encoder, String label) {
+        List<String> peers = new ArrayList<>(peerIds);
+        CompletableFuture<Map<String, RTCDataChannelBuffer>> frames = CompletableFuture.supplyAsync(() -> {
+            try {
+                return encoder.encode(peers);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, ENCODER);
+
+        Map<String, CompletableFuture<Void>> sends = new LinkedHashMap<>();
+        synchronized (lastSendByPeer) { // Chains each peer's send behind its previous broadcast, in call order
+            for (String peerId : peers) {
+                CompletableFuture<Void> previous = lastSendByPeer.getOrDefault(peerId, DONE);
+                CompletableFuture<Void> send = previous.handle((ignored, error) -> null) // A failed earlier send does not block this one
+                        .thenCombineAsync(frames, (ignored, framesByPeer) -> {
+                            sendTo(peerId, framesByPeer.get(peerId), label);
+                            return null;
+                        }, EXECUTOR);
+                lastSendByPeer.put(peerId, send);
+                send.whenComplete((ignored, error) -> {
+                    synchronized (lastSendByPeer) { lastSendByPeer.remove(peerId, send); }
+                });
+                sends.put(peerId, send);
+            }
+        }
+
+        List<CompletableFuture<?>> all = new ArrayList<>(sends.values());
+        all.add(frames); // With no peers, still wait for the encoder (callers release its buffers on completion)
+        return CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, error) -> {
+                    if (frames.isCompletedExceptionally()) throw new CompletionException(unwrap(frames.handle((f, e) -> e).join()));
+                    List<String> sentTo = new ArrayList<>();
+                    Map<String, Throwable> failures = new LinkedHashMap<>();
+                    sends.forEach((peerId, send) -> {
+                        Throwable failure = send.handle((f, e) -> e).join();
+                        if (failure == null) sentTo.add(peerId);
+                        else failures.put(peerId, unwrap(failure));
+                    });
+                    return new Result(sentTo, failures);
+                });
+    }
+
+    private void sendTo(String peerId, RTCDataChannelBuffer frame, String label) {
+        try {
+            if (frame == null) throw new IllegalStateException("No frame encoded for " + peerId + ".");
+            sender.send(peerId, frame.data.duplicate(), frame.binary); // Duplicate: peers sharing a frame send concurrently
+        } catch (Exception e) {
+            System.err.println("[Dispatch] Failed to send " + label + " to peer " + peerId + ": " + e.getMessage());
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    /** Outcome of one broadcast. */
+    public static final class Result {
+        public final List<String> sentTo;            // Peers whose channel (or send queue) accepted the frame
+        public final Map<String, Throwable> failures; // Everyone else, with the reason
+
+        Result(List<String> sentTo, Map<String, Throwable> failures) {
+            this.sentTo = Collections.unmodifiableList(sentTo);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        public List<String> failedPeers() {
+            return new ArrayList<>(failures.keySet());
+        }
+    }
+}
@@ -2,10 +2,11 @@ package com.application.Backend;
 
 import com.application.FrontEnd.ChatRoom;
 import com.application.FrontEnd.MainFrame;
+import com.application.FrontEnd.PublicServerRoom;
 import com.application.FrontEnd.components.MessageCellRenderer.ChatMessage;
 import com.application.Backend.dto.ClientSignalingMessage; // Your DTO
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 // dev.onvoid.webrtc IMPORTS (Actual API usage will be in TODO sections for now)
 import dev.onvoid.webrtc.PeerConnectionFactory;
@@ -17,6 +18,7 @@ import dev.onvoid.webrtc.RTCDataChannel;
 import dev.onvoid.webrtc.RTCDataChannelObserver;
 import dev.onvoid.webrtc.RTCDataChannelInit;
 import dev.onvoid.webrtc.RTCDataChannelState;
+import dev.onvoid.webrtc.RTCPriorityType;
 import dev.onvoid.webrtc.RTCSessionDescription;
 import dev.onvoid.webrtc.RTCSdpType;
 import dev.onvoid.webrtc.RTCIceCandidate;
@@ -34,9 +36,13 @@ import dev.onvoid.webrtc.RTCAnswerOptions;
 // Java standard imports
 import javax.swing.*;
 import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -44,7 +50,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 // No need for Collectors if not used directly in this snippet yet
 
 public class ChatController implements NetworkListener {
@@ -54,12 +64,18 @@ public class ChatController implements NetworkListener {
     private final EncryptionService encryptionService;
     private final SignalingService signalingService;
     private final FileUploader fileUploader; // Still here for now, though file sharing will change
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Shared with SignalingService; MessageData and signaling DTOs use the hand-written codecs in WireJson.
+    private final ObjectMapper objectMapper = WireJson.MAPPER;
+    private final ObjectReader messageReader = objectMapper.readerFor(MessageData.class); // Inbound P2P JSON; resolved once
+    private static final int JSON_FRAME_GUESS = 2048; // Pooled buffer size tried first for outbound JSON frames; covers CHAT and file offers
 
     private String currentUsername;
     private String activeRoomName;
     private boolean currentRoomE2EEKeyDerived = false;
+    private String pendingRoomName; // Room whose key is still being derived (latest join request wins)
+    private volatile boolean binaryTransportEnabled = false; // Send CHAT as raw-ciphertext binary frames (version 1) instead of JSON + Base64
     private Set<String> joinedRoomNames = new HashSet<>();
+    private static final long ROOM_KEY_IDLE_EXPIRY_MS = 30 * 60 * 1000L; // Key-ring keys unused this long are wiped
     private Map<String, List<ChatMessage>> roomChatHistories = new HashMap<>();
     private Map<String, String> pendingSentPrivateChatProposals = new HashMap<>(); // This will change significantly for WebRTC
 
@@ -67,6 +83,75 @@ public class ChatController implements NetworkListener {
     private PeerConnectionFactory peerConnectionFactory;
     private final Map<String, RTCPeerConnection> peerConnections = new ConcurrentHashMap<>();
     private final Map<String, RTCDataChannel> dataChannels = new ConcurrentHashMap<>();
+    private final Map<String, CipherSuite> peerCipherSuites = new ConcurrentHashMap<>(); // Advertised preference per room member
+    private volatile CipherSuite preferredSuite = CipherSuite.AES_256_GCM; // Our vote; AES-GCM until the startup measurement is in
+    private final Map<String, Integer> peerWireVersions = new ConcurrentHashMap<>(); // MessageCodec version each peer decodes, per its HEARTBEAT
+    private final Map<String, Integer> signaledWireVersions = new ConcurrentHashMap<>(); // The same, from a member's join (user_joined)
+    private final OutboundQueue outbound = new OutboundQueue(new OutboundQueue.Transport() { // Every DataChannel send goes through here
+        @Override public long bufferedAmount(String peerId) {
+            RTCDataChannel dataChannel = dataChannels.get(peerId);
+            return (dataChannel != null) ? dataChannel.getBufferedAmount() : 0;
+        }
+        @Override public void send(String peerId, ByteBuffer frame, boolean binary) throws Exception { sendFrameToPeer(peerId, frame, binary); }
+    });
+    private final MessageCoalescer coalescer = new MessageCoalescer(outbound::send);
+    private final BroadcastDispatcher dispatcher = new BroadcastDispatcher(this::deliverToPeer); // Encodes once, sends off the EDT
+
+    // Second, negotiated channel per peer for file data, so bulk transfers never queue in front of chat. Both sides
+    // create it with the same SCTP stream id (no in-band announcement). Unordered but reliable: bulk frames carry
+    // their own offsets. Only used towards peers that advertised MessageCodec.BULK_VERSION.
+    private static final String CHAT_CHANNEL_LABEL = "chat";
+    private static final String BULK_CHANNEL_LABEL = "bulk";
+    private static final int BULK_CHANNEL_ID = 1;
+    private final Map<String, RTCDataChannel> bulkChannels = new ConcurrentHashMap<>();
+    // Own watermarks: the bulk backlog in the shared SCTP send buffer is what chat frames would wait behind
+    private final OutboundQueue bulkOutbound = new OutboundQueue(new OutboundQueue.Transport() {
+        @Override public long bufferedAmount(String peerId) {
+            RTCDataChannel bulkChannel = bulkChannels.get(peerId);
+            return (bulkChannel != null) ? bulkChannel.getBufferedAmount() : 0;
+        }
+        @Override public void send(String peerId, ByteBuffer frame, boolean binary) throws Exception {
+            RTCDataChannel bulkChannel = bulkChannels.get(peerId);
+            if (bulkChannel == null || bulkChannel.getState() != RTCDataChannelState.OPEN) {
+                throw new IllegalStateException("Bulk DataChannel to " + peerId + " is not open.");
+            }
+            bulkChannel.send(new RTCDataChannelBuffer(frame, binary));
+        }
+    });
+    private final Map<Integer, BulkFrameHandler> bulkHandlers = new ConcurrentHashMap<>(); // By bulk frame kind
+    private final FileTransferManager fileTransfers = new FileTransferManager(new FileTransferManager.BulkLink() {
+        @Override public Collection<String> peers() {
+            List<String> peers = new ArrayList<>();
+            for (String peerId : bulkChannels.keySet()) if (isBulkChannelAvailable(peerId)) peers.add(peerId);
+            return peers;
+        }
+        @Override public boolean isAvailable(String peerId) { return isBulkChannelAvailable(peerId); }
+        @Override public void send(String peerId, ByteBuffer frame) throws Exception { sendBulk(peerId, frame); }
+    });
+
+    /** Receives bulk-channel frames of one kind, on the native callback thread; the buffer is only valid during the call. */
+    interface BulkFrameHandler {
+        void onBulkFrame(String peerId, ByteBuffer frame) throws Exception;
+    }
+    private volatile boolean coalescingEnabled = false; // Pack bursts into batch frames for peers that decode them
+    private volatile boolean sealedEnvelopesEnabled = false; // Seal whole messages (MessageCodec version 4) for peers that decode them
+
+    // Relay mode (RelayTopology): from relayMinRoomSize members on, leaves only link to a few elected relays, which
+    // forward frames as received (RelayRouter). Every client of a room needs the same threshold.
+    private static final int LINK_CHECK_MILLIS = 5000;
+    private static final long RELAY_CONNECT_TIMEOUT_MS = 15_000; // A wanted relay (or a sharer) not OPEN by then is given up on
+    private static final long RELAY_RETRY_MS = 30_000;           // How long an unreachable relay is passed over
+    private static final long PRUNE_DELAY_MS = 5_000;            // Unwanted links (and idle bulk links) live at least this long
+    private volatile int relayMinRoomSize = RelayTopology.DEFAULT_MIN_ROOM_SIZE; // 0: every room is a full mesh
+    private final Set<String> roomRoster = ConcurrentHashMap.newKeySet(); // Active room's members per signaling, without self
+    private final RelayRouter relayRouter = new RelayRouter();
+    private final Set<String> extraLinks = ConcurrentHashMap.newKeySet(); // Links kept outside the topology: downloads from a sharer
+    private final Map<String, Long> lastBulkFrameMillis = new ConcurrentHashMap<>(); // Relay mode only; a serving link is not pruned
+    private final Map<String, Long> unreachableRelays = new HashMap<>(); // EDT only: relay -> passed over until
+    private final Map<String, Long> linkStarted = new HashMap<>();       // EDT only: when we offered to a wanted relay
+    private final Map<String, Long> unwantedSince = new HashMap<>();     // EDT only
+    private Timer linkCheckTimer; // EDT only; runs checkLinks() while in relay mode
+    private CompletableFuture<Void> linksClosed = CompletableFuture.completedFuture(null); // Last room's links, closed off the EDT
     private List<RTCIceServer> dynamicIceServers = new ArrayList<>();
 
     private static final List<RTCIceServer> ICE_SERVERS = new ArrayList<>();
@@ -112,12 +197,66 @@ public class ChatController implements NetworkListener {
     public ChatController(MainFrame mainFrame) {
         this.mainFrame = mainFrame;
         this.encryptionService = new EncryptionService();
+        EncryptionService.selectPreferredCipherSuiteAsync() // Measured while the user is still on the login page
+                .thenAccept(suite -> SwingUtilities.invokeLater(() -> onPreferredCipherSuite(suite)));
+        precomputePublicRoomKeys();
         this.signalingService = new SignalingService(this); // Pass this controller as the listener
         this.fileUploader = new FileUploader(); // Keep for now, will adapt file sharing
+        registerBulkHandler(FileTransferManager.KIND_REQUEST, fileTransfers::onBulkFrame);
+        registerBulkHandler(FileTransferManager.KIND_CHUNK, fileTransfers::onBulkFrame);
+        registerBulkHandler(FileTransferManager.KIND_REFUSED, fileTransfers::onBulkFrame);
+        registerBulkHandler(FileTransferManager.KIND_BITFIELD, fileTransfers::onBulkFrame);
+        registerBulkHandler(FileTransferManager.KIND_HAVE, fileTransfers::onBulkFrame);
+        registerBulkHandler(FileTransferManager.KIND_HASH_REQUEST, fileTransfers::onBulkFrame);
+        registerBulkHandler(FileTransferManager.KIND_HASHES, fileTransfers::onBulkFrame);
+        applyStartupOptions();
         initializeWebRTCStack();
         System.out.println("[Controller] Initialized with SignalingService for WebRTC (dev.onvoid.webrtc).");
     }
 
+    // Optional transport features, like -Dchat.cipherSuite: e.g. -Dchat.coalescing=true. Unset means the default.
+    // chat.relayMinRoomSize must be the same for every client of a room; 0 turns relay mode off.
+    private static final String COALESCING_PROPERTY = "chat.coalescing";
+    private static final String SEALED_ENVELOPES_PROPERTY = "chat.sealedEnvelopes";
+    private static final String BINARY_TRANSPORT_PROPERTY = "chat.binaryTransport";
+    private static final String COUNTER_NONCES_PROPERTY = "chat.counterNonces";
+    private static final String RELAY_MIN_ROOM_SIZE_PROPERTY = "chat.relayMinRoomSize";
+
+    private void applyStartupOptions() {
+        setCoalescingEnabled(booleanProperty(COALESCING_PROPERTY, false));
+        setSealedEnvelopesEnabled(booleanProperty(SEALED_ENVELOPES_PROPERTY, false));
+        setBinaryTransportEnabled(booleanProperty(BINARY_TRANSPORT_PROPERTY, false));
+        setCounterNoncesEnabled(booleanProperty(COUNTER_NONCES_PROPERTY, false));
+        setRelayMode(relayMinRoomSizeProperty());
+    }
+
+    private static boolean booleanProperty(String name, boolean defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) return defaultValue;
+        if (!"true".equalsIgnoreCase(value.trim()) && !"false".equalsIgnoreCase(value.trim())) {
+            System.err.println("[Controller] Ignoring " + name + " value '" + value + "' (expected true or false).");
+            return defaultValue;
+        }
+        boolean enabled = Boolean.parseBoolean(value.trim());
+        System.out.println("[Controller] " + name + " = " + enabled);
+        return enabled;
+    }
+
+    private static int relayMinRoomSizeProperty() {
+        String value = System.getProperty(RELAY_MIN_ROOM_SIZE_PROPERTY);
+        if (value == null) return RelayTopology.DEFAULT_MIN_ROOM_SIZE;
+        try {
+            int minRoomSize = Integer.parseInt(value.trim());
+            if (minRoomSize < 0) throw new NumberFormatException("negative");
+            System.out.println("[Controller] " + RELAY_MIN_ROOM_SIZE_PROPERTY + " = " + minRoomSize
+                    + (minRoomSize != RelayTopology.DEFAULT_MIN_ROOM_SIZE ? " (other clients of a room need the same value)" : ""));
+            return minRoomSize;
+        } catch (NumberFormatException e) {
+            System.err.println("[Controller] Ignoring " + RELAY_MIN_ROOM_SIZE_PROPERTY + " value '" + value + "', using " + RelayTopology.DEFAULT_MIN_ROOM_SIZE + ".");
+            return RelayTopology.DEFAULT_MIN_ROOM_SIZE;
+        }
+    }
+
     private void initializeWebRTCStack() {
         System.out.println("[Controller] Initializing WebRTC stack (dev.onvoid.webrtc)...");
         try {
@@ -160,11 +299,8 @@ public class ChatController implements NetworkListener {
         if (username.isEmpty() || roomName.isEmpty()) {
             showErrorDialog("Username and Room Name cannot be empty."); return;
         }
-        // ... (isPublicRoom check, get predefinedPassword) ...
-        String predefinedPassword = "TEMP_PUBLIC_PASS"; // Placeholder from your old logic
-        if (!isPublicRoom(roomName)) { showErrorDialog("Error: Not a known public room."); return;} // Simplified
-        predefinedPassword = "Public" + roomName + "Key_!@#"; // Simplification, use your PUBLIC_ROOM_KEYS
-        if (predefinedPassword == null) {showErrorDialog("Error: Key for public room missing."); return;}
+        if (!isPublicRoom(roomName)) { showErrorDialog("Error: Not a known public room."); return;}
+        String predefinedPassword = publicRoomPassword(roomName); // Key usually precomputed at startup
 
 
         this.currentUsername = username;
@@ -174,9 +310,24 @@ public class ChatController implements NetworkListener {
         joinOrSwitchToRoom(roomName, predefinedPassword);
     }
 
-    private boolean isPublicRoom(String roomName) { // Placeholder from old controller
-        // return PUBLIC_ROOM_KEYS.containsKey(roomName); // If you have PUBLIC_ROOM_KEYS map
-        return roomName.startsWith("Alpha") || roomName.startsWith("Bravo"); // Simplified
+    private boolean isPublicRoom(String roomName) {
+        return PublicServerRoom.getRoomIds().contains(roomName);
+    }
+
+    private static String publicRoomPassword(String roomName) {
+        return "Public" + roomName + "Key_!@#";
+    }
+
+    // Public room passwords are fixed, so their PBKDF2 runs now, on a minimum-priority thread,
+    // instead of when the user clicks a room. Joining one afterwards is a key cache hit.
+    private void precomputePublicRoomKeys() {
+        Map<String, String> passwords = new LinkedHashMap<>();
+        for (String roomId : PublicServerRoom.getRoomIds()) {
+            passwords.put(roomId, publicRoomPassword(roomId));
+        }
+        long start = System.nanoTime();
+        encryptionService.precomputeRoomKeys(passwords).thenRun(() -> System.out.println(
+                "[Controller] Precomputed keys for " + passwords.size() + " public rooms in " + (System.nanoTime() - start) / 1_000_000 + " ms."));
     }
 
     public void joinOrSwitchToRoom(String roomName, String password) {
@@ -192,14 +343,43 @@ public class ChatController implements NetworkListener {
         }
 
         closeAllP2PConnectionsAndState(); // Closes old P2P and informs old room via signaling if connected
+        this.activeRoomName = null; this.currentRoomE2EEKeyDerived = false;
+
+        // PBKDF2 runs on the key-derivation executor (or is served from the key cache); the join continues on the EDT.
+        this.pendingRoomName = roomName;
+        if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Securing room " + roomName + "\u2026");
+        encryptionService.deriveRoomKeyAsync(roomName, password).whenComplete((roomKey, error) -> SwingUtilities.invokeLater(() -> {
+            if (!Objects.equals(this.pendingRoomName, roomName)) {
+                System.out.println("[Controller] Key for room " + roomName + " ready, but a newer join superseded it. Discarding.");
+                encryptionService.discardKey(roomKey);
+                return;
+            }
+            this.pendingRoomName = null;
+            if (error != null) {
+                encryptionService.discardKey(roomKey);
+                showErrorDialog("Failed to derive key for room '" + roomName + "'. Check password.");
+                if (chatRoomUI != null) { /* Update UI for failure */ }
+                return;
+            }
+            encryptionService.addRoomKey(roomName, roomKey);
+            completeRoomJoin(roomName);
+        }));
+    }
 
-        if (!encryptionService.deriveRoomKey(roomName, password)) {
-            showErrorDialog("Failed to derive key for room '" + roomName + "'. Check password.");
-            this.activeRoomName = null; this.currentRoomE2EEKeyDerived = false;
-            if (chatRoomUI != null) { /* Update UI for failure */ }
-            return;
-        }
+    // Switch back to a room whose key is still in the key ring: no password prompt, no key derivation.
+    private void switchToRoomWithKnownKey(String roomName) {
+        System.out.println("[Controller] Switching to room " + roomName + " using its key-ring key.");
+        closeAllP2PConnectionsAndState();
+        this.pendingRoomName = null;
+        completeRoomJoin(roomName);
+    }
+
+    // Second half of joinOrSwitchToRoom, once the room key is in the key ring.
+    private void completeRoomJoin(String roomName) {
+        encryptionService.setActiveRoom(roomName);
+        encryptionService.expireRoomKeys(ROOM_KEY_IDLE_EXPIRY_MS);
         this.activeRoomName = roomName; this.currentRoomE2EEKeyDerived = true;
+        updateRoomCipherSuite();
 
         if (chatRoomUI != null) {
             if (!joinedRoomNames.contains(roomName)) { chatRoomUI.addRoomTab(roomName); joinedRoomNames.add(roomName); }
@@ -224,13 +404,15 @@ public class ChatController implements NetworkListener {
             if (chatRoomUI != null) SwingUtilities.invokeLater(() -> chatRoomUI.updateUIForRoomSwitch(targetRoomName, new ArrayList<>(peerConnections.keySet())));
             return;
         }
+        if (encryptionService.hasRoomKey(targetRoomName)) {
+            switchToRoomWithKnownKey(targetRoomName);
+            return;
+        }
         final String previousActiveRoomName = this.activeRoomName;
         // ... (logic for public room password or prompting for private room password - same as before) ...
-        String passwordForTargetRoom = "dummyPassword"; // Replace with actual password retrieval logic
+        String passwordForTargetRoom;
         if (isPublicRoom(targetRoomName)) {
-            // passwordForTargetRoom = PUBLIC_ROOM_KEYS.get(targetRoomName);
-            passwordForTargetRoom = "Public" + targetRoomName + "Key_!@#"; // Simplification
-            if(passwordForTargetRoom == null) {showErrorDialog("Key missing for public room " + targetRoomName); return;}
+            passwordForTargetRoom = publicRoomPassword(targetRoomName);
         } else {
             // Prompt for password using JOptionPane
             String pass = JOptionPane.showInputDialog(mainFrame, "Enter password for private room: " + targetRoomName);
@@ -246,6 +428,278 @@ public class ChatController implements NetworkListener {
     }
 
 
+    // Remembers a peer's advertised suite (a missing one means an older client: AES-GCM) and re-negotiates.
+    private void recordPeerCipherSuite(String peerUserName, String suiteName) {
+        CipherSuite suite;
+        try {
+            suite = CipherSuite.fromName(suiteName);
+        } catch (IllegalArgumentException e) {
+            System.out.println("[Controller] Peer " + peerUserName + " prefers unknown suite '" + suiteName + "', treating as AES-GCM.");
+            suite = CipherSuite.AES_256_GCM;
+        }
+        peerCipherSuites.put(peerUserName, suite);
+        updateRoomCipherSuite();
+    }
+
+    // The startup measurement is in. EDT only. Peers we already told AES-GCM hear our real vote.
+    private void onPreferredCipherSuite(CipherSuite suite) {
+        if (suite == preferredSuite) return;
+        preferredSuite = suite;
+        updateRoomCipherSuite();
+        for (String peer : dataChannels.keySet()) {
+            if (wireVersionOf(peer) > 0) sendHeartbeat(peer);
+        }
+    }
+
+    // Highest MessageCodec version the peer decodes: from its HEARTBEAT, else from its join; 0 means JSON only.
+    private int wireVersionOf(String peerUserName) {
+        Integer version = peerWireVersions.get(peerUserName);
+        return (version != null) ? version : signaledWireVersions.getOrDefault(peerUserName, 0);
+    }
+
+    // Re-evaluates the active room's message suite from our preference and that of every room member per signaling,
+    // linked to us or not (in relay mode most are not). Members that have not advertised one count as AES-GCM,
+    // so the room only moves to ChaCha20 once all have opted in.
+    // Each peer applies the same rule, and messages carry their suite tag, so a brief disagreement is harmless.
+    private void updateRoomCipherSuite() {
+        String room = this.activeRoomName;
+        if (room == null || !encryptionService.hasRoomKey(room)) return;
+        List<CipherSuite> preferences = new ArrayList<>();
+        preferences.add(preferredSuite);
+        for (String peer : roomRoster) {
+            preferences.add(peerCipherSuites.getOrDefault(peer, CipherSuite.AES_256_GCM));
+        }
+        CipherSuite suite = CipherSuite.negotiate(preferences);
+        if (suite != encryptionService.getRoomCipherSuite(room)) {
+            encryptionService.setRoomCipherSuite(room, suite);
+            if (chatRoomUI != null) {
+                SwingUtilities.invokeLater(() -> { if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Room messages now encrypted with " + suite + "."); });
+            }
+        }
+    }
+
+    // Re-elects the topology from the roster and offers to the peers it wants us linked to. EDT only.
+    // In a full mesh that is every member with a larger name, as before relay mode existed.
+    private void applyTopology() {
+        if (activeRoomName == null || currentUsername == null) return;
+        RelayTopology previous = relayRouter.topology();
+        RelayTopology topology = RelayTopology.elect(activeRoomName, roomRoster, currentUsername, relayMinRoomSize);
+        relayRouter.setTopology(topology);
+        if (previous.isRelayMode() != topology.isRelayMode() || previous.selfIsRelay() != topology.selfIsRelay()) {
+            System.out.println("[Relay] Room is now a " + topology + (topology.selfIsRelay() ? "; we are a relay." : "."));
+            if (chatRoomUI != null && (previous.isRelayMode() || topology.isRelayMode())) {
+                chatRoomUI.displaySystemMessage(!topology.isRelayMode() ? "Room is a full mesh again."
+                        : topology.selfIsRelay() ? "Large room: you now relay messages for other members."
+                        : "Large room: messages now reach you through relays.");
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        unreachableRelays.values().removeIf(until -> until <= now);
+        for (String peer : topology.wantedLinks(unreachableRelays.keySet())) {
+            if (!peerConnections.containsKey(peer) && topology.shouldOffer(peer)) {
+                System.out.println("[P2P Strategy] I (" + currentUsername + ") will offer to " + peer);
+                initiateP2PConnectionAndOffer(peer);
+                if (topology.isRelayMode()) linkStarted.put(peer, now);
+            }
+        }
+        if (topology.isRelayMode()) {
+            if (chatRoomUI != null) roomRoster.forEach(chatRoomUI::addUserToList); // Members we are not linked to are still here
+            if (linkCheckTimer == null) {
+                linkCheckTimer = new Timer(LINK_CHECK_MILLIS, e -> checkLinks());
+                linkCheckTimer.start();
+            }
+        } else if (linkCheckTimer != null) {
+            linkCheckTimer.stop();
+            linkCheckTimer = null;
+        }
+    }
+
+    // Every LINK_CHECK_MILLIS in relay mode, on the EDT. A leaf passes over relays it could not reach in time and,
+    // once one of its relays is up, closes the links it no longer needs: leftovers of the mesh or of an earlier
+    // election. Links of downloads in progress (ours, or peers pulling chunks from us) are kept.
+    private void checkLinks() {
+        RelayTopology topology = relayRouter.topology();
+        if (!topology.isRelayMode() || topology.selfIsRelay()) {
+            unwantedSince.clear();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Set<String> wanted = topology.wantedLinks(unreachableRelays.keySet());
+        boolean reelect = false;
+        for (String relay : wanted) {
+            Long started = linkStarted.get(relay);
+            if (isChatChannelOpen(relay)) {
+                linkStarted.remove(relay);
+            } else if (!peerConnections.containsKey(relay)) {
+                reelect = true; // Offer again (or move on, if it has been passed over meanwhile)
+            } else if (started != null && now - started > RELAY_CONNECT_TIMEOUT_MS) {
+                System.out.println("[Relay] " + relay + " did not connect in time; moving to the next relay.");
+                unreachableRelays.put(relay, now + RELAY_RETRY_MS);
+                linkStarted.remove(relay);
+                closePeerLink(relay);
+                reelect = true;
+            }
+        }
+        if (reelect) {
+            applyTopology();
+            return;
+        }
+        boolean relayUp = wanted.stream().anyMatch(this::isChatChannelOpen);
+        for (String peer : new ArrayList<>(peerConnections.keySet())) {
+            boolean needed = wanted.contains(peer) || extraLinks.contains(peer)
+                    || now - lastBulkFrameMillis.getOrDefault(peer, 0L) < PRUNE_DELAY_MS;
+            if (needed || !relayUp) {
+                unwantedSince.remove(peer);
+                continue;
+            }
+            Long since = unwantedSince.putIfAbsent(peer, now);
+            if (since != null && now - since >= PRUNE_DELAY_MS) {
+                System.out.println("[Relay] Closing link to " + peer + ": not needed in relay mode.");
+                unwantedSince.remove(peer);
+                closePeerLink(peer);
+            }
+        }
+    }
+
+    private boolean isChatChannelOpen(String peerId) {
+        RTCDataChannel dataChannel = dataChannels.get(peerId);
+        return dataChannel != null && dataChannel.getState() == RTCDataChannelState.OPEN;
+    }
+
+    // Recipients of our own broadcasts: every peer, or a single relay for a leaf in relay mode.
+    private List<String> broadcastTargets() {
+        return relayRouter.broadcastTargets(dataChannels.keySet(), this::isChatChannelOpen);
+    }
+
+    /**
+     * Relay mode, on the native callback thread: offered every decoded app message before it is handled, with the
+     * frame as received. Drops copies that already came another way and, on a relay, forwards the frame unchanged
+     * to the peers RelayRouter names (those that decode its format). HEARTBEATs belong to one link and are left alone.
+     * @return false if the message is a copy (or our own, come back) and must be ignored.
+     */
+    boolean acceptRelayed(String fromPeer, ByteBuffer frame, boolean binary, MessageData message) {
+        // A full mesh (any room below the threshold) has no copies to drop: no hashing, no lookup
+        if (!relayRouter.topology().isRelayMode() || message.type == MessageType.HEARTBEAT) return true;
+        if (Objects.equals(message.sender, currentUsername) || !relayRouter.firstSighting(frame)) return false;
+        List<String> targets = relayRouter.forwardTargets(fromPeer, message.sender, dataChannels.keySet());
+        int requiredVersion = MessageCodec.requiredWireVersion(frame, binary);
+        targets.removeIf(peer -> {
+            boolean unsupported = wireVersionOf(peer) < requiredVersion;
+            if (unsupported) System.err.println("[Relay] Not forwarding " + message.type + " to " + peer + ": it does not decode wire version " + requiredVersion + ".");
+            return unsupported;
+        });
+        if (targets.isEmpty()) return true;
+        ByteBuffer copy = DirectBufferPool.SHARED.acquire(frame.remaining()); // The received buffer is only valid during the callback
+        copy.put(frame.duplicate()).flip();
+        RTCDataChannelBuffer relayed = new RTCDataChannelBuffer(copy.slice(), binary);
+        dispatcher.dispatch(targets, peerIds -> {
+            Map<String, RTCDataChannelBuffer> framesByPeer = new HashMap<>();
+            peerIds.forEach(peerId -> framesByPeer.put(peerId, relayed));
+            return framesByPeer;
+        }, "relayed " + message.type).whenComplete((result, error) -> {
+            if (result != null) relayRouter.countForwarded(result.sentTo.size());
+            DirectBufferPool.SHARED.release(copy);
+        });
+        return true;
+    }
+
+    private CompletableFuture<BroadcastDispatcher.Result> broadcastAppMessage(MessageData message, String label) {
+        return broadcastAppMessage(message, () -> message, label);
+    }
+
+    // Chooses the wire format per peer: a sealed envelope when enabled and the peer announced support, else (CHAT
+    // with binary transport on) a version 1 frame with the text encrypted straight into it, else a binary
+    // MessageCodec frame for peers that decode one, else JSON text.
+    // `sealable` is what gets sealed (CHAT text in plainText); `legacy` builds the message for the other formats
+    // (CHAT with encryptedData) and only runs if some peer needs it. Each format is encoded at most once per message,
+    // on a dispatcher thread; the returned future never needs to be waited on from the EDT.
+    // Frames are encoded into pooled direct buffers (DirectBufferPool) and returned to the pool once every peer has
+    // been sent to: send() and the queues have copied the bytes by then.
+    private CompletableFuture<BroadcastDispatcher.Result> broadcastAppMessage(MessageData sealable, Callable<MessageData> legacy, String label) {
+        ByteBuffer[] pooled = new ByteBuffer[4]; // [0] binary, [1] JSON, [2] sealed, [3] version 1 CHAT
+        boolean chatFrames = binaryTransportEnabled && sealable.type == MessageType.CHAT && sealable.plainText != null;
+        CompletableFuture<BroadcastDispatcher.Result> result = dispatcher.dispatch(broadcastTargets(), peerIds -> {
+            RTCDataChannelBuffer[] frames = new RTCDataChannelBuffer[4];
+            Map<String, RTCDataChannelBuffer> framesByPeer = new HashMap<>();
+            MessageData legacyMessage = null;
+            boolean binaryUnavailable = false;
+            for (String peerId : peerIds) {
+                int wireVersion = wireVersionOf(peerId);
+                if (sealedEnvelopesEnabled && wireVersion >= MessageCodec.SEALED_VERSION && encryptionService.hasRoomKey(sealable.roomContext)) {
+                    if (frames[2] == null) {
+                        pooled[2] = MessageCodec.encodeSealed(encryptionService, sealable, DirectBufferPool.SHARED::acquire);
+                        frames[2] = new RTCDataChannelBuffer(pooled[2].slice(), true);
+                    }
+                    framesByPeer.put(peerId, frames[2]);
+                    continue;
+                }
+                if (chatFrames && wireVersion >= MessageCodec.requiredWireVersion(MessageCodec.VERSION)) {
+                    if (frames[3] == null) {
+                        pooled[3] = MessageCodec.encodeChat(encryptionService, sealable.sender, sealable.roomContext,
+                                sealable.plainText.getBytes(StandardCharsets.UTF_8), DirectBufferPool.SHARED::acquire);
+                        frames[3] = new RTCDataChannelBuffer(pooled[3].slice(), true);
+                    }
+                    framesByPeer.put(peerId, frames[3]);
+                    continue;
+                }
+                if (legacyMessage == null) legacyMessage = legacy.call();
+                if (wireVersion >= MessageCodec.MESSAGE_VERSION && !binaryUnavailable) {
+                    if (frames[0] == null) {
+                        try {
+                            pooled[0] = MessageCodec.encode(legacyMessage, DirectBufferPool.SHARED::acquire);
+                            frames[0] = new RTCDataChannelBuffer(pooled[0].slice(), true);
+                        } catch (IllegalArgumentException e) { // e.g. a non-Base64 placeholder in encryptedData
+                            System.err.println("[Controller] " + label + " not binary-encodable, sending JSON: " + e.getMessage());
+                            binaryUnavailable = true;
+                        }
+                    }
+                    if (frames[0] != null) {
+                        framesByPeer.put(peerId, frames[0]);
+                        continue;
+                    }
+                }
+                if (frames[1] == null) {
+                    pooled[1] = encodeJsonFrame(legacyMessage);
+                    frames[1] = new RTCDataChannelBuffer(pooled[1].slice(), false);
+                }
+                framesByPeer.put(peerId, frames[1]);
+            }
+            return framesByPeer;
+        }, label);
+        result.whenComplete((r, e) -> { for (ByteBuffer buffer : pooled) DirectBufferPool.SHARED.release(buffer); });
+        return result;
+    }
+
+    // A pooled direct buffer holding the message's JSON in [0, limit); see WireJson.writePooled.
+    private ByteBuffer encodeJsonFrame(MessageData message) throws IOException {
+        return WireJson.writePooled(message, JSON_FRAME_GUESS);
+    }
+
+    // BroadcastDispatcher's sender, on a dispatcher thread. With coalescing on, frames for peers that decode batch
+    // frames are queued in the coalescer (its send errors are then only logged); everything else goes to the
+    // peer's OutboundQueue, which queues instead of sending while the peer is backed up.
+    private void deliverToPeer(String peerId, ByteBuffer frame, boolean binary) throws Exception {
+        RTCDataChannel dataChannel = dataChannels.get(peerId);
+        if (dataChannel == null || dataChannel.getState() != RTCDataChannelState.OPEN) {
+            throw new IllegalStateException("DataChannel to " + peerId + " is not open.");
+        }
+        if (coalescingEnabled && wireVersionOf(peerId) >= MessageCodec.BATCH_VERSION) {
+            coalescer.enqueue(peerId, frame, binary);
+        } else {
+            outbound.send(peerId, frame, binary);
+        }
+    }
+
+    // OutboundQueue's transport: runs on the sending thread, the coalescer thread or the queue's drain thread.
+    private void sendFrameToPeer(String peerId, ByteBuffer frame, boolean binary) throws Exception {
+        RTCDataChannel dataChannel = dataChannels.get(peerId);
+        if (dataChannel == null || dataChannel.getState() != RTCDataChannelState.OPEN) {
+            throw new IllegalStateException("DataChannel to " + peerId + " is not open.");
+        }
+        dataChannel.send(new RTCDataChannelBuffer(frame, binary));
+    }
+
     private void closeAllP2PConnectionsAndState() {
         System.out.println("[Controller] Closing all P2P connections and state (dev.onvoid.webrtc).");
         if (signalingService.isConnected() && this.activeRoomName != null && this.currentUsername != null) {
@@ -254,15 +708,36 @@ public class ChatController implements NetworkListener {
             leaveMsg.setFromUser(this.currentUsername);
             signalingService.sendSignalingMessage(leaveMsg);
         }
-        // Now close actual P2P connections
-        peerConnections.forEach((peerId, pc) -> {
-            if (pc != null) { System.out.println("Closing RTCPeerConnection to: " + peerId); try { pc.close(); } catch (Exception e) { System.err.println("Err closing PC " + peerId + ":" + e.getMessage());} }
-        });
+        // Last queued messages go out before the channels close. Both happen on the coalescer's thread, not the EDT.
+        Map<String, RTCPeerConnection> closingConnections = new HashMap<>(peerConnections);
+        Map<String, RTCDataChannel> closingChannels = new HashMap<>(dataChannels);
         peerConnections.clear();
-        dataChannels.forEach((peerId, dc) -> {
-            if (dc != null) { System.out.println("Closing RTCDataChannel to: " + peerId); try { dc.close(); } catch (Exception e) { System.err.println("Err closing DC " + peerId + ":" + e.getMessage());} }
-        });
         dataChannels.clear();
+        linksClosed = coalescer.clearAndFlush((peerId, frame, binary) -> {
+            RTCDataChannel dc = closingChannels.get(peerId);
+            if (dc != null && dc.getState() == RTCDataChannelState.OPEN) dc.send(new RTCDataChannelBuffer(frame, binary));
+        }).whenComplete((ignored, error) -> {
+            closingConnections.forEach((peerId, pc) -> {
+                if (pc != null) { System.out.println("Closing RTCPeerConnection to: " + peerId); try { pc.close(); } catch (Exception e) { System.err.println("Err closing PC " + peerId + ":" + e.getMessage());} }
+            });
+            closingChannels.forEach((peerId, dc) -> {
+                if (dc != null) { System.out.println("Closing RTCDataChannel to: " + peerId); try { dc.close(); } catch (Exception e) { System.err.println("Err closing DC " + peerId + ":" + e.getMessage());} }
+            });
+        });
+        peerCipherSuites.clear();
+        peerWireVersions.clear();
+        signaledWireVersions.clear();
+        outbound.clear();
+        new ArrayList<>(bulkChannels.keySet()).forEach(this::closeBulkChannel);
+        fileTransfers.clear(); // Shared files were only offered to this room
+        roomRoster.clear();
+        relayRouter.reset();
+        extraLinks.clear();
+        lastBulkFrameMillis.clear();
+        unreachableRelays.clear();
+        linkStarted.clear();
+        unwantedSince.clear();
+        if (linkCheckTimer != null) { linkCheckTimer.stop(); linkCheckTimer = null; }
         if (chatRoomUI != null) { chatRoomUI.clearUserList(); } // Clears UI list except self
     }
 
@@ -273,34 +748,37 @@ public class ChatController implements NetworkListener {
         if (dataChannels.isEmpty()) { if (chatRoomUI != null) chatRoomUI.displaySystemMessage("No active P2P connections to send message."); return; }
 
         try {
-            String encryptedChatPayload = encryptionService.encrypt(plainTextMessage);
-            MessageData appMessage = new MessageData(this.currentUsername, encryptedChatPayload, this.activeRoomName);
-            String appMessageJson = objectMapper.writeValueAsString(appMessage);
-            ByteBuffer buffer = ByteBuffer.wrap(appMessageJson.getBytes(StandardCharsets.UTF_8));
-            RTCDataChannelBuffer dataBufferToSend = new RTCDataChannelBuffer(buffer, false);
-
             System.out.println("[Controller] Sending CHAT over " + dataChannels.size() + " P2P DataChannels.");
-            final List<String> failedPeers = new ArrayList<>();
-            dataChannels.forEach((peerId, dataChannel) -> {
-                if (dataChannel != null && dataChannel.getState() == RTCDataChannelState.OPEN) {
-                    try {
-                        dataChannel.send(dataBufferToSend); // This call needs try-catch
-                    } catch (Exception e) { // Catch the generic Exception declared by send()
-                        System.err.println("[Controller] Failed to send CHAT to peer " + peerId + " via DataChannel: " + e.getMessage());
-                        e.printStackTrace(); // Log for debugging
-                        failedPeers.add(peerId);
-                    }
-                } else {
-                    System.err.println("[Controller] DataChannel to " + peerId + " not open or null for sending CHAT.");
-                    failedPeers.add(peerId); // Consider it failed if DC not open
+            final String room = this.activeRoomName;
+            final String sender = this.currentUsername;
+            MessageData sealable = new MessageData(this.currentUsername, null, room);
+            sealable.plainText = plainTextMessage; // Sealed envelopes and version 1 frames carry the text; each is the only encryption layer
+            final CompletableFuture<BroadcastDispatcher.Result> sent = broadcastAppMessage(sealable, () -> {
+                CipherSuite suite = encryptionService.getRoomCipherSuite(room);
+                EncryptionService.NonceMode mode = encryptionService.getNonceMode(); // Read once: the tag must match the block
+                String encryptedChatPayload = encryptionService.encryptForRoom(room, plainTextMessage, suite, mode);
+                MessageData appMessage = new MessageData(sender, encryptedChatPayload, room);
+                if (mode == EncryptionService.NonceMode.COUNTER) {
+                    appMessage.nonceMode = EncryptionService.NonceMode.COUNTER.name();
+                }
+                if (suite != CipherSuite.AES_256_GCM) {
+                    appMessage.cipherSuite = suite.name(); // Untagged means AES-GCM, which keeps older peers compatible
+                }
+                return appMessage;
+            }, "CHAT");
+
+            sent.whenComplete((result, error) -> { // On a dispatcher thread once every peer's send has finished
+                if (chatRoomUI == null) return;
+                if (error != null) { // Encryption or serialization failed; nothing was sent
+                    Throwable cause = (error.getCause() != null) ? error.getCause() : error;
+                    System.err.println("[Controller] Error preparing P2P chat message: " + cause.getMessage());
+                    SwingUtilities.invokeLater(() -> chatRoomUI.displaySystemMessage("Error sending message due to: " + cause.getMessage()));
+                } else if (!result.failures.isEmpty()) {
+                    final String failedPeersString = String.join(", ", result.failedPeers());
+                    SwingUtilities.invokeLater(() -> chatRoomUI.displaySystemMessage("Note: Message may not have reached all peers: " + failedPeersString));
                 }
             });
 
-            if (!failedPeers.isEmpty() && chatRoomUI != null) {
-                final String failedPeersString = String.join(", ", failedPeers);
-                SwingUtilities.invokeLater(() -> chatRoomUI.displaySystemMessage("Note: Message may not have reached all peers: " + failedPeersString));
-            }
-
             // Display self-message immediately
             if (chatRoomUI != null) {
                 final String finalPlainTextMessage = plainTextMessage; // For lambda
@@ -410,83 +888,77 @@ public class ChatController implements NetworkListener {
                                 List<String> peerUserNames = (List<String>) welcomePayload.get("peers");
                                 System.out.println("[Controller] Peers from welcome: " + (peerUserNames != null ? peerUserNames.toString() : "null list"));
                                 if (peerUserNames != null) {
+                                    roomRoster.clear(); // The full member list of the room we just entered
                                     peerUserNames.forEach(peerUN -> {
-                                        if (!Objects.equals(peerUN, this.currentUsername)) {
-                                            if (this.currentUsername.compareTo(peerUN) < 0) {
-                                                System.out.println("[P2P Strategy from Welcome] I (" + this.currentUsername + ") will offer to existing peer " + peerUN);
-                                                initiateP2PConnectionAndOffer(peerUN);
-                                            } else {
-                                                System.out.println("[P2P Strategy from Welcome] I (" + this.currentUsername + ") will wait for offer from existing peer " + peerUN);
-                                            }
-                                        }
+                                        if (!Objects.equals(peerUN, this.currentUsername)) roomRoster.add(peerUN);
                                     });
+                                    applyTopology(); // Offers to the peers we link to (all of them in a full mesh)
+                                    updateRoomCipherSuite();
                                 }
                             }
                         }
                         break;
                     case "peers":
                         if (sigMessage.getPayload() != null) {
-                            ClientSignalingMessage.RoomPeersPayload peersPayload = objectMapper.convertValue(sigMessage.getPayload(), ClientSignalingMessage.RoomPeersPayload.class);
+                            ClientSignalingMessage.RoomPeersPayload peersPayload = WireJson.payload(sigMessage, ClientSignalingMessage.RoomPeersPayload.class);
                             if (peersPayload != null && peersPayload.getUsers() != null) {
                                 peersPayload.getUsers().forEach(peerUserName -> {
-                                    if (!Objects.equals(peerUserName, this.currentUsername) &&
-                                            !peerConnections.containsKey(peerUserName)) { // Only connect if not already trying
-                                        // Rule: Initiator is the one with the lexicographically smaller username.
-                                        if (this.currentUsername.compareTo(peerUserName) < 0) {
-                                            System.out.println("[P2P Strategy] I ("+this.currentUsername+") will offer to " + peerUserName);
-                                            initiateP2PConnectionAndOffer(peerUserName);
-                                        } else {
-                                            System.out.println("[P2P Strategy] I ("+this.currentUsername+") will wait for offer from " + peerUserName);
-                                        }
-                                    }
+                                    if (!Objects.equals(peerUserName, this.currentUsername)) roomRoster.add(peerUserName);
                                 });
+                                applyTopology();
+                                updateRoomCipherSuite();
                             }
                         }
                         break;
 
                     case "user_joined":
                         if (sigMessage.getPayload() != null) {
-                            ClientSignalingMessage.UserEventPayload userEvent = objectMapper.convertValue(sigMessage.getPayload(), ClientSignalingMessage.UserEventPayload.class);
+                            ClientSignalingMessage.UserEventPayload userEvent = WireJson.payload(sigMessage, ClientSignalingMessage.UserEventPayload.class);
                             String newPeerUserName = userEvent.getUser();
-                            if (newPeerUserName != null && !Objects.equals(newPeerUserName, this.currentUsername) &&
-                                    !peerConnections.containsKey(newPeerUserName)) { // Only connect if not already trying
+                            if (newPeerUserName != null && !Objects.equals(newPeerUserName, this.currentUsername)) {
                                 System.out.println("[Controller] User '" + newPeerUserName + "' joined (signaled).");
-                                if (chatRoomUI != null) chatRoomUI.addUserToList(newPeerUserName);
-                                // Rule: Initiator is the one with the lexicographically smaller username.
-                                if (this.currentUsername.compareTo(newPeerUserName) < 0) {
-                                    System.out.println("[P2P Strategy] New user " + newPeerUserName + ". I ("+this.currentUsername+") will offer.");
-                                    initiateP2PConnectionAndOffer(newPeerUserName);
+                                roomRoster.add(newPeerUserName);
+                                if (userEvent.getWireVersion() != null) {
+                                    signaledWireVersions.put(newPeerUserName, userEvent.getWireVersion());
                                 } else {
-                                    System.out.println("[P2P Strategy] New user " + newPeerUserName + ". I ("+this.currentUsername+") will wait for their offer.");
+                                    signaledWireVersions.remove(newPeerUserName); // An older client, perhaps under a name we knew
                                 }
+                                recordPeerCipherSuite(newPeerUserName, userEvent.getCipherSuite()); // None: an older client, AES-GCM
+                                if (chatRoomUI != null) chatRoomUI.addUserToList(newPeerUserName);
+                                applyTopology(); // May also move a relay, in relay mode
                             }
                         }
                         break;
                     case "user_left": // A user left the room
                         if (sigMessage.getPayload() != null) {
-                            ClientSignalingMessage.UserEventPayload userEvent = objectMapper.convertValue(sigMessage.getPayload(), ClientSignalingMessage.UserEventPayload.class);
+                            ClientSignalingMessage.UserEventPayload userEvent = WireJson.payload(sigMessage, ClientSignalingMessage.UserEventPayload.class);
                             String leftPeerUserName = userEvent.getUser();
                             if (leftPeerUserName != null) {
                                 System.out.println("[Controller] User '" + leftPeerUserName + "' left (signaled).");
+                                roomRoster.remove(leftPeerUserName);
+                                peerCipherSuites.remove(leftPeerUserName);
+                                signaledWireVersions.remove(leftPeerUserName);
                                 closeP2PConnectionWithPeer(leftPeerUserName); // This updates UI
+                                applyTopology();
+                                updateRoomCipherSuite(); // The leaver may have been the last one holding the room on AES-GCM
                             }
                         }
                         break;
                     case "offer":
                         if (fromUser != null && sigMessage.getPayload() != null) {
-                            ClientSignalingMessage.SdpPayload sdpData = objectMapper.convertValue(sigMessage.getPayload(), ClientSignalingMessage.SdpPayload.class);
+                            ClientSignalingMessage.SdpPayload sdpData = WireJson.payload(sigMessage, ClientSignalingMessage.SdpPayload.class);
                             handleReceivedOffer(fromUser, sdpData.getSdp());
                         }
                         break;
                     case "answer":
                         if (fromUser != null && sigMessage.getPayload() != null) {
-                            ClientSignalingMessage.SdpPayload sdpData = objectMapper.convertValue(sigMessage.getPayload(), ClientSignalingMessage.SdpPayload.class);
+                            ClientSignalingMessage.SdpPayload sdpData = WireJson.payload(sigMessage, ClientSignalingMessage.SdpPayload.class);
                             handleReceivedAnswer(fromUser, sdpData.getSdp());
                         }
                         break;
                     case "candidate":
                         if (fromUser != null && sigMessage.getPayload() != null) {
-                            ClientSignalingMessage.IceCandidatePayload iceData = objectMapper.convertValue(sigMessage.getPayload(), ClientSignalingMessage.IceCandidatePayload.class);
+                            ClientSignalingMessage.IceCandidatePayload iceData = WireJson.payload(sigMessage, ClientSignalingMessage.IceCandidatePayload.class);
                             handleReceivedIceCandidate(fromUser, iceData);
                         }
                         break;
@@ -532,28 +1004,32 @@ public class ChatController implements NetworkListener {
             if (chatRoomUI != null) {
                 chatRoomUI.addUserToList(peerUserName);
                 chatRoomUI.displaySystemMessage("Secured P2P connection established with " + peerUserName + ".");
+                sendHeartbeat(peerUserName);
+            }
+        });
+    }
 
-                try {
-                    // Optional: Send a P2P heartbeat or presence confirmation
-                    MessageData presenceConfirmation = new MessageData(MessageType.HEARTBEAT, this.currentUsername, this.activeRoomName);
-                    String msgJson = objectMapper.writeValueAsString(presenceConfirmation);
-                    RTCDataChannel dc = dataChannels.get(peerUserName); // Get the specific data channel for this peer
-
-                    if (dc != null && dc.getState() == RTCDataChannelState.OPEN) {
-                        try {
-                            dc.send(new RTCDataChannelBuffer(ByteBuffer.wrap(msgJson.getBytes(StandardCharsets.UTF_8)), false));
-                            System.out.println("[Controller] Sent P2P HEARTBEAT confirmation to " + peerUserName);
-                        } catch (Exception e) { // Catch Exception from send()
-                            System.err.println("[Controller] Failed to send P2P HEARTBEAT to " + peerUserName + ": " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    } else {
-                        System.err.println("[Controller] DataChannel for " + peerUserName + " not open or null for sending P2P HEARTBEAT.");
-                    }
-                } catch (JsonProcessingException e) {
-                    System.err.println("[Controller] Error creating P2P HEARTBEAT message for " + peerUserName + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
+    // Presence confirmation. Stays JSON: the peer may not decode binary yet.
+    // Our suite vote and wire version only go to peers known to read them (their join or HEARTBEAT advertised a wire
+    // version): older clients reject a HEARTBEAT with fields they do not know. A peer that hears of us first this way
+    // answers with its own (see HEARTBEAT in onMessageReceived).
+    // Encoded into a pooled buffer and sent by the dispatcher (through the coalescer where it applies), off the EDT.
+    private void sendHeartbeat(String peerUserName) {
+        MessageData presenceConfirmation = new MessageData(MessageType.HEARTBEAT, this.currentUsername, this.activeRoomName);
+        if (wireVersionOf(peerUserName) > 0) {
+            presenceConfirmation.cipherSuite = preferredSuite.name(); // Our vote for the room's suite
+            presenceConfirmation.wireVersion = (int) MessageCodec.WIRE_VERSION;
+        }
+        ByteBuffer[] pooled = new ByteBuffer[1];
+        dispatcher.dispatch(Collections.singletonList(peerUserName), peerIds -> {
+            pooled[0] = encodeJsonFrame(presenceConfirmation);
+            return Collections.singletonMap(peerUserName, new RTCDataChannelBuffer(pooled[0].slice(), false));
+        }, "HEARTBEAT").whenComplete((result, error) -> {
+            DirectBufferPool.SHARED.release(pooled[0]);
+            if (result != null && result.sentTo.contains(peerUserName)) {
+                System.out.println("[Controller] Sent P2P HEARTBEAT confirmation to " + peerUserName);
+            } else if (error != null) {
+                System.err.println("[Controller] Error creating P2P HEARTBEAT message for " + peerUserName + ": " + error.getMessage());
             }
         });
     }
@@ -566,8 +1042,21 @@ public class ChatController implements NetworkListener {
             if (pc != null) { try { pc.close(); } catch (Exception e) {} } // Ensure PC is closed
             RTCDataChannel dc = dataChannels.remove(peerUserName);
             if (dc != null) { try { dc.close(); } catch (Exception e) {} } // Ensure DC is closed
-
-            if (chatRoomUI != null) {
+            peerWireVersions.remove(peerUserName);
+            coalescer.removePeer(peerUserName);
+            outbound.removePeer(peerUserName);
+            closeBulkChannel(peerUserName);
+
+            RelayTopology topology = relayRouter.topology();
+            if (topology.isRelayMode() && roomRoster.contains(peerUserName)) {
+                // Still in the room, only no longer linked to us. A relay we wanted is passed over for a while.
+                if (topology.wantedLinks(unreachableRelays.keySet()).contains(peerUserName) && !topology.selfIsRelay()) {
+                    System.out.println("[Relay] Lost relay " + peerUserName + "; moving to the next one.");
+                    unreachableRelays.put(peerUserName, System.currentTimeMillis() + RELAY_RETRY_MS);
+                    linkStarted.remove(peerUserName);
+                    applyTopology();
+                }
+            } else if (chatRoomUI != null) {
                 chatRoomUI.removeUserFromList(peerUserName);
                 chatRoomUI.displaySystemMessage("P2P connection with " + peerUserName + " lost.");
             }
@@ -575,7 +1064,7 @@ public class ChatController implements NetworkListener {
     }
 
     @Override
-    public void onMessageReceived(MessageData appMessageData) { // Application MessageData received over a P2P DataChannel
+    public void onMessageReceived(String fromPeer, MessageData appMessageData) { // fromPeer: the DataChannel it arrived on; sender may be someone else (relays)
         SwingUtilities.invokeLater(() -> {
             // Check if messageData and its critical fields are null - this fixes an earlier error from logs
             if (appMessageData == null || appMessageData.sender == null || appMessageData.type == null || appMessageData.getRoomContext() == null) {
@@ -586,6 +1075,8 @@ public class ChatController implements NetworkListener {
             final String sender = appMessageData.sender;
             final String roomContext = appMessageData.getRoomContext();
 
+            // Channels only ever belong to the active room (joinOrSwitchToRoom closes them all on a switch), so anything
+            // else is stale; other rooms' keys stay in the key ring only to make switching back instant.
             if (activeRoomName == null || !activeRoomName.equals(roomContext)) {
                 System.out.println("[Controller P2P] Ignoring AppMessage for room " + roomContext + " as current is " + activeRoomName);
                 return;
@@ -595,18 +1086,44 @@ public class ChatController implements NetworkListener {
             switch (appMessageData.type) {
                 case CHAT:
                     if (!currentRoomE2EEKeyDerived) { /* ... error ... */ return; }
-                    if (appMessageData.encryptedData == null) { /* ... error ... */ return; }
+                    if (appMessageData.encryptedData == null && appMessageData.encryptedPayload == null && appMessageData.plainText == null) { /* ... error ... */ return; }
                     try {
-                        String decryptedText = encryptionService.decrypt(appMessageData.encryptedData);
+                        // COUNTER-mode frames go through the replay check; duplicates are dropped before decryption.
+                        boolean counterNonce = EncryptionService.NonceMode.COUNTER.name().equals(appMessageData.nonceMode);
+                        CipherSuite suite = CipherSuite.fromName(appMessageData.cipherSuite); // The sender's tag, not our current choice
+                        String decryptedText;
+                        if (appMessageData.plainText != null) { // Sealed envelope: already authenticated with room and sender
+                            decryptedText = appMessageData.plainText;
+                        } else if (appMessageData.encryptedPayload != null) { // Binary frame: raw [session id +] IV + ciphertext
+                            byte[] plain = new byte[Math.max(0, EncryptionService.decryptedLength(appMessageData.encryptedPayload.length,
+                                    counterNonce ? EncryptionService.NonceMode.COUNTER : EncryptionService.NonceMode.RANDOM))];
+                            encryptionService.decrypt(roomContext, ByteBuffer.wrap(appMessageData.encryptedPayload), ByteBuffer.wrap(plain), counterNonce ? sender : null, suite);
+                            decryptedText = new String(plain, StandardCharsets.UTF_8);
+                        } else {
+                            decryptedText = encryptionService.decryptForRoom(roomContext, appMessageData.encryptedData, counterNonce ? sender : null, suite);
+                        }
                         if (chatRoomUI != null) chatRoomUI.appendMessage(sender, decryptedText, "STANDARD");
-                        synchronized (roomChatHistories) { roomChatHistories.computeIfAbsent(activeRoomName, k->new ArrayList<>()).add(new ChatMessage(sender, decryptedText,"STANDARD"));}
+                        synchronized (roomChatHistories) { roomChatHistories.computeIfAbsent(roomContext, k->new ArrayList<>()).add(new ChatMessage(sender, decryptedText,"STANDARD"));}
+                    } catch (EncryptionService.ReplayedMessageException e) {
+                        System.err.println("[Controller P2P] Dropped duplicate CHAT frame: " + e.getMessage());
                     } catch (Exception e) { if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Error decrypting message from " + sender); }
                     break;
                 case FILE_SHARE_OFFER:
                     if (chatRoomUI != null) chatRoomUI.displayFileShareOffer(appMessageData);
                     break;
                 case HEARTBEAT: // Example: P2P Heartbeat for liveness over data channel
-                    System.out.println("[Controller P2P] HEARTBEAT received from " + sender + ". (Liveness confirmed for P2P channel).");
+                    // Describes the link it came over: keyed by that channel's peer, never by the self-declared sender
+                    if (!sender.equals(fromPeer)) {
+                        System.err.println("[Controller P2P] HEARTBEAT on " + fromPeer + "'s channel claims to be from " + sender + "; applying it to " + fromPeer + ".");
+                    }
+                    System.out.println("[Controller P2P] HEARTBEAT received from " + fromPeer + ". (Liveness confirmed for P2P channel).");
+                    // A bare HEARTBEAT is only liveness: from an older client, or from one that has not heard of our version yet
+                    if (appMessageData.wireVersion != null) {
+                        boolean knewVersion = wireVersionOf(fromPeer) > 0;
+                        peerWireVersions.put(fromPeer, appMessageData.wireVersion);
+                        recordPeerCipherSuite(fromPeer, appMessageData.cipherSuite);
+                        if (!knewVersion) sendHeartbeat(fromPeer); // It joined before us: it only learns ours this way
+                    }
                     break;
                 default: System.out.println("[Controller P2P] Unhandled AppMessage type: " + appMessageData.type);
             }
@@ -646,6 +1163,8 @@ public class ChatController implements NetworkListener {
 
         this.activeRoomName = null;
         this.currentRoomE2EEKeyDerived = false;
+        this.pendingRoomName = null; // A key derivation still in flight must not re-join the room
+        encryptionService.removeRoomKey(roomBeingLeft); // Leaving a room drops (and wipes) its key
 
         if (chatRoomUI != null) {
             final String userWhoLeft = this.currentUsername;
@@ -666,6 +1185,12 @@ public class ChatController implements NetworkListener {
         System.out.println("[Controller] Application shutdown requested.");
         leaveRoom(); // Perform graceful leave from current room/P2P
         signalingService.disconnect(); // Ensure signaling connection is closed
+        encryptionService.clearRoomKeys(); // Wipe every room key still in memory
+        try {
+            linksClosed.get(2, TimeUnit.SECONDS); // The factory must outlive the connections closing in the background
+        } catch (Exception e) {
+            System.err.println("[Controller] Peer connections still closing at shutdown: " + e.getMessage());
+        }
         if (peerConnectionFactory != null) {
             peerConnectionFactory.dispose(); // Dispose of the WebRTC factory
             System.out.println("[Controller] PeerConnectionFactory disposed.");
@@ -711,12 +1236,19 @@ public class ChatController implements NetworkListener {
             }
             try {
                 ByteBuffer byteBuffer = buffer.data;
-                byte[] bytes = new byte[byteBuffer.remaining()];
-                byteBuffer.get(bytes);
-                String messageJson = new String(bytes, StandardCharsets.UTF_8);
-                System.out.println("[DCO][" + peerId + "][" + this.dataChannel.getLabel() + "] Message received (raw): " + messageJson.substring(0, Math.min(messageJson.length(), 100)) + "...");
-                MessageData appMessageData = controller.objectMapper.readValue(messageJson, MessageData.class);
-                controller.onMessageReceived(appMessageData); // This method should handle SwingUtilities.invokeLater
+                if (buffer.binary && MessageCodec.isBatchFrame(byteBuffer)) {
+                    // Coalesced burst (MessageCoalescer): unpack and dispatch each message in order
+                    List<ByteBuffer> entries = MessageCodec.splitBatch(byteBuffer);
+                    for (ByteBuffer entry : entries) {
+                        try {
+                            dispatch(entry, MessageCodec.isBinaryFrame(entry));
+                        } catch (Exception e) { // One bad entry must not drop the rest of the burst
+                            System.err.println("[DCO][" + peerId + "][" + this.dataChannel.getLabel() + "] Dropped batch entry: " + e.getMessage());
+                        }
+                    }
+                    return;
+                }
+                dispatch(byteBuffer, buffer.binary);
             } catch (Exception e) { // Catch broader exceptions during message processing
                 System.err.println("[DCO][" + peerId + "][" + this.dataChannel.getLabel() + "] Error processing message: " + e.getMessage());
                 e.printStackTrace();
@@ -728,6 +1260,33 @@ public class ChatController implements NetworkListener {
             // buffer.dispose();
         }
 
+        // In relay mode every message is first offered to acceptRelayed(), with the frame as received.
+        private void dispatch(ByteBuffer frame, boolean binary) throws Exception {
+            ByteBuffer raw = frame.duplicate(); // Decoding consumes frame
+            if (binary && MessageCodec.isSealedFrame(frame)) {
+                MessageData sealedMessage;
+                try {
+                    sealedMessage = MessageCodec.openSealed(controller.encryptionService, frame);
+                } catch (GeneralSecurityException e) { // Foreign room, tampered, mislabelled or replayed: nothing was parsed
+                    System.err.println("[DCO][" + peerId + "][" + this.dataChannel.getLabel() + "] Dropped sealed frame: " + e.getMessage());
+                    return;
+                }
+                if (!controller.acceptRelayed(peerId, raw, true, sealedMessage)) return;
+                controller.onMessageReceived(peerId, sealedMessage);
+                return;
+            }
+            if (binary && MessageCodec.isBinaryFrame(frame)) {
+                MessageData binaryMessage = MessageCodec.decode(frame);
+                if (!controller.acceptRelayed(peerId, raw, true, binaryMessage)) return;
+                controller.onMessageReceived(peerId, binaryMessage);
+                return;
+            }
+            // Parsed from the native buffer in place. Nothing is logged per message: this runs for every frame on the channel
+            MessageData appMessageData = MessageCodec.readJson(controller.messageReader, frame);
+            if (!controller.acceptRelayed(peerId, raw, binary, appMessageData)) return;
+            controller.onMessageReceived(peerId, appMessageData); // This method should handle SwingUtilities.invokeLater
+        }
+
         // Error: SimpleDataChannelObserver is not abstract and does not override abstract method onBufferedAmountChange(long) in dev.onvoid.webrtc.RTCDataChannelObserver
         // This method MUST be present in RTCDataChannelObserver from dev.onvoid.webrtc
         @Override
@@ -737,10 +1296,47 @@ public class ChatController implements NetworkListener {
                 System.err.println("[DCO][" + peerId + "] onBufferedAmountChange called but dataChannel reference is null!");
                 return;
             }
-            System.out.println("[DCO][" + peerId + "][" + this.dataChannel.getLabel() +
-                    "] Buffered amount changed. New amount: " + newAmount +
-                    ". (Actual method to get previous might be different or not available)");
-            // You can get current buffered amount via this.dataChannel.getBufferedAmount()
+            // Fires on every send that drains the buffer, so no logging here. The argument is the previous amount;
+            // OutboundQueue reads the current one via getBufferedAmount().
+            controller.outbound.onBufferedAmountChange(peerId);
+        }
+    }
+
+    // Observer for a peer's bulk channel: no presence events (those come from "chat"), frames go to the handler for their kind.
+    private class BulkChannelObserver implements dev.onvoid.webrtc.RTCDataChannelObserver {
+        private final String peerId;
+        private final RTCDataChannel bulkChannel;
+
+        BulkChannelObserver(String peerId, RTCDataChannel bulkChannel) {
+            this.peerId = peerId;
+            this.bulkChannel = bulkChannel;
+        }
+
+        @Override
+        public void onStateChange() {
+            System.out.println("[DCO][" + peerId + "][" + BULK_CHANNEL_LABEL + "] State changed to: " + bulkChannel.getState());
+        }
+
+        @Override
+        public void onMessage(RTCDataChannelBuffer buffer) {
+            if (relayRouter.topology().isRelayMode()) lastBulkFrameMillis.put(peerId, System.currentTimeMillis());
+            int kind = MessageCodec.bulkKind(buffer.data);
+            BulkFrameHandler handler = (kind >= 0) ? bulkHandlers.get(kind) : null;
+            if (handler == null) {
+                System.err.println("[DCO][" + peerId + "][" + BULK_CHANNEL_LABEL + "] Dropped frame of unknown kind " + kind + ".");
+                return;
+            }
+            try {
+                handler.onBulkFrame(peerId, buffer.data);
+            } catch (Exception e) {
+                System.err.println("[DCO][" + peerId + "][" + BULK_CHANNEL_LABEL + "] Error processing bulk frame: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onBufferedAmountChange(long previousAmount) {
+            bulkOutbound.onBufferedAmountChange(peerId);
         }
     }
 
@@ -781,9 +1377,11 @@ public class ChatController implements NetworkListener {
         pcObserver.setPeerConnection(peerConnection); // Allow observer to have a reference
         System.out.println("[P2P] RTCPeerConnection created for " + peerUserName);
 
+        createBulkChannel(peerUserName, peerConnection); // First, so its fixed stream id is reserved before "chat" gets one
         RTCDataChannelInit dcInit = new RTCDataChannelInit();
         dcInit.ordered = true;
-        RTCDataChannel dataChannel = peerConnection.createDataChannel("chat", dcInit);
+        dcInit.priority = RTCPriorityType.HIGH; // Ahead of the bulk channel where the SCTP scheduler honours priorities
+        RTCDataChannel dataChannel = peerConnection.createDataChannel(CHAT_CHANNEL_LABEL, dcInit);
         if (dataChannel == null) { /* ... error handling ... */ return; }
         dataChannels.put(peerUserName, dataChannel);
         setupDataChannelObserver(peerUserName, dataChannel);
@@ -870,6 +1468,7 @@ public class ChatController implements NetworkListener {
             }
             peerConnections.put(fromPeerUserName, peerConnection);
             pcObserver.setPeerConnection(peerConnection);
+            createBulkChannel(fromPeerUserName, peerConnection); // "chat" arrives via onRemoteDataChannel; "bulk" is negotiated
             System.out.println("[P2P] RTCPeerConnection created/retrieved for incoming OFFER from " + fromPeerUserName);
         } else {
             System.out.println("[P2P] Existing PC found for " + fromPeerUserName + " while handling offer. Using it. State: " + peerConnection.getSignalingState());
@@ -1018,10 +1617,66 @@ public class ChatController implements NetworkListener {
         signalingService.sendSignalingMessage(iceMsg);
     }
 
+    // Both sides call this right after creating the peer connection; a negotiated channel never shows up in onRemoteDataChannel.
+    private void createBulkChannel(String peerUserName, RTCPeerConnection peerConnection) {
+        RTCDataChannelInit bulkInit = new RTCDataChannelInit();
+        bulkInit.negotiated = true;
+        bulkInit.id = BULK_CHANNEL_ID;
+        bulkInit.ordered = false; // Reliable (no maxRetransmits / maxPacketLifeTime), but a lost packet only delays its own frame
+        bulkInit.priority = RTCPriorityType.VERY_LOW;
+        try {
+            RTCDataChannel bulkChannel = peerConnection.createDataChannel(BULK_CHANNEL_LABEL, bulkInit);
+            if (bulkChannel == null) {
+                System.err.println("[P2P] Could not create bulk DataChannel for " + peerUserName + "; file data will not be available.");
+                return;
+            }
+            RTCDataChannel previous = bulkChannels.put(peerUserName, bulkChannel);
+            if (previous != null && previous != bulkChannel) { try { previous.close(); } catch (Exception e) {} }
+            bulkChannel.registerObserver(new BulkChannelObserver(peerUserName, bulkChannel));
+        } catch (Exception e) { // Bulk is optional: chat works without it
+            System.err.println("[P2P] Error creating bulk DataChannel for " + peerUserName + ": " + e.getMessage());
+        }
+    }
+
+    /** Registers the handler for bulk frames of the given kind (MessageCodec version 5), replacing any earlier one. */
+    void registerBulkHandler(int kind, BulkFrameHandler handler) {
+        bulkHandlers.put(kind, handler);
+    }
+
+    /** True if bulk frames can be sent to the peer: its channel is open and it advertised BULK_VERSION. */
+    boolean isBulkChannelAvailable(String peerId) {
+        RTCDataChannel bulkChannel = bulkChannels.get(peerId);
+        return bulkChannel != null && bulkChannel.getState() == RTCDataChannelState.OPEN
+                && wireVersionOf(peerId) >= MessageCodec.BULK_VERSION;
+    }
+
+    /**
+     * Sends a bulk frame (built with MessageCodec.putBulkHeader) to the peer through its own send queue.
+     * @throws IllegalStateException If the bulk channel is not available or the peer's bulk queue is full.
+     */
+    void sendBulk(String peerId, ByteBuffer frame) throws Exception {
+        if (!isBulkChannelAvailable(peerId)) {
+            throw new IllegalStateException("No bulk DataChannel to " + peerId + ".");
+        }
+        bulkOutbound.send(peerId, frame, true);
+    }
+
+    // Backpressure for the bulk channels; keep `high` small enough that chat is not stuck behind it on slow links.
+    public void setBulkSendWatermarks(long high, long low) { bulkOutbound.setWatermarks(high, low); }
+    public Map<String, OutboundQueue.Stats> getBulkQueueStats() { return bulkOutbound.getStats(); }
+
+    private void closeBulkChannel(String peerUserName) {
+        fileTransfers.removePeer(peerUserName); // Downloads from this peer cannot continue
+        lastBulkFrameMillis.remove(peerUserName);
+        bulkOutbound.removePeer(peerUserName);
+        RTCDataChannel bulkChannel = bulkChannels.remove(peerUserName);
+        if (bulkChannel != null) { try { bulkChannel.close(); } catch (Exception e) { System.err.println("Error closing bulk DC for " + peerUserName + ": " + e.getMessage()); } }
+    }
+
     public void onRemoteDataChannel(String peerUserName, RTCDataChannel dataChannel) {
         // This is CALLED BY SimplePeerConnectionObserver.onDataChannel
         System.out.println("[Controller CB] Remote DataChannel '" + dataChannel.getLabel() + "' received from peer " + peerUserName);
-        if ("chat".equals(dataChannel.getLabel())) {
+        if (CHAT_CHANNEL_LABEL.equals(dataChannel.getLabel())) {
             RTCDataChannel existingDC = dataChannels.get(peerUserName);
             if (existingDC != null && existingDC != dataChannel) {
                 System.out.println("[Controller CB] Replacing existing data channel for " + peerUserName);
@@ -1053,6 +1708,32 @@ public class ChatController implements NetworkListener {
     public String getCurrentUsername() { return currentUsername; }
     public String getActiveRoomName() { return activeRoomName; }
     public void setCurrentUsername(String uname) {this.currentUsername = uname; }
+    // Optional: raw binary CHAT frames (MessageCodec version 1) instead of JSON with Base64 ciphertext, for peers that decode them.
+    public void setBinaryTransportEnabled(boolean enabled) { this.binaryTransportEnabled = enabled; }
+    // Optional: coalesce bursts (5 ms / 16 KB window) into batch frames for peers that understand them.
+    public void setCoalescingEnabled(boolean enabled) {
+        this.coalescingEnabled = enabled;
+        if (!enabled) dataChannels.keySet().forEach(coalescer::flush);
+    }
+    // Optional: seal whole messages, room and sender bound as associated data, for peers that support it (others get the regular format).
+    public void setSealedEnvelopesEnabled(boolean enabled) { this.sealedEnvelopesEnabled = enabled; }
+    // Frame counts and added latency, for tuning the coalescing window.
+    public MessageCoalescer.Stats getCoalescerStats() { return coalescer.getStats(); }
+    // Backpressure: a peer whose DataChannel buffers `high` bytes is paused (its frames queue up) until it is down to `low`.
+    public void setSendWatermarks(long high, long low) { outbound.setWatermarks(high, low); }
+    // Queue depth and pause state per peer.
+    public Map<String, OutboundQueue.Stats> getOutboundQueueStats() { return outbound.getStats(); }
+    // Optional: relay mode (RelayTopology) from this many room members on, self included; 0 keeps every room a full mesh.
+    // Leaves then hold LINKS_PER_LEAF connections instead of one per member. Every client of a room needs the same value.
+    public void setRelayMode(int minRoomSize) {
+        if (minRoomSize < 0) throw new IllegalArgumentException("minRoomSize must not be negative: " + minRoomSize);
+        this.relayMinRoomSize = minRoomSize;
+        SwingUtilities.invokeLater(this::applyTopology);
+    }
+    // Current role, the relays, and frames forwarded or dropped as duplicates.
+    public RelayRouter.Stats getRelayStats() { return relayRouter.getStats(); }
+    // Optional: counter-based GCM nonces for outgoing chat messages (receivers handle both modes).
+    public void setCounterNoncesEnabled(boolean enabled) { encryptionService.setNonceMode(enabled ? EncryptionService.NonceMode.COUNTER : EncryptionService.NonceMode.RANDOM); }
     public List<ChatMessage> getChatHistory(String roomName) { synchronized(roomChatHistories) { return new ArrayList<>(roomChatHistories.getOrDefault(roomName, Collections.emptyList())); } }
     private List<String> getOnlineUsersForRoom(String roomName) { // For reverting UI on failed switch
         if (Objects.equals(roomName, this.activeRoomName)) {
@@ -1064,15 +1745,7 @@ public class ChatController implements NetworkListener {
     }
 
     private void closeP2PConnectionWithPeer(String peerUserName) {
-        System.out.println("[Controller] Closing P2P connection with peer: " + peerUserName);
-        RTCPeerConnection pc = peerConnections.remove(peerUserName);
-        if (pc != null) {
-            try { pc.close(); } catch (Exception e) { System.err.println("Error closing PC for " + peerUserName + ": " + e.getMessage()); }
-        }
-        RTCDataChannel dc = dataChannels.remove(peerUserName);
-        if (dc != null) {
-            try { dc.close(); } catch (Exception e) { System.err.println("Error closing DC for " + peerUserName + ": " + e.getMessage()); }
-        }
+        closePeerLink(peerUserName);
         // Notify UI via the standard NetworkListener callback if the observer didn't already.
         // However, the observer (SimplePeerConnectionObserver via onIceConnectionChange) should ideally trigger onPeerDisconnected.
         // Calling it here might be redundant if the observers handle it.
@@ -1087,6 +1760,23 @@ public class ChatController implements NetworkListener {
             });
         }
     }
+
+    // Closes the peer connection and everything kept for it, without touching the UI (the peer may still be in the room).
+    private void closePeerLink(String peerUserName) {
+        System.out.println("[Controller] Closing P2P connection with peer: " + peerUserName);
+        RTCPeerConnection pc = peerConnections.remove(peerUserName);
+        if (pc != null) {
+            try { pc.close(); } catch (Exception e) { System.err.println("Error closing PC for " + peerUserName + ": " + e.getMessage()); }
+        }
+        RTCDataChannel dc = dataChannels.remove(peerUserName);
+        if (dc != null) {
+            try { dc.close(); } catch (Exception e) { System.err.println("Error closing DC for " + peerUserName + ": " + e.getMessage()); }
+        }
+        peerWireVersions.remove(peerUserName);
+        coalescer.removePeer(peerUserName);
+        outbound.removePeer(peerUserName);
+        closeBulkChannel(peerUserName);
+    }
     // File Sharing: Will need to send MessageData of type FILE_SHARE_OFFER over DataChannels
     public boolean initiateFileShare(String roomNameContext, String senderUsernameContext, File fileToShare) {
         if (!Objects.equals(this.activeRoomName, roomNameContext) || !Objects.equals(this.currentUsername, senderUsernameContext) || !currentRoomE2EEKeyDerived) {
@@ -1097,43 +1787,28 @@ public class ChatController implements NetworkListener {
         if (dataChannels.isEmpty()) { if (chatRoomUI != null) chatRoomUI.displaySystemMessage("No peers to share file with."); if(chatRoomUI != null) SwingUtilities.invokeLater(()->chatRoomUI.fileShareAttemptFinished()); return false; }
 
         new Thread(() -> {
-            boolean offerSent = false;
             try {
-                // This part remains for encrypting file key, etc.
-                // For a P2P file transfer, the "downloadUrl" would be replaced by a direct transfer negotiation.
-                // For now, we just send the OFFER of a file.
-                // SecureRandom random = SecureRandom.getInstanceStrong(); byte[] oneTimeKeyBytes = new byte[32]; random.nextBytes(oneTimeKeyBytes);
-                // String encryptedOneTimeFileKeyBase64 = encryptionService.encryptDataWithRoomKey(oneTimeKeyBytes); // If room key set
+                // Peers pull the file from us over the bulk channel (FileTransferManager); the offer carries
+                // where to ask ("p2p:<id>"), the file's Merkle root and the one-time file key, wrapped with the room key.
+                FileTransferManager.Shared shared = fileTransfers.share(fileToShare);
+                String encryptedOneTimeFileKeyBase64;
+                try {
+                    encryptedOneTimeFileKeyBase64 = encryptionService.encryptDataWithRoomKey(shared.keyMaterial);
+                } finally {
+                    Arrays.fill(shared.keyMaterial, (byte) 0);
+                }
 
                 MessageData fileOfferAppMessage = new MessageData(
                         this.currentUsername,
                         fileToShare.getName(),
                         fileToShare.length(),
-                        null, // No downloadUrl
-                        "ENCRYPTED_FILE_KEY_PLACEHOLDER", // Placeholder
-                        null, // fileHash,
+                        shared.downloadUrl,
+                        encryptedOneTimeFileKeyBase64,
+                        shared.fileHash, // Merkle root; downloaders check every chunk against it
                         this.activeRoomName
                 );
-                String offerJson = objectMapper.writeValueAsString(fileOfferAppMessage);
-                ByteBuffer buffer = ByteBuffer.wrap(offerJson.getBytes(StandardCharsets.UTF_8));
-                RTCDataChannelBuffer dataBufferToSend = new RTCDataChannelBuffer(buffer, false);
-
-                final List<String> failedFileOfferPeers = new ArrayList<>();
-                dataChannels.forEach((peerId, dc) -> {
-                    if (dc != null && dc.getState() == RTCDataChannelState.OPEN) {
-                        try {
-                            dc.send(dataBufferToSend);
-                            System.out.println("[Controller] File share OFFER sent to peer " + peerId + " for '" + fileToShare.getName() + "'");
-                            // offerSentSuccessfullyAtLeastOnce = true; // Uncomment if you want to track this
-                        } catch (Exception e) {
-                            System.err.println("[Controller] Failed to send file share OFFER to " + peerId + ": " + e.getMessage());
-                            failedFileOfferPeers.add(peerId);
-                        }
-                    } else {
-                        System.err.println("[Controller] DataChannel to " + peerId + " not open/null for file share OFFER.");
-                        failedFileOfferPeers.add(peerId);
-                    }
-                });
+                final List<String> failedFileOfferPeers = broadcastAppMessage(fileOfferAppMessage, "file share OFFER").join().failedPeers(); // Off the EDT
+                System.out.println("[Controller] File share OFFER for '" + fileToShare.getName() + "' sent to " + (dataChannels.size() - failedFileOfferPeers.size()) + " peer(s).");
 
                 if (!failedFileOfferPeers.isEmpty() && chatRoomUI != null) {
                     final String failedPeersStr = String.join(", ", failedFileOfferPeers);
@@ -1160,6 +1835,76 @@ public class ChatController implements NetworkListener {
         return true; // Offer process initiation attempted
     }
 
+    /**
+     * Downloads a file offered in the active room straight from the peer that shared it (and anyone else holding
+     * it), into target. If target holds an earlier, interrupted download of the same file, it is resumed.
+     * Progress and the outcome are reported as system messages.
+     * @return false if the download could not be started (the reason has been shown).
+     */
+    public boolean downloadSharedFile(MessageData offer, File target) {
+        if (offer == null || offer.type != MessageType.FILE_SHARE_OFFER || target == null) return false;
+        String problem = null;
+        if (!Objects.equals(activeRoomName, offer.getRoomContext()) || !currentRoomE2EEKeyDerived) {
+            problem = "File offers can only be downloaded in the room they were made in.";
+        } else if (offer.downloadUrl == null || !offer.downloadUrl.startsWith(FileTransferManager.URL_SCHEME) || offer.encryptedFileKey == null || offer.fileHash == null) {
+            problem = "This file offer comes from an older version and cannot be downloaded.";
+        } else if (!isBulkChannelAvailable(offer.sender) && !(relayRouter.topology().isRelayMode() && roomRoster.contains(offer.sender))) {
+            problem = offer.sender + " is not connected (or cannot send files directly).";
+        }
+        if (problem != null) {
+            if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Cannot download " + offer.originalFilename + ": " + problem);
+            return false;
+        }
+        if (isBulkChannelAvailable(offer.sender)) return startDownload(offer, target);
+
+        // Relay mode: the offer came through the relays, so link to the sharer for the transfer itself
+        final String sharer = offer.sender;
+        extraLinks.add(sharer);
+        initiateP2PConnectionAndOffer(sharer);
+        if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Connecting to " + sharer + " to download " + offer.originalFilename + "...");
+        final long deadline = System.currentTimeMillis() + RELAY_CONNECT_TIMEOUT_MS;
+        Timer waitForSharer = new Timer(500, null);
+        waitForSharer.addActionListener(e -> {
+            if (isBulkChannelAvailable(sharer)) {
+                waitForSharer.stop();
+                if (!startDownload(offer, target)) extraLinks.remove(sharer);
+            } else if (System.currentTimeMillis() > deadline || activeRoomName == null) {
+                waitForSharer.stop();
+                extraLinks.remove(sharer);
+                if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Cannot download " + offer.originalFilename + ": could not connect to " + sharer + ".");
+            }
+        });
+        waitForSharer.start();
+        return true;
+    }
+
+    // Unwraps the file key and starts the transfer; the sharer's bulk channel is available. EDT only.
+    private boolean startDownload(MessageData offer, File target) {
+        byte[] keyMaterial;
+        try {
+            keyMaterial = encryptionService.decryptDataWithRoomKey(offer.encryptedFileKey);
+        } catch (Exception e) {
+            System.err.println("[Controller] Could not unwrap file key for " + offer.originalFilename + ": " + e.getMessage());
+            if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Cannot download " + offer.originalFilename + ": the file key could not be decrypted.");
+            return false;
+        }
+        final String fileName = offer.originalFilename;
+        CompletableFuture<File> download;
+        try {
+            download = fileTransfers.download(offer.sender, offer.downloadUrl, keyMaterial, offer.fileHash, target);
+        } finally {
+            Arrays.fill(keyMaterial, (byte) 0);
+        }
+        if (chatRoomUI != null) chatRoomUI.displaySystemMessage("Downloading " + fileName + " from " + offer.sender + "...");
+        download.whenComplete((file, error) -> SwingUtilities.invokeLater(() -> {
+            extraLinks.remove(offer.sender); // A link outside the topology is pruned from here on
+            if (chatRoomUI == null) return;
+            if (error != null) chatRoomUI.displaySystemMessage("Download of " + fileName + " failed: " + error.getMessage());
+            else chatRoomUI.displaySystemMessage("Downloaded " + fileName + " to " + file.getAbsolutePath());
+        }));
+        return true;
+    }
+
     public void notifyChatDownloaded(String room, String user) { /* No direct P2P equivalent, this was Pusher broadcast */ }
     public void requestPrivateChat(String targetUser) {
         System.out.println("[Controller] TODO: WebRTC Private Chat: Requesting private session with " + targetUser);
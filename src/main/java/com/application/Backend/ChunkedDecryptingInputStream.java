@@ -0,0 +1,127 @@
+// src/main/java/com/application/Backend/ChunkedDecryptingInputStream.java
+package com.application.Backend;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Streaming decryption of the chunked container (see ChunkedFileCipher), one segment at a time.
+ *
+ * Each segment is authenticated before any of its plaintext is returned, so memory use is one
+ * chunk no matter how large the file is, and nothing unverified ever reaches the caller.
+ * The first segment that fails authentication, a missing final segment (truncation) and
+ * trailing bytes after it all raise an IOException; the stream stays failed afterwards.
+ */
+public class ChunkedDecryptingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final SecretKey key;
+    private final byte[] single = new byte[1]; // For read()
+
+    private ChunkedFileCipher.Header header;
+    private byte[] sealed;
+    private byte[] plain;
+    private int plainPosition;
+    private int plainLimit;
+    private int nextChunk;
+    private boolean finished;
+    private IOException failure;
+
+    public ChunkedDecryptingInputStream(InputStream in, byte[] keyBytes) {
+        this.in = in;
+        this.key = new SecretKeySpec(keyBytes, "AES");
+    }
+
+    /** Header of the stream (reads it if no data has been read yet). */
+    public ChunkedFileCipher.Header getHeader() throws IOException {
+        ensureHeader();
+        return header;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return (n < 0) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (plainPosition == plainLimit) {
+            if (!nextSegment()) return -1;
+        }
+        int n = Math.min(len, plainLimit - plainPosition);
+        System.arraycopy(plain, plainPosition, b, off, n);
+        plainPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return plainLimit - plainPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (plain != null) Arrays.fill(plain, (byte) 0);
+        in.close();
+    }
+
+    // Reads, authenticates and exposes the next segment. Returns false once the final segment was consumed.
+    private boolean nextSegment() throws IOException {
+        if (failure != null) throw failure;
+        if (finished) return false;
+        ensureHeader();
+
+        if (nextChunk == header.chunkCount()) {
+            if (in.read() != -1) {
+                throw fail(new IOException("Unexpected data after the final segment."));
+            }
+            finished = true;
+            Arrays.fill(plain, (byte) 0);
+            return false;
+        }
+
+        int sealedLength = header.plaintextLength(nextChunk) + ChunkedFileCipher.TAG_LENGTH;
+        int read = in.readNBytes(sealed, 0, sealedLength);
+        if (read < sealedLength) {
+            throw fail(new IOException("Encrypted stream truncated in segment " + nextChunk + " of " + header.chunkCount() + "."));
+        }
+        try {
+            plainLimit = ChunkedFileCipher.openChunk(key, header, nextChunk, sealed, sealedLength, plain);
+        } catch (GeneralSecurityException e) {
+            throw fail(new IOException(e.getMessage(), e)); // Fail fast: nothing from this segment is released
+        }
+        plainPosition = 0;
+        nextChunk++;
+        return true;
+    }
+
+    private void ensureHeader() throws IOException {
+        if (header != null) return;
+        if (failure != null) throw failure;
+        byte[] bytes = new byte[ChunkedFileCipher.HEADER_LENGTH];
+        if (in.readNBytes(bytes, 0, bytes.length) < bytes.length) {
+            throw fail(new IOException("Encrypted stream is too short to contain a header."));
+        }
+        try {
+            header = ChunkedFileCipher.Header.parse(bytes);
+        } catch (IOException e) {
+            throw fail(e);
+        }
+        sealed = new byte[header.chunkSize + ChunkedFileCipher.TAG_LENGTH];
+        plain = new byte[header.chunkSize];
+    }
+
+    private IOException fail(IOException e) {
+        failure = e;
+        plainPosition = plainLimit = 0;
+        if (plain != null) Arrays.fill(plain, (byte) 0);
+        System.err.println("[ChunkedFileCipher] Stream decryption failed: " + e.getMessage());
+        return e;
+    }
+}
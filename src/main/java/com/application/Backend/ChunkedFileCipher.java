@@ -0,0 +1,390 @@
+// src/main/java/com/application/Backend/ChunkedFileCipher.java
+package com.application.Backend;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chunked AEAD container for shared files.
+ *
+ * Unlike a single GCM stream, every chunk is sealed on its own, so chunks can be
+ * encrypted/decrypted in parallel, any chunk can be decrypted on its own (random access),
+ * and a partially written output can be resumed.
+ *
+ * Layout:
+ *   Header (HEADER_LENGTH bytes, big-endian):
+ *     4  MAGIC "AECF"
+ *     1  VERSION
+ *     4  chunk size (plaintext bytes per chunk)
+ *     8  plaintext length
+ *     8  source fingerprint (SHA-256 of source length + mtime, first 8 bytes; a quick check before resuming,
+ *        which then compares every written chunk with the source)
+ *     7  random nonce prefix
+ *   Chunk i (plaintext min(chunkSize, remaining) bytes + 16 byte tag), at HEADER_LENGTH + i * (chunkSize + 16)
+ *
+ * Chunk nonce = nonce prefix (7) || chunk index (4) || final flag (1, set only on the last chunk).
+ * The whole header is the associated data of every chunk, so header edits, reordering,
+ * truncation and appending are all detected.
+ */
+public class ChunkedFileCipher {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024; // Also fits a single DataChannel message
+    public static final int HEADER_LENGTH = 32;
+    public static final int TAG_LENGTH = 16; // bytes
+
+    private static final byte[] MAGIC = {'A', 'E', 'C', 'F'};
+    private static final byte VERSION = 1;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int CHUNKS_PER_TASK = 16; // Work unit for the ForkJoin split
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024; // Caps the memory a (possibly hostile) header can make us allocate
+
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    public ChunkedFileCipher() {
+        this(DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public ChunkedFileCipher(int chunkSize, ForkJoinPool pool) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) throw new IllegalArgumentException("Chunk size out of range: " + chunkSize);
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /** Parsed container header. */
+    public static final class Header {
+        public final int chunkSize;
+        public final long plaintextLength;
+        final long sourceFingerprint;
+        final byte[] noncePrefix;
+        final byte[] encoded; // Raw header bytes, used as AAD
+
+        private Header(int chunkSize, long plaintextLength, long sourceFingerprint, byte[] noncePrefix) {
+            this.chunkSize = chunkSize;
+            this.plaintextLength = plaintextLength;
+            this.sourceFingerprint = sourceFingerprint;
+            this.noncePrefix = noncePrefix;
+            ByteBuffer b = ByteBuffer.allocate(HEADER_LENGTH);
+            b.put(MAGIC).put(VERSION).putInt(chunkSize).putLong(plaintextLength).putLong(sourceFingerprint).put(noncePrefix);
+            this.encoded = b.array();
+        }
+
+        public int chunkCount() {
+            return (int) Math.max(1, (plaintextLength + chunkSize - 1) / chunkSize); // Empty file -> one empty final chunk
+        }
+
+        public int plaintextLength(int index) {
+            return (int) Math.min(chunkSize, plaintextLength - (long) index * chunkSize);
+        }
+
+        public long ciphertextOffset(int index) {
+            return HEADER_LENGTH + (long) index * (chunkSize + TAG_LENGTH);
+        }
+
+        public long encryptedFileLength() {
+            return ciphertextOffset(chunkCount() - 1) + plaintextLength(chunkCount() - 1) + TAG_LENGTH;
+        }
+
+        static Header parse(byte[] bytes) throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            byte[] magic = new byte[MAGIC.length];
+            b.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a chunked encrypted file (bad magic).");
+            byte version = b.get();
+            if (version != VERSION) throw new IOException("Unsupported chunked file version: " + version);
+            int chunkSize = b.getInt();
+            long plaintextLength = b.getLong();
+            long fingerprint = b.getLong();
+            byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+            b.get(prefix);
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || plaintextLength < 0
+                    || (plaintextLength + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt chunked file header.");
+            }
+            return new Header(chunkSize, plaintextLength, fingerprint, prefix);
+        }
+    }
+
+    /** True if the file starts with the chunked container magic. */
+    public static boolean isChunkedFile(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) { /* fill */ }
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Reads and validates the header of a chunked file. */
+    public static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_LENGTH);
+        while (b.hasRemaining()) {
+            if (channel.read(b, b.position()) < 0) throw new IOException("Encrypted file is too short to contain a header.");
+        }
+        return Header.parse(b.array());
+    }
+
+    /**
+     * Encrypts inputFile into outputFile, chunks in parallel on the ForkJoinPool.
+     * If outputFile already holds a partial container for the same source and chunk size, it is resumed:
+     * only chunks that were never written are sealed under its nonce prefix. Every chunk in the written
+     * range has to authenticate and match the source's current contents; otherwise the container is
+     * started over with a fresh prefix, so no nonce is ever used for two different plaintexts.
+     */
+    public void encrypt(File inputFile, File outputFile, byte[] keyBytes) throws Exception {
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+        long fingerprint = fingerprint(inputFile);
+
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            Header header = resumableHeader(out, in.size(), fingerprint);
+            long written = out.size(); // High-water mark: chunks starting at or past it were never written
+            if (header != null && !writtenChunksMatch(key, header, in, out, written)) {
+                System.out.println("[ChunkedFileCipher] " + outputFile.getName() + " does not match the source; starting over.");
+                header = null;
+            }
+            boolean resuming = header != null;
+            if (!resuming) {
+                byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+                CryptoContext.nextBytes(prefix);
+                header = new Header(chunkSize, in.size(), fingerprint, prefix);
+                out.truncate(0);
+                writeFully(out, ByteBuffer.wrap(header.encoded), 0);
+                written = 0;
+            }
+            final Header h = header;
+            final long highWater = written;
+            System.out.println("[ChunkedFileCipher] Encrypting " + inputFile.getName() + ": " + h.chunkCount() + " chunk(s)" + (resuming ? " (resuming)" : ""));
+
+            pool.invoke(new ChunkRangeTask(0, h.chunkCount(), h.chunkSize, new AtomicBoolean(), (index, plain, sealed) -> {
+                if (h.ciphertextOffset(index) < highWater) return; // Checked above: authentic and current
+                int plainLength = h.plaintextLength(index);
+                readFully(in, ByteBuffer.wrap(plain, 0, plainLength), (long) index * h.chunkSize);
+                sealChunk(key, h, index, plain, plainLength, sealed);
+                writeFully(out, ByteBuffer.wrap(sealed, 0, plainLength + TAG_LENGTH), h.ciphertextOffset(index));
+            }));
+            out.truncate(h.encryptedFileLength());
+        }
+        System.out.println("[ChunkedFileCipher] File encrypted: " + outputFile.getName());
+    }
+
+    // True if every chunk that starts below `written` is complete, authenticates and decrypts to the source's
+    // current bytes. A torn or missing chunk, or an edit the fingerprint missed, means its nonce may already
+    // have sealed other plaintext, so the prefix cannot be reused for anything.
+    private boolean writtenChunksMatch(SecretKey key, Header h, FileChannel in, FileChannel out, long written) {
+        AtomicBoolean mismatch = new AtomicBoolean();
+        pool.invoke(new ChunkRangeTask(0, h.chunkCount(), h.chunkSize, mismatch, (index, plain, sealed) -> {
+            long offset = h.ciphertextOffset(index);
+            if (offset >= written) return;
+            int plainLength = h.plaintextLength(index);
+            int sealedLength = plainLength + TAG_LENGTH;
+            if (offset + sealedLength > written) {
+                mismatch.set(true);
+                return;
+            }
+            readFully(out, ByteBuffer.wrap(sealed, 0, sealedLength), offset);
+            if (!tryOpen(key, h, index, sealed, sealedLength, plain)) {
+                mismatch.set(true);
+                return;
+            }
+            readFully(in, ByteBuffer.wrap(sealed, 0, plainLength), (long) index * h.chunkSize); // Ciphertext no longer needed
+            if (!Arrays.equals(plain, 0, plainLength, sealed, 0, plainLength)) mismatch.set(true);
+        }));
+        return !mismatch.get();
+    }
+
+    /**
+     * Decrypts a whole chunked file into outputFile, chunks in parallel. Stops at the first chunk
+     * that does not authenticate and deletes the partial output.
+     * Memory use is two chunk buffers per worker, independent of the file size.
+     */
+    public void decrypt(File inputFile, File outputFile, byte[] keyBytes) throws Exception {
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+        boolean complete = false;
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Header h = readHeader(in);
+            if (in.size() != h.encryptedFileLength()) {
+                throw new IOException("Encrypted file length " + in.size() + " does not match header (" + h.encryptedFileLength() + ").");
+            }
+            pool.invoke(new ChunkRangeTask(0, h.chunkCount(), h.chunkSize, new AtomicBoolean(), (index, plain, sealed) -> {
+                int sealedLength = h.plaintextLength(index) + TAG_LENGTH;
+                readFully(in, ByteBuffer.wrap(sealed, 0, sealedLength), h.ciphertextOffset(index));
+                int plainLength = openChunk(key, h, index, sealed, sealedLength, plain);
+                writeFully(out, ByteBuffer.wrap(plain, 0, plainLength), (long) index * h.chunkSize);
+            }));
+            out.truncate(h.plaintextLength);
+            complete = true;
+        } finally {
+            if (!complete && outputFile.exists() && !outputFile.delete()) {
+                System.err.println("[ChunkedFileCipher] Could not delete partial output " + outputFile.getName());
+            }
+        }
+        System.out.println("[ChunkedFileCipher] File decrypted: " + outputFile.getName());
+    }
+
+    /** A fresh header (new nonce prefix) for sealing the file's current contents chunk by chunk, without writing a container. */
+    static Header newHeader(File source, int chunkSize) throws GeneralSecurityException {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) throw new IllegalArgumentException("Chunk size out of range: " + chunkSize);
+        byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+        CryptoContext.nextBytes(prefix);
+        return new Header(chunkSize, source.length(), fingerprint(source), prefix);
+    }
+
+    /** Random access: decrypts a single chunk of an open chunked file. */
+    public static byte[] decryptChunk(FileChannel in, Header h, byte[] keyBytes, int index) throws Exception {
+        if (index < 0 || index >= h.chunkCount()) throw new IndexOutOfBoundsException("Chunk " + index + " of " + h.chunkCount());
+        int sealedLength = h.plaintextLength(index) + TAG_LENGTH;
+        byte[] sealed = new byte[sealedLength];
+        readFully(in, ByteBuffer.wrap(sealed), h.ciphertextOffset(index));
+        byte[] plain = new byte[h.plaintextLength(index)];
+        openChunk(new SecretKeySpec(keyBytes, "AES"), h, index, sealed, sealedLength, plain);
+        return plain;
+    }
+
+    // --- Chunk primitives ---
+
+    static void sealChunk(SecretKey key, Header h, int index, byte[] plain, int plainLength, byte[] sealedOut) throws GeneralSecurityException {
+        Cipher cipher = CryptoContext.cipher(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, chunkNonce(h, index)));
+        cipher.updateAAD(h.encoded);
+        cipher.doFinal(plain, 0, plainLength, sealedOut, 0);
+    }
+
+    static int openChunk(SecretKey key, Header h, int index, byte[] sealed, int sealedLength, byte[] plainOut) throws GeneralSecurityException {
+        Cipher cipher = CryptoContext.cipher(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, chunkNonce(h, index)));
+        cipher.updateAAD(h.encoded);
+        try {
+            return cipher.doFinal(sealed, 0, sealedLength, plainOut, 0);
+        } catch (AEADBadTagException e) {
+            throw new AEADBadTagException("Chunk " + index + " failed authentication (tampered or wrong key).");
+        }
+    }
+
+    private static boolean tryOpen(SecretKey key, Header h, int index, byte[] sealed, int sealedLength, byte[] scratch) {
+        try {
+            openChunk(key, h, index, sealed, sealedLength, scratch);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    static byte[] chunkNonce(Header h, int index) {
+        byte[] nonce = new byte[12];
+        System.arraycopy(h.noncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+        nonce[7] = (byte) (index >>> 24);
+        nonce[8] = (byte) (index >>> 16);
+        nonce[9] = (byte) (index >>> 8);
+        nonce[10] = (byte) index;
+        nonce[11] = (byte) (index == h.chunkCount() - 1 ? 1 : 0);
+        return nonce;
+    }
+
+    // Returns the existing header if out holds a resumable container for this source, otherwise null.
+    private Header resumableHeader(FileChannel out, long sourceLength, long fingerprint) throws IOException {
+        if (out.size() < HEADER_LENGTH) return null;
+        try {
+            Header existing = readHeader(out);
+            if (existing.chunkSize == chunkSize && existing.plaintextLength == sourceLength && existing.sourceFingerprint == fingerprint) {
+                return existing;
+            }
+        } catch (IOException e) {
+            // Not a container (or corrupt header): start over
+        }
+        return null;
+    }
+
+    // Cheap first check of the source version; resumes are confirmed against the contents (writtenChunksMatch).
+    private static long fingerprint(File source) throws GeneralSecurityException {
+        ByteBuffer b = ByteBuffer.allocate(16).putLong(source.length()).putLong(source.lastModified());
+        return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(b.array())).getLong();
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) throw new IOException("Unexpected end of file at " + position);
+            position += n;
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    // --- Parallel driver ---
+
+    private interface ChunkWork {
+        void process(int index, byte[] plainBuffer, byte[] sealedBuffer) throws Exception;
+    }
+
+    // Splits [from, to) until ranges are small, then processes each range with one pair of reusable chunk-sized buffers.
+    // The first failure raises `failed`, so the remaining ranges stop instead of running to the end.
+    private final class ChunkRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final int bufferSize;
+        private final AtomicBoolean failed;
+        private final ChunkWork work;
+
+        ChunkRangeTask(int from, int to, int bufferSize, AtomicBoolean failed, ChunkWork work) {
+            this.from = from;
+            this.to = to;
+            this.bufferSize = bufferSize;
+            this.failed = failed;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNKS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkRangeTask(from, mid, bufferSize, failed, work), new ChunkRangeTask(mid, to, bufferSize, failed, work));
+                return;
+            }
+            byte[] plain = new byte[bufferSize];
+            byte[] sealed = new byte[bufferSize + TAG_LENGTH];
+            try {
+                for (int i = from; i < to && !failed.get(); i++) {
+                    work.process(i, plain, sealed);
+                }
+            } catch (RuntimeException e) {
+                failed.set(true);
+                throw e;
+            } catch (Exception e) {
+                failed.set(true);
+                throw new ChunkFailure(e);
+            } finally {
+                Arrays.fill(plain, (byte) 0);
+            }
+        }
+    }
+
+    // Carries checked exceptions out of the ForkJoin tasks; unwrapped by callers via getCause().
+    static final class ChunkFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        ChunkFailure(Exception cause) { super(cause.getMessage(), cause); }
+    }
+}
@@ -0,0 +1,190 @@
+// src/main/java/com/application/Backend/CipherSuite.java
+package com.application.Backend;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Collection;
+
+/**
+ * AEAD suites usable for room messages. Both take the 256-bit room key, a 12 byte nonce and
+ * append a 16 byte tag, so the IV + ciphertext + tag layout (and EncryptionService.encryptedLength)
+ * is the same for either; only the algorithm differs.
+ *
+ * AES-GCM is the baseline every peer supports. ChaCha20-Poly1305 is faster on CPUs without
+ * AES instructions; a room only switches to it when every peer prefers it (see negotiate()).
+ */
+public enum CipherSuite {
+    AES_256_GCM("AES/GCM/NoPadding"),
+    CHACHA20_POLY1305("ChaCha20-Poly1305");
+
+    public static final int NONCE_LENGTH = 12; // bytes
+    public static final int TAG_LENGTH = 16;   // bytes
+
+    // Set to a suite name to skip the startup measurement (e.g. -Dchat.cipherSuite=AES_256_GCM)
+    private static final String OVERRIDE_PROPERTY = "chat.cipherSuite";
+    private static final int BENCHMARK_MESSAGE_SIZE = 1024; // Chat-sized; many small calls also get the cipher JIT-compiled sooner
+    private static final long BENCHMARK_WARMUP_NANOS = 150_000_000L; // Per suite
+    private static final long BENCHMARK_MEASURE_NANOS = 100_000_000L; // Per suite
+    private static final double CHACHA_MIN_SPEEDUP = 1.2; // Needs a clear win; AES is the interoperable default
+
+    private static volatile CipherSuite preferred;
+
+    final String transformation;
+
+    CipherSuite(String transformation) {
+        this.transformation = transformation;
+    }
+
+    /** Cipher parameters for the nonce stored at nonce[offset .. offset + NONCE_LENGTH). */
+    AlgorithmParameterSpec parameters(byte[] nonce, int offset) {
+        return (this == AES_256_GCM)
+                ? new GCMParameterSpec(TAG_LENGTH * 8, nonce, offset, NONCE_LENGTH)
+                : new IvParameterSpec(nonce, offset, NONCE_LENGTH);
+    }
+
+    /**
+     * Returns this thread's cached Cipher for the suite, initialised with the key and nonce.
+     * The JDK's ChaCha20-Poly1305 refuses any re-init with the key and nonce of its previous init, even
+     * for decryption (e.g. a duplicate frame). That check guards encryption only, so in DECRYPT_MODE
+     * a fresh Cipher is used instead; in ENCRYPT_MODE it signals real nonce reuse and is rethrown.
+     */
+    Cipher init(int mode, SecretKey key, byte[] nonce, int offset) throws GeneralSecurityException {
+        Cipher cipher = CryptoContext.cipher(transformation);
+        try {
+            cipher.init(mode, key, parameters(nonce, offset));
+            return cipher;
+        } catch (InvalidKeyException e) {
+            if (mode != Cipher.DECRYPT_MODE || this != CHACHA20_POLY1305) throw e;
+            Cipher fresh = Cipher.getInstance(transformation);
+            fresh.init(mode, key, parameters(nonce, offset));
+            return fresh;
+        }
+    }
+
+    /**
+     * Parses a suite name from the wire. Messages and peers that predate suite negotiation send none,
+     * which means AES_256_GCM.
+     * @throws IllegalArgumentException For a name this build does not know.
+     */
+    public static CipherSuite fromName(String name) {
+        return (name == null || name.isEmpty()) ? AES_256_GCM : CipherSuite.valueOf(name);
+    }
+
+    /**
+     * The suite a room uses, given the preference of every member (including ourselves).
+     * Every peer evaluates the same rule over the same set, so they agree without another round trip.
+     */
+    public static CipherSuite negotiate(Collection<CipherSuite> memberPreferences) {
+        if (memberPreferences.isEmpty()) return AES_256_GCM;
+        for (CipherSuite suite : memberPreferences) {
+            if (suite != CHACHA20_POLY1305) return AES_256_GCM;
+        }
+        return CHACHA20_POLY1305;
+    }
+
+    /**
+     * This machine's preferred suite, decided once on first use. With AES hardware support in the JVM
+     * (the UseAES flag, on by default when the CPU has AES instructions) that is AES-GCM; otherwise both suites are measured and the faster one wins
+     * (about 0.5 s; EncryptionService.selectPreferredCipherSuiteAsync() runs it in the background at startup).
+     */
+    public static CipherSuite preferred() {
+        CipherSuite result = preferred;
+        if (result == null) {
+            synchronized (CipherSuite.class) {
+                result = preferred;
+                if (result == null) {
+                    result = selectPreferred();
+                    preferred = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static CipherSuite selectPreferred() {
+        String override = System.getProperty(OVERRIDE_PROPERTY);
+        if (override != null) {
+            try {
+                CipherSuite suite = CipherSuite.valueOf(override.trim());
+                System.out.println("[Crypto] Cipher suite set by " + OVERRIDE_PROPERTY + ": " + suite);
+                return suite;
+            } catch (IllegalArgumentException e) {
+                System.err.println("[Crypto] Ignoring unknown " + OVERRIDE_PROPERTY + " value: " + override);
+            }
+        }
+        // A short cold benchmark underrates AES: its hardware intrinsics only kick in once C2 has compiled
+        // the cipher, which takes longer than we want to spend at startup. Ask the JVM directly when we can.
+        if (Boolean.TRUE.equals(aesIntrinsicsEnabled())) {
+            System.out.println("[Crypto] AES hardware acceleration available -> preferring " + AES_256_GCM);
+            return AES_256_GCM;
+        }
+        try {
+            byte[] keyBytes = new byte[32];
+            CryptoContext.nextBytes(keyBytes);
+            SecretKey key = new SecretKeySpec(keyBytes, "AES");
+            double aes = measure(AES_256_GCM, key);
+            double chacha = measure(CHACHA20_POLY1305, key);
+            CipherSuite choice = (chacha > aes * CHACHA_MIN_SPEEDUP) ? CHACHA20_POLY1305 : AES_256_GCM;
+            System.out.printf("[Crypto] Cipher suite benchmark: AES-GCM %.0f MB/s, ChaCha20-Poly1305 %.0f MB/s -> preferring %s%n",
+                    aes * 1000, chacha * 1000, choice);
+            return choice;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            System.err.println("[Crypto] Cipher suite benchmark failed, preferring AES-GCM: " + e.getMessage());
+            return AES_256_GCM;
+        }
+    }
+
+    // HotSpot's UseAES is true when the CPU's AES instructions are used. null when the flag cannot be read (other VMs, native image).
+    private static Boolean aesIntrinsicsEnabled() {
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return (hotSpot != null) ? Boolean.valueOf(hotSpot.getVMOption("UseAES").getValue()) : null;
+        } catch (RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // Bytes sealed per nanosecond over BENCHMARK_MEASURE_NANOS, after a warmup of the same cipher object.
+    private static double measure(CipherSuite suite, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = CryptoContext.cipher(suite.transformation);
+        byte[] plaintext = new byte[BENCHMARK_MESSAGE_SIZE];
+        byte[] output = new byte[BENCHMARK_MESSAGE_SIZE + TAG_LENGTH];
+        byte[] nonce = new byte[NONCE_LENGTH];
+        long counter = 0;
+
+        long warmupEnd = System.nanoTime() + BENCHMARK_WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            sealOnce(suite, cipher, key, nonce, counter++, plaintext, output);
+        }
+        long bytes = 0;
+        long start = System.nanoTime();
+        long end = start + BENCHMARK_MEASURE_NANOS;
+        long now;
+        do {
+            sealOnce(suite, cipher, key, nonce, counter++, plaintext, output);
+            bytes += plaintext.length;
+            now = System.nanoTime();
+        } while (now < end);
+        return bytes / (double) (now - start);
+    }
+
+    // A fresh nonce every time: ChaCha20-Poly1305 refuses to re-init with the same key and nonce.
+    private static void sealOnce(CipherSuite suite, Cipher cipher, SecretKey key, byte[] nonce, long counter,
+                                 byte[] plaintext, byte[] output) throws GeneralSecurityException {
+        for (int i = NONCE_LENGTH - 1; i >= NONCE_LENGTH - 8; i--) {
+            nonce[i] = (byte) counter;
+            counter >>>= 8;
+        }
+        cipher.init(Cipher.ENCRYPT_MODE, key, suite.parameters(nonce, 0));
+        cipher.doFinal(plaintext, 0, plaintext.length, output, 0);
+    }
+}
@@ -0,0 +1,61 @@
+// src/main/java/com/application/Backend/CryptoContext.java
+package com.application.Backend;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shared crypto primitives for EncryptionService.
+ * Keeps one Cipher per transformation per thread (provider lookup is only paid once per thread)
+ * and a single seeded, non-blocking DRBG for IVs and key material.
+ */
+final class CryptoContext {
+
+    // One shared DRBG for the whole process. Seeded once from the OS; never blocks on entropy afterwards.
+    private static final SecureRandom RANDOM = createRandom();
+
+    // Per-thread cache of Cipher instances, keyed by transformation string.
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial(HashMap::new);
+
+    private CryptoContext() {}
+
+    private static SecureRandom createRandom() {
+        SecureRandom random;
+        try {
+            random = SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            // Older runtimes: fall back to the platform default, which is also non-blocking.
+            random = new SecureRandom();
+        }
+        random.nextBytes(new byte[1]); // Force seeding now instead of on the first message
+        System.out.println("[Crypto] Shared SecureRandom initialized: " + random.getAlgorithm());
+        return random;
+    }
+
+    /**
+     * Returns this thread's Cipher for the given transformation, creating it on first use.
+     * The caller must init() it before every use; the instance must not escape the calling thread.
+     */
+    static Cipher cipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /** Fills the given array with random bytes from the shared DRBG. */
+    static void nextBytes(byte[] bytes) {
+        RANDOM.nextBytes(bytes);
+    }
+
+    static SecureRandom random() {
+        return RANDOM;
+    }
+}
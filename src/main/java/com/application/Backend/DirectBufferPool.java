@@ -0,0 +1,99 @@
+// src/main/java/com/application/Backend/DirectBufferPool.java
+package com.application.Backend;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-classed pool of direct ByteBuffers for DataChannel frames.
+ *
+ * RTCDataChannel.send() hands a direct buffer's memory to the native layer as-is, while a heap buffer's
+ * array first has to be pinned or copied by JNI. Frames are therefore encoded straight into pooled direct
+ * buffers and the buffers are recycled once send() returns (the native side has copied the bytes by then).
+ *
+ * Classes are powers of two from MIN_CLASS_SIZE to MAX_CLASS_SIZE, each holding at most MAX_PER_CLASS idle
+ * buffers. Larger requests get an unpooled direct buffer of the exact size. The native send reads a direct
+ * buffer up to its capacity, so send a slice() of the written range, never the pooled buffer itself.
+ * Only ciphertext and public fields are meant to go in here: released buffers are not wiped.
+ */
+public final class DirectBufferPool {
+
+    static final int MIN_CLASS_SIZE = 1024;
+    static final int MAX_CLASS_SIZE = 256 * 1024; // Covers a 64 KiB file chunk with room for framing
+    private static final int MAX_PER_CLASS = 16;
+
+    /** Pool used for outgoing DataChannel frames and the coalescer's staging buffers. */
+    public static final DirectBufferPool SHARED = new DirectBufferPool();
+
+    private final Queue<ByteBuffer>[] idle;
+    private final AtomicInteger[] idleCounts;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    DirectBufferPool() {
+        int classes = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE) + 1;
+        idle = new Queue[classes];
+        idleCounts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            idle[i] = new ConcurrentLinkedQueue<>();
+            idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * A cleared direct buffer with at least minCapacity bytes (often more: limit it or slice what you write).
+     * Return it with release() when done; a buffer that is never released is simply garbage collected.
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        acquired.incrementAndGet();
+        if (minCapacity > MAX_CLASS_SIZE) {
+            oversized.incrementAndGet();
+            return ByteBuffer.allocateDirect(minCapacity);
+        }
+        int sizeClass = sizeClass(minCapacity);
+        ByteBuffer buffer = idle[sizeClass].poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(MIN_CLASS_SIZE << sizeClass);
+        }
+        idleCounts[sizeClass].decrementAndGet();
+        reused.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Returns a buffer obtained from acquire(). Buffers of a foreign size, and any beyond the per-class cap, are dropped. */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) return;
+        int capacity = buffer.capacity();
+        if (capacity < MIN_CLASS_SIZE || capacity > MAX_CLASS_SIZE || Integer.bitCount(capacity) != 1) return;
+        int sizeClass = sizeClass(capacity);
+        if (idleCounts[sizeClass].incrementAndGet() > MAX_PER_CLASS) {
+            idleCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        idle[sizeClass].offer(buffer);
+    }
+
+    /** Acquisitions served from an idle buffer, as a fraction of all acquisitions. */
+    public double hitRate() {
+        long total = acquired.get();
+        return (total == 0) ? 0 : (double) reused.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DirectBufferPool{acquired=%d, reused=%d, oversized=%d, hitRate=%.2f}",
+                acquired.get(), reused.get(), oversized.get(), hitRate());
+    }
+
+    private static int sizeClass(int size) {
+        int rounded = (size <= MIN_CLASS_SIZE) ? MIN_CLASS_SIZE : Integer.highestOneBit(size - 1) << 1;
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    }
+}
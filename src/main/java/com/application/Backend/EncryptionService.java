@@ -2,21 +2,36 @@
 package com.application.Backend;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory; // Needed for PBKDF2
-import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.PBEKeySpec;      // Needed for PBKDF2
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;         // Needed for PBKDF2
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey; // Already present
 import javax.crypto.spec.SecretKeySpec;
 
@@ -25,44 +40,258 @@ public class EncryptionService {
     // Constants for Symmetric Encryption and KDF
     private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
     private static final String SYMMETRIC_ALGORITHM = "AES";
-    private static final String SYMMETRIC_TRANSFORMATION = "AES/GCM/NoPadding";
+    // Message transformations come from the room's CipherSuite (AES-GCM unless negotiated otherwise)
     private static final int GCM_IV_LENGTH = 12;    // bytes
     private static final int GCM_TAG_LENGTH = 128;   // bits
     private static final int AES_KEY_LENGTH = 256;   // bits (deriving a 32-byte key)
     private static final int PBKDF2_ITERATIONS = 65536; // Standard iteration count
     private static final int SALT_LENGTH = 16;       // bytes
+    private static final int SESSION_ID_LENGTH = 16; // bytes, random per session, in front of COUNTER-mode blocks
+    private static final int COUNTER_HEADER_LENGTH = SESSION_ID_LENGTH + GCM_IV_LENGTH;
+    private static final String SESSION_KEY_MAC = "HmacSHA256";
+    private static final int MAX_COUNTER_SESSIONS = 256; // Per room; the least recently used session is forgotten beyond this
+    private static final byte[] SESSION_KEY_INFO = "e2ee-chat counter session key v1 ".getBytes(StandardCharsets.US_ASCII); // + suite name
+
+    // How message IVs are generated.
+    // RANDOM: 12 bytes from the shared DRBG, under the room key (default, works with any peer).
+    //         Block: IV + ciphertext + tag.
+    // COUNTER: a monotonic counter as nonce, under a key of our own for this session: HKDF-SHA256 of the room key,
+    //          salted with a random 128-bit session id that travels in front of every block. No RNG on the hot path,
+    //          and receivers can drop duplicates by comparing counters before decrypting. Room keys live as long as
+    //          their password, so the counter restarting at 0 every session must not meet the same key again; with
+    //          per-session keys, that takes two sessions drawing the same 128-bit id.
+    //          The separate key also binds the mode: a COUNTER block presented as RANDOM (or the other way round,
+    //          by flipping the unauthenticated flag) fails the tag check instead of skipping the replay check.
+    //          Block: session id + nonce (4 zero bytes + 8-byte counter) + ciphertext + tag.
+    public enum NonceMode { RANDOM, COUNTER }
+
+    // Batches with less output than this stay on the calling thread; forking costs more than it saves
+    static final int BATCH_PARALLEL_THRESHOLD = 256 * 1024;
+    private static final int BATCH_TASK_BYTES = 64 * 1024; // Work unit for the ForkJoin split
+
+    private static final int KEY_CACHE_CAPACITY = 8; // Derived room keys kept for fast switching back
+
+    // PBKDF2 runs here instead of on the caller's (usually the EDT) thread.
+    private static final ExecutorService KEY_DERIVATION_EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "room-key-derivation");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Precomputes keys of rooms with well-known passwords (public rooms). One thread at minimum priority,
+    // so it never competes with the UI or with a derivation the user is actually waiting for.
+    private static final ExecutorService KEY_PRECOMPUTE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "room-key-precompute");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // Key ring: one key per joined room, so every open room tab can keep decrypting its traffic.
+    // The encrypt/decrypt path only does ConcurrentHashMap reads (lock-free).
+    private final Map<String, KeyRingEntry> keyRing = new ConcurrentHashMap<>();
+    private volatile String activeKeyRoom; // Room used by the methods that take no room name
+    private final ChunkedFileCipher chunkedFileCipher = new ChunkedFileCipher();
+    private final RoomKeyCache keyCache = new RoomKeyCache(KEY_CACHE_CAPACITY);
+    // PBKDF2 runs in progress, by RoomKeyCache.cacheKey. A second request for the same room/password waits for it.
+    private final Map<String, PendingDerivation> pendingDerivations = new ConcurrentHashMap<>();
+    private volatile NonceMode nonceMode = NonceMode.RANDOM;
+    private final byte[] sessionId = new byte[SESSION_ID_LENGTH]; // Random, fixed for this session (COUNTER mode)
+    private final AtomicLong nonceCounter = new AtomicLong();
+
+    // Thrown by decrypt(String, String) when a COUNTER-mode frame has already been seen.
+    public static class ReplayedMessageException extends GeneralSecurityException {
+        private static final long serialVersionUID = 1L;
+        public ReplayedMessageException(String message) { super(message); }
+    }
+
+    private static final class KeyRingEntry {
+        final SecretKey key;
+        volatile long lastUsedMillis;
+        volatile CipherSuite suite = CipherSuite.AES_256_GCM; // Negotiated per room, see setRoomCipherSuite
+        private final SecretKey[] sendKeys = new SecretKey[CipherSuite.values().length]; // Our session's keys by suite; guarded by this
+        // Other members' COUNTER sessions in this room, by session id (Base64), least recently used first.
+        // Only authenticated sessions get here. Guarded by itself.
+        final Map<String, CounterSession> sessions = new LinkedHashMap<String, CounterSession>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, CounterSession> eldest) {
+                if (size() <= MAX_COUNTER_SESSIONS) return false;
+                // Its old frames would be accepted again as a new session; with this many sessions it is long gone
+                System.out.println("[Crypto] Forgetting idle COUNTER session " + eldest.getKey() + " (" + MAX_COUNTER_SESSIONS + " per room).");
+                eldest.getValue().destroy();
+                return true;
+            }
+        };
+
+        KeyRingEntry(SecretKey key) {
+            this.key = key;
+            this.lastUsedMillis = System.currentTimeMillis();
+        }
+
+        // Wipes the room key and every key derived from it.
+        void destroy() {
+            destroyQuietly(key);
+            destroyDerived();
+        }
+
+        void destroyDerived() {
+            synchronized (this) {
+                for (SecretKey sendKey : sendKeys) destroyQuietly(sendKey);
+            }
+            synchronized (sessions) {
+                sessions.values().forEach(CounterSession::destroy);
+                sessions.clear();
+            }
+        }
+    }
+
+    // One sender's COUNTER session in one room: its keys (derived on demand, by suite) and the replay state.
+    private static final class CounterSession {
+        final String id;
+        final SecretKey[] keys = new SecretKey[CipherSuite.values().length]; // Guarded by this
+        final ReplayWindow window = new ReplayWindow(); // Only moved by counters whose frame authenticated
+
+        CounterSession(String id) {
+            this.id = id;
+        }
+
+        synchronized void destroy() {
+            for (SecretKey key : keys) destroyQuietly(key);
+        }
+    }
+
+    public EncryptionService() {
+        CryptoContext.nextBytes(sessionId);
+    }
+
+    public NonceMode getNonceMode() {
+        return nonceMode;
+    }
+
+    public void setNonceMode(NonceMode nonceMode) {
+        this.nonceMode = (nonceMode != null) ? nonceMode : NonceMode.RANDOM;
+        System.out.println("[Crypto] Message nonce mode set to " + this.nonceMode);
+    }
 
-    private SecretKey roomSecretKey; // The single key for the room derived from password
     public boolean isRoomKeySet() {
-        return this.roomSecretKey != null;
+        String room = this.activeKeyRoom;
+        return room != null && keyRing.containsKey(room);
+    }
+
+    // --- Key ring management ---
+
+    /** Adds (or replaces) the key for a room. A replaced RoomKey is wiped. The ring takes ownership of the key. */
+    public void addRoomKey(String roomName, SecretKey key) {
+        KeyRingEntry previous = keyRing.put(roomName, new KeyRingEntry(key));
+        if (previous != null) {
+            if (previous.key != key) previous.destroy();
+            else previous.destroyDerived(); // The key itself stays in use
+        }
+        System.out.println("[Crypto] Key ring: added key for room '" + roomName + "' (" + keyRing.size() + " rooms).");
+    }
+
+    /** Removes and wipes the key for a room, e.g. when leaving it. */
+    public void removeRoomKey(String roomName) {
+        if (roomName == null) return;
+        KeyRingEntry removed = keyRing.remove(roomName);
+        if (removed != null) {
+            removed.destroy();
+            System.out.println("[Crypto] Key ring: removed key for room '" + roomName + "'.");
+        }
+        if (roomName.equals(this.activeKeyRoom)) this.activeKeyRoom = null;
+    }
+
+    /**
+     * Removes and wipes every key not used for encryption or decryption within maxIdleMillis.
+     * The active room's key is kept.
+     * @return Number of expired keys.
+     */
+    public int expireRoomKeys(long maxIdleMillis) {
+        long cutoff = System.currentTimeMillis() - maxIdleMillis;
+        int expired = 0;
+        for (Map.Entry<String, KeyRingEntry> entry : keyRing.entrySet()) {
+            if (entry.getValue().lastUsedMillis < cutoff && !entry.getKey().equals(this.activeKeyRoom)
+                    && keyRing.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().destroy();
+                expired++;
+            }
+        }
+        if (expired > 0) System.out.println("[Crypto] Key ring: expired " + expired + " idle room key(s).");
+        return expired;
+    }
+
+    /** Removes and wipes all room keys and cached derivations (logout / shutdown). */
+    public void clearRoomKeys() {
+        keyRing.keySet().forEach(this::removeRoomKey);
+        keyCache.clear();
+        this.activeKeyRoom = null;
+    }
+
+    public boolean hasRoomKey(String roomName) {
+        return roomName != null && keyRing.containsKey(roomName);
+    }
+
+    /** Selects which ring key the room-less methods (encrypt(String), decrypt(String), ...) use. */
+    public void setActiveRoom(String roomName) {
+        this.activeKeyRoom = roomName;
+    }
+
+    // Lock-free lookup used on every encrypt/decrypt.
+    private KeyRingEntry requireRoom(String roomName) {
+        KeyRingEntry entry = (roomName != null) ? keyRing.get(roomName) : null;
+        if (entry == null) throw new IllegalStateException("Room key not derived/initialized for room: " + roomName);
+        entry.lastUsedMillis = System.currentTimeMillis();
+        return entry;
+    }
+
+    private SecretKey requireActiveKey() {
+        return requireRoom(this.activeKeyRoom).key;
+    }
+
+    /**
+     * Sets the suite used to encrypt messages for the room (the result of CipherSuite.negotiate over its members).
+     * Decryption follows each message's own suite tag, so a switch never breaks messages already in flight.
+     */
+    public void setRoomCipherSuite(String roomName, CipherSuite suite) {
+        KeyRingEntry entry = (roomName != null) ? keyRing.get(roomName) : null;
+        if (entry != null && suite != null && entry.suite != suite) {
+            entry.suite = suite;
+            System.out.println("[Crypto] Room '" + roomName + "' now encrypts with " + suite);
+        }
+    }
+
+    /** Suite currently used to encrypt for the room; AES_256_GCM if the room has no key. */
+    public CipherSuite getRoomCipherSuite(String roomName) {
+        KeyRingEntry entry = (roomName != null) ? keyRing.get(roomName) : null;
+        return (entry != null) ? entry.suite : CipherSuite.AES_256_GCM;
+    }
+
+    /** Runs the one-time CipherSuite.preferred() measurement off the caller's thread. */
+    public static CompletableFuture<CipherSuite> selectPreferredCipherSuiteAsync() {
+        return CompletableFuture.supplyAsync(CipherSuite::preferred, KEY_DERIVATION_EXECUTOR);
+    }
+
+    /** Wipes a key from deriveRoomKeyAsync that the caller will not pass to addRoomKey (e.g. a superseded join). */
+    public void discardKey(SecretKey key) {
+        destroyQuietly(key);
+    }
+
+    private static void destroyQuietly(SecretKey key) {
+        if (key instanceof RoomKey) ((RoomKey) key).destroy();
     }
     // Derive the room key from password and room name (used as salt context)
     // Returns true on success, false on failure
+    // Runs PBKDF2 on the calling thread unless the key is already cached; prefer deriveRoomKeyAsync from the UI.
     public boolean deriveRoomKey(String roomName, String password) {
         try {
-            // **Salt Generation Strategy: **
-            // Ideally, salt should be unique per password *but* shareable.
-            // Simple strategy for now: Use roomName bytes directly as salt material.
-            // Weakness: Same room name -> same salt. A better approach would store/derive
-            // a unique salt per room if persistence was involved.
-            // Let's use first SALT_LENGTH bytes of UTF-8 encoded room name. Pad if needed.
-            byte[] salt = new byte[SALT_LENGTH];
-            byte[] roomNameBytes = roomName.getBytes(StandardCharsets.UTF_8);
-            System.arraycopy(roomNameBytes, 0, salt, 0, Math.min(roomNameBytes.length, SALT_LENGTH));
-            System.out.println("[Crypto] Using salt derived from room name for PBKDF2.");
-
-            // Create PBKDF2 key spec
-            KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, PBKDF2_ITERATIONS, AES_KEY_LENGTH);
-
-            // Get instance of SecretKeyFactory for PBKDF2
-            SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
-
-            // Generate the secret key (raw bytes)
-            byte[] secretBytes = factory.generateSecret(spec).getEncoded();
-
-            // Create the AES SecretKey object
-            this.roomSecretKey = new SecretKeySpec(secretBytes, SYMMETRIC_ALGORITHM);
-            System.out.println("[Crypto] Room key derived successfully using PBKDF2.");
+            RoomKey key = keyCache.get(roomName, password);
+            if (key == null) {
+                key = derive(roomName, password);
+                keyCache.put(roomName, password, key);
+            } else {
+                System.out.println("[Crypto] Room key for '" + roomName + "' served from cache.");
+            }
+            addRoomKey(roomName, key);
+            setActiveRoom(roomName);
             return true;
 
         } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
@@ -72,50 +301,605 @@ public class EncryptionService {
         }
     }
 
-    // Encrypt using the single room key
-    public String encrypt(String plaintext) throws Exception {
-        if (this.roomSecretKey == null) throw new IllegalStateException("Room key not derived/initialized.");
+    /**
+     * Derives the room key on the background key-derivation executor.
+     * A room/password pair derived earlier is answered from the LRU cache without running PBKDF2,
+     * and one whose derivation is already running (e.g. precomputeRoomKeys) waits for that instead of starting another.
+     * The returned key is not installed; pass it to addRoomKey() once the caller is ready to use it.
+     * @return A future completing with a key owned by the caller, or exceptionally if derivation failed.
+     */
+    public CompletableFuture<SecretKey> deriveRoomKeyAsync(String roomName, String password) {
+        RoomKey cached = keyCache.get(roomName, password);
+        if (cached != null) {
+            System.out.println("[Crypto] Room key for '" + roomName + "' served from cache.");
+            return CompletableFuture.completedFuture(cached);
+        }
+        return deriveIntoCache(roomName, password, KEY_DERIVATION_EXECUTOR).thenApply(v -> {
+            RoomKey key = keyCache.get(roomName, password);
+            if (key != null) return key;
+            try {
+                return derive(roomName, password); // Evicted again before we got to it (cache full); rare
+            } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
 
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        SecureRandom random = SecureRandom.getInstanceStrong();
-        random.nextBytes(iv);
+    /**
+     * Derives the keys of rooms whose passwords are known up front (the public rooms) into the key cache,
+     * one after another on a minimum-priority background thread. Joining one of them later is then a cache hit.
+     * Keys are only cached, not added to the key ring.
+     * @return A future that completes when every room has been processed (failures are logged, not propagated).
+     */
+    public CompletableFuture<Void> precomputeRoomKeys(Map<String, String> passwordsByRoom) {
+        CompletableFuture<?>[] derivations = passwordsByRoom.entrySet().stream()
+                .map(e -> deriveIntoCache(e.getKey(), e.getValue(), KEY_PRECOMPUTE_EXECUTOR)
+                        .exceptionally(ex -> {
+                            System.err.println("[Crypto] Precomputing key for '" + e.getKey() + "' failed: " + ex.getMessage());
+                            return null;
+                        }))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(derivations);
+    }
 
-        Cipher cipher = Cipher.getInstance(SYMMETRIC_TRANSFORMATION);
-        GCMParameterSpec gcmParamSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, this.roomSecretKey, gcmParamSpec);
+    // Runs PBKDF2 for the room on the executor and stores the key in keyCache, unless it is cached by then.
+    // Concurrent requests for the same room/password share one derivation. A request arriving while that
+    // derivation still waits in the precompute queue also submits it to its own executor; whichever
+    // thread gets to it first runs it, so the user never waits behind the background queue.
+    private CompletableFuture<Void> deriveIntoCache(String roomName, String password, ExecutorService executor) {
+        String id = RoomKeyCache.cacheKey(roomName, password);
+        PendingDerivation created = new PendingDerivation(id, roomName, password);
+        PendingDerivation existing = pendingDerivations.putIfAbsent(id, created);
+        PendingDerivation derivation = (existing != null) ? existing : created;
+        executor.execute(derivation); // No-op if another thread has already claimed it
+        return derivation.done;
+    }
 
-        byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+    private final class PendingDerivation implements Runnable {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final String id;
+        private final String roomName;
+        private final String password;
 
-        byte[] ivAndCiphertext = new byte[GCM_IV_LENGTH + ciphertext.length];
-        System.arraycopy(iv, 0, ivAndCiphertext, 0, GCM_IV_LENGTH);
-        System.arraycopy(ciphertext, 0, ivAndCiphertext, GCM_IV_LENGTH, ciphertext.length);
+        PendingDerivation(String id, String roomName, String password) {
+            this.id = id;
+            this.roomName = roomName;
+            this.password = password;
+        }
 
-        return Base64.getEncoder().encodeToString(ivAndCiphertext);
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) return;
+            try {
+                if (!keyCache.contains(roomName, password)) {
+                    RoomKey key = derive(roomName, password);
+                    keyCache.put(roomName, password, key); // Stores a copy
+                    key.destroy();
+                }
+                done.complete(null);
+            } catch (Throwable t) {
+                System.err.println("[Crypto] CRITICAL ERROR: Failed to derive room key: " + t.getMessage());
+                done.completeExceptionally(t);
+            } finally {
+                pendingDerivations.remove(id, this);
+            }
+        }
     }
 
-    // Decrypt using the single room key
+    // Runs PBKDF2 for the room. Expensive (PBKDF2_ITERATIONS rounds); keep it off the EDT.
+    private RoomKey derive(String roomName, String password) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        // **Salt Generation Strategy: **
+        // Ideally, salt should be unique per password *but* shareable.
+        // Simple strategy for now: Use roomName bytes directly as salt material.
+        // Weakness: Same room name -> same salt. A better approach would store/derive
+        // a unique salt per room if persistence was involved.
+        // Let's use first SALT_LENGTH bytes of UTF-8 encoded room name. Pad if needed.
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] roomNameBytes = roomName.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(roomNameBytes, 0, salt, 0, Math.min(roomNameBytes.length, SALT_LENGTH));
+        System.out.println("[Crypto] Using salt derived from room name for PBKDF2.");
+
+        // Create PBKDF2 key spec
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, PBKDF2_ITERATIONS, AES_KEY_LENGTH);
+        try {
+            // Get instance of SecretKeyFactory for PBKDF2
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
+
+            // Generate the secret key (raw bytes); RoomKey takes ownership of the array
+            RoomKey key = new RoomKey(factory.generateSecret(spec).getEncoded(), SYMMETRIC_ALGORITHM);
+            System.out.println("[Crypto] Room key derived successfully using PBKDF2.");
+            return key;
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // Encrypt using the active room's key
+    public String encrypt(String plaintext) throws Exception {
+        return encryptForRoom(this.activeKeyRoom, plaintext);
+    }
+
+    // Decrypt using the active room's key
     public String decrypt(String base64EncodedData) throws Exception {
-        if (this.roomSecretKey == null) throw new IllegalStateException("Room key not derived/initialized.");
+        return decryptForRoom(this.activeKeyRoom, base64EncodedData, null);
+    }
 
-        byte[] ivAndCiphertext = Base64.getDecoder().decode(base64EncodedData);
-        if (ivAndCiphertext.length < GCM_IV_LENGTH) {
+    /**
+     * Decrypts a message that was sealed in COUNTER nonce mode by the given sender.
+     * The counter is read from the nonce and checked against that session's replay window (ReplayWindow),
+     * so duplicate or replayed frames are rejected before any decryption work.
+     * @param base64EncodedData Session id + nonce + ciphertext, Base64 encoded.
+     * @param sender The sender the frame claims to come from (MessageData.sender).
+     * @throws ReplayedMessageException If the frame's counter was already accepted or is older than the window.
+     */
+    public String decrypt(String base64EncodedData, String sender) throws Exception {
+        if (sender == null) throw new IllegalArgumentException("Sender is required for COUNTER-mode decryption.");
+        return decryptForRoom(this.activeKeyRoom, base64EncodedData, sender);
+    }
+
+    /** Encrypts a chat message with the key (and current suite) of the given room from the key ring. */
+    public String encryptForRoom(String roomName, String plaintext) throws Exception {
+        return encryptForRoom(roomName, plaintext, null);
+    }
+
+    /** Same as encryptForRoom(String, String) with an explicit suite; null means the room's current suite. */
+    public String encryptForRoom(String roomName, String plaintext, CipherSuite suite) throws Exception {
+        return encryptForRoom(roomName, plaintext, suite, nonceMode);
+    }
+
+    /** Same as encryptForRoom(String, String, CipherSuite) with an explicit nonce mode (the one the message is tagged with). */
+    public String encryptForRoom(String roomName, String plaintext, CipherSuite suite, NonceMode mode) throws Exception {
+        KeyRingEntry room = requireRoom(roomName);
+        return Base64.getEncoder().encodeToString(seal(room, suiteFor(room, suite), mode, plaintext.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Decrypts a chat message with the key of the given room from the key ring, using the room's current suite.
+     * @param sender Non-null for COUNTER-mode frames (replay check, see decrypt(String, String)); null for RANDOM mode.
+     */
+    public String decryptForRoom(String roomName, String base64EncodedData, String sender) throws Exception {
+        return decryptForRoom(roomName, base64EncodedData, sender, null);
+    }
+
+    /** Same as decryptForRoom(String, String, String) for a message tagged with the given suite (null: room's suite). */
+    public String decryptForRoom(String roomName, String base64EncodedData, String sender, CipherSuite suite) throws Exception {
+        KeyRingEntry room = requireRoom(roomName);
+        suite = suiteFor(room, suite);
+
+        byte[] block = Base64.getDecoder().decode(base64EncodedData);
+        if (block.length < encryptedLength(0, (sender != null) ? NonceMode.COUNTER : NonceMode.RANDOM)) {
             throw new IllegalArgumentException("Invalid encrypted data: too short.");
         }
+        if (sender == null) {
+            return new String(open(suite, room.key, block, 0), StandardCharsets.UTF_8);
+        }
+        long counter = readLong(block, COUNTER_HEADER_LENGTH - 8);
+        CounterSession session = checkCounter(room, block, counter, sender);
+        byte[] decryptedBytes = open(suite, sessionKey(room, session, block, suite), block, SESSION_ID_LENGTH);
+        acceptCounter(room, session, counter, sender);
+        return new String(decryptedBytes, StandardCharsets.UTF_8);
+    }
 
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        System.arraycopy(ivAndCiphertext, 0, iv, 0, GCM_IV_LENGTH);
-        byte[] ciphertext = new byte[ivAndCiphertext.length - GCM_IV_LENGTH];
-        System.arraycopy(ivAndCiphertext, GCM_IV_LENGTH, ciphertext, 0, ciphertext.length);
+    /** Size of IV + ciphertext + tag produced for a plaintext of the given length (RANDOM nonce mode). */
+    public static int encryptedLength(int plaintextLength) {
+        return encryptedLength(plaintextLength, NonceMode.RANDOM);
+    }
 
-        Cipher cipher = Cipher.getInstance(SYMMETRIC_TRANSFORMATION);
-        GCMParameterSpec gcmParamSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.DECRYPT_MODE, this.roomSecretKey, gcmParamSpec);
+    /** Size of the block produced for a plaintext of the given length in the given nonce mode. */
+    public static int encryptedLength(int plaintextLength, NonceMode mode) {
+        return headerLength(mode) + plaintextLength + GCM_TAG_LENGTH / 8;
+    }
 
-        byte[] decryptedBytes = cipher.doFinal(ciphertext);
-        return new String(decryptedBytes, StandardCharsets.UTF_8);
+    /** Size of the plaintext contained in an IV + ciphertext + tag block of the given length (RANDOM nonce mode). */
+    public static int decryptedLength(int encryptedLength) {
+        return decryptedLength(encryptedLength, NonceMode.RANDOM);
+    }
+
+    /** Size of the plaintext contained in a block of the given length in the given nonce mode. */
+    public static int decryptedLength(int encryptedLength, NonceMode mode) {
+        return encryptedLength - headerLength(mode) - GCM_TAG_LENGTH / 8;
+    }
+
+    // Bytes in front of the ciphertext: the IV, and in COUNTER mode the session id before it.
+    private static int headerLength(NonceMode mode) {
+        return (mode == NonceMode.COUNTER) ? COUNTER_HEADER_LENGTH : GCM_IV_LENGTH;
     }
+
+    /**
+     * Encrypts all remaining bytes of src with the active room key and writes IV + ciphertext + tag into dst.
+     * Works on heap or direct buffers and never goes through Base64 or an intermediate array.
+     * @param src Plaintext; consumed up to its limit.
+     * @param dst Output; must have at least encryptedLength(src.remaining()) bytes remaining.
+     * @return Number of bytes written to dst.
+     * @throws Exception If room key is not set, dst is too small, or encryption fails.
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst) throws Exception {
+        return encrypt(this.activeKeyRoom, src, dst);
+    }
+
+    /** Same as encrypt(ByteBuffer, ByteBuffer), with the key and current suite of the given room. */
+    public int encrypt(String roomName, ByteBuffer src, ByteBuffer dst) throws Exception {
+        return encrypt(roomName, null, src, dst);
+    }
+
+    /** Same as encrypt(String, ByteBuffer, ByteBuffer) with an explicit suite; null means the room's current suite. */
+    public int encrypt(String roomName, CipherSuite suite, ByteBuffer src, ByteBuffer dst) throws Exception {
+        return encrypt(roomName, suite, null, src, dst);
+    }
+
     /**
-     * Encrypts data bytes using the current roomSecretKey.
+     * Same as encrypt(String, CipherSuite, ByteBuffer, ByteBuffer), also authenticating aad (not encrypted, not written).
+     * decrypt() must be given the same bytes. aad is consumed up to its limit; null means none.
+     */
+    public int encrypt(String roomName, CipherSuite suite, ByteBuffer aad, ByteBuffer src, ByteBuffer dst) throws Exception {
+        return encrypt(roomName, suite, nonceMode, aad, src, dst);
+    }
+
+    /**
+     * Same as encrypt(String, CipherSuite, ByteBuffer, ByteBuffer, ByteBuffer) in the given nonce mode, for callers
+     * that size dst (encryptedLength(int, NonceMode)) and tag the frame before encrypting.
+     */
+    public int encrypt(String roomName, CipherSuite suite, NonceMode mode, ByteBuffer aad, ByteBuffer src, ByteBuffer dst) throws Exception {
+        KeyRingEntry room = requireRoom(roomName);
+        suite = suiteFor(room, suite);
+        int needed = encryptedLength(src.remaining(), mode);
+        if (dst.remaining() < needed) {
+            throw new ShortBufferException("Output buffer too small: need " + needed + " bytes, have " + dst.remaining());
+        }
+        byte[] header = new byte[headerLength(mode)];
+        SecretKey key = writeHeader(room, suite, mode, header, 0);
+        dst.put(header);
+
+        Cipher cipher = suite.init(Cipher.ENCRYPT_MODE, key, header, header.length - GCM_IV_LENGTH);
+        if (aad != null) cipher.updateAAD(aad);
+        return header.length + cipher.doFinal(src, dst);
+    }
+
+    /**
+     * Decrypts an IV + ciphertext + tag block (all remaining bytes of src) into dst.
+     * @param dst Output; must have at least decryptedLength(src.remaining()) bytes remaining.
+     * @return Number of plaintext bytes written to dst.
+     * @throws Exception If room key is not set, the data is malformed, or authentication fails.
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst) throws Exception {
+        return decrypt(this.activeKeyRoom, src, dst, null);
+    }
+
+    /**
+     * Same as decrypt(ByteBuffer, ByteBuffer), but for COUNTER-mode frames from the given sender:
+     * replayed counters are rejected before decrypting. Pass a null sender for RANDOM-mode frames.
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst, String sender) throws Exception {
+        return decrypt(this.activeKeyRoom, src, dst, sender);
+    }
+
+    /** Same as decrypt(ByteBuffer, ByteBuffer, String), with the key and current suite of the given room. */
+    public int decrypt(String roomName, ByteBuffer src, ByteBuffer dst, String sender) throws Exception {
+        return decrypt(roomName, src, dst, sender, null);
+    }
+
+    /** Same as decrypt(String, ByteBuffer, ByteBuffer, String) for a frame tagged with the given suite (null: room's suite). */
+    public int decrypt(String roomName, ByteBuffer src, ByteBuffer dst, String sender, CipherSuite suite) throws Exception {
+        return decrypt(roomName, null, src, dst, sender, suite);
+    }
+
+    /**
+     * Same as decrypt(String, ByteBuffer, ByteBuffer, String, CipherSuite) for a frame sealed with associated data:
+     * fails authentication unless aad holds exactly the bytes passed to encrypt(). null means none.
+     */
+    public int decrypt(String roomName, ByteBuffer aad, ByteBuffer src, ByteBuffer dst, String sender, CipherSuite suite) throws Exception {
+        KeyRingEntry room = requireRoom(roomName);
+        suite = suiteFor(room, suite);
+        NonceMode mode = (sender != null) ? NonceMode.COUNTER : NonceMode.RANDOM;
+        if (src.remaining() < encryptedLength(0, mode)) {
+            throw new IllegalArgumentException("Invalid encrypted data: too short.");
+        }
+        byte[] header = new byte[headerLength(mode)];
+        src.get(header);
+
+        SecretKey key = room.key;
+        CounterSession session = null;
+        long counter = 0;
+        if (sender != null) {
+            counter = readLong(header, COUNTER_HEADER_LENGTH - 8);
+            session = checkCounter(room, header, counter, sender);
+            key = sessionKey(room, session, header, suite);
+        }
+
+        Cipher cipher = suite.init(Cipher.DECRYPT_MODE, key, header, header.length - GCM_IV_LENGTH);
+        if (aad != null) cipher.updateAAD(aad);
+        int written = cipher.doFinal(src, dst);
+
+        if (session != null) acceptCounter(room, session, counter, sender);
+        return written;
+    }
+
+    // The sender session named by the block's first SESSION_ID_LENGTH bytes; throws if the counter was already accepted
+    // or is older than the session's replay window. A session seen for the first time is returned without being
+    // registered: only acceptCounter() adds it to the room, once a frame of it has authenticated, so frames with
+    // made-up session ids never take up memory.
+    private static CounterSession checkCounter(KeyRingEntry room, byte[] block, long counter, String sender) throws ReplayedMessageException {
+        String id = Base64.getEncoder().encodeToString(Arrays.copyOf(block, SESSION_ID_LENGTH));
+        CounterSession session;
+        synchronized (room.sessions) {
+            session = room.sessions.get(id);
+        }
+        if (session == null) return new CounterSession(id);
+        if (!session.window.isFresh(counter)) {
+            throw new ReplayedMessageException("Rejected replayed message from " + sender + " (counter " + counter + ").");
+        }
+        return session;
+    }
+
+    // Only authenticated counters move the window; a concurrent duplicate loses the race here.
+    private static void acceptCounter(KeyRingEntry room, CounterSession session, long counter, String sender) throws ReplayedMessageException {
+        CounterSession registered;
+        synchronized (room.sessions) {
+            registered = room.sessions.putIfAbsent(session.id, session);
+        }
+        if (!((registered != null) ? registered : session).window.accept(counter)) {
+            throw new ReplayedMessageException("Rejected replayed message from " + sender + " (counter " + counter + ").");
+        }
+    }
+
+    // The session's key for the suite, derived from the room key and the session id at block[0] on first use.
+    private static SecretKey sessionKey(KeyRingEntry room, CounterSession session, byte[] block, CipherSuite suite) throws GeneralSecurityException {
+        synchronized (session) {
+            SecretKey key = session.keys[suite.ordinal()];
+            if (key == null) {
+                key = deriveSessionKey(room.key, block, suite);
+                session.keys[suite.ordinal()] = key;
+            }
+            return key;
+        }
+    }
+
+    // Our own session's key for the suite in this room.
+    private SecretKey sendKey(KeyRingEntry room, CipherSuite suite) throws GeneralSecurityException {
+        synchronized (room) {
+            SecretKey key = room.sendKeys[suite.ordinal()];
+            if (key == null) {
+                key = deriveSessionKey(room.key, sessionId, suite);
+                room.sendKeys[suite.ordinal()] = key;
+            }
+            return key;
+        }
+    }
+
+    // HKDF-SHA256 (RFC 5869): extract with the session id (sessionId[0 .. SESSION_ID_LENGTH)) as salt and the room key
+    // as input, expand one block with the suite in the info, so a session uses separate keys for separate algorithms.
+    private static RoomKey deriveSessionKey(SecretKey roomKey, byte[] sessionId, CipherSuite suite) throws GeneralSecurityException {
+        byte[] roomKeyBytes = roomKey.getEncoded();
+        byte[] prk = null;
+        try {
+            Mac mac = Mac.getInstance(SESSION_KEY_MAC);
+            mac.init(new SecretKeySpec(sessionId, 0, SESSION_ID_LENGTH, SESSION_KEY_MAC));
+            prk = mac.doFinal(roomKeyBytes);
+            mac.init(new SecretKeySpec(prk, SESSION_KEY_MAC));
+            mac.update(SESSION_KEY_INFO);
+            mac.update(suite.name().getBytes(StandardCharsets.US_ASCII));
+            mac.update((byte) 1);
+            return new RoomKey(mac.doFinal(), SYMMETRIC_ALGORITHM); // 32 bytes: one HMAC-SHA256 block is the whole key
+        } finally {
+            Arrays.fill(roomKeyBytes, (byte) 0);
+            if (prk != null) Arrays.fill(prk, (byte) 0);
+        }
+    }
+
+    // --- Batch API ---
+
+    /** encryptBatch(String, CipherSuite, List) with the room's current suite. */
+    public List<ByteBuffer> encryptBatch(String roomName, List<ByteBuffer> plaintexts) throws Exception {
+        return encryptBatch(roomName, null, plaintexts);
+    }
+
+    /**
+     * Encrypts many payloads for one room in a single call (history export, flushing queued messages).
+     * The room key and suite are looked up once, all IVs are generated in one go, and every result is
+     * written into one shared output array instead of one allocation per message. Large batches are
+     * split across the common ForkJoinPool; each worker reuses its thread's Cipher.
+     * @param plaintexts Remaining bytes of each buffer are encrypted; the buffers' positions are not changed.
+     * @return IV + ciphertext + tag per payload (session id first in COUNTER mode), in input order, as views of one shared array.
+     * @throws Exception If the room has no key or any payload fails to encrypt (no partial result is returned).
+     */
+    public List<ByteBuffer> encryptBatch(String roomName, CipherSuite suite, List<ByteBuffer> plaintexts) throws Exception {
+        KeyRingEntry room = requireRoom(roomName);
+        CipherSuite batchSuite = suiteFor(room, suite);
+        NonceMode mode = nonceMode;
+        SecretKey key = (mode == NonceMode.COUNTER) ? sendKey(room, batchSuite) : room.key;
+        int ivOffset = headerLength(mode) - GCM_IV_LENGTH;
+        int count = plaintexts.size();
+        ByteBuffer[] inputs = plaintexts.toArray(new ByteBuffer[0]);
+
+        int[] offsets = new int[count + 1];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = (int) total;
+            total += encryptedLength(inputs[i].remaining(), mode);
+            if (total > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Batch too large for one call (" + total + "+ bytes); split it.");
+        }
+        offsets[count] = (int) total;
+        byte[] arena = new byte[(int) total];
+        writeHeaders(mode, arena, offsets, count);
+
+        runBatch(offsets, (i) -> {
+            Cipher cipher = batchSuite.init(Cipher.ENCRYPT_MODE, key, arena, offsets[i] + ivOffset);
+            int start = offsets[i] + ivOffset + GCM_IV_LENGTH;
+            cipher.doFinal(inputs[i].duplicate(), ByteBuffer.wrap(arena, start, offsets[i + 1] - start));
+        });
+        return views(arena, offsets, count);
+    }
+
+    /** decryptBatch(String, List, String, CipherSuite) with the room's current suite. */
+    public List<ByteBuffer> decryptBatch(String roomName, List<ByteBuffer> frames, String sender) throws Exception {
+        return decryptBatch(roomName, frames, sender, null);
+    }
+
+    /**
+     * Decrypts many IV + ciphertext + tag frames of one room in a single call, the counterpart of encryptBatch.
+     * Plaintexts share one output array; large batches are decrypted in parallel.
+     * @param frames Remaining bytes of each buffer are one frame; the buffers' positions are not changed.
+     * @param sender Non-null for COUNTER-mode frames from that sender: every frame's counter must be fresh in its
+     *               session's replay window and unique in the batch (checked before decrypting).
+     *               The replay window only moves once the whole batch has authenticated.
+     * @return Plaintext per frame, in input order, as views of one shared array.
+     * @throws Exception If the room has no key, a frame is malformed or replayed, or any frame fails authentication.
+     */
+    public List<ByteBuffer> decryptBatch(String roomName, List<ByteBuffer> frames, String sender, CipherSuite suite) throws Exception {
+        KeyRingEntry room = requireRoom(roomName);
+        CipherSuite batchSuite = suiteFor(room, suite);
+        NonceMode mode = (sender != null) ? NonceMode.COUNTER : NonceMode.RANDOM;
+        int headerLength = headerLength(mode);
+        int count = frames.size();
+        ByteBuffer[] inputs = frames.toArray(new ByteBuffer[0]);
+
+        int[] offsets = new int[count + 1];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            if (inputs[i].remaining() < encryptedLength(0, mode)) {
+                throw new IllegalArgumentException("Invalid encrypted data in batch item " + i + ": too short.");
+            }
+            offsets[i] = (int) total;
+            total += decryptedLength(inputs[i].remaining(), mode);
+            if (total > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Batch too large for one call (" + total + "+ bytes); split it.");
+        }
+        offsets[count] = (int) total;
+
+        byte[][] headers = new byte[count][headerLength];
+        SecretKey[] keys = new SecretKey[count];
+        for (int i = 0; i < count; i++) {
+            inputs[i].duplicate().get(headers[i]);
+            keys[i] = room.key;
+        }
+        // Counters per session in this batch; like single frames, each must be fresh, and no counter may appear twice.
+        // Sessions are looked up by id, so several frames of a session not yet registered share one CounterSession.
+        Map<String, CounterSession> batchSessions = new HashMap<>();
+        Map<CounterSession, TreeSet<Long>> countersBySession = new HashMap<>();
+        if (sender != null) {
+            for (int i = 0; i < count; i++) {
+                long counter = readLong(headers[i], COUNTER_HEADER_LENGTH - 8);
+                CounterSession checked = checkCounter(room, headers[i], counter, sender);
+                CounterSession session = batchSessions.computeIfAbsent(checked.id, id -> checked);
+                if (!countersBySession.computeIfAbsent(session, s -> new TreeSet<>()).add(counter)) {
+                    throw new ReplayedMessageException("Rejected replayed message from " + sender + " (counter " + counter + ").");
+                }
+                keys[i] = sessionKey(room, session, headers[i], batchSuite);
+            }
+        }
+
+        byte[] arena = new byte[(int) total];
+        runBatch(offsets, (i) -> {
+            Cipher cipher = batchSuite.init(Cipher.DECRYPT_MODE, keys[i], headers[i], headerLength - GCM_IV_LENGTH);
+            ByteBuffer frame = inputs[i].duplicate();
+            frame.position(frame.position() + headerLength);
+            cipher.doFinal(frame, ByteBuffer.wrap(arena, offsets[i], offsets[i + 1] - offsets[i]));
+        });
+
+        for (Map.Entry<CounterSession, TreeSet<Long>> session : countersBySession.entrySet()) {
+            for (long counter : session.getValue()) { // Oldest first, so the window does not slide past any of them
+                acceptCounter(room, session.getKey(), counter, sender);
+            }
+        }
+        return views(arena, offsets, count);
+    }
+
+    // Fills the header at the start of every batch item: one counter reservation or one DRBG call for the whole batch.
+    private void writeHeaders(NonceMode mode, byte[] arena, int[] offsets, int count) {
+        if (mode == NonceMode.COUNTER) {
+            long first = nonceCounter.getAndAdd(count);
+            if (first < 0 || first + count < 0) throw new IllegalStateException("Nonce counter exhausted for this session.");
+            for (int i = 0; i < count; i++) {
+                writeCounterHeader(arena, offsets[i], first + i);
+            }
+        } else {
+            byte[] ivs = new byte[count * GCM_IV_LENGTH];
+            CryptoContext.nextBytes(ivs);
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(ivs, i * GCM_IV_LENGTH, arena, offsets[i], GCM_IV_LENGTH);
+            }
+        }
+    }
+
+    private static List<ByteBuffer> views(byte[] arena, int[] offsets, int count) {
+        List<ByteBuffer> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(ByteBuffer.wrap(arena, offsets[i], offsets[i + 1] - offsets[i]).slice());
+        }
+        return results;
+    }
+
+    private interface BatchItem {
+        void process(int index) throws Exception;
+    }
+
+    // Runs item 0..n-1 (offsets has n + 1 entries) on the calling thread, or on the common pool when the batch is large enough to pay for it.
+    private static void runBatch(int[] offsets, BatchItem item) throws Exception {
+        int count = offsets.length - 1;
+        if (offsets[count] < BATCH_PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            for (int i = 0; i < count; i++) {
+                item.process(i);
+            }
+            return;
+        }
+        try {
+            ForkJoinPool.commonPool().invoke(new BatchRangeTask(offsets, 0, count, new AtomicBoolean(), item));
+        } catch (BatchFailure e) {
+            Throwable cause = e;
+            // ForkJoin may rethrow a copy of the worker's exception wrapping the original one
+            while (cause instanceof BatchFailure && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            throw (cause instanceof Exception) ? (Exception) cause : e;
+        }
+    }
+
+    // Splits by bytes (not item count), so a few large payloads spread as well as many small ones.
+    private static final class BatchRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] offsets;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean failed;
+        private final BatchItem item;
+
+        BatchRangeTask(int[] offsets, int from, int to, AtomicBoolean failed, BatchItem item) {
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+            this.failed = failed;
+            this.item = item;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && offsets[to] - offsets[from] > BATCH_TASK_BYTES) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchRangeTask(offsets, from, mid, failed, item), new BatchRangeTask(offsets, mid, to, failed, item));
+                return;
+            }
+            try {
+                for (int i = from; i < to && !failed.get(); i++) {
+                    item.process(i);
+                }
+            } catch (RuntimeException e) {
+                failed.set(true);
+                throw e;
+            } catch (Exception e) {
+                failed.set(true);
+                throw new BatchFailure(e);
+            }
+        }
+    }
+
+    // Carries checked exceptions out of BatchRangeTask; unwrapped again in runBatch.
+    private static final class BatchFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        BatchFailure(Exception cause) { super(cause.getMessage(), cause); }
+    }
+
+    /**
+     * Encrypts data bytes using the active room's key.
      * Used for encrypting the one-time file key.
      * @param data The plaintext bytes.
      * @return Base64 encoded encrypted string.
@@ -125,26 +909,12 @@ public class EncryptionService {
         if (!isRoomKeySet()) {
             throw new IllegalStateException("Room key not derived/initialized. Cannot encrypt data.");
         }
-        // Using the same AES/GCM parameters as message encryption
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        SecureRandom random = SecureRandom.getInstanceStrong(); // Or just new SecureRandom()
-        random.nextBytes(iv);
-
-        Cipher cipher = Cipher.getInstance(SYMMETRIC_TRANSFORMATION);
-        GCMParameterSpec gcmParamSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, this.roomSecretKey, gcmParamSpec);
-
-        byte[] ciphertext = cipher.doFinal(data);
-
-        byte[] ivAndCiphertext = new byte[GCM_IV_LENGTH + ciphertext.length];
-        System.arraycopy(iv, 0, ivAndCiphertext, 0, GCM_IV_LENGTH);
-        System.arraycopy(ciphertext, 0, ivAndCiphertext, GCM_IV_LENGTH, ciphertext.length);
-
-        return Base64.getEncoder().encodeToString(ivAndCiphertext);
+        // Always AES-GCM: wrapped file keys are not tagged with a suite
+        return Base64.getEncoder().encodeToString(seal(CipherSuite.AES_256_GCM, requireActiveKey(), data));
     }
 
     /**
-     * Decrypts Base64 encoded data using the current roomSecretKey.
+     * Decrypts Base64 encoded data using the active room's key.
      * Used for decrypting the one-time file key.
      * @param base64EncodedData The Base64 encoded encrypted string.
      * @return The decrypted plaintext bytes.
@@ -158,23 +928,82 @@ public class EncryptionService {
         if (ivAndCiphertext.length < GCM_IV_LENGTH) {
             throw new IllegalArgumentException("Invalid encrypted data for key decryption: too short.");
         }
+        return open(CipherSuite.AES_256_GCM, requireActiveKey(), ivAndCiphertext, 0);
+    }
 
+    // Encrypts with the given key and a random IV into a single IV + ciphertext array.
+    // The cipher writes directly behind the IV in the output array, so the ciphertext is never copied.
+    private static byte[] seal(CipherSuite suite, SecretKey key, byte[] plaintext) throws Exception {
+        byte[] ivAndCiphertext = new byte[encryptedLength(plaintext.length)];
         byte[] iv = new byte[GCM_IV_LENGTH];
-        System.arraycopy(ivAndCiphertext, 0, iv, 0, GCM_IV_LENGTH);
-        byte[] ciphertext = new byte[ivAndCiphertext.length - GCM_IV_LENGTH];
-        System.arraycopy(ivAndCiphertext, GCM_IV_LENGTH, ciphertext, 0, ciphertext.length);
+        CryptoContext.nextBytes(iv);
+        System.arraycopy(iv, 0, ivAndCiphertext, 0, GCM_IV_LENGTH);
+
+        Cipher cipher = suite.init(Cipher.ENCRYPT_MODE, key, ivAndCiphertext, 0);
+        cipher.doFinal(plaintext, 0, plaintext.length, ivAndCiphertext, GCM_IV_LENGTH);
+        return ivAndCiphertext;
+    }
+
+    // Same for a room message in the given nonce mode: [session id +] IV + ciphertext + tag.
+    private byte[] seal(KeyRingEntry room, CipherSuite suite, NonceMode mode, byte[] plaintext) throws Exception {
+        byte[] block = new byte[encryptedLength(plaintext.length, mode)];
+        SecretKey key = writeHeader(room, suite, mode, block, 0);
+        int ivOffset = headerLength(mode) - GCM_IV_LENGTH;
+
+        Cipher cipher = suite.init(Cipher.ENCRYPT_MODE, key, block, ivOffset);
+        cipher.doFinal(plaintext, 0, plaintext.length, block, ivOffset + GCM_IV_LENGTH);
+        return block;
+    }
+
+    // Writes a fresh header at out[off] for the nonce mode and returns the key to encrypt under: a random IV and the
+    // room key, or our session id, the next counter and our session key.
+    private SecretKey writeHeader(KeyRingEntry room, CipherSuite suite, NonceMode mode, byte[] out, int off) throws GeneralSecurityException {
+        if (mode != NonceMode.COUNTER) {
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            CryptoContext.nextBytes(iv);
+            System.arraycopy(iv, 0, out, off, GCM_IV_LENGTH);
+            return room.key;
+        }
+        long counter = nonceCounter.getAndIncrement();
+        if (counter < 0) throw new IllegalStateException("Nonce counter exhausted for this session.");
+        writeCounterHeader(out, off, counter);
+        return sendKey(room, suite);
+    }
 
-        Cipher cipher = Cipher.getInstance(SYMMETRIC_TRANSFORMATION);
-        GCMParameterSpec gcmParamSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.DECRYPT_MODE, this.roomSecretKey, gcmParamSpec);
+    // Session id, then the nonce: 4 zero bytes and the counter, big-endian. Each session key sees each counter once.
+    private void writeCounterHeader(byte[] out, int off, long counter) {
+        System.arraycopy(sessionId, 0, out, off, SESSION_ID_LENGTH);
+        Arrays.fill(out, off + SESSION_ID_LENGTH, off + COUNTER_HEADER_LENGTH - 8, (byte) 0);
+        for (int i = off + COUNTER_HEADER_LENGTH - 1; i >= off + COUNTER_HEADER_LENGTH - 8; i--) {
+            out[i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
 
-        return cipher.doFinal(ciphertext);
+    private static CipherSuite suiteFor(KeyRingEntry room, CipherSuite requested) {
+        return (requested != null) ? requested : room.suite;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (b[off + i] & 0xFF);
+        }
+        return value;
+    }
+
+    // Decrypts an IV + ciphertext array (the IV at ivOffset) with the given key, reading both parts in place.
+    private static byte[] open(CipherSuite suite, SecretKey key, byte[] block, int ivOffset) throws Exception {
+        Cipher cipher = suite.init(Cipher.DECRYPT_MODE, key, block, ivOffset);
+        int start = ivOffset + GCM_IV_LENGTH;
+        return cipher.doFinal(block, start, block.length - start);
     }
 
 
     /**
-     * Encrypts a file stream using a provided symmetric key (e.g., a one-time key).
-     * Writes the encrypted output to another file.
+     * Encrypts a file using a provided symmetric key (e.g., a one-time key).
+     * Writes the chunked container (see ChunkedFileCipher), so the receiver can decrypt it in bounded memory
+     * whatever its size; decryptFileWithGivenKey detects the format.
      *
      * @param inputFile The original file to encrypt.
      * @param outputFile The file to write encrypted content to.
@@ -182,38 +1011,15 @@ public class EncryptionService {
      * @throws Exception On any error during file I/O or encryption.
      */
     public void encryptFileWithGivenKey(File inputFile, File outputFile, byte[] keyBytes) throws Exception {
-        SecretKey secretKey = new SecretKeySpec(keyBytes, SYMMETRIC_ALGORITHM); // "AES"
-
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        SecureRandom random = SecureRandom.getInstanceStrong();
-        random.nextBytes(iv);
-
-        Cipher cipher = Cipher.getInstance(SYMMETRIC_TRANSFORMATION); // "AES/GCM/NoPadding"
-        GCMParameterSpec gcmParamSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmParamSpec);
-
-        try (FileInputStream fis = new FileInputStream(inputFile);
-             FileOutputStream fos = new FileOutputStream(outputFile)) {
-
-            // Write IV to the beginning of the output file
-            fos.write(iv);
-
-            // Use CipherOutputStream to encrypt and write
-            try (CipherOutputStream cos = new CipherOutputStream(fos, cipher)) {
-                byte[] buffer = new byte[8192]; // 8KB buffer
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    cos.write(buffer, 0, bytesRead);
-                }
-            } // CipherOutputStream will call doFinal on close
-        }
+        encryptFileChunked(inputFile, outputFile, keyBytes);
         System.out.println("[EncryptionService] File encrypted successfully with one-time key: " + outputFile.getName());
     }
 
     /**
-     * Decrypts a file stream using a provided symmetric key (e.g., a one-time key).
+     * Decrypts a file using a provided symmetric key (e.g., a one-time key).
      * Writes the decrypted output to another file.
-     * Assumes the IV is prepended to the encrypted file.
+     * Chunked containers are decrypted chunk by chunk (memory use independent of the file size). Files in the
+     * older single-stream format (IV prepended, one GCM operation) are still accepted; GCM buffers those whole.
      *
      * @param inputFile The encrypted file.
      * @param outputFile The file to write decrypted content to.
@@ -221,31 +1027,51 @@ public class EncryptionService {
      * @throws Exception On any error during file I/O or decryption.
      */
     public void decryptFileWithGivenKey(File inputFile, File outputFile, byte[] keyBytes) throws Exception {
-        SecretKey secretKey = new SecretKeySpec(keyBytes, SYMMETRIC_ALGORITHM);
+        if (ChunkedFileCipher.isChunkedFile(inputFile)) {
+            decryptFileChunked(inputFile, outputFile, keyBytes);
+            return;
+        }
+        NioFileCipher.decrypt(inputFile, outputFile, new SecretKeySpec(keyBytes, SYMMETRIC_ALGORITHM)); // Legacy single-stream file
+        System.out.println("[EncryptionService] File decrypted successfully with one-time key: " + outputFile.getName());
+    }
 
-        try (FileInputStream fis = new FileInputStream(inputFile);
-             FileOutputStream fos = new FileOutputStream(outputFile)) {
+    /**
+     * Encrypts a file into the chunked container format (see ChunkedFileCipher):
+     * chunks are sealed in parallel and a partially written outputFile is resumed.
+     */
+    public void encryptFileChunked(File inputFile, File outputFile, byte[] keyBytes) throws Exception {
+        runChunked(() -> chunkedFileCipher.encrypt(inputFile, outputFile, keyBytes));
+    }
 
-            // Read IV from the beginning of the input file
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            int ivBytesRead = fis.read(iv);
-            if (ivBytesRead < GCM_IV_LENGTH) {
-                throw new IOException("Encrypted file is too short to contain IV.");
-            }
+    /** Decrypts a chunked container in parallel. Fails if any chunk does not authenticate. */
+    public void decryptFileChunked(File inputFile, File outputFile, byte[] keyBytes) throws Exception {
+        runChunked(() -> chunkedFileCipher.decrypt(inputFile, outputFile, keyBytes));
+    }
 
-            Cipher cipher = Cipher.getInstance(SYMMETRIC_TRANSFORMATION);
-            GCMParameterSpec gcmParamSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, gcmParamSpec);
+    /**
+     * Decrypts a chunked-format stream (e.g. a file still arriving from a peer) segment by segment.
+     * Plaintext is only released after its segment authenticates; memory use is one chunk.
+     * Reading fails with an IOException at the first tampered or missing segment.
+     */
+    public InputStream openDecryptingStream(InputStream encrypted, byte[] keyBytes) {
+        return new ChunkedDecryptingInputStream(encrypted, keyBytes);
+    }
 
-            // Use CipherInputStream to decrypt and read
-            try (CipherInputStream cis = new CipherInputStream(fis, cipher)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = cis.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                }
+    private interface ChunkedOperation {
+        void run() throws Exception;
+    }
+
+    // Rethrows the original checked exception (e.g. AEADBadTagException) instead of the ForkJoin wrapper.
+    private static void runChunked(ChunkedOperation operation) throws Exception {
+        try {
+            operation.run();
+        } catch (ChunkedFileCipher.ChunkFailure e) {
+            Throwable cause = e;
+            // ForkJoin may rethrow a copy of the worker's exception wrapping the original one
+            while (cause instanceof ChunkedFileCipher.ChunkFailure && cause.getCause() != null) {
+                cause = cause.getCause();
             }
+            throw (cause instanceof Exception) ? (Exception) cause : e;
         }
-        System.out.println("[EncryptionService] File decrypted successfully with one-time key: " + outputFile.getName());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,972 @@
+// src/main/java/com/application/Backend/FileTransferManager.java
+package com.application.Backend;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Peer-to-peer transfer of shared files over the bulk DataChannel, swarm style.
+ *
+ * Sharing hashes the file into a MerkleTree (in parallel, while reading it) and registers it under a random
+ * transfer id; nothing is sent until someone asks. The FILE_SHARE_OFFER carries downloadUrl "p2p:<id>", the
+ * Merkle root as fileHash and, as encryptedFileKey, a one-time AES key plus a ChunkedFileCipher header
+ * wrapped with the room key.
+ *
+ * A downloader first fetches the tree's leaves (one hash per chunk) from the sharer, or from any member once
+ * the sharer is slow or gone, and checks them against the root. Chunks the target file already holds and
+ * that match their leaf are kept, so downloading to the same file again resumes an interrupted download.
+ *
+ * Everyone holding (part of) a transfer forms its swarm. A downloader sends its bitfield (the chunks it holds)
+ * to every room member when it starts; members of the same swarm answer with their own, and from then on
+ * everyone tells the others about each chunk it stores with a small KIND_HAVE frame. A downloader pulls chunks
+ * from all members in parallel, at most PER_SOURCE_WINDOW outstanding per member and WINDOW_CHUNKS in total,
+ * taking the chunks fewest members hold first (rarest-first, over a random sample of SCAN_LIMIT missing chunks
+ * so the cost does not grow with the file). The original sharer's uplink is split between all downloaders: each
+ * keeps only its share of a window outstanding there, and only for chunks nobody else has yet, so the sharer
+ * uploads not much more than one copy however large the room is. Each chunk is authenticated, written to its
+ * place in the target file and from then on served to others; a finished download keeps seeding until clear().
+ * Every member holds the room key and so could forge chunks that authenticate; checking each chunk against its
+ * leaf as well pins it to what the sharer hashed, whichever member it came from.
+ *
+ * Chunks are sealed on demand with the transfer's key and per-chunk nonce, so every member produces the same
+ * ciphertext for a chunk and no encrypted copy of the file is ever written.
+ *
+ * Bulk frames (MessageCodec version 5 header, then):
+ *   KIND_REQUEST   transfer id (16), chunk indices (int each, at most MAX_REQUEST_CHUNKS)
+ *   KIND_CHUNK     transfer id (16), chunk index (int), sealed chunk (plaintext + 16 byte tag)
+ *   KIND_REFUSED   transfer id (16) - the sender does not serve this transfer (any more)
+ *   KIND_BITFIELD  transfer id (16), first chunk (int), bitmap of the chunks from there on that it holds
+ *                  (bit j of byte j / 8, least significant first, is chunk first + j)
+ *   KIND_HAVE      transfer id (16), chunk index (int) - the sender now holds this chunk
+ *   KIND_HASH_REQUEST  transfer id (16) - asks for the leaves (only members that verified them answer)
+ *   KIND_HASHES    transfer id (16), first leaf (int), leaves (HASH_LENGTH each, at most MAX_HASHES_PER_FRAME)
+ */
+public final class FileTransferManager {
+
+    static final int KIND_REQUEST = 1;
+    static final int KIND_CHUNK = 2;
+    static final int KIND_REFUSED = 3;
+    static final int KIND_BITFIELD = 4;
+    static final int KIND_HAVE = 5;
+    static final int KIND_HASH_REQUEST = 6;
+    static final int KIND_HASHES = 7;
+
+    static final String URL_SCHEME = "p2p:";
+    static final int KEY_LENGTH = 32;
+    static final int KEY_MATERIAL_LENGTH = KEY_LENGTH + ChunkedFileCipher.HEADER_LENGTH; // One-time key || chunk header
+    static final int WINDOW_CHUNKS = 64;       // Per download over all sources: 4 MiB in flight with 64 KiB chunks
+    static final int PER_SOURCE_WINDOW = 16;
+    private static final int MIN_ORIGIN_WINDOW = 2;
+    private static final int REQUEST_BATCH = 8; // Wait for this much room (at most half the window) at a source before asking it again
+    private static final int MAX_REQUEST_CHUNKS = 64;
+    private static final int SCAN_LIMIT = 4096; // Missing chunks looked at per rarest-first pick
+    private static final int MAX_WIRE_CHUNK_SIZE = 128 * 1024; // A sealed chunk has to fit one SCTP message (256 KiB in libwebrtc)
+    private static final int MAX_BITFIELD_BYTES = 32 * 1024;   // Per frame; bitfields of larger files go out in pieces
+    private static final int MAX_HASHES_PER_FRAME = 2048;      // 64 KiB of leaves
+    private static final int ID_LENGTH = 16;
+    private static final int FRAME_PREFIX = MessageCodec.BULK_HEADER_LENGTH + ID_LENGTH;
+    private static final long TICK_MILLIS = 250;
+    private static final long STALL_MILLIS = 5000; // A source that sent nothing for this long gets its requests moved elsewhere
+    private static final int MAX_STALLS = 3;       // ...and is dropped from the swarm after this many in a row
+
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** The bulk channels as seen by file transfers. */
+    interface BulkLink {
+        /** Peers whose bulk channel is usable right now. */
+        Collection<String> peers();
+        boolean isAvailable(String peerId);
+        void send(String peerId, ByteBuffer frame) throws Exception;
+    }
+
+    /** What the FILE_SHARE_OFFER has to carry for a file registered with share(). */
+    static final class Shared {
+        final String downloadUrl;
+        final String fileHash;    // Merkle root, Base64
+        final byte[] keyMaterial; // Wrap with the room key for encryptedFileKey, then wipe
+
+        Shared(String downloadUrl, String fileHash, byte[] keyMaterial) {
+            this.downloadUrl = downloadUrl;
+            this.fileHash = fileHash;
+            this.keyMaterial = keyMaterial;
+        }
+    }
+
+    // Sealing/serving, authenticating/writing and control frames all run here, off the native callback threads
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "file-transfer-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "file-transfer-ticker");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final BulkLink link;
+    private final Map<String, Swarm> swarms = new ConcurrentHashMap<>(); // By transfer id (hex)
+
+    FileTransferManager(BulkLink link) {
+        this.link = link;
+    }
+
+    /**
+     * Hashes the file and makes it available for download by room members until clear() is called.
+     * Blocks while hashing (the whole file is read once); call it off the EDT.
+     * @throws IOException If the file cannot be read.
+     */
+    Shared share(File file) throws Exception {
+        ChunkedFileCipher.Header header = ChunkedFileCipher.newHeader(file, ChunkedFileCipher.DEFAULT_CHUNK_SIZE);
+        byte[] id = new byte[ID_LENGTH];
+        CryptoContext.nextBytes(id);
+        byte[] keyMaterial = new byte[KEY_MATERIAL_LENGTH];
+        CryptoContext.nextBytes(keyMaterial); // The first KEY_LENGTH bytes are the one-time key; the header goes behind it
+        System.arraycopy(header.encoded, 0, keyMaterial, KEY_LENGTH, ChunkedFileCipher.HEADER_LENGTH);
+
+        long lastModified = Math.max(1, file.lastModified()); // Before hashing, so an edit while hashing shows up below
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        byte[] leaves;
+        long started = System.nanoTime();
+        try {
+            leaves = MerkleTree.leaves(channel, header.plaintextLength, header.chunkSize, ForkJoinPool.commonPool());
+            if (file.length() != header.plaintextLength || Math.max(1, file.lastModified()) != lastModified) {
+                throw new IOException(file.getName() + " changed while it was being hashed; share it again once it is saved.");
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        Swarm swarm = new Swarm(id, new SecretKeySpec(keyMaterial, 0, KEY_LENGTH, "AES"), header, file, channel);
+        swarm.leaves = leaves;
+        swarm.have.set(0, header.chunkCount());
+        swarm.servedLastModified = lastModified;
+        swarms.put(swarm.idHex, swarm);
+        System.out.printf("[FileTransfer] Sharing %s (%d bytes, %d chunk(s), hashed in %.2f s).%n", file.getName(),
+                header.plaintextLength, header.chunkCount(), (System.nanoTime() - started) / 1e9);
+        return new Shared(URL_SCHEME + swarm.idHex, Base64.getEncoder().encodeToString(MerkleTree.root(leaves)), keyMaterial);
+    }
+
+    /**
+     * Downloads a shared file into target, from the peer that offered it and from every other room member that
+     * holds parts of it. If target exists, the chunks it already holds correctly are kept and the rest replaced.
+     * @param keyMaterial The offer's unwrapped encryptedFileKey; not kept, the caller may wipe it once this returns.
+     * @param fileHash The offer's Merkle root (Base64).
+     * @return Completes with target once every chunk has been authenticated, checked against the file hash and
+     *         written. On failure target is kept for resuming if it existed before (it may hold an earlier attempt's
+     *         chunks) or any chunk was written; otherwise the file this call created is deleted.
+     */
+    CompletableFuture<File> download(String origin, String downloadUrl, byte[] keyMaterial, String fileHash, File target) {
+        CompletableFuture<File> result = new CompletableFuture<>();
+        try {
+            if (downloadUrl == null || !downloadUrl.startsWith(URL_SCHEME) || downloadUrl.length() != URL_SCHEME.length() + 2 * ID_LENGTH) {
+                throw new IllegalArgumentException("Not a peer-to-peer file offer: " + downloadUrl);
+            }
+            if (keyMaterial == null || keyMaterial.length != KEY_MATERIAL_LENGTH) {
+                throw new IllegalArgumentException("File key has the wrong length.");
+            }
+            byte[] root = (fileHash != null) ? Base64.getDecoder().decode(fileHash) : null;
+            if (root == null || root.length != MerkleTree.HASH_LENGTH) {
+                throw new IllegalArgumentException("The offer carries no valid file hash.");
+            }
+            byte[] id = unhex(downloadUrl.substring(URL_SCHEME.length()));
+            ChunkedFileCipher.Header header = ChunkedFileCipher.Header.parse(Arrays.copyOfRange(keyMaterial, KEY_LENGTH, KEY_MATERIAL_LENGTH));
+            if (header.chunkSize > MAX_WIRE_CHUNK_SIZE) {
+                throw new IOException("Chunk size " + header.chunkSize + " is too large for the bulk channel.");
+            }
+            if (!link.isAvailable(origin)) {
+                throw new IllegalStateException("No bulk connection to " + origin + " (offline, or on a version without file transfer).");
+            }
+            if (swarms.containsKey(hex(id))) {
+                throw new IllegalStateException("This file is already shared or being downloaded here.");
+            }
+            boolean createdTarget = !target.exists(); // Only a file we create may be deleted again on failure
+            FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE); // Not truncated: its chunks may already be right (checked once the leaves are in)
+            Swarm swarm = new Swarm(id, new SecretKeySpec(keyMaterial, 0, KEY_LENGTH, "AES"), header, target, channel);
+            // Everyone else in the room may be downloading from the sharer too
+            int originWindow = Math.max(MIN_ORIGIN_WINDOW, PER_SOURCE_WINDOW / Math.max(1, link.peers().size()));
+            swarm.download = new Download(origin, header.chunkCount(), originWindow, root, createdTarget, result);
+            if (swarms.putIfAbsent(swarm.idHex, swarm) != null) {
+                channel.close();
+                throw new IllegalStateException("This file is already shared or being downloaded here.");
+            }
+            synchronized (swarm) {
+                BitSet all = new BitSet();
+                all.set(0, header.chunkCount());
+                addMemberChunks(swarm, origin, all); // The sharer holds everything
+                swarm.download.hashSource = origin;
+                swarm.ticker = TICKER.scheduleWithFixedDelay(() -> tick(swarm), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            System.out.println("[FileTransfer] Downloading " + target.getName() + " from " + origin + " (" + header.plaintextLength + " bytes, " + header.chunkCount() + " chunk(s)).");
+            sendFrame(origin, KIND_HASH_REQUEST, id, null); // Chunks are requested once the leaves are in
+            for (String peerId : link.peers()) {
+                if (!peerId.equals(origin)) announceTo(swarm, peerId); // Finds the other members of the swarm
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /** Entry point for this manager's bulk frame kinds; the buffer is only read during the call. */
+    void onBulkFrame(String peerId, ByteBuffer frame) {
+        int kind = MessageCodec.bulkKind(frame);
+        ByteBuffer body = frame.duplicate();
+        body.position(body.position() + MessageCodec.BULK_HEADER_LENGTH);
+        if (kind < 0 || body.remaining() < ID_LENGTH) return;
+        byte[] id = new byte[ID_LENGTH];
+        body.get(id);
+        Swarm swarm = swarms.get(hex(id));
+        if (kind == KIND_CHUNK) { // Copied once, straight into a chunk buffer
+            if (swarm != null) onChunk(swarm, peerId, body);
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(body.remaining()).put(body); // Control frames are small
+        copy.flip();
+        EXECUTOR.execute(() -> {
+            switch (kind) {
+                case KIND_REQUEST:
+                    onRequest(swarm, peerId, id, copy);
+                    break;
+                case KIND_REFUSED:
+                    if (swarm != null) dropMember(swarm, peerId, "does not share this file");
+                    break;
+                case KIND_BITFIELD:
+                    if (swarm != null) onBitfield(swarm, peerId, copy);
+                    break;
+                case KIND_HAVE:
+                    if (swarm != null && copy.remaining() >= 4) onHave(swarm, peerId, copy.getInt());
+                    break;
+                case KIND_HASH_REQUEST:
+                    onHashRequest(swarm, peerId, id);
+                    break;
+                case KIND_HASHES:
+                    if (swarm != null) onHashes(swarm, peerId, copy);
+                    break;
+                default:
+                    System.err.println("[FileTransfer] Ignoring bulk frame of kind " + kind + " from " + peerId);
+            }
+        });
+    }
+
+    /** Forgets the peer in every swarm; downloads carry on from the remaining members. */
+    void removePeer(String peerId) {
+        for (Swarm swarm : new ArrayList<>(swarms.values())) dropMember(swarm, peerId, "left");
+    }
+
+    /** Stops sharing and seeding everything and cancels all downloads (e.g. when leaving the room). */
+    void clear() {
+        for (Swarm swarm : new ArrayList<>(swarms.values())) {
+            if (!fail(swarm, new IOException("Download cancelled."))) close(swarm);
+        }
+    }
+
+    /** Chunks this side has uploaded for the transfer so far, or -1 if it is not known here. */
+    long chunksServed(String downloadUrl) {
+        Swarm swarm = (downloadUrl != null && downloadUrl.startsWith(URL_SCHEME)) ? swarms.get(downloadUrl.substring(URL_SCHEME.length())) : null;
+        return (swarm != null) ? swarm.chunksServed.get() : -1;
+    }
+
+    // --- Serving ---
+
+    private void onRequest(Swarm swarm, String peerId, byte[] id, ByteBuffer body) {
+        if (swarm == null) {
+            sendFrame(peerId, KIND_REFUSED, id, null);
+            return;
+        }
+        int count = body.remaining() / 4;
+        if (count == 0 || count > MAX_REQUEST_CHUNKS) {
+            System.err.println("[FileTransfer] Ignoring bad chunk request from " + peerId + " (" + count + " chunks)");
+            return;
+        }
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) indices[i] = body.getInt();
+        serve(swarm, peerId, indices);
+    }
+
+    private void serve(Swarm swarm, String peerId, int[] indices) {
+        // Chunk nonces are tied to the header; sealing changed contents under it would reuse them. The mtime check
+        // catches most edits up front; the leaf check below catches the rest before anything is sealed.
+        long servedLastModified = swarm.servedLastModified;
+        if (servedLastModified != 0 && (swarm.file.length() != swarm.header.plaintextLength || Math.max(1, swarm.file.lastModified()) != servedLastModified)) {
+            System.err.println("[FileTransfer] " + swarm.file.getName() + " changed on disk; no longer serving it.");
+            close(swarm);
+            sendFrame(peerId, KIND_REFUSED, swarm.id, null);
+            return;
+        }
+        ChunkedFileCipher.Header h = swarm.header;
+        Scratch scratch = scratch(h.chunkSize);
+        byte[] plain = scratch.plain;
+        byte[] sealed = scratch.sealed;
+        try {
+            for (int index : indices) {
+                byte[] leaves;
+                synchronized (swarm) {
+                    if (index < 0 || index >= h.chunkCount() || !swarm.have.get(index)) continue; // Asked before our bitfield got there
+                    leaves = swarm.leaves; // Set before any chunk is in `have`
+                }
+                int plainLength = h.plaintextLength(index);
+                // The same chunk for several peers in a row (common with rarest-first) is sealed once. This is also
+                // required: the JDK refuses to run GCM with the key and nonce it used last on the same Cipher.
+                // Keyed by transfer id, since every holder of a transfer seals a chunk to the same bytes.
+                if (!swarm.idHex.equals(scratch.sealedId) || scratch.sealedIndex != index) {
+                    scratch.sealedId = null;
+                    ChunkedFileCipher.readFully(swarm.channel, ByteBuffer.wrap(plain, 0, plainLength), (long) index * h.chunkSize);
+                    if (!MerkleTree.matchesLeaf(leaves, index, plain, plainLength)) {
+                        IOException changed = new IOException("Chunk " + index + " of " + swarm.file.getName() + " changed on disk.");
+                        System.err.println("[FileTransfer] " + changed.getMessage() + " No longer serving it.");
+                        if (!fail(swarm, changed)) close(swarm);
+                        sendFrame(peerId, KIND_REFUSED, swarm.id, null);
+                        return;
+                    }
+                    ChunkedFileCipher.sealChunk(swarm.key, h, index, plain, plainLength, sealed);
+                    scratch.sealedId = swarm.idHex;
+                    scratch.sealedIndex = index;
+                }
+                int sealedLength = plainLength + ChunkedFileCipher.TAG_LENGTH;
+                ByteBuffer frame = DirectBufferPool.SHARED.acquire(FRAME_PREFIX + 4 + sealedLength);
+                try {
+                    MessageCodec.putBulkHeader(frame, KIND_CHUNK);
+                    frame.put(swarm.id).putInt(index).put(sealed, 0, sealedLength).flip();
+                    link.send(peerId, frame.slice());
+                } finally {
+                    DirectBufferPool.SHARED.release(frame);
+                }
+                swarm.chunksServed.incrementAndGet();
+            }
+        } catch (Exception e) { // The requester moves the chunks to another member after STALL_MILLIS
+            System.err.println("[FileTransfer] Stopped serving " + swarm.file.getName() + " to " + peerId + ": " + e.getMessage());
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    private void onHashRequest(Swarm swarm, String peerId, byte[] id) {
+        if (swarm == null) {
+            sendFrame(peerId, KIND_REFUSED, id, null);
+            return;
+        }
+        byte[] leaves;
+        synchronized (swarm) {
+            leaves = swarm.leaves;
+        }
+        if (leaves == null) return; // Still waiting for them ourselves; the requester asks someone else
+        int count = leaves.length / MerkleTree.HASH_LENGTH;
+        for (int first = 0; first < count; first += MAX_HASHES_PER_FRAME) {
+            int n = Math.min(MAX_HASHES_PER_FRAME, count - first);
+            ByteBuffer payload = ByteBuffer.allocate(4 + n * MerkleTree.HASH_LENGTH).putInt(first);
+            payload.put(leaves, first * MerkleTree.HASH_LENGTH, n * MerkleTree.HASH_LENGTH).flip();
+            if (!sendFrame(peerId, KIND_HASHES, id, payload)) return;
+        }
+    }
+
+    // --- Swarm membership ---
+
+    private void onBitfield(Swarm swarm, String peerId, ByteBuffer body) {
+        if (body.remaining() < 4) return;
+        int first = body.getInt();
+        int chunkCount = swarm.header.chunkCount();
+        if (first < 0 || first >= chunkCount) return;
+        BitSet announced = BitSet.valueOf(body);
+        BitSet chunks = new BitSet();
+        for (int j = announced.nextSetBit(0); j >= 0 && j < chunkCount - first; j = announced.nextSetBit(j + 1)) {
+            chunks.set(first + j);
+        }
+        boolean isNew;
+        List<Map.Entry<String, int[]>> requests = null;
+        synchronized (swarm) {
+            if (swarm.banned.contains(peerId)) return;
+            isNew = !swarm.members.containsKey(peerId);
+            addMemberChunks(swarm, peerId, chunks);
+            if (swarm.download != null) requests = planRequests(swarm);
+        }
+        if (isNew) announceTo(swarm, peerId); // So it can fetch from us too
+        if (requests != null) sendRequests(swarm, requests);
+    }
+
+    private void onHave(Swarm swarm, String peerId, int index) {
+        if (index < 0 || index >= swarm.header.chunkCount()) return;
+        boolean isNew;
+        List<Map.Entry<String, int[]>> requests = null;
+        synchronized (swarm) {
+            if (swarm.banned.contains(peerId)) return;
+            isNew = !swarm.members.containsKey(peerId);
+            BitSet chunk = new BitSet();
+            chunk.set(index);
+            addMemberChunks(swarm, peerId, chunk);
+            if (swarm.download != null) requests = planRequests(swarm);
+        }
+        if (isNew) announceTo(swarm, peerId); // Joined after we last looked (e.g. its hello crossed ours)
+        if (requests != null) sendRequests(swarm, requests);
+    }
+
+    // Called with the swarm's lock held. Members only ever gain chunks until they leave.
+    private static void addMemberChunks(Swarm swarm, String peerId, BitSet chunks) {
+        BitSet held = swarm.members.computeIfAbsent(peerId, k -> new BitSet());
+        Download d = swarm.download;
+        for (int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1)) {
+            if (!held.get(i)) {
+                held.set(i);
+                if (d != null) d.availability[i]++;
+            }
+        }
+    }
+
+    private void dropMember(Swarm swarm, String peerId, String reason) {
+        List<Map.Entry<String, int[]>> requests;
+        boolean orphaned;
+        synchronized (swarm) {
+            BitSet held = swarm.members.remove(peerId);
+            Download d = swarm.download;
+            if (held == null || d == null) return;
+            for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) d.availability[i]--;
+            Source source = d.sources.remove(peerId);
+            if (source != null) release(d, source);
+            orphaned = swarm.members.isEmpty();
+            requests = orphaned ? null : planRequests(swarm);
+        }
+        System.err.println("[FileTransfer] " + peerId + " " + reason + " (" + swarm.file.getName() + ").");
+        if (orphaned) fail(swarm, new IOException("No peer that holds the rest of the file is connected."));
+        else sendRequests(swarm, requests);
+    }
+
+    // For members that sent bad data: dropped, and not taken back when they announce chunks again.
+    private void banMember(Swarm swarm, String peerId, String reason) {
+        synchronized (swarm) {
+            swarm.banned.add(peerId);
+        }
+        dropMember(swarm, peerId, reason);
+    }
+
+    private void announceTo(Swarm swarm, String peerId) {
+        List<byte[]> pieces = new ArrayList<>();
+        synchronized (swarm) {
+            int chunkCount = swarm.header.chunkCount();
+            for (int first = 0; first < chunkCount; first += MAX_BITFIELD_BYTES * 8) {
+                pieces.add(swarm.have.get(first, Math.min(chunkCount, first + MAX_BITFIELD_BYTES * 8)).toByteArray());
+            }
+        }
+        for (int p = 0; p < pieces.size(); p++) {
+            byte[] bitmap = pieces.get(p);
+            if (p > 0 && bitmap.length == 0) continue; // Nothing held there; the first piece always goes out, as a hello
+            ByteBuffer payload = ByteBuffer.allocate(4 + bitmap.length).putInt(p * MAX_BITFIELD_BYTES * 8).put(bitmap);
+            payload.flip();
+            sendFrame(peerId, KIND_BITFIELD, swarm.id, payload);
+        }
+    }
+
+    // --- Downloading ---
+
+    private void onHashes(Swarm swarm, String peerId, ByteBuffer body) {
+        if (body.remaining() < 4) return;
+        int first = body.getInt();
+        int n = body.remaining() / MerkleTree.HASH_LENGTH;
+        Download d;
+        byte[] candidate = null;
+        synchronized (swarm) {
+            d = swarm.download;
+            if (d == null || swarm.leaves != null || !peerId.equals(d.hashSource) || d.leafBuffer == null) return;
+            int count = swarm.header.chunkCount();
+            if (first < 0 || n == 0 || n > count - first || body.remaining() != n * MerkleTree.HASH_LENGTH) {
+                System.err.println("[FileTransfer] Ignoring malformed leaf hashes from " + peerId);
+                return;
+            }
+            body.get(d.leafBuffer, first * MerkleTree.HASH_LENGTH, n * MerkleTree.HASH_LENGTH);
+            d.leavesReceived.set(first, first + n);
+            if (d.leavesReceived.cardinality() == count) {
+                candidate = d.leafBuffer;
+                d.leafBuffer = null; // Whatever else arrives is ignored
+            }
+        }
+        if (candidate == null) return;
+        if (!MessageDigest.isEqual(MerkleTree.root(candidate), d.root)) {
+            synchronized (swarm) {
+                if (swarm.download == d) d.resetLeaves(swarm.header.chunkCount());
+            }
+            banMember(swarm, peerId, "sent leaf hashes that do not match the offer"); // tick() asks another member
+            return;
+        }
+        acceptLeaves(swarm, d, candidate);
+    }
+
+    // Keeps the chunks the target already holds correctly, then starts requesting the rest.
+    private void acceptLeaves(Swarm swarm, Download d, byte[] leaves) {
+        ChunkedFileCipher.Header h = swarm.header;
+        BitSet present;
+        try {
+            present = MerkleTree.matchingChunks(swarm.channel, h.plaintextLength, h.chunkSize, leaves, ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            fail(swarm, e);
+            return;
+        }
+        boolean complete;
+        List<String> members = new ArrayList<>();
+        List<Map.Entry<String, int[]>> requests;
+        synchronized (swarm) {
+            if (swarm.download != d) return;
+            swarm.leaves = leaves;
+            for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+                swarm.have.set(i);
+                d.requested.set(i);
+                d.arrived.set(i);
+                d.stored++;
+                d.storedBytes += h.plaintextLength(i);
+            }
+            d.lastProgressNanos = System.nanoTime();
+            complete = d.stored == h.chunkCount();
+            if (!present.isEmpty()) members.addAll(swarm.members.keySet());
+            requests = complete ? null : planRequests(swarm);
+        }
+        if (!present.isEmpty()) {
+            System.out.println("[FileTransfer] Resuming " + swarm.file.getName() + ": " + present.cardinality() + " of " + h.chunkCount() + " chunk(s) already in place.");
+        }
+        for (String peerId : members) announceTo(swarm, peerId);
+        if (complete) finish(swarm, d);
+        else sendRequests(swarm, requests);
+    }
+
+    private void onChunk(Swarm swarm, String peerId, ByteBuffer body) {
+        if (body.remaining() < 4) return;
+        int index = body.getInt();
+        int sealedLength = body.remaining();
+        Download d;
+        synchronized (swarm) {
+            d = swarm.download;
+            // Only chunks we asked someone for, from a member, once each (a moved request may bring a second copy)
+            if (d == null || !swarm.members.containsKey(peerId) || index < 0 || index >= swarm.header.chunkCount()
+                    || !d.requested.get(index) || d.arrived.get(index)) {
+                return;
+            }
+            if (sealedLength != swarm.header.plaintextLength(index) + ChunkedFileCipher.TAG_LENGTH) {
+                System.err.println("[FileTransfer] Chunk " + index + " from " + peerId + " has the wrong length; ignored.");
+                return;
+            }
+            d.arrived.set(index);
+        }
+        byte[] sealed = d.takeBuffer(swarm.header);
+        body.get(sealed, 0, sealedLength);
+        EXECUTOR.execute(() -> store(swarm, d, peerId, index, sealed, sealedLength));
+    }
+
+    private void store(Swarm swarm, Download d, String peerId, int index, byte[] sealed, int sealedLength) {
+        int plainLength;
+        byte[] plain = scratch(swarm.header.chunkSize).plain;
+        try {
+            if (d.result.isDone()) return;
+            plainLength = ChunkedFileCipher.openChunk(swarm.key, swarm.header, index, sealed, sealedLength, plain);
+            if (!MerkleTree.matchesLeaf(swarm.leaves, index, plain, plainLength)) { // Leaves are in before any request goes out
+                throw new GeneralSecurityException("Chunk " + index + " does not match the file hash.");
+            }
+            ChunkedFileCipher.writeFully(swarm.channel, ByteBuffer.wrap(plain, 0, plainLength), (long) index * swarm.header.chunkSize);
+        } catch (GeneralSecurityException e) { // A member sent garbage or a forgery: stop using it and fetch the chunk elsewhere
+            synchronized (swarm) {
+                d.arrived.clear(index);
+                d.requested.clear(index);
+            }
+            banMember(swarm, peerId, "sent a bad chunk (" + e.getMessage() + ")");
+            return;
+        } catch (Exception e) {
+            fail(swarm, e);
+            return;
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+            d.free.offer(sealed);
+        }
+        boolean complete;
+        List<Map.Entry<String, int[]>> requests;
+        List<String> tell = new ArrayList<>();
+        synchronized (swarm) {
+            long now = System.nanoTime();
+            Source source = d.sources.get(peerId);
+            if (source != null && source.outstanding.get(index)) {
+                source.outstanding.clear(index);
+                source.inFlight--;
+                d.inFlight--;
+                source.lastChunkNanos = now;
+                source.stalls = 0;
+            }
+            swarm.have.set(index);
+            swarm.members.forEach((member, held) -> { if (!held.get(index)) tell.add(member); }); // Seeds need not know
+            d.stored++;
+            d.storedBytes += plainLength;
+            d.lastProgressNanos = now;
+            complete = d.stored == swarm.header.chunkCount();
+            requests = complete ? null : planRequests(swarm);
+        }
+        ByteBuffer have = ByteBuffer.allocate(4).putInt(index);
+        for (String member : tell) {
+            have.rewind();
+            sendFrame(member, KIND_HAVE, swarm.id, have);
+        }
+        if (complete) finish(swarm, d);
+        else sendRequests(swarm, requests);
+    }
+
+    // Called with the swarm's lock held. Tops up every member that has room for at least a batch (or for all
+    // that is still unrequested), rarest chunks first. Returns the requests to send once the lock is released.
+    private static List<Map.Entry<String, int[]>> planRequests(Swarm swarm) {
+        Download d = swarm.download;
+        List<Map.Entry<String, int[]>> requests = new ArrayList<>();
+        if (swarm.leaves == null) return requests; // Chunks could not be checked yet
+        int unrequested = swarm.header.chunkCount() - d.requested.cardinality();
+        for (Map.Entry<String, BitSet> member : swarm.members.entrySet()) {
+            if (unrequested == 0) break;
+            Source source = d.sources.computeIfAbsent(member.getKey(), k -> new Source());
+            boolean isOrigin = member.getKey().equals(d.origin);
+            int window = isOrigin ? d.originWindow : PER_SOURCE_WINDOW;
+            int room = Math.min(window - source.inFlight, WINDOW_CHUNKS - d.inFlight);
+            if (room < Math.min(Math.min(REQUEST_BATCH, (window + 1) / 2), unrequested)) continue;
+            int[] picked = pickRarest(swarm, d, member.getValue(), Math.min(room, MAX_REQUEST_CHUNKS), isOrigin);
+            if (picked.length == 0) continue;
+            if (source.inFlight == 0) source.lastChunkNanos = System.nanoTime(); // Its stall clock starts now
+            for (int index : picked) {
+                d.requested.set(index);
+                source.outstanding.set(index);
+            }
+            source.inFlight += picked.length;
+            d.inFlight += picked.length;
+            unrequested -= picked.length;
+            requests.add(new AbstractMap.SimpleImmutableEntry<>(member.getKey(), picked));
+        }
+        return requests;
+    }
+
+    // Up to `count` unrequested chunks the holder has, lowest availability first, out of at most SCAN_LIMIT
+    // candidates from a random starting chunk (so concurrent downloaders spread over the file). The original
+    // sharer is only asked for chunks no other member holds, unless the download has next to nothing in flight.
+    private static int[] pickRarest(Swarm swarm, Download d, BitSet holder, int count, boolean isOrigin) {
+        int chunkCount = swarm.header.chunkCount();
+        boolean onlyUnique = isOrigin && d.inFlight >= REQUEST_BATCH;
+        int[] candidates = new int[Math.min(SCAN_LIMIT, chunkCount)];
+        int found = 0;
+        int maxLevel = 0;
+        int start = ThreadLocalRandom.current().nextInt(chunkCount);
+        boolean wrapped = false;
+        int i = d.requested.nextClearBit(start);
+        for (int scanned = 0; scanned < SCAN_LIMIT; scanned++, i = d.requested.nextClearBit(i + 1)) {
+            if (!wrapped && i >= chunkCount) {
+                wrapped = true;
+                i = d.requested.nextClearBit(0);
+            }
+            if (wrapped && i >= start) break;
+            if (!holder.get(i) || (onlyUnique && d.availability[i] > 1)) continue;
+            candidates[found++] = i;
+            maxLevel = Math.max(maxLevel, d.availability[i]);
+        }
+        if (found <= count) return Arrays.copyOf(candidates, found);
+
+        // Find the availability level at which `count` is reached; take everything below it and fill up from it
+        int[] perLevel = new int[maxLevel + 1];
+        for (int k = 0; k < found; k++) perLevel[d.availability[candidates[k]]]++;
+        int cutoff = 0;
+        int below = 0;
+        while (below + perLevel[cutoff] < count) below += perLevel[cutoff++];
+        int fromCutoff = count - below;
+        int[] picked = new int[count];
+        int n = 0;
+        for (int k = 0; k < found && n < count; k++) {
+            int level = d.availability[candidates[k]];
+            if (level < cutoff || (level == cutoff && fromCutoff-- > 0)) picked[n++] = candidates[k];
+        }
+        return picked;
+    }
+
+    // Called with the swarm's lock held: gives a source's outstanding chunks back to the pool.
+    private static void release(Download d, Source source) {
+        for (int i = source.outstanding.nextSetBit(0); i >= 0; i = source.outstanding.nextSetBit(i + 1)) {
+            if (!d.arrived.get(i)) d.requested.clear(i);
+        }
+        source.outstanding.clear();
+        d.inFlight -= source.inFlight;
+        source.inFlight = 0;
+    }
+
+    private void sendRequests(Swarm swarm, List<Map.Entry<String, int[]>> requests) {
+        for (Map.Entry<String, int[]> request : requests) {
+            ByteBuffer payload = ByteBuffer.allocate(4 * request.getValue().length);
+            for (int index : request.getValue()) payload.putInt(index);
+            payload.flip();
+            if (!sendFrame(request.getKey(), KIND_REQUEST, swarm.id, payload)) {
+                dropMember(swarm, request.getKey(), "cannot be reached");
+            }
+        }
+    }
+
+    // Every TICK_MILLIS while downloading: move requests off stalled sources, and retry sources that had no
+    // chunk for us before. Until the leaves are in, asks another member for them when the current one is slow.
+    private void tick(Swarm swarm) {
+        String askForLeaves = null;
+        List<String> stalled = new ArrayList<>();
+        List<Map.Entry<String, int[]>> requests;
+        boolean giveUp;
+        synchronized (swarm) {
+            Download d = swarm.download;
+            if (d == null) return;
+            long now = System.nanoTime();
+            if (swarm.leaves == null && (!swarm.members.containsKey(d.hashSource)
+                    || TimeUnit.NANOSECONDS.toMillis(now - d.hashRequestedNanos) >= STALL_MILLIS)) {
+                askForLeaves = pickHashSource(swarm, d);
+                if (askForLeaves != null) {
+                    d.hashSource = askForLeaves;
+                    d.hashRequestedNanos = now;
+                    d.resetLeaves(swarm.header.chunkCount());
+                }
+            }
+            for (Map.Entry<String, Source> entry : d.sources.entrySet()) {
+                Source source = entry.getValue();
+                if (source.inFlight > 0 && TimeUnit.NANOSECONDS.toMillis(now - source.lastChunkNanos) >= STALL_MILLIS) {
+                    release(d, source);
+                    if (++source.stalls > MAX_STALLS) stalled.add(entry.getKey());
+                }
+            }
+            giveUp = TimeUnit.NANOSECONDS.toMillis(now - d.lastProgressNanos) >= STALL_MILLIS * (MAX_STALLS + 1);
+            requests = giveUp ? null : planRequests(swarm);
+        }
+        if (giveUp) {
+            fail(swarm, new IOException("No chunk arrived for " + STALL_MILLIS * (MAX_STALLS + 1) / 1000 + " s."));
+            return;
+        }
+        if (askForLeaves != null) sendFrame(askForLeaves, KIND_HASH_REQUEST, swarm.id, null);
+        for (String peerId : stalled) dropMember(swarm, peerId, "stopped sending chunks");
+        sendRequests(swarm, requests);
+    }
+
+    // Called with the swarm's lock held: a random member that holds chunks (so has checked the leaves), preferring
+    // one other than the current source; null if there is none.
+    private static String pickHashSource(Swarm swarm, Download d) {
+        List<String> candidates = new ArrayList<>();
+        swarm.members.forEach((peerId, held) -> { if (!held.isEmpty() && !peerId.equals(d.hashSource)) candidates.add(peerId); });
+        if (candidates.isEmpty()) return swarm.members.containsKey(d.hashSource) ? d.hashSource : null;
+        return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    }
+
+    private void finish(Swarm swarm, Download d) {
+        try {
+            swarm.channel.truncate(swarm.header.plaintextLength); // The target may have been longer
+        } catch (IOException e) {
+            fail(swarm, e);
+            return;
+        }
+        List<String> members;
+        synchronized (swarm) {
+            if (swarm.download != d) return;
+            swarm.download = null; // From here on we only seed
+            swarm.servedLastModified = Math.max(1, swarm.file.lastModified());
+            members = new ArrayList<>(swarm.members.keySet());
+            swarm.ticker.cancel(false);
+        }
+        double seconds = Math.max(1e-9, (System.nanoTime() - d.startedNanos) / 1e9);
+        System.out.printf("[FileTransfer] Received %s (%d bytes) from %d peer(s) in %.2f s (%.1f MB/s).%n",
+                swarm.file.getName(), d.storedBytes, members.size(), seconds, d.storedBytes / 1e6 / seconds);
+        d.result.complete(swarm.file);
+    }
+
+    // Returns false if the swarm was not downloading (already finished or failed).
+    private boolean fail(Swarm swarm, Throwable error) {
+        Download d;
+        synchronized (swarm) {
+            d = swarm.download;
+            if (d == null) return false;
+            swarm.download = null;
+        }
+        close(swarm);
+        int stored;
+        synchronized (swarm) {
+            stored = d.stored;
+        }
+        // Every chunk written was checked, so downloading to the same file again picks up from here. A target that
+        // existed before is never deleted: this may have been a resume that failed before the leaves even arrived.
+        if (stored > 0 || !d.createdTarget) {
+            String kept = (stored > 0) ? stored + " of " + swarm.header.chunkCount() + " chunks kept" : "existing file kept";
+            System.err.println("[FileTransfer] Download of " + swarm.file.getName() + " failed (" + kept + " for resuming): " + error.getMessage());
+            d.result.completeExceptionally(new IOException(error.getMessage() + " (" + kept
+                    + "; download to the same file again to resume)", error));
+            return true;
+        }
+        if (swarm.file.exists() && !swarm.file.delete()) {
+            System.err.println("[FileTransfer] Could not delete partial download " + swarm.file.getName());
+        }
+        System.err.println("[FileTransfer] Download of " + swarm.file.getName() + " failed: " + error.getMessage());
+        d.result.completeExceptionally(error);
+        return true;
+    }
+
+    private void close(Swarm swarm) {
+        swarms.remove(swarm.idHex, swarm);
+        synchronized (swarm) {
+            if (swarm.ticker != null) swarm.ticker.cancel(false);
+        }
+        try { swarm.channel.close(); } catch (IOException e) { /* Nothing left to do with it */ }
+    }
+
+    // --- Helpers ---
+
+    // Sends a control frame (prefix + payload); returns false if the bulk channel refused it.
+    private boolean sendFrame(String peerId, int kind, byte[] id, ByteBuffer payload) {
+        ByteBuffer frame = DirectBufferPool.SHARED.acquire(FRAME_PREFIX + ((payload != null) ? payload.remaining() : 0));
+        try {
+            MessageCodec.putBulkHeader(frame, kind);
+            frame.put(id);
+            if (payload != null) frame.put(payload);
+            frame.flip();
+            link.send(peerId, frame.slice());
+            return true;
+        } catch (Exception e) {
+            System.err.println("[FileTransfer] Could not send to " + peerId + ": " + e.getMessage());
+            return false;
+        } finally {
+            DirectBufferPool.SHARED.release(frame);
+        }
+    }
+
+    private static Scratch scratch(int chunkSize) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.plain.length < chunkSize) {
+            scratch.plain = new byte[chunkSize];
+            scratch.sealed = new byte[chunkSize + ChunkedFileCipher.TAG_LENGTH];
+            scratch.sealedId = null;
+        }
+        return scratch;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static byte[] unhex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) throw new IllegalArgumentException("Bad transfer id: " + hex);
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
+    // One transfer as this side sees it: shared by us, being downloaded, or seeded after a download.
+    private static final class Swarm {
+        final byte[] id;
+        final String idHex;
+        final SecretKey key;
+        final ChunkedFileCipher.Header header;
+        final File file;
+        final FileChannel channel; // Positional reads (serving) and writes (downloading) from several threads
+        final AtomicLong chunksServed = new AtomicLong();
+        volatile long servedLastModified; // The file's mtime once complete here; 0 while still downloading
+        // Guarded by this
+        byte[] leaves;                                       // Merkle leaves, once computed or checked against the root
+        final BitSet have = new BitSet();                    // Authenticated chunks in our file
+        final Map<String, BitSet> members = new HashMap<>(); // Other peers in the swarm and the chunks they announced
+        final Set<String> banned = new HashSet<>();          // Sent bad data; never members again
+        Download download;                                   // Null unless downloading
+        ScheduledFuture<?> ticker;
+
+        Swarm(byte[] id, SecretKey key, ChunkedFileCipher.Header header, File file, FileChannel channel) {
+            this.id = id;
+            this.idHex = hex(id);
+            this.key = key;
+            this.header = header;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    // Downloader state, guarded by its swarm's lock (except the buffer queue).
+    private static final class Download {
+        final String origin;     // The peer that made the offer
+        final int originWindow;  // Chunks to keep outstanding there
+        final byte[] root;       // From the offer
+        final boolean createdTarget; // The target did not exist before this download
+        byte[] leafBuffer;       // Leaves as they arrive from hashSource; null once complete
+        final BitSet leavesReceived = new BitSet();
+        String hashSource;
+        long hashRequestedNanos = System.nanoTime();
+        final CompletableFuture<File> result;
+        final long startedNanos = System.nanoTime();
+        final BitSet requested = new BitSet(); // Asked from some source (cleared again if that source stalls)
+        final BitSet arrived = new BitSet();   // Received, possibly not yet written
+        final int[] availability;              // Members holding each chunk
+        final Map<String, Source> sources = new HashMap<>();
+        final Queue<byte[]> free = new ConcurrentLinkedQueue<>(); // Sealed-chunk buffers; about a window's worth exist
+        int inFlight; // Requested and not yet written, over all sources
+        int stored;
+        long storedBytes;
+        long lastProgressNanos = startedNanos;
+
+        Download(String origin, int chunkCount, int originWindow, byte[] root, boolean createdTarget, CompletableFuture<File> result) {
+            this.origin = origin;
+            this.originWindow = originWindow;
+            this.root = root;
+            this.createdTarget = createdTarget;
+            this.leafBuffer = new byte[chunkCount * MerkleTree.HASH_LENGTH];
+            this.availability = new int[chunkCount];
+            this.result = result;
+        }
+
+        void resetLeaves(int chunkCount) {
+            leafBuffer = new byte[chunkCount * MerkleTree.HASH_LENGTH];
+            leavesReceived.clear();
+        }
+
+        byte[] takeBuffer(ChunkedFileCipher.Header header) {
+            byte[] buffer = free.poll();
+            return (buffer != null) ? buffer : new byte[header.chunkSize + ChunkedFileCipher.TAG_LENGTH];
+        }
+    }
+
+    // Per-thread chunk buffers, grown to the largest chunk size seen.
+    private static final class Scratch {
+        byte[] plain = new byte[0];
+        byte[] sealed = new byte[0];
+        String sealedId; // `sealed` holds chunk sealedIndex of this transfer (ciphertext only, no need to wipe)
+        int sealedIndex = -1;
+    }
+
+    // A member we download from.
+    private static final class Source {
+        final BitSet outstanding = new BitSet(); // Asked from this member, not yet written
+        int inFlight;
+        long lastChunkNanos;
+        int stalls;
+    }
+}
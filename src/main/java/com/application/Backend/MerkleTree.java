@@ -0,0 +1,164 @@
+// src/main/java/com/application/Backend/MerkleTree.java
+package com.application.Backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SHA-256 Merkle tree over the fixed-size plaintext chunks of a file (the same chunks ChunkedFileCipher seals).
+ *
+ * Leaf i = SHA-256(0x00 || chunk i); an inner node = SHA-256(0x01 || left || right), and the last node of a
+ * level with an odd count moves up unchanged. The prefixes keep a leaf from being passed off as an inner node.
+ * An empty file has one empty chunk, as in ChunkedFileCipher.
+ *
+ * Leaves are computed in parallel on a ForkJoinPool, each worker reading and hashing its own range of chunks,
+ * so reading and hashing overlap across cores. The leaves of a file (HASH_LENGTH bytes each, in chunk order)
+ * are what peers exchange; the root is what the file offer carries.
+ */
+public final class MerkleTree {
+
+    public static final int HASH_LENGTH = 32;
+
+    private static final int CHUNKS_PER_TASK = 16; // Work unit for the ForkJoin split
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // Every JRE ships it
+        }
+    });
+
+    private MerkleTree() {}
+
+    public static int chunkCount(long length, int chunkSize) {
+        return (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    /** Hashes every chunk of the first `length` bytes of the channel, in parallel. */
+    static byte[] leaves(FileChannel channel, long length, int chunkSize, ForkJoinPool pool) throws IOException {
+        byte[] leaves = new byte[chunkCount(length, chunkSize) * HASH_LENGTH];
+        run(pool, new LeafTask(channel, length, chunkSize, 0, chunkCount(length, chunkSize), leaves, null));
+        return leaves;
+    }
+
+    /**
+     * Hashes, in parallel, the chunks a partly written file already holds in full and compares them with leaves.
+     * @return The chunks whose contents are already right.
+     */
+    static BitSet matchingChunks(FileChannel channel, long length, int chunkSize, byte[] leaves, ForkJoinPool pool) throws IOException {
+        long present = Math.min(length, channel.size());
+        int count = chunkCount(length, chunkSize);
+        int complete = (present == length) ? count : (int) (present / chunkSize);
+        BitSet matching = new BitSet(count);
+        if (complete > 0) run(pool, new LeafTask(channel, length, chunkSize, 0, complete, leaves, matching));
+        return matching;
+    }
+
+    /** The root over all leaves, or null if leaves is not a whole number of hashes. */
+    static byte[] root(byte[] leaves) {
+        if (leaves.length == 0 || leaves.length % HASH_LENGTH != 0) return null;
+        byte[] level = leaves;
+        MessageDigest digest = SHA256.get();
+        while (level.length > HASH_LENGTH) {
+            int nodes = level.length / HASH_LENGTH;
+            byte[] up = new byte[((nodes + 1) / 2) * HASH_LENGTH];
+            for (int i = 0; i + 1 < nodes; i += 2) {
+                digest.update((byte) 1);
+                digest.update(level, i * HASH_LENGTH, 2 * HASH_LENGTH);
+                hashInto(digest, up, (i / 2) * HASH_LENGTH);
+            }
+            if (nodes % 2 == 1) System.arraycopy(level, (nodes - 1) * HASH_LENGTH, up, (nodes / 2) * HASH_LENGTH, HASH_LENGTH);
+            level = up;
+        }
+        return Arrays.copyOf(level, HASH_LENGTH);
+    }
+
+    /** True if the chunk's contents hash to leaf `index`. */
+    static boolean matchesLeaf(byte[] leaves, int index, byte[] chunk, int length) {
+        byte[] leaf = new byte[HASH_LENGTH];
+        leafHash(chunk, length, leaf, 0);
+        return MessageDigest.isEqual(leaf, Arrays.copyOfRange(leaves, index * HASH_LENGTH, (index + 1) * HASH_LENGTH));
+    }
+
+    private static void leafHash(byte[] chunk, int length, byte[] out, int offset) {
+        MessageDigest digest = SHA256.get();
+        digest.update((byte) 0);
+        digest.update(chunk, 0, length);
+        hashInto(digest, out, offset);
+    }
+
+    private static void hashInto(MessageDigest digest, byte[] out, int offset) {
+        try {
+            digest.digest(out, offset, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e); // Only thrown for a too small output, which HASH_LENGTH rules out
+        }
+    }
+
+    private static void run(ForkJoinPool pool, LeafTask task) throws IOException {
+        try {
+            pool.invoke(task);
+        } catch (ChunkedFileCipher.ChunkFailure e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    // Splits [from, to) until ranges are small, then reads and hashes each chunk of the range with one reusable
+    // chunk buffer. With `matching` set, compares against `leaves` instead of filling them in.
+    private static final class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long length;
+        private final int chunkSize;
+        private final int from;
+        private final int to;
+        private final byte[] leaves;
+        private final BitSet matching; // Guarded by itself
+
+        LeafTask(FileChannel channel, long length, int chunkSize, int from, int to, byte[] leaves, BitSet matching) {
+            this.channel = channel;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.from = from;
+            this.to = to;
+            this.leaves = leaves;
+            this.matching = matching;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNKS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafTask(channel, length, chunkSize, from, mid, leaves, matching),
+                        new LeafTask(channel, length, chunkSize, mid, to, leaves, matching));
+                return;
+            }
+            byte[] chunk = new byte[chunkSize];
+            try {
+                for (int i = from; i < to; i++) {
+                    int chunkLength = (int) Math.min(chunkSize, length - (long) i * chunkSize);
+                    ChunkedFileCipher.readFully(channel, ByteBuffer.wrap(chunk, 0, chunkLength), (long) i * chunkSize);
+                    if (matching == null) {
+                        leafHash(chunk, chunkLength, leaves, i * HASH_LENGTH);
+                    } else if (matchesLeaf(leaves, i, chunk, chunkLength)) {
+                        synchronized (matching) { matching.set(i); }
+                    }
+                }
+            } catch (IOException e) {
+                throw new ChunkedFileCipher.ChunkFailure(e);
+            } finally {
+                Arrays.fill(chunk, (byte) 0);
+            }
+        }
+    }
+}
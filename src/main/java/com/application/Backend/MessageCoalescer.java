@@ -0,0 +1,260 @@
+// src/main/java/com/application/Backend/MessageCoalescer.java
+package com.application.Backend;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Packs outgoing DataChannel frames queued for the same peer within a short window into one
+ * batch frame (MessageCodec.encodeBatch), so a burst of small messages pays the SCTP/DTLS
+ * per-message overhead once instead of once per message.
+ *
+ * A peer's queue is flushed when its oldest frame has waited windowMillis, or as soon as the
+ * queued bytes reach maxBatchBytes. A flush of a single frame sends it unchanged. Frames keep
+ * their order per peer. Only use this for peers that decode batch frames (WIRE_VERSION >= 3), and
+ * send everything for such a peer through here, or direct sends would overtake queued frames.
+ *
+ * Queued frames are copied straight into a pooled direct buffer (DirectBufferPool) laid out as a batch
+ * frame, so the caller may reuse its buffer as soon as enqueue() returns and a flush only has to write the
+ * batch header in front. The staging buffer goes back to the pool once the sink has sent it.
+ */
+public final class MessageCoalescer {
+
+    static final long DEFAULT_WINDOW_MILLIS = 5;
+    static final int DEFAULT_MAX_BATCH_BYTES = 16 * 1024;
+
+    /** Delivers a frame (single or batch) to a peer's DataChannel. Called on the flush thread or the caller's. */
+    interface FrameSink {
+        void send(String peerId, ByteBuffer frame, boolean binary) throws Exception;
+    }
+
+    private static final ScheduledExecutorService FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "datachannel-coalescer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final FrameSink sink;
+    private final long windowNanos;
+    private final int maxBatchBytes;
+    private final Map<String, PeerQueue> queues = new ConcurrentHashMap<>();
+
+    // Counters for tuning the window (see Stats)
+    private final AtomicLong messagesQueued = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong totalDelayNanos = new AtomicLong();
+    private final AtomicLong maxDelayNanos = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    MessageCoalescer(FrameSink sink) {
+        this(sink, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    MessageCoalescer(FrameSink sink, long windowMillis, int maxBatchBytes) {
+        this.sink = sink;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Queues one complete frame for the peer. The frame is sent as-is or inside a batch within the window.
+     * @param frame Copied before this returns; its position is not changed.
+     * @param binary Whether the frame is a binary MessageCodec frame (true) or JSON text (false).
+     */
+    void enqueue(String peerId, ByteBuffer frame, boolean binary) {
+        messagesQueued.incrementAndGet();
+        PeerQueue queue = queues.computeIfAbsent(peerId, PeerQueue::new);
+        int entryLength = MessageCodec.batchEntryLength(frame.remaining());
+        while (true) {
+            boolean fits;
+            boolean flushNow = false;
+            synchronized (queue) {
+                if (queue.staging == null) {
+                    queue.staging = DirectBufferPool.SHARED.acquire(MessageCodec.BATCH_HEADER_RESERVE + Math.max(maxBatchBytes, entryLength));
+                    queue.staging.position(MessageCodec.BATCH_HEADER_RESERVE);
+                    long generation = ++queue.generation;
+                    FLUSH_EXECUTOR.schedule(() -> flushIfGeneration(queue, generation), windowNanos, TimeUnit.NANOSECONDS);
+                }
+                fits = queue.staging.remaining() >= entryLength;
+                if (fits) {
+                    long now = System.nanoTime();
+                    if (queue.count == 0) {
+                        queue.firstQueuedAt = now;
+                        queue.firstBinary = binary;
+                        queue.firstFrameOffset = queue.staging.position() + entryLength - frame.remaining();
+                    }
+                    MessageCodec.putBatchEntry(queue.staging, frame);
+                    queue.count++;
+                    queue.queuedAtSum += now;
+                    flushNow = queue.staging.position() - MessageCodec.BATCH_HEADER_RESERVE >= maxBatchBytes;
+                }
+            }
+            if (fits) {
+                if (flushNow) flush(queue);
+                return;
+            }
+            flush(queue); // No room left in this window: send it, then retry with a fresh staging buffer
+        }
+    }
+
+    /** Sends everything queued for the peer now (e.g. before the channel is closed). */
+    void flush(String peerId) {
+        PeerQueue queue = queues.get(peerId);
+        if (queue != null) flush(queue);
+    }
+
+    /** Drops the peer's queue without sending (channel already gone). Its staging buffer is left to the GC. */
+    void removePeer(String peerId) {
+        queues.remove(peerId);
+    }
+
+    void clear() {
+        queues.clear();
+    }
+
+    /**
+     * Removes every peer's queue and sends what they hold through finalSink, on the flush thread
+     * (e.g. straight to channels that are about to be closed), so the caller does no native sends.
+     * @return Completes once every queue has been sent.
+     */
+    CompletableFuture<Void> clearAndFlush(FrameSink finalSink) {
+        List<PeerQueue> detached = new ArrayList<>(queues.values());
+        queues.clear();
+        return CompletableFuture.runAsync(() -> detached.forEach(queue -> flush(queue, finalSink)), FLUSH_EXECUTOR);
+    }
+
+    Stats getStats() {
+        return new Stats(messagesQueued.get(), framesSent.get(), batchesSent.get(), bytesSent.get(),
+                totalDelayNanos.get(), maxDelayNanos.get(), sendFailures.get());
+    }
+
+    // The timer only flushes the window it was scheduled for; a size-triggered flush may already have sent it.
+    private void flushIfGeneration(PeerQueue queue, long generation) {
+        synchronized (queue) {
+            if (queue.generation != generation || queue.count == 0) return;
+        }
+        if (queues.get(queue.peerId) != queue) return; // Removed; clearAndFlush() sends it, if anyone
+        flush(queue);
+    }
+
+    private void flush(PeerQueue queue) {
+        flush(queue, sink);
+    }
+
+    // Cutting and sending happen under the peer's send lock, so batches leave in the order they were cut.
+    private void flush(PeerQueue queue, FrameSink sink) {
+        synchronized (queue.sendLock) {
+            ByteBuffer staging;
+            int count;
+            long queuedAtSum, firstQueuedAt;
+            boolean firstBinary;
+            int firstFrameOffset;
+            synchronized (queue) {
+                if (queue.count == 0) return;
+                staging = queue.staging;
+                count = queue.count;
+                queuedAtSum = queue.queuedAtSum;
+                firstQueuedAt = queue.firstQueuedAt;
+                firstBinary = queue.firstBinary;
+                firstFrameOffset = queue.firstFrameOffset;
+                queue.staging = null;
+                queue.count = 0;
+                queue.queuedAtSum = 0;
+                queue.generation++; // Invalidates the pending timer for this window
+            }
+            long now = System.nanoTime();
+            totalDelayNanos.addAndGet(count * now - queuedAtSum);
+            maxDelayNanos.accumulateAndGet(now - firstQueuedAt, Math::max);
+
+            boolean binary;
+            int end = staging.position();
+            int start;
+            if (count == 1) {
+                start = firstFrameOffset; // Sent unchanged, without the batch wrapper
+                binary = firstBinary;
+            } else {
+                start = MessageCodec.putBatchHeader(staging, MessageCodec.BATCH_HEADER_RESERVE, count);
+                binary = true;
+                batchesSent.incrementAndGet();
+            }
+            // Sliced so the frame's capacity is exactly its length (the native send reads direct buffers to capacity)
+            ByteBuffer view = staging.duplicate();
+            view.limit(end).position(start);
+            ByteBuffer frame = view.slice();
+            int length = frame.remaining();
+            try {
+                sink.send(queue.peerId, frame, binary);
+                framesSent.incrementAndGet();
+                bytesSent.addAndGet(length);
+            } catch (Exception e) {
+                sendFailures.incrementAndGet();
+                System.err.println("[Coalescer] Failed to send " + count + " message(s) to " + queue.peerId + ": " + e.getMessage());
+            } finally {
+                DirectBufferPool.SHARED.release(staging); // The sink has handed the bytes to the native layer
+            }
+        }
+    }
+
+    private static final class PeerQueue {
+        final String peerId;
+        final Object sendLock = new Object();
+        ByteBuffer staging; // Entries of the current window from BATCH_HEADER_RESERVE on; null when empty
+        int count;
+        long queuedAtSum;   // For the delay stats without keeping a timestamp per message
+        long firstQueuedAt;
+        boolean firstBinary; // Sent unwrapped when it is the only message of its window
+        int firstFrameOffset;
+        long generation;
+
+        PeerQueue(String peerId) {
+            this.peerId = peerId;
+        }
+    }
+
+    /** Snapshot of the coalescer's counters since it was created. */
+    public static final class Stats {
+        public final long messagesQueued;
+        public final long framesSent;       // DataChannel messages actually sent (single frames + batches)
+        public final long batchesSent;      // Of framesSent, how many carried more than one message
+        public final long bytesSent;
+        public final long totalDelayNanos;  // Sum over messages of the time spent waiting in the queue
+        public final long maxDelayNanos;
+        public final long sendFailures;
+
+        Stats(long messagesQueued, long framesSent, long batchesSent, long bytesSent, long totalDelayNanos, long maxDelayNanos, long sendFailures) {
+            this.messagesQueued = messagesQueued;
+            this.framesSent = framesSent;
+            this.batchesSent = batchesSent;
+            this.bytesSent = bytesSent;
+            this.totalDelayNanos = totalDelayNanos;
+            this.maxDelayNanos = maxDelayNanos;
+            this.sendFailures = sendFailures;
+        }
+
+        /** Messages per DataChannel message sent; 1.0 means nothing was coalesced. */
+        public double messagesPerFrame() {
+            return (framesSent == 0) ? 0 : (double) messagesQueued / framesSent;
+        }
+
+        /** Average latency the window added per message, in milliseconds. */
+        public double averageDelayMillis() {
+            return (messagesQueued == 0) ? 0 : totalDelayNanos / 1e6 / messagesQueued;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Coalescer{messages=%d, frames=%d, batches=%d, bytes=%d, msgs/frame=%.2f, avgDelay=%.2f ms, maxDelay=%.2f ms, failures=%d}",
+                    messagesQueued, framesSent, batchesSent, bytesSent, messagesPerFrame(), averageDelayMillis(), maxDelayNanos / 1e6, sendFailures);
+        }
+    }
+}
@@ -0,0 +1,594 @@
+// src/main/java/com/application/Backend/MessageCodec.java
+package com.application.Backend;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Binary DataChannel frames for MessageData. Sent with isBinary=true; text frames are still parsed as JSON MessageData.
+ *
+ * Version 1 (encodeChat, opt-in via ChatController.setBinaryTransportEnabled) - a CHAT message whose payload is
+ * encrypted straight into the frame, sent to peers that advertised any wire version (MESSAGE_VERSION or higher).
+ * Layout (all integers big-endian):
+ *   [0]      MAGIC
+ *   [1]      VERSION
+ *   [2]      MessageType ordinal
+ *   [3]      flags (bit 0: COUNTER nonce mode, bit 1: CHACHA20_POLY1305 instead of AES_256_GCM)
+ *   u16 + UTF-8  roomContext
+ *   u16 + UTF-8  sender
+ *   rest     IV + ciphertext + tag (EncryptionService.encrypt(ByteBuffer, ByteBuffer) output); in COUNTER mode
+ *            the sender's session id comes first, and the block only opens under that session's key
+ *
+ * Version 2 (encode) - any MessageData, sent to peers that advertised it at join or in their HEARTBEAT (wireVersion):
+ *   [0]      MAGIC
+ *   [1]      MESSAGE_VERSION
+ *   [2]      MessageType ordinal
+ *   varint   presence bits, one per field (FIELD_* below); absent fields take no space at all
+ *   per present field, in bit order: varint length + value. Strings are UTF-8, originalFileSize and wireVersion
+ *            are varints, encryptedData is the raw IV + ciphertext (not Base64).
+ * Every value is length-prefixed, so a decoder skips fields with bits it does not know; later fields are
+ * added by taking the next bit, not by bumping the version.
+ *
+ * Version 3 (encodeBatch) - several frames coalesced into one DataChannel message (MessageCoalescer),
+ * sent to peers that advertised WIRE_VERSION 3 or higher:
+ *   [0]      MAGIC
+ *   [1]      BATCH_VERSION
+ *   varint   number of entries
+ *   per entry: varint length + one complete frame, either binary (starts with MAGIC) or JSON text (starts with '{')
+ *
+ * Version 4 (encodeSealed) - a whole MessageData sealed with one AEAD call under the room key, sent to peers that
+ * advertised WIRE_VERSION 4 or higher when sealed envelopes are enabled:
+ *   [0]      MAGIC
+ *   [1]      SEALED_VERSION
+ *   [2]      flags (as in version 1)
+ *   u16 + UTF-8  roomContext
+ *   u16 + UTF-8  sender
+ *   rest     [session id +] IV + AEAD(version 2 frame of the message, without sender/roomContext, with plainText) + tag
+ * Bytes [0 .. end of sender] are the associated data, so room, sender and flags are authenticated with the
+ * contents: a frame sealed for another room, or re-labelled with another sender, fails the tag check.
+ * Everything else, including the message type and file-offer fields, is encrypted.
+ *
+ * Version 5 (bulkHeader) - frames on the separate "bulk" DataChannel (file data), only sent to peers that
+ * advertised WIRE_VERSION 5 or higher; advertising it also means the peer opens that channel:
+ *   [0]      MAGIC
+ *   [1]      BULK_VERSION
+ *   [2]      kind (what the rest is; ChatController routes each kind to the handler registered for it)
+ *   rest     kind-specific
+ *
+ * Varints are unsigned LEB128: 7 bits per byte, low group first, high bit set on all but the last byte.
+ */
+final class MessageCodec {
+
+    static final byte MAGIC = (byte) 0xE2;
+    static final byte VERSION = 1;
+    static final byte MESSAGE_VERSION = 2;
+    static final byte BATCH_VERSION = 3;
+    static final byte SEALED_VERSION = 4;
+    static final byte BULK_VERSION = 5;
+    static final byte WIRE_VERSION = BULK_VERSION; // Highest frame version we understand; advertised at join and in HEARTBEAT
+    private static final int FLAG_COUNTER_NONCE = 0x01;
+    private static final int FLAG_CHACHA20 = 0x02;
+
+    // Version 2 presence bits. Append only; never reuse or reorder a bit.
+    private static final int FIELD_SENDER = 0;
+    private static final int FIELD_ROOM_CONTEXT = 1;
+    private static final int FIELD_ENCRYPTED_DATA = 2;
+    private static final int FIELD_NONCE_MODE = 3;
+    private static final int FIELD_CIPHER_SUITE = 4;
+    private static final int FIELD_ORIGINAL_FILENAME = 5;
+    private static final int FIELD_ORIGINAL_FILE_SIZE = 6;
+    private static final int FIELD_DOWNLOAD_URL = 7;
+    private static final int FIELD_ENCRYPTED_FILE_KEY = 8;
+    private static final int FIELD_FILE_HASH = 9;
+    private static final int FIELD_RECIPIENT = 10;
+    private static final int FIELD_PROPOSED_ROOM_NAME = 11;
+    private static final int FIELD_PROPOSED_ROOM_PASSWORD = 12;
+    private static final int FIELD_WIRE_VERSION = 13;
+    private static final int FIELD_PLAIN_TEXT = 14; // Only honoured inside a sealed envelope
+    private static final int FIELD_COUNT = 15;
+
+    static final int BATCH_HEADER_RESERVE = 2 + 5; // Magic, version and the largest entry count varint we write
+
+    // Per-thread scratch arrays, reused instead of allocating per frame. The JDK's AEAD ciphers copy direct
+    // buffers through temporary arrays, so crypto runs on these and only finished frames go to direct memory.
+    // Requests above MAX_SCRATCH get a fresh array. Slots holding plaintext are wiped after every use.
+    private static final int MAX_SCRATCH = 64 * 1024;
+    private static final int SCRATCH_UTF8 = 0;      // Strings read from direct buffers
+    private static final int SCRATCH_PLAINTEXT = 1; // Inner frame of a sealed envelope
+    private static final int SCRATCH_FRAME = 2;     // Wire frame being sealed or opened
+    private static final ThreadLocal<byte[][]> SCRATCH = ThreadLocal.withInitial(() -> new byte[3][1024]);
+
+    private MessageCodec() {}
+
+    /** True if the buffer starts like one of our binary frames. Does not move the buffer's position. */
+    static boolean isBinaryFrame(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.get(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * Builds a CHAT frame and encrypts the plaintext straight into it.
+     * The returned buffer is backed by an array of exactly the frame's size, ready to send.
+     */
+    static ByteBuffer encodeChat(EncryptionService encryptionService, String sender, String roomContext, byte[] plaintext) throws Exception {
+        return encodeChat(encryptionService, sender, roomContext, plaintext, ByteBuffer::allocate);
+    }
+
+    /**
+     * As encodeChat() above, writing into a buffer from the allocator (e.g. DirectBufferPool.SHARED::acquire).
+     * The frame occupies [0, limit) of the returned buffer, whose capacity may be larger.
+     */
+    static ByteBuffer encodeChat(EncryptionService encryptionService, String sender, String roomContext, byte[] plaintext,
+                                 IntFunction<ByteBuffer> allocator) throws Exception {
+        byte[] room = roomContext.getBytes(StandardCharsets.UTF_8);
+        byte[] from = sender.getBytes(StandardCharsets.UTF_8);
+        int headerLength = 4 + 2 + room.length + 2 + from.length;
+        CipherSuite suite = encryptionService.getRoomCipherSuite(roomContext); // Read once: the flags must match what seals the payload
+        EncryptionService.NonceMode mode = encryptionService.getNonceMode();
+
+        int length = headerLength + EncryptionService.encryptedLength(plaintext.length, mode);
+        ByteBuffer out = allocator.apply(length);
+        ByteBuffer frame = out.hasArray() ? out : scratch(SCRATCH_FRAME, length);
+        frame.put(MAGIC).put(VERSION).put((byte) MessageType.CHAT.ordinal());
+        int flags = (mode == EncryptionService.NonceMode.COUNTER) ? FLAG_COUNTER_NONCE : 0;
+        if (suite == CipherSuite.CHACHA20_POLY1305) flags |= FLAG_CHACHA20;
+        frame.put((byte) flags);
+        putString(frame, room);
+        putString(frame, from);
+        encryptionService.encrypt(roomContext, suite, mode, null, ByteBuffer.wrap(plaintext), frame);
+        return finish(frame, out);
+    }
+
+    /**
+     * Encodes any MessageData as a version 2 frame. Base64 encryptedData goes on the wire as raw bytes and
+     * arrives as MessageData.encryptedPayload. The returned buffer is backed by an array of exactly the frame's size.
+     * @throws IllegalArgumentException If encryptedData is not Base64 (send such a message as JSON instead).
+     */
+    static ByteBuffer encode(MessageData message) {
+        return encode(message, false, ByteBuffer::allocate);
+    }
+
+    /** As encode() above, writing into a buffer from the allocator; the frame occupies [0, limit) of the returned buffer. */
+    static ByteBuffer encode(MessageData message, IntFunction<ByteBuffer> allocator) {
+        return encode(message, false, allocator);
+    }
+
+    // sealedContent: the frame goes inside a sealed envelope, so plainText is included and the routing fields
+    // (carried in the envelope header) are left out.
+    private static ByteBuffer encode(MessageData message, boolean sealedContent, IntFunction<ByteBuffer> allocator) {
+        byte[][] values = new byte[FIELD_COUNT][];
+        if (sealedContent) {
+            values[FIELD_PLAIN_TEXT] = utf8(message.plainText);
+        } else {
+            values[FIELD_SENDER] = utf8(message.sender);
+            values[FIELD_ROOM_CONTEXT] = utf8(message.roomContext);
+        }
+        if (message.encryptedPayload != null) {
+            values[FIELD_ENCRYPTED_DATA] = message.encryptedPayload;
+        } else if (message.encryptedData != null) {
+            values[FIELD_ENCRYPTED_DATA] = Base64.getDecoder().decode(message.encryptedData);
+        }
+        values[FIELD_NONCE_MODE] = utf8(message.nonceMode);
+        values[FIELD_CIPHER_SUITE] = utf8(message.cipherSuite);
+        values[FIELD_ORIGINAL_FILENAME] = utf8(message.originalFilename);
+        if (message.originalFileSize != 0) values[FIELD_ORIGINAL_FILE_SIZE] = varint(message.originalFileSize);
+        values[FIELD_DOWNLOAD_URL] = utf8(message.downloadUrl);
+        values[FIELD_ENCRYPTED_FILE_KEY] = utf8(message.encryptedFileKey);
+        values[FIELD_FILE_HASH] = utf8(message.fileHash);
+        values[FIELD_RECIPIENT] = utf8(message.recipient);
+        values[FIELD_PROPOSED_ROOM_NAME] = utf8(message.proposedRoomName);
+        values[FIELD_PROPOSED_ROOM_PASSWORD] = utf8(message.proposedRoomPassword);
+        if (message.wireVersion != null) values[FIELD_WIRE_VERSION] = varint(message.wireVersion);
+
+        long presence = 0;
+        int length = 3;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (values[field] == null) continue;
+            presence |= 1L << field;
+            length += varintLength(values[field].length) + values[field].length;
+        }
+        length += varintLength(presence);
+
+        ByteBuffer frame = allocator.apply(length);
+        frame.put(MAGIC).put(MESSAGE_VERSION).put((byte) message.type.ordinal());
+        putVarint(frame, presence);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (values[field] == null) continue;
+            putVarint(frame, values[field].length);
+            frame.put(values[field]);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Parses a binary frame (version 1 or 2) into MessageData. Ciphertext is copied once into
+     * MessageData.encryptedPayload because the native receive buffer is only valid during the callback.
+     */
+    static MessageData decode(ByteBuffer frame) {
+        if (!isBinaryFrame(frame)) {
+            throw new IllegalArgumentException("Not a binary message frame.");
+        }
+        frame.get(); // magic
+        byte version = frame.get();
+        if (version == BATCH_VERSION || version == SEALED_VERSION) {
+            throw new IllegalArgumentException("Batch or sealed frame passed to decode(); use splitBatch() / openSealed().");
+        }
+        if (version != VERSION && version != MESSAGE_VERSION) {
+            throw new IllegalArgumentException("Unsupported binary frame version: " + version);
+        }
+        int typeOrdinal = frame.get() & 0xFF;
+        if (typeOrdinal >= MessageType.values().length) {
+            throw new IllegalArgumentException("Unknown message type in binary frame: " + typeOrdinal);
+        }
+        MessageData messageData = new MessageData();
+        messageData.type = MessageType.values()[typeOrdinal];
+        if (version == MESSAGE_VERSION) {
+            decodeFields(frame, messageData, false);
+            return messageData;
+        }
+
+        int flags = frame.get() & 0xFF;
+        messageData.roomContext = getString(frame);
+        messageData.sender = getString(frame);
+        if ((flags & FLAG_COUNTER_NONCE) != 0) {
+            messageData.nonceMode = EncryptionService.NonceMode.COUNTER.name();
+        }
+        if ((flags & FLAG_CHACHA20) != 0) {
+            messageData.cipherSuite = CipherSuite.CHACHA20_POLY1305.name();
+        }
+        byte[] payload = new byte[frame.remaining()];
+        frame.get(payload);
+        messageData.encryptedPayload = payload;
+        return messageData;
+    }
+
+    /** True if the buffer holds a version 3 batch frame. Does not move the buffer's position. */
+    static boolean isBatchFrame(ByteBuffer buffer) {
+        return isBinaryFrame(buffer) && buffer.get(buffer.position() + 1) == BATCH_VERSION;
+    }
+
+    /**
+     * Packs complete frames (binary or JSON) into one batch frame, backed by an array of exactly its size.
+     * The frames' positions are not changed.
+     */
+    static ByteBuffer encodeBatch(List<ByteBuffer> frames) {
+        int length = 2 + varintLength(frames.size());
+        for (ByteBuffer f : frames) {
+            length += batchEntryLength(f.remaining());
+        }
+        ByteBuffer batch = ByteBuffer.allocate(length);
+        batch.put(MAGIC).put(BATCH_VERSION);
+        putVarint(batch, frames.size());
+        for (ByteBuffer f : frames) {
+            putBatchEntry(batch, f);
+        }
+        batch.flip();
+        return batch;
+    }
+
+    /** Bytes a frame of the given length takes as a batch entry (length prefix included). */
+    static int batchEntryLength(int frameLength) {
+        return varintLength(frameLength) + frameLength;
+    }
+
+    /** Appends a frame as a batch entry at the buffer's position. The frame's position is not changed. */
+    static void putBatchEntry(ByteBuffer buffer, ByteBuffer frame) {
+        putVarint(buffer, frame.remaining());
+        buffer.put(frame.duplicate());
+    }
+
+    /**
+     * For building a batch in place (MessageCoalescer): entries are appended from BATCH_HEADER_RESERVE on,
+     * then this writes the header for count entries so it ends at entriesStart. Returns where the batch frame begins.
+     * The buffer's position is not changed.
+     */
+    static int putBatchHeader(ByteBuffer buffer, int entriesStart, int count) {
+        int start = entriesStart - 2 - varintLength(count);
+        ByteBuffer header = buffer.duplicate();
+        header.position(start);
+        header.put(MAGIC).put(BATCH_VERSION);
+        putVarint(header, count);
+        return start;
+    }
+
+    /**
+     * Splits a batch frame into its entries, in order. The entries are views of the batch buffer (no copy),
+     * so they are only valid as long as it is.
+     */
+    static List<ByteBuffer> splitBatch(ByteBuffer batch) {
+        if (!isBatchFrame(batch)) {
+            throw new IllegalArgumentException("Not a batch frame.");
+        }
+        batch.position(batch.position() + 2);
+        long count = getVarint(batch);
+        if (count > batch.remaining()) throw new IllegalArgumentException("Malformed batch frame.");
+        List<ByteBuffer> entries = new ArrayList<>((int) count);
+        for (long i = 0; i < count; i++) {
+            long length = getVarint(batch);
+            if (length == 0 || length > batch.remaining()) throw new IllegalArgumentException("Truncated batch frame.");
+            ByteBuffer entry = batch.slice();
+            entry.limit((int) length);
+            entries.add(entry);
+            batch.position(batch.position() + (int) length);
+        }
+        if (batch.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected data after the last entry of a batch frame.");
+        }
+        return entries;
+    }
+
+    /**
+     * Parses a JSON text frame straight from the received buffer: the reader works on the UTF-8 bytes
+     * in place (heap buffers) or streams them (direct buffers), so no byte[] copy or String is made.
+     * @param reader A reader for MessageData, created once (ObjectMapper.readerFor) and reused.
+     */
+    static MessageData readJson(ObjectReader reader, ByteBuffer frame) throws IOException {
+        if (frame.hasArray()) {
+            MessageData message = reader.readValue(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            frame.position(frame.limit());
+            return message;
+        }
+        return reader.readValue(new ByteBufferBackedInputStream(frame));
+    }
+
+    static final int BULK_HEADER_LENGTH = 3;
+
+    /** Writes the version 5 header for a bulk frame of the given kind at the buffer's position. */
+    static void putBulkHeader(ByteBuffer buffer, int kind) {
+        buffer.put(MAGIC).put(BULK_VERSION).put((byte) kind);
+    }
+
+    /** The kind of a version 5 bulk frame, or -1 if the buffer does not hold one. Does not move the buffer's position. */
+    static int bulkKind(ByteBuffer buffer) {
+        if (buffer.remaining() < BULK_HEADER_LENGTH || buffer.get(buffer.position()) != MAGIC
+                || buffer.get(buffer.position() + 1) != BULK_VERSION) {
+            return -1;
+        }
+        return buffer.get(buffer.position() + 2) & 0xFF;
+    }
+
+    /** True if the buffer holds a version 4 sealed envelope. Does not move the buffer's position. */
+    static boolean isSealedFrame(ByteBuffer buffer) {
+        return isBinaryFrame(buffer) && buffer.get(buffer.position() + 1) == SEALED_VERSION;
+    }
+
+    /** Lowest wire version a peer must have advertised to decode this frame as it is; 0 for any peer (JSON). */
+    static int requiredWireVersion(ByteBuffer frame, boolean binary) {
+        if (!binary || !isBinaryFrame(frame)) return 0;
+        return requiredWireVersion(frame.get(frame.position() + 1));
+    }
+
+    /** Lowest wire version a peer must have advertised to decode frames of the given version. */
+    static int requiredWireVersion(byte frameVersion) {
+        // Version 1 predates the advertisement, so a peer that advertises nothing may not decode it;
+        // every build that advertises a version does.
+        return (frameVersion == VERSION) ? MESSAGE_VERSION : frameVersion;
+    }
+
+    /**
+     * Serializes the whole message and seals it with the key and current suite of message.roomContext, binding
+     * room, sender and flags as associated data. For CHAT, put the text in message.plainText (not encryptedData).
+     * The returned buffer is backed by an array of exactly the frame's size.
+     */
+    static ByteBuffer encodeSealed(EncryptionService encryptionService, MessageData message) throws Exception {
+        return encodeSealed(encryptionService, message, ByteBuffer::allocate);
+    }
+
+    /** As encodeSealed() above, writing into a buffer from the allocator; the frame occupies [0, limit) of the returned buffer. */
+    static ByteBuffer encodeSealed(EncryptionService encryptionService, MessageData message, IntFunction<ByteBuffer> allocator) throws Exception {
+        String roomContext = message.roomContext;
+        byte[] room = roomContext.getBytes(StandardCharsets.UTF_8);
+        byte[] from = message.sender.getBytes(StandardCharsets.UTF_8);
+        int headerLength = 3 + 2 + room.length + 2 + from.length;
+        CipherSuite suite = encryptionService.getRoomCipherSuite(roomContext); // Read once: the flags must match what seals the payload
+        EncryptionService.NonceMode mode = encryptionService.getNonceMode();
+
+        ByteBuffer content = encode(message, true, n -> scratch(SCRATCH_PLAINTEXT, n));
+        int length = headerLength + EncryptionService.encryptedLength(content.remaining(), mode);
+        ByteBuffer out = allocator.apply(length);
+        ByteBuffer frame = out.hasArray() ? out : scratch(SCRATCH_FRAME, length);
+        frame.put(MAGIC).put(SEALED_VERSION);
+        int flags = (mode == EncryptionService.NonceMode.COUNTER) ? FLAG_COUNTER_NONCE : 0;
+        if (suite == CipherSuite.CHACHA20_POLY1305) flags |= FLAG_CHACHA20;
+        frame.put((byte) flags);
+        putString(frame, room);
+        putString(frame, from);
+        ByteBuffer aad = frame.duplicate();
+        aad.flip();
+        try {
+            encryptionService.encrypt(roomContext, suite, mode, aad, content, frame);
+        } finally {
+            Arrays.fill(content.array(), 0, content.limit(), (byte) 0);
+        }
+        return finish(frame, out);
+    }
+
+    // Flips the frame written at frame and, if it was built in scratch because out is direct, copies it into out.
+    private static ByteBuffer finish(ByteBuffer frame, ByteBuffer out) {
+        frame.flip();
+        if (frame != out) {
+            out.put(frame);
+            out.flip();
+        }
+        return out;
+    }
+
+    // This thread's scratch array for the slot as a cleared buffer of exactly length bytes.
+    private static ByteBuffer scratch(int slot, int length) {
+        if (length > MAX_SCRATCH) return ByteBuffer.allocate(length);
+        byte[][] slots = SCRATCH.get();
+        if (slots[slot].length < length) {
+            slots[slot] = new byte[Math.min(MAX_SCRATCH, Math.max(length, slots[slot].length * 2))];
+        }
+        return ByteBuffer.wrap(slots[slot], 0, length);
+    }
+
+    /**
+     * Authenticates and decrypts a sealed envelope. Room and sender come from the authenticated header.
+     * @throws GeneralSecurityException If we hold no key for the frame's room, the tag does not verify
+     *                                  (foreign room, tampering, wrong sender), or the frame is a replay (COUNTER mode).
+     */
+    static MessageData openSealed(EncryptionService encryptionService, ByteBuffer frame) throws Exception {
+        if (!isSealedFrame(frame)) {
+            throw new IllegalArgumentException("Not a sealed frame.");
+        }
+        if (frame.isDirect()) {
+            // Native receive buffer: one copy into scratch instead of temporary arrays inside the cipher
+            ByteBuffer copy = scratch(SCRATCH_FRAME, frame.remaining());
+            copy.put(frame);
+            copy.flip();
+            frame = copy;
+        }
+        int start = frame.position();
+        frame.position(start + 2);
+        int flags = frame.get() & 0xFF;
+        String roomContext = getString(frame);
+        String sender = getString(frame);
+        if (!encryptionService.hasRoomKey(roomContext)) {
+            throw new GeneralSecurityException("No key for room '" + roomContext + "'; sealed frame dropped.");
+        }
+        ByteBuffer aad = frame.duplicate();
+        aad.limit(frame.position()).position(start);
+        CipherSuite suite = ((flags & FLAG_CHACHA20) != 0) ? CipherSuite.CHACHA20_POLY1305 : CipherSuite.AES_256_GCM;
+        boolean counterNonce = (flags & FLAG_COUNTER_NONCE) != 0;
+        EncryptionService.NonceMode mode = counterNonce ? EncryptionService.NonceMode.COUNTER : EncryptionService.NonceMode.RANDOM;
+        if (frame.remaining() < EncryptionService.encryptedLength(0, mode)) {
+            throw new IllegalArgumentException("Truncated sealed frame.");
+        }
+
+        ByteBuffer content = scratch(SCRATCH_PLAINTEXT, EncryptionService.decryptedLength(frame.remaining(), mode));
+        try {
+            int length = encryptionService.decrypt(roomContext, aad, frame, content, counterNonce ? sender : null, suite);
+            ByteBuffer inner = ByteBuffer.wrap(content.array(), 0, length);
+            if (!isBinaryFrame(inner) || inner.get(1) != MESSAGE_VERSION) {
+                throw new IllegalArgumentException("Sealed frame does not contain a message.");
+            }
+            int typeOrdinal = inner.get(2) & 0xFF;
+            if (typeOrdinal >= MessageType.values().length) {
+                throw new IllegalArgumentException("Unknown message type in sealed frame: " + typeOrdinal);
+            }
+            inner.position(3);
+            MessageData message = new MessageData();
+            message.type = MessageType.values()[typeOrdinal];
+            decodeFields(inner, message, true);
+            message.roomContext = roomContext;
+            message.sender = sender;
+            if (counterNonce) message.nonceMode = EncryptionService.NonceMode.COUNTER.name();
+            if (suite != CipherSuite.AES_256_GCM) message.cipherSuite = suite.name();
+            return message;
+        } finally {
+            Arrays.fill(content.array(), 0, content.limit(), (byte) 0);
+        }
+    }
+
+    private static void decodeFields(ByteBuffer frame, MessageData message, boolean sealedContent) {
+        long presence = getVarint(frame);
+        for (int field = 0; field < 64 && (presence >>> field) != 0; field++) {
+            if ((presence & (1L << field)) == 0) continue;
+            long length = getVarint(frame);
+            if (length > frame.remaining()) throw new IllegalArgumentException("Truncated binary frame.");
+            int end = frame.position() + (int) length;
+            switch (field) {
+                case FIELD_SENDER: message.sender = getUtf8(frame, (int) length); break;
+                case FIELD_ROOM_CONTEXT: message.roomContext = getUtf8(frame, (int) length); break;
+                case FIELD_ENCRYPTED_DATA:
+                    message.encryptedPayload = new byte[(int) length];
+                    frame.get(message.encryptedPayload);
+                    break;
+                case FIELD_NONCE_MODE: message.nonceMode = getUtf8(frame, (int) length); break;
+                case FIELD_CIPHER_SUITE: message.cipherSuite = getUtf8(frame, (int) length); break;
+                case FIELD_ORIGINAL_FILENAME: message.originalFilename = getUtf8(frame, (int) length); break;
+                case FIELD_ORIGINAL_FILE_SIZE: message.originalFileSize = getVarint(frame); break;
+                case FIELD_DOWNLOAD_URL: message.downloadUrl = getUtf8(frame, (int) length); break;
+                case FIELD_ENCRYPTED_FILE_KEY: message.encryptedFileKey = getUtf8(frame, (int) length); break;
+                case FIELD_FILE_HASH: message.fileHash = getUtf8(frame, (int) length); break;
+                case FIELD_RECIPIENT: message.recipient = getUtf8(frame, (int) length); break;
+                case FIELD_PROPOSED_ROOM_NAME: message.proposedRoomName = getUtf8(frame, (int) length); break;
+                case FIELD_PROPOSED_ROOM_PASSWORD: message.proposedRoomPassword = getUtf8(frame, (int) length); break;
+                case FIELD_WIRE_VERSION: message.wireVersion = (int) getVarint(frame); break;
+                case FIELD_PLAIN_TEXT:
+                    if (sealedContent) message.plainText = getUtf8(frame, (int) length); // Unsealed frames cannot claim authenticated text
+                    break;
+                default: break; // Field from a newer peer; skipped below
+            }
+            if (frame.position() != end) {
+                if (frame.position() > end) throw new IllegalArgumentException("Malformed field " + field + " in binary frame.");
+                frame.position(end);
+            }
+        }
+        if (frame.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected data after the last field of a binary frame.");
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return (value != null) ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] varint(long value) {
+        ByteBuffer out = ByteBuffer.allocate(varintLength(value));
+        putVarint(out, value);
+        return out.array();
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) length++;
+        return length;
+    }
+
+    private static void putVarint(ByteBuffer frame, long value) {
+        while ((value & ~0x7FL) != 0) {
+            frame.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        frame.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer frame) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!frame.hasRemaining()) throw new IllegalArgumentException("Truncated binary frame.");
+            byte b = frame.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint in binary frame.");
+    }
+
+    private static void putString(ByteBuffer frame, byte[] utf8) {
+        if (utf8.length > 0xFFFF) throw new IllegalArgumentException("Field too long for binary frame.");
+        frame.putShort((short) utf8.length);
+        frame.put(utf8);
+    }
+
+    private static String getString(ByteBuffer frame) {
+        if (frame.remaining() < 2) throw new IllegalArgumentException("Truncated binary frame.");
+        int length = frame.getShort() & 0xFFFF;
+        if (length > frame.remaining()) throw new IllegalArgumentException("Truncated binary frame.");
+        return getUtf8(frame, length);
+    }
+
+    private static String getUtf8(ByteBuffer frame, int length) {
+        String value;
+        if (frame.hasArray()) {
+            value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+            frame.position(frame.position() + length);
+        } else {
+            ByteBuffer scratch = scratch(SCRATCH_UTF8, length); // Direct buffer, e.g. the native receive buffer
+            frame.get(scratch.array(), 0, length);
+            value = new String(scratch.array(), 0, length, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
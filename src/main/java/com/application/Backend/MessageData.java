@@ -3,18 +3,6 @@ package com.application.Backend;
 
 import com.google.gson.annotations.SerializedName;
 
-enum MessageType {
-    CHAT,
-    JOIN,
-    LEAVE,
-    DOWNLOAD,       // For chat history download notification by a user
-    HEARTBEAT,
-    FILE_SHARE_OFFER,
-    PRIVATE_CHAT_REQUEST,
-    PRIVATE_CHAT_ACCEPTED,
-    PRIVATE_CHAT_DECLINED
-}
-
 public class MessageData {
 
     @SerializedName("type")
@@ -31,6 +19,26 @@ public class MessageData {
     @SerializedName("encryptedData")
     public String encryptedData;    // E2E encrypted chat text or other sensitive payload
 
+    // Raw IV + ciphertext when the message arrived as a binary frame (MessageCodec). Never serialized to JSON.
+    public transient byte[] encryptedPayload;
+
+    // CHAT text carried inside a sealed envelope (MessageCodec.encodeSealed/openSealed). On receipt it has already
+    // been decrypted and authenticated together with room and sender. Never serialized to JSON or unsealed frames.
+    public transient String plainText;
+
+    @SerializedName("nonceMode")
+    public String nonceMode;        // "COUNTER" if encryptedData is session id + counter IV under a session key, null for random IVs
+
+    // CHAT: CipherSuite that sealed encryptedData (null = AES_256_GCM).
+    // HEARTBEAT: the sender's preferred CipherSuite, used for room suite negotiation. Sent with wireVersion.
+    @SerializedName("cipherSuite")
+    public String cipherSuite;
+
+    // HEARTBEAT: highest MessageCodec frame version the sender can decode. Only sent to peers that advertised one
+    // themselves (older clients reject unknown fields); null means an older client, or one that has not heard ours yet.
+    @SerializedName("wireVersion")
+    public Integer wireVersion;
+
     // --- Fields for FILE_SHARE_OFFER ---
     @SerializedName("originalFilename")
     public String originalFilename;
@@ -45,7 +53,7 @@ public class MessageData {
     public String encryptedFileKey; // One-time file key, itself encrypted by the current room's key
 
     @SerializedName("fileHash")
-    public String fileHash;         // Optional: SHA-256 hash of original unencrypted file
+    public String fileHash;         // Base64 Merkle root over the file's chunks (see MerkleTree)
 
     // --- Fields for PRIVATE_CHAT_REQUEST, _ACCEPTED, _DECLINED ---
     @SerializedName("recipient")
@@ -137,6 +145,11 @@ public class MessageData {
         sb.append(", sender='").append(sender).append('\'');
         if (roomContext != null) sb.append(", roomContext='").append(roomContext).append('\''); // Added roomContext
         if (encryptedData != null) sb.append(", encryptedData='PRESENT'");
+        if (encryptedPayload != null) sb.append(", encryptedPayload=").append(encryptedPayload.length).append(" bytes");
+        if (plainText != null) sb.append(", plainText='PRESENT'");
+        if (nonceMode != null) sb.append(", nonceMode=").append(nonceMode);
+        if (cipherSuite != null) sb.append(", cipherSuite=").append(cipherSuite);
+        if (wireVersion != null) sb.append(", wireVersion=").append(wireVersion);
         if (originalFilename != null) sb.append(", originalFilename='").append(originalFilename).append('\'');
         if (originalFileSize > 0) sb.append(", originalFileSize=").append(originalFileSize);
         if (downloadUrl != null) sb.append(", downloadUrl='").append(downloadUrl).append('\'');
@@ -0,0 +1,14 @@
+// src/main/java/com/application/Backend/MessageType.java
+package com.application.Backend;
+
+enum MessageType {
+    CHAT,
+    JOIN,
+    LEAVE,
+    DOWNLOAD,       // For chat history download notification by a user
+    HEARTBEAT,
+    FILE_SHARE_OFFER,
+    PRIVATE_CHAT_REQUEST,
+    PRIVATE_CHAT_ACCEPTED,
+    PRIVATE_CHAT_DECLINED
+}
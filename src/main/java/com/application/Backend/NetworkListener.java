@@ -12,7 +12,7 @@ public interface NetworkListener {
     // WebRTC P2P Events (will be triggered by ChatController's WebRTC logic)
     void onPeerConnected(String peerUserName);          // DataChannel to a peer is open
     void onPeerDisconnected(String peerUserName);       // DataChannel to a peer is closed/failed
-    void onMessageReceived(MessageData messageData);    // Application MessageData received over a P2P DataChannel
+    void onMessageReceived(String fromPeer, MessageData messageData); // Application MessageData received over the DataChannel to fromPeer
 
     // Generic/Other Errors
     void onError(String genericMessage, Exception e);
@@ -0,0 +1,175 @@
+// src/main/java/com/application/Backend/NioFileCipher.java
+package com.application.Backend;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FileChannel + direct ByteBuffer implementation of the single-stream file format
+ * (12 byte IV, then AES-GCM ciphertext + 16 byte tag), byte-for-byte the same as the
+ * original CipherOutputStream/CipherInputStream code produced.
+ *
+ * Data goes file -> direct buffer -> Cipher.update(ByteBuffer, ByteBuffer) -> direct buffer -> file,
+ * so no byte[] copies are made on our side. Inputs of MMAP_THRESHOLD or more are memory-mapped
+ * in MAP_WINDOW pieces instead of read().
+ *
+ * Note: the JDK's GCM decryption withholds all plaintext until the tag is verified at doFinal(),
+ * so decrypting this format still buffers the whole ciphertext inside the Cipher (and is limited
+ * to < 2 GB). EncryptionService therefore writes the chunked container (ChunkedFileCipher) and only
+ * uses this class to decrypt files in the older single-stream format.
+ */
+final class NioFileCipher {
+
+    static final int IO_BUFFER_SIZE = 1024 * 1024;
+    static final long MMAP_THRESHOLD = 8L * 1024 * 1024;   // Below this, plain reads are as fast as mapping
+    private static final long MAP_WINDOW = 64L * 1024 * 1024; // Keeps address space use per mapping modest
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16; // bytes
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    // Reused per thread: [0] = input staging, [1] = cipher output. Output has room for one tag/partial block extra.
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS = ThreadLocal.withInitial(() -> new ByteBuffer[]{
+            ByteBuffer.allocateDirect(IO_BUFFER_SIZE),
+            ByteBuffer.allocateDirect(IO_BUFFER_SIZE + TAG_LENGTH)
+    });
+
+    private NioFileCipher() {}
+
+    static void encrypt(File inputFile, File outputFile, SecretKey key) throws Exception {
+        byte[] iv = new byte[IV_LENGTH];
+        CryptoContext.nextBytes(iv);
+        Cipher cipher = CryptoContext.cipher(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+
+        ByteBuffer[] buffers = BUFFERS.get();
+        ByteBuffer out = buffers[1];
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(dst, ByteBuffer.wrap(iv));
+            transform(cipher, in, dst, buffers);
+            out.clear();
+            cipher.doFinal(ByteBuffer.allocate(0), out); // Remaining block + tag
+            out.flip();
+            writeFully(dst, out);
+        }
+    }
+
+    /**
+     * Decrypts into a temporary sibling of outputFile, which replaces outputFile only once the tag has verified.
+     * On any failure the temporary file is deleted and an existing outputFile is left untouched.
+     */
+    static void decrypt(File inputFile, File outputFile, SecretKey key) throws Exception {
+        Path target = outputFile.toPath().toAbsolutePath();
+        Path partial = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".part");
+        boolean complete = false;
+        try {
+            decryptTo(inputFile, partial, key);
+            moveIntoPlace(partial, target);
+            complete = true;
+        } finally {
+            if (!complete) Files.deleteIfExists(partial);
+        }
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void decryptTo(File inputFile, Path output, SecretKey key) throws Exception {
+        ByteBuffer[] buffers = BUFFERS.get();
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (in.size() < IV_LENGTH + TAG_LENGTH) {
+                throw new IOException("Encrypted file is too short to contain IV and tag.");
+            }
+            long ciphertextLength = in.size() - IV_LENGTH;
+            if (ciphertextLength > Integer.MAX_VALUE - 64 || ciphertextLength > Runtime.getRuntime().maxMemory() / 2) {
+                // The Cipher would buffer all of it on the heap; fail cleanly instead of running out of memory
+                throw new IOException("Single-stream encrypted file too large to decrypt in memory (" + ciphertextLength + " bytes); use the chunked format.");
+            }
+            ByteBuffer iv = ByteBuffer.allocate(IV_LENGTH);
+            while (iv.hasRemaining()) in.read(iv);
+
+            Cipher cipher = CryptoContext.cipher(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv.array()));
+            transform(cipher, in, dst, buffers);
+
+            // GCM releases the (possibly large) plaintext only here. Anything that does not fit the
+            // reusable buffer goes straight into a mapping of the output file.
+            int remaining = cipher.getOutputSize(0);
+            if (remaining <= buffers[1].capacity()) {
+                ByteBuffer out = buffers[1];
+                out.clear();
+                cipher.doFinal(ByteBuffer.allocate(0), out);
+                out.flip();
+                writeFully(dst, out);
+            } else {
+                long position = dst.position();
+                ByteBuffer target = dst.map(FileChannel.MapMode.READ_WRITE, position, remaining);
+                int written = cipher.doFinal(ByteBuffer.allocate(0), target);
+                dst.truncate(position + written);
+            }
+        }
+    }
+
+    // Runs every byte of `in` from its current position through cipher.update() into `dst`.
+    private static void transform(Cipher cipher, FileChannel in, FileChannel dst, ByteBuffer[] buffers) throws Exception {
+        ByteBuffer staging = buffers[0];
+        ByteBuffer out = buffers[1];
+        long position = in.position();
+        long size = in.size();
+
+        if (size - position >= MMAP_THRESHOLD) {
+            while (position < size) {
+                long windowLength = Math.min(MAP_WINDOW, size - position);
+                ByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, windowLength);
+                while (window.hasRemaining()) {
+                    // Feed at most IO_BUFFER_SIZE per update so the output always fits `out`
+                    int step = Math.min(window.remaining(), IO_BUFFER_SIZE);
+                    ByteBuffer slice = window.duplicate();
+                    slice.limit(slice.position() + step);
+                    update(cipher, slice, out, dst);
+                    window.position(window.position() + step);
+                }
+                position += windowLength;
+            }
+            in.position(size);
+            return;
+        }
+
+        staging.clear();
+        while (in.read(staging) != -1) {
+            staging.flip();
+            update(cipher, staging, out, dst);
+            staging.clear();
+        }
+    }
+
+    private static void update(Cipher cipher, ByteBuffer input, ByteBuffer out, FileChannel dst) throws Exception {
+        out.clear();
+        cipher.update(input, out);
+        out.flip();
+        writeFully(dst, out);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+// src/main/java/com/application/Backend/OutboundQueue.java
+package com.application.Backend;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-peer send queues with backpressure from the DataChannel's bufferedAmount.
+ *
+ * While a peer's channel buffers less than the high watermark, frames go straight to send(). Once it reaches
+ * the high watermark the peer is paused: its frames are copied into a queue (pooled direct buffers) and the
+ * caller returns at once, so a slow peer never holds up sends to the others. When the buffered amount falls
+ * to the low watermark (reported by onBufferedAmountChange, or seen by a fallback poll) the queue is drained
+ * on a background thread until it is empty or the high watermark is reached again.
+ *
+ * Every frame for a peer must go through send() here, or it would overtake queued frames.
+ */
+public final class OutboundQueue {
+
+    static final long DEFAULT_HIGH_WATERMARK = 1024 * 1024;      // bytes buffered in the native channel
+    static final long DEFAULT_LOW_WATERMARK = 256 * 1024;
+    static final long DEFAULT_MAX_QUEUED_BYTES = 16 * 1024 * 1024; // per peer; beyond this send() fails
+    private static final long POLL_MILLIS = 20; // Fallback while paused, in case a buffered-amount callback is missed
+
+    /** The peer's DataChannel as seen by the queue. */
+    interface Transport {
+        long bufferedAmount(String peerId);
+        void send(String peerId, ByteBuffer frame, boolean binary) throws Exception;
+    }
+
+    private static final ScheduledExecutorService DRAIN_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "datachannel-drain");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Transport transport;
+    private final Map<String, PeerState> peers = new ConcurrentHashMap<>();
+    private volatile long highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile long lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+
+    OutboundQueue(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets when a peer is paused (buffered amount >= high) and resumed (<= low).
+     * @throws IllegalArgumentException Unless 0 <= low < high.
+     */
+    void setWatermarks(long high, long low) {
+        if (low < 0 || low >= high) {
+            throw new IllegalArgumentException("Watermarks need 0 <= low < high, got low=" + low + ", high=" + high);
+        }
+        this.highWatermark = high;
+        this.lowWatermark = low;
+    }
+
+    void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Sends the frame now, or queues a copy of it if the peer is paused.
+     * @param frame Not modified; may be reused by the caller once this returns.
+     * @throws IllegalStateException If the peer's queue is already holding maxQueuedBytes.
+     * @throws Exception From the transport's send() when sending directly.
+     */
+    void send(String peerId, ByteBuffer frame, boolean binary) throws Exception {
+        PeerState peer = peers.computeIfAbsent(peerId, PeerState::new);
+        synchronized (peer) {
+            if (!peer.paused && !peer.draining && peer.queue.isEmpty()) {
+                transport.send(peerId, frame, binary);
+                peer.sent++;
+                if (transport.bufferedAmount(peerId) >= highWatermark) pause(peer);
+                return;
+            }
+            int length = frame.remaining();
+            if (peer.queuedBytes + length > maxQueuedBytes) {
+                peer.rejected++;
+                throw new IllegalStateException("Outbound queue to " + peerId + " is full (" + peer.queuedBytes + " bytes waiting).");
+            }
+            ByteBuffer copy = DirectBufferPool.SHARED.acquire(length);
+            copy.put(frame.duplicate()).flip();
+            peer.queue.add(new Queued(copy, binary));
+            peer.queuedBytes += length;
+            peer.peakQueuedBytes = Math.max(peer.peakQueuedBytes, peer.queuedBytes);
+        }
+    }
+
+    /** Call from the DataChannel observer's onBufferedAmountChange; resumes the peer once it is at the low watermark. */
+    void onBufferedAmountChange(String peerId) {
+        PeerState peer = peers.get(peerId);
+        if (peer != null) resumeIfDrained(peer);
+    }
+
+    /** Drops the peer's queue without sending (channel gone). */
+    void removePeer(String peerId) {
+        PeerState peer = peers.remove(peerId);
+        if (peer != null) discard(peer);
+    }
+
+    void clear() {
+        peers.keySet().forEach(this::removePeer);
+    }
+
+    /** Queue depth and flow-control state per peer, in no particular order. */
+    Map<String, Stats> getStats() {
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        peers.forEach((peerId, peer) -> {
+            synchronized (peer) {
+                stats.put(peerId, new Stats(peer.queue.size(), peer.queuedBytes, peer.peakQueuedBytes, peer.paused,
+                        peer.pauses, peer.sent, peer.rejected, peer.sendFailures));
+            }
+        });
+        return stats;
+    }
+
+    // Called with the peer's lock held.
+    private void pause(PeerState peer) {
+        if (peer.paused) return;
+        peer.paused = true;
+        peer.pauses++;
+        long generation = ++peer.pollGeneration;
+        schedulePoll(peer, generation);
+    }
+
+    private void schedulePoll(PeerState peer, long generation) {
+        DRAIN_EXECUTOR.schedule(() -> {
+            synchronized (peer) {
+                if (!peer.paused || peer.pollGeneration != generation || peers.get(peer.peerId) != peer) return;
+            }
+            if (!resumeIfDrained(peer)) schedulePoll(peer, generation);
+        }, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns true if the peer is not (or no longer) paused.
+    private boolean resumeIfDrained(PeerState peer) {
+        synchronized (peer) {
+            if (!peer.paused) return true;
+            if (transport.bufferedAmount(peer.peerId) > lowWatermark) return false;
+            peer.paused = false;
+            peer.pollGeneration++;
+            if (peer.queue.isEmpty() || peer.draining) return true;
+            peer.draining = true;
+        }
+        DRAIN_EXECUTOR.execute(() -> drain(peer));
+        return true;
+    }
+
+    // Only one drain runs per peer (the draining flag), and direct sends wait while it does, so order is kept.
+    // Frames are sent outside the lock so callers queuing more for this peer are not held up.
+    private void drain(PeerState peer) {
+        while (true) {
+            Queued next;
+            synchronized (peer) {
+                if (peers.get(peer.peerId) != peer) { // Removed meanwhile; removePeer() released the queue
+                    peer.draining = false;
+                    return;
+                }
+                if (peer.queue.isEmpty()) {
+                    peer.draining = false;
+                    return;
+                }
+                if (transport.bufferedAmount(peer.peerId) >= highWatermark) {
+                    peer.draining = false;
+                    pause(peer);
+                    return;
+                }
+                next = peer.queue.poll();
+                peer.queuedBytes -= next.frame.remaining();
+            }
+            try {
+                transport.send(peer.peerId, next.frame.slice(), next.binary);
+                synchronized (peer) { peer.sent++; }
+            } catch (Exception e) {
+                synchronized (peer) { peer.sendFailures++; }
+                System.err.println("[Outbound] Failed to send queued frame to " + peer.peerId + ": " + e.getMessage());
+            } finally {
+                DirectBufferPool.SHARED.release(next.frame);
+            }
+        }
+    }
+
+    private void discard(PeerState peer) {
+        synchronized (peer) {
+            Queued q;
+            while ((q = peer.queue.poll()) != null) DirectBufferPool.SHARED.release(q.frame);
+            peer.queuedBytes = 0;
+            peer.paused = false;
+        }
+    }
+
+    private static final class PeerState {
+        final String peerId;
+        final ArrayDeque<Queued> queue = new ArrayDeque<>();
+        long queuedBytes;
+        boolean paused;    // Buffered amount reached the high watermark; waiting for the low one
+        boolean draining;  // A drain task owns sending for this peer
+        long pollGeneration;
+        // Counters for getStats()
+        long peakQueuedBytes, pauses, sent, rejected, sendFailures;
+
+        PeerState(String peerId) {
+            this.peerId = peerId;
+        }
+    }
+
+    private static final class Queued {
+        final ByteBuffer frame; // Pooled copy, [0, limit)
+        final boolean binary;
+
+        Queued(ByteBuffer frame, boolean binary) {
+            this.frame = frame;
+            this.binary = binary;
+        }
+    }
+
+    /** Snapshot of one peer's queue. */
+    public static final class Stats {
+        public final int queuedFrames;
+        public final long queuedBytes;
+        public final long peakQueuedBytes; // Deepest the queue has been
+        public final boolean paused;
+        public final long pauses;          // Times the peer hit the high watermark
+        public final long framesSent;
+        public final long framesRejected;  // send() calls refused because the queue was full
+        public final long sendFailures;    // Queued frames the channel refused while draining
+
+        Stats(int queuedFrames, long queuedBytes, long peakQueuedBytes, boolean paused, long pauses, long framesSent, long framesRejected, long sendFailures) {
+            this.queuedFrames = queuedFrames;
+            this.queuedBytes = queuedBytes;
+            this.peakQueuedBytes = peakQueuedBytes;
+            this.paused = paused;
+            this.pauses = pauses;
+            this.framesSent = framesSent;
+            this.framesRejected = framesRejected;
+            this.sendFailures = sendFailures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Outbound{queued=%d frames/%d bytes, peak=%d bytes, paused=%s, pauses=%d, sent=%d, rejected=%d, failures=%d}",
+                    queuedFrames, queuedBytes, peakQueuedBytes, paused, pauses, framesSent, framesRejected, sendFailures);
+        }
+    }
+}
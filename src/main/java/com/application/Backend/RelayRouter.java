@@ -0,0 +1,132 @@
+// src/main/java/com/application/Backend/RelayRouter.java
+package com.application.Backend;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Forwarding rules for relay mode (see RelayTopology).
+ *
+ * A relay hands every app frame it gets from a leaf to all its other peers, and every frame from another
+ * relay to its leaves only, so nothing travels more than leaf -> relay -> relay -> leaf and nothing loops.
+ * Frames are forwarded as received (already encrypted), never re-encoded. Leaves send their own messages to
+ * one relay, but hear from LINKS_PER_LEAF relays, and rooms briefly disagree about the topology while the
+ * roster changes, so copies are expected: firstSighting() drops any frame whose digest was seen among the
+ * last SEEN_CAPACITY.
+ */
+public final class RelayRouter {
+
+    private static final int SEEN_CAPACITY = 4096;
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // Every JRE ships it
+        }
+    });
+
+    private volatile RelayTopology topology = RelayTopology.MESH;
+    private final Map<Long, Boolean> seen = new LinkedHashMap<Long, Boolean>(SEEN_CAPACITY * 2, 0.75f, false) { // Guarded by itself
+        @Override protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) { return size() > SEEN_CAPACITY; }
+    };
+    private final AtomicLong framesForwarded = new AtomicLong();
+    private final AtomicLong duplicatesDropped = new AtomicLong();
+
+    RelayTopology topology() {
+        return topology;
+    }
+
+    void setTopology(RelayTopology topology) {
+        this.topology = topology;
+    }
+
+    /** False if the same frame already arrived (by another relay, or from a peer still on the old topology). */
+    boolean firstSighting(ByteBuffer frame) {
+        MessageDigest sha256 = SHA256.get();
+        sha256.update(frame.duplicate());
+        long digest = ByteBuffer.wrap(sha256.digest()).getLong();
+        boolean first;
+        synchronized (seen) {
+            first = seen.put(digest, Boolean.TRUE) == null;
+        }
+        if (!first) duplicatesDropped.incrementAndGet();
+        return first;
+    }
+
+    /**
+     * Peers a frame is handed on to; empty unless we are a relay.
+     * @param from   The peer it came from.
+     * @param origin The member that wrote it, who never gets it back.
+     */
+    List<String> forwardTargets(String from, String origin, Collection<String> peers) {
+        RelayTopology t = topology;
+        List<String> targets = new ArrayList<>();
+        if (!t.isRelayMode() || !t.selfIsRelay()) return targets;
+        boolean fromRelay = t.isRelay(from);
+        for (String peer : peers) {
+            if (!peer.equals(from) && !peer.equals(origin) && !(fromRelay && t.isRelay(peer))) targets.add(peer);
+        }
+        return targets;
+    }
+
+    /**
+     * Where our own broadcasts go: all of peers, except that a leaf sends to its best open relay only
+     * (or to all of them while no relay is open yet: better a direct peer than nobody).
+     */
+    List<String> broadcastTargets(Collection<String> peers, Predicate<String> isOpen) {
+        RelayTopology t = topology;
+        if (t.isRelayMode() && !t.selfIsRelay()) {
+            for (String relay : t.relayPreference()) {
+                if (peers.contains(relay) && isOpen.test(relay)) return List.of(relay);
+            }
+        }
+        return new ArrayList<>(peers);
+    }
+
+    void countForwarded(int frames) {
+        framesForwarded.addAndGet(frames);
+    }
+
+    void reset() {
+        topology = RelayTopology.MESH;
+        synchronized (seen) {
+            seen.clear();
+        }
+    }
+
+    Stats getStats() {
+        RelayTopology t = topology;
+        return new Stats(t.isRelayMode(), t.isRelayMode() && t.selfIsRelay(), t.relays(), framesForwarded.get(), duplicatesDropped.get());
+    }
+
+    /** Snapshot of relay activity. */
+    public static final class Stats {
+        public final boolean relayMode;
+        public final boolean relay;            // We are one of the relays
+        public final List<String> relays;
+        public final long framesForwarded;     // Frames handed on to other peers (one count per target)
+        public final long duplicatesDropped;   // Copies that had already arrived another way
+
+        Stats(boolean relayMode, boolean relay, List<String> relays, long framesForwarded, long duplicatesDropped) {
+            this.relayMode = relayMode;
+            this.relay = relay;
+            this.relays = relays;
+            this.framesForwarded = framesForwarded;
+            this.duplicatesDropped = duplicatesDropped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Relay{mode=%s, relay=%s, relays=%s, forwarded=%d, duplicates=%d}",
+                    relayMode ? "relay" : "mesh", relay, relays, framesForwarded, duplicatesDropped);
+        }
+    }
+}
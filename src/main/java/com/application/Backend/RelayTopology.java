@@ -0,0 +1,152 @@
+// src/main/java/com/application/Backend/RelayTopology.java
+package com.application.Backend;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Who holds a peer connection to whom in a room. Immutable; recomputed whenever the roster changes.
+ *
+ * Below the configured room size (or with relay mode off) the room is a full mesh. From that size on, a few
+ * members are elected relays. Relays connect to each other, every other member (a leaf) connects to
+ * LINKS_PER_LEAF of them, and relays pass already-encrypted chat frames between the two (see RelayRouter).
+ *
+ * Relays are the members ranked highest by a rendezvous hash of room and name. So every member computes the
+ * same set from the signaling roster without an extra protocol round, and a join or leave moves at most one
+ * relay. About sqrt(LINKS_PER_LEAF * n) relays balance the relay mesh against the leaves each relay carries:
+ * in a room of 100 that is 15 relays with about 25 connections each, and 2 for everyone else, instead of 99
+ * each. Each leaf ranks the relays by its own rendezvous hash, which spreads leaves evenly, and moves down
+ * its list past relays it could not reach.
+ */
+public final class RelayTopology {
+
+    static final int LINKS_PER_LEAF = 2;
+
+    // Relay mode is off unless configured: a client that does not forward (an older build, or one with a different
+    // threshold) would cut its leaves off from the room. Enable it only where every client of the room runs with the
+    // same threshold; 32 is a reasonable value, below which a member's 30-odd connections are still cheap.
+    static final int DEFAULT_MIN_ROOM_SIZE = 0;
+
+    /** Full mesh, for before the first roster arrives. */
+    static final RelayTopology MESH = new RelayTopology(null, Collections.emptySet(), Collections.emptyList(), Collections.emptyList());
+
+    private final String self;
+    private final Set<String> roster;            // Everyone in the room, including self
+    private final List<String> relays;           // Empty in mesh mode
+    private final List<String> relayPreference;  // The relays in the order self (as a leaf) tries them
+
+    private RelayTopology(String self, Set<String> roster, List<String> relays, List<String> relayPreference) {
+        this.self = self;
+        this.roster = roster;
+        this.relays = relays;
+        this.relayPreference = relayPreference;
+    }
+
+    /**
+     * @param minRoomSize Relay mode starts at this many members (self included); 0 keeps the room a full mesh.
+     */
+    static RelayTopology elect(String room, Collection<String> roster, String self, int minRoomSize) {
+        Set<String> members = new TreeSet<>(roster);
+        members.add(self);
+        int n = members.size();
+        if (minRoomSize <= 0 || n < minRoomSize || n <= LINKS_PER_LEAF + 1) {
+            return new RelayTopology(self, Collections.unmodifiableSet(members), Collections.emptyList(), Collections.emptyList());
+        }
+        int relayCount = Math.min(n, Math.max(LINKS_PER_LEAF, (int) Math.ceil(Math.sqrt((double) LINKS_PER_LEAF * n))));
+        List<String> ranked = rankBy(room, members);
+        List<String> relays = Collections.unmodifiableList(new ArrayList<>(ranked.subList(0, relayCount)));
+        List<String> preference = relays.contains(self) ? Collections.emptyList() : Collections.unmodifiableList(rankBy(self, relays));
+        return new RelayTopology(self, Collections.unmodifiableSet(members), relays, preference);
+    }
+
+    boolean isRelayMode() {
+        return !relays.isEmpty();
+    }
+
+    boolean isRelay(String member) {
+        return relays.contains(member);
+    }
+
+    boolean selfIsRelay() {
+        return isRelay(self);
+    }
+
+    List<String> relays() {
+        return relays;
+    }
+
+    int roomSize() {
+        return roster.size();
+    }
+
+    /**
+     * The peers self should hold a connection to. A leaf takes the first LINKS_PER_LEAF relays of its
+     * preference that are not in `unreachable` (falling back to unreachable ones if too few are left).
+     */
+    Set<String> wantedLinks(Set<String> unreachable) {
+        Set<String> wanted = new LinkedHashSet<>();
+        if (!isRelayMode()) {
+            wanted.addAll(roster);
+        } else if (selfIsRelay()) {
+            wanted.addAll(relays);
+        } else {
+            for (String relay : relayPreference) {
+                if (wanted.size() < LINKS_PER_LEAF && !unreachable.contains(relay)) wanted.add(relay);
+            }
+            for (String relay : relayPreference) {
+                if (wanted.size() < LINKS_PER_LEAF) wanted.add(relay);
+            }
+        }
+        wanted.remove(self);
+        return wanted;
+    }
+
+    /**
+     * True if self makes the offer for a link to peer. Only the leaf knows which relays it picked, so leaves
+     * always offer to relays; otherwise the lexicographically smaller name offers, as in the full mesh.
+     */
+    boolean shouldOffer(String peer) {
+        if (isRelayMode() && !selfIsRelay() && isRelay(peer)) return true;
+        if (isRelayMode() && selfIsRelay() && !isRelay(peer)) return false;
+        return self.compareTo(peer) < 0;
+    }
+
+    /** Relay preference of self as a leaf, best first; empty for relays and in mesh mode. */
+    List<String> relayPreference() {
+        return relayPreference;
+    }
+
+    // Highest rendezvous weight first; names break (practically impossible) ties so every member agrees.
+    private static List<String> rankBy(String key, Collection<String> members) {
+        List<String> ranked = new ArrayList<>(members);
+        ranked.sort(Comparator.comparingLong((String member) -> weight(key, member)).reversed().thenComparing(Comparator.naturalOrder()));
+        return ranked;
+    }
+
+    private static long weight(String key, String member) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(key.getBytes(StandardCharsets.UTF_8));
+            sha256.update((byte) 0); // So ("ab", "c") and ("a", "bc") differ
+            sha256.update(member.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(sha256.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // Every JRE ships it
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isRelayMode() ? "relay mode (" + roster.size() + " members, relays " + relays + ")" : "full mesh (" + roster.size() + " members)";
+    }
+}
@@ -0,0 +1,70 @@
+// src/main/java/com/application/Backend/ReplayWindow.java
+package com.application.Backend;
+
+import java.util.Arrays;
+
+/**
+ * Sliding replay window over one sender session's message counters (COUNTER nonce mode, see EncryptionService).
+ *
+ * Remembers the highest accepted counter and, in a bitmap, which of the SIZE counters up to it were accepted.
+ * A counter is fresh if it is newer than the highest one, or inside the window and not seen yet, so frames
+ * that overtake each other on the way (parallel encoding, relays, several DataChannels) are still delivered
+ * once each. Counters older than the window are rejected: they cannot be told apart from replays.
+ *
+ * Thread-safe; the bitmap is circular, bit (counter % SIZE) belongs to the counter.
+ */
+final class ReplayWindow {
+
+    static final int SIZE = 1024; // Counters, a multiple of 64
+
+    private final long[] bits = new long[SIZE / 64];
+    private long highest = -1; // Guarded by this
+
+    /** True if the counter has not been accepted and is not older than the window. Does not change the window. */
+    synchronized boolean isFresh(long counter) {
+        if (counter < 0) return false;
+        if (counter > highest) return true;
+        if (highest - counter >= SIZE) return false;
+        return !isSet(counter);
+    }
+
+    /**
+     * Records the counter as seen, sliding the window forward if it is the newest so far.
+     * Call only once the frame has authenticated.
+     * @return False if the counter was not fresh (a concurrent duplicate got here first); nothing changes then.
+     */
+    synchronized boolean accept(long counter) {
+        if (!isFresh(counter)) return false;
+        if (counter > highest) {
+            if (counter - highest >= SIZE) {
+                Arrays.fill(bits, 0L);
+            } else {
+                for (long c = highest + 1; c < counter; c++) clear(c); // Skipped counters may still arrive
+            }
+            highest = counter;
+        }
+        bits[index(counter) >>> 6] |= bit(counter);
+        return true;
+    }
+
+    /** Highest accepted counter, -1 before the first one. */
+    synchronized long highest() {
+        return highest;
+    }
+
+    private boolean isSet(long counter) {
+        return (bits[index(counter) >>> 6] & bit(counter)) != 0;
+    }
+
+    private void clear(long counter) {
+        bits[index(counter) >>> 6] &= ~bit(counter);
+    }
+
+    private static int index(long counter) {
+        return (int) (counter % SIZE);
+    }
+
+    private static long bit(long counter) {
+        return 1L << (index(counter) & 63);
+    }
+}
@@ -0,0 +1,68 @@
+// src/main/java/com/application/Backend/RoomKey.java
+package com.application.Backend;
+
+import javax.crypto.SecretKey;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A symmetric key whose raw bytes we own and can wipe.
+ * SecretKeySpec cannot be destroyed (destroy() throws), so room keys that may be evicted
+ * from caches use this instead. After destroy() the key can no longer be used for Cipher.init().
+ *
+ * Keys are used lock-free from other threads (broadcast encoding) while the EDT may destroy them, so destroy()
+ * marks the key before wiping it and getEncoded() checks the mark again after copying: a copy that may have
+ * caught the wipe half-way is thrown away instead of being used as a (known, all-zero) key.
+ */
+final class RoomKey implements SecretKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String algorithm;
+    private final byte[] keyBytes;
+    private volatile boolean destroyed = false;
+
+    // Takes ownership of keyBytes; the caller must not keep or reuse the array.
+    RoomKey(byte[] keyBytes, String algorithm) {
+        this.keyBytes = keyBytes;
+        this.algorithm = algorithm;
+    }
+
+    /** Independent copy with its own lifetime, so one holder wiping its key never affects another. */
+    RoomKey copy() {
+        return new RoomKey(getEncoded(), algorithm);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (destroyed) throw new IllegalStateException("Room key has been destroyed.");
+        byte[] copy = keyBytes.clone();
+        VarHandle.acquireFence(); // The copy's reads complete before the check below
+        if (destroyed) {
+            Arrays.fill(copy, (byte) 0);
+            throw new IllegalStateException("Room key has been destroyed.");
+        }
+        return copy;
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true; // First, so a concurrent getEncoded() sees it after any partly wiped copy
+        Arrays.fill(keyBytes, (byte) 0);
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+}
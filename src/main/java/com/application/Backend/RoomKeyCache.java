@@ -0,0 +1,76 @@
+// src/main/java/com/application/Backend/RoomKeyCache.java
+package com.application.Backend;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU cache of derived room keys, keyed by room name + SHA-256 of the password.
+ * Lets a switch back to an already derived room skip PBKDF2 entirely.
+ * Keys pushed out of the cache (or cleared) are wiped; callers get copies they own.
+ */
+final class RoomKeyCache {
+
+    private final int capacity;
+    private final LinkedHashMap<String, RoomKey> entries;
+
+    RoomKeyCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(capacity + 1, 0.75f, true); // access order = LRU
+    }
+
+    /** Returns a private copy of the cached key, or null if this room/password was not derived yet. */
+    synchronized RoomKey get(String roomName, String password) {
+        RoomKey key = entries.get(cacheKey(roomName, password));
+        return (key != null) ? key.copy() : null;
+    }
+
+    synchronized boolean contains(String roomName, String password) {
+        return entries.containsKey(cacheKey(roomName, password));
+    }
+
+    // The cached instance itself rather than a copy, without touching the LRU order: lets tests see it wiped.
+    synchronized RoomKey peek(String roomName, String password) {
+        String key = cacheKey(roomName, password);
+        for (Map.Entry<String, RoomKey> entry : entries.entrySet()) {
+            if (entry.getKey().equals(key)) return entry.getValue();
+        }
+        return null;
+    }
+
+    /** Stores a copy of the key, wiping whatever it replaces or pushes out. */
+    synchronized void put(String roomName, String password, RoomKey key) {
+        RoomKey previous = entries.put(cacheKey(roomName, password), key.copy());
+        if (previous != null) previous.destroy();
+        Iterator<Map.Entry<String, RoomKey>> it = entries.entrySet().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Map.Entry<String, RoomKey> eldest = it.next();
+            eldest.getValue().destroy();
+            it.remove();
+            System.out.println("[Crypto] Evicted cached room key (LRU).");
+        }
+    }
+
+    synchronized void clear() {
+        entries.values().forEach(RoomKey::destroy);
+        entries.clear();
+    }
+
+    // The password itself is never kept; only its SHA-256 is part of the lookup key.
+    static String cacheKey(String roomName, String password) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(roomName.length() + 1 + digest.length * 2).append(roomName).append('\0');
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // Mandatory in every JRE
+        }
+    }
+}
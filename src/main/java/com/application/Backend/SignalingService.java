@@ -16,7 +16,7 @@ import java.util.Map;
 public class SignalingService {
     private WebSocketClient wsClient;
     private final NetworkListener networkListener; // Your existing listener interface
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper objectMapper = WireJson.MAPPER; // Hand-written codecs, see WireJson
     private String currentUserNameForSignaling; // To send in join messages
     private String currentRoomForSignaling;
 
@@ -42,11 +42,16 @@ public class SignalingService {
                 @Override
                 public void onOpen(ServerHandshake handshakedata) {
                     System.out.println("[SignalingService] Connection opened to signaling server.");
-                    // After connection is open, send the join message
+                    // After connection is open, send the join message.
+                    // cipherSuite advertises our preferred message AEAD to the room (see CipherSuite.negotiate),
+                    // wireVersion the MessageCodec frames we decode. Members already in the room get both with
+                    // user_joined, so they know what we read before any P2P message (see ChatController.sendHeartbeat).
                     ClientSignalingMessage joinMsg = new ClientSignalingMessage(
                             "join",
                             currentRoomForSignaling,
-                            Map.of("user", currentUserNameForSignaling, "room", currentRoomForSignaling)
+                            Map.of("user", currentUserNameForSignaling, "room", currentRoomForSignaling,
+                                    "cipherSuite", CipherSuite.preferred().name(),
+                                    "wireVersion", String.valueOf(MessageCodec.WIRE_VERSION))
                     );
                     // The server-side handler expects 'fromUser' from the client, or extracts from payload.
                     // To be explicit, also set the top-level fromUser if your DTO allows and server uses it:
@@ -0,0 +1,355 @@
+// src/main/java/com/application/Backend/WireJson.java
+package com.application.Backend;
+
+import com.application.Backend.dto.ClientSignalingMessage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedOutputStream;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written Jackson codecs for the two JSON wire families: MessageData (P2P DataChannel) and
+ * ClientSignalingMessage with its payload classes (signaling WebSocket).
+ *
+ * Registered once on MAPPER, so Jackson never introspects these classes: no bean reflection on first use
+ * (which used to cost tens of milliseconds on the first message of each kind) and no reflection
+ * configuration to maintain for native-image builds. Output is the same JSON as before, minus null fields.
+ *
+ * Signaling payloads are decoded straight into their typed class (SdpPayload, IceCandidatePayload, ...)
+ * based on the message type, instead of into a Map and then again through convertValue().
+ * Types without a payload class (e.g. welcome_to_room) still get a plain Map/List.
+ */
+public final class WireJson {
+
+    /** Shared, fully configured mapper. Thread-safe; use it (or readers derived from it) instead of new ObjectMapper(). */
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            // Unknown fields are ignored so peers on a newer build (extra fields) can still talk to us
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .registerModule(new SimpleModule("WireJson")
+                    .addSerializer(MessageData.class, new MessageDataSerializer())
+                    .addDeserializer(MessageData.class, new MessageDataDeserializer())
+                    .addSerializer(ClientSignalingMessage.class, new SignalingSerializer())
+                    .addDeserializer(ClientSignalingMessage.class, new SignalingDeserializer()));
+
+    private WireJson() {}
+
+    /**
+     * Serializes value with MAPPER straight into a pooled direct buffer (no byte[] from writeValueAsBytes), trying
+     * sizeGuess bytes first. Values that outgrow it are serialized again into a buffer of their exact size.
+     * The frame occupies [0, limit); release the buffer to DirectBufferPool.SHARED once it is sent.
+     */
+    static ByteBuffer writePooled(Object value, int sizeGuess) throws IOException {
+        ByteBuffer buffer = DirectBufferPool.SHARED.acquire(sizeGuess);
+        try {
+            MAPPER.writeValue(new ByteBufferBackedOutputStream(buffer), value);
+        } catch (BufferOverflowException | IOException e) {
+            DirectBufferPool.SHARED.release(buffer);
+            if (!isOverflow(e)) throw e;
+            byte[] json = MAPPER.writeValueAsBytes(value);
+            buffer = DirectBufferPool.SHARED.acquire(json.length);
+            buffer.put(json);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // The overflow surfaces as is when the generator flushes on close, but from inside serialize() (a value larger
+    // than the generator's ~8 KB buffer) Jackson wraps it in a JsonMappingException.
+    private static boolean isOverflow(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof BufferOverflowException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The payload of a signaling message as the given payload class. Messages parsed by MAPPER already carry
+     * the typed object; a Map payload (e.g. a message whose "payload" came before its "type") is converted by hand.
+     * @throws IllegalArgumentException If the payload is neither of that class nor a JSON object.
+     */
+    public static <T> T payload(ClientSignalingMessage message, Class<T> type) {
+        Object payload = message.getPayload();
+        if (type.isInstance(payload)) return type.cast(payload);
+        if (!(payload instanceof Map)) {
+            throw new IllegalArgumentException("Signaling payload of '" + message.getType() + "' is not a " + type.getSimpleName());
+        }
+        Map<?, ?> map = (Map<?, ?>) payload;
+        Object converted;
+        if (type == ClientSignalingMessage.SdpPayload.class) {
+            ClientSignalingMessage.SdpPayload sdp = new ClientSignalingMessage.SdpPayload();
+            sdp.setSdpType(asString(map.get("type")));
+            sdp.setSdp(asString(map.get("sdp")));
+            converted = sdp;
+        } else if (type == ClientSignalingMessage.IceCandidatePayload.class) {
+            ClientSignalingMessage.IceCandidatePayload ice = new ClientSignalingMessage.IceCandidatePayload();
+            ice.setCandidate(asString(map.get("candidate")));
+            ice.setSdpMid(asString(map.get("sdpMid")));
+            ice.setSdpMLineIndex((map.get("sdpMLineIndex") instanceof Number) ? ((Number) map.get("sdpMLineIndex")).intValue() : 0);
+            converted = ice;
+        } else if (type == ClientSignalingMessage.RoomPeersPayload.class) {
+            ClientSignalingMessage.RoomPeersPayload peers = new ClientSignalingMessage.RoomPeersPayload();
+            if (map.get("users") instanceof List) {
+                List<String> users = new ArrayList<>();
+                for (Object user : (List<?>) map.get("users")) users.add(asString(user));
+                peers.setUsers(users);
+            }
+            converted = peers;
+        } else if (type == ClientSignalingMessage.UserEventPayload.class) {
+            ClientSignalingMessage.UserEventPayload event = new ClientSignalingMessage.UserEventPayload();
+            event.setUser(asString(map.get("user")));
+            event.setCipherSuite(asString(map.get("cipherSuite")));
+            event.setWireVersion(asInteger(map.get("wireVersion")));
+            converted = event;
+        } else {
+            throw new IllegalArgumentException("No payload codec for " + type.getName());
+        }
+        return type.cast(converted);
+    }
+
+    private static String asString(Object value) {
+        return (value != null) ? value.toString() : null;
+    }
+
+    // Join payload values are strings, so the server may relay a number either way; anything else reads as absent.
+    private static Integer asInteger(Object value) {
+        if (value instanceof Number) return ((Number) value).intValue();
+        try {
+            return (value != null) ? Integer.valueOf(value.toString().trim()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // --- MessageData ---
+
+    static final class MessageDataSerializer extends JsonSerializer<MessageData> {
+        @Override
+        public void serialize(MessageData m, JsonGenerator g, SerializerProvider provider) throws IOException {
+            g.writeStartObject();
+            if (m.type != null) g.writeStringField("type", m.type.name());
+            writeIfPresent(g, "sender", m.sender);
+            writeIfPresent(g, "roomContext", m.roomContext);
+            writeIfPresent(g, "encryptedData", m.encryptedData);
+            writeIfPresent(g, "nonceMode", m.nonceMode);
+            writeIfPresent(g, "cipherSuite", m.cipherSuite);
+            if (m.wireVersion != null) g.writeNumberField("wireVersion", m.wireVersion);
+            writeIfPresent(g, "originalFilename", m.originalFilename);
+            if (m.originalFileSize != 0) g.writeNumberField("originalFileSize", m.originalFileSize);
+            writeIfPresent(g, "downloadUrl", m.downloadUrl);
+            writeIfPresent(g, "encryptedFileKey", m.encryptedFileKey);
+            writeIfPresent(g, "fileHash", m.fileHash);
+            writeIfPresent(g, "recipient", m.recipient);
+            writeIfPresent(g, "proposedRoomName", m.proposedRoomName);
+            writeIfPresent(g, "proposedRoomPassword", m.proposedRoomPassword);
+            g.writeEndObject();
+        }
+    }
+
+    static final class MessageDataDeserializer extends JsonDeserializer<MessageData> {
+        @Override
+        public MessageData deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            expectObject(p, ctxt, MessageData.class);
+            MessageData m = new MessageData();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "type":
+                        String type = text(p);
+                        try {
+                            m.type = (type != null) ? MessageType.valueOf(type) : null;
+                        } catch (IllegalArgumentException e) {
+                            throw ctxt.weirdStringException(type, MessageType.class, "unknown message type");
+                        }
+                        break;
+                    case "sender": m.sender = text(p); break;
+                    case "roomContext": m.roomContext = text(p); break;
+                    case "encryptedData": m.encryptedData = text(p); break;
+                    case "nonceMode": m.nonceMode = text(p); break;
+                    case "cipherSuite": m.cipherSuite = text(p); break;
+                    case "wireVersion": m.wireVersion = (value == JsonToken.VALUE_NULL) ? null : p.getValueAsInt(); break;
+                    case "originalFilename": m.originalFilename = text(p); break;
+                    case "originalFileSize": m.originalFileSize = p.getValueAsLong(); break;
+                    case "downloadUrl": m.downloadUrl = text(p); break;
+                    case "encryptedFileKey": m.encryptedFileKey = text(p); break;
+                    case "fileHash": m.fileHash = text(p); break;
+                    case "recipient": m.recipient = text(p); break;
+                    case "proposedRoomName": m.proposedRoomName = text(p); break;
+                    case "proposedRoomPassword": m.proposedRoomPassword = text(p); break;
+                    default: p.skipChildren(); // Field from a newer peer
+                }
+            }
+            return m;
+        }
+    }
+
+    // --- ClientSignalingMessage ---
+
+    static final class SignalingSerializer extends JsonSerializer<ClientSignalingMessage> {
+        @Override
+        public void serialize(ClientSignalingMessage m, JsonGenerator g, SerializerProvider provider) throws IOException {
+            g.writeStartObject();
+            writeIfPresent(g, "type", m.getType());
+            writeIfPresent(g, "fromUser", m.getFromUser());
+            writeIfPresent(g, "toUser", m.getToUser());
+            writeIfPresent(g, "room", m.getRoom());
+            Object payload = m.getPayload();
+            if (payload != null) {
+                g.writeFieldName("payload");
+                writePayload(g, payload, provider);
+            }
+            g.writeEndObject();
+        }
+
+        private static void writePayload(JsonGenerator g, Object payload, SerializerProvider provider) throws IOException {
+            if (payload instanceof ClientSignalingMessage.SdpPayload) {
+                ClientSignalingMessage.SdpPayload sdp = (ClientSignalingMessage.SdpPayload) payload;
+                g.writeStartObject();
+                writeIfPresent(g, "type", sdp.getSdpType());
+                writeIfPresent(g, "sdp", sdp.getSdp());
+                g.writeEndObject();
+            } else if (payload instanceof ClientSignalingMessage.IceCandidatePayload) {
+                ClientSignalingMessage.IceCandidatePayload ice = (ClientSignalingMessage.IceCandidatePayload) payload;
+                g.writeStartObject();
+                writeIfPresent(g, "candidate", ice.getCandidate());
+                writeIfPresent(g, "sdpMid", ice.getSdpMid());
+                g.writeNumberField("sdpMLineIndex", ice.getSdpMLineIndex());
+                g.writeEndObject();
+            } else if (payload instanceof ClientSignalingMessage.RoomPeersPayload) {
+                List<String> users = ((ClientSignalingMessage.RoomPeersPayload) payload).getUsers();
+                g.writeStartObject();
+                if (users != null) {
+                    g.writeArrayFieldStart("users");
+                    for (String user : users) g.writeString(user);
+                    g.writeEndArray();
+                }
+                g.writeEndObject();
+            } else if (payload instanceof ClientSignalingMessage.UserEventPayload) {
+                ClientSignalingMessage.UserEventPayload event = (ClientSignalingMessage.UserEventPayload) payload;
+                g.writeStartObject();
+                writeIfPresent(g, "user", event.getUser());
+                writeIfPresent(g, "cipherSuite", event.getCipherSuite());
+                if (event.getWireVersion() != null) g.writeNumberField("wireVersion", event.getWireVersion());
+                g.writeEndObject();
+            } else {
+                provider.defaultSerializeValue(payload, g); // Maps, lists and strings: Jackson's container serializers
+            }
+        }
+    }
+
+    static final class SignalingDeserializer extends JsonDeserializer<ClientSignalingMessage> {
+        @Override
+        public ClientSignalingMessage deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            expectObject(p, ctxt, ClientSignalingMessage.class);
+            ClientSignalingMessage m = new ClientSignalingMessage();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "type": m.setType(text(p)); break;
+                    case "fromUser": m.setFromUser(text(p)); break;
+                    case "toUser": m.setToUser(text(p)); break;
+                    case "room": m.setRoom(text(p)); break;
+                    case "payload":
+                        // The server writes "type" first, so the payload class is usually known by now
+                        m.setPayload((value == JsonToken.START_OBJECT && m.getType() != null)
+                                ? readTypedPayload(p, ctxt, m.getType())
+                                : ctxt.readValue(p, Object.class));
+                        break;
+                    default: p.skipChildren();
+                }
+            }
+            return m;
+        }
+
+        private static Object readTypedPayload(JsonParser p, DeserializationContext ctxt, String type) throws IOException {
+            switch (type.toLowerCase()) {
+                case "offer":
+                case "answer": {
+                    ClientSignalingMessage.SdpPayload sdp = new ClientSignalingMessage.SdpPayload();
+                    for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                        p.nextToken();
+                        if ("type".equals(field)) sdp.setSdpType(text(p));
+                        else if ("sdp".equals(field)) sdp.setSdp(text(p));
+                        else p.skipChildren();
+                    }
+                    return sdp;
+                }
+                case "candidate": {
+                    ClientSignalingMessage.IceCandidatePayload ice = new ClientSignalingMessage.IceCandidatePayload();
+                    for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                        p.nextToken();
+                        if ("candidate".equals(field)) ice.setCandidate(text(p));
+                        else if ("sdpMid".equals(field)) ice.setSdpMid(text(p));
+                        else if ("sdpMLineIndex".equals(field)) ice.setSdpMLineIndex(p.getValueAsInt());
+                        else p.skipChildren();
+                    }
+                    return ice;
+                }
+                case "peers": {
+                    ClientSignalingMessage.RoomPeersPayload peers = new ClientSignalingMessage.RoomPeersPayload();
+                    for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                        JsonToken value = p.nextToken();
+                        if ("users".equals(field) && value == JsonToken.START_ARRAY) {
+                            List<String> users = new ArrayList<>();
+                            while (p.nextToken() != JsonToken.END_ARRAY) users.add(text(p));
+                            peers.setUsers(users);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                    return peers;
+                }
+                case "user_joined":
+                case "user_left": {
+                    ClientSignalingMessage.UserEventPayload event = new ClientSignalingMessage.UserEventPayload();
+                    for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                        p.nextToken();
+                        if ("user".equals(field)) event.setUser(text(p));
+                        else if ("cipherSuite".equals(field)) event.setCipherSuite(text(p));
+                        else if ("wireVersion".equals(field)) event.setWireVersion(asInteger(text(p)));
+                        else p.skipChildren();
+                    }
+                    return event;
+                }
+                default:
+                    return ctxt.readValue(p, Object.class); // e.g. welcome_to_room: a Map, read by ChatController as before
+            }
+        }
+    }
+
+    // --- Helpers ---
+
+    private static void writeIfPresent(JsonGenerator g, String name, String value) throws IOException {
+        if (value != null) g.writeStringField(name, value);
+    }
+
+    private static void expectObject(JsonParser p, DeserializationContext ctxt, Class<?> type) throws IOException {
+        if (!p.isExpectedStartObjectToken()) {
+            ctxt.handleUnexpectedToken(type, p);
+        }
+    }
+
+    // String value of the current token; null for JSON null. Numbers and booleans are accepted as text.
+    private static String text(JsonParser p) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NULL) return null;
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return null;
+        }
+        return p.getText();
+    }
+}
@@ -82,8 +82,14 @@ public class ClientSignalingMessage {
 
     public static class UserEventPayload { // For user_joined, user_left
         private String user;
+        private String cipherSuite; // Joiner's preferred CipherSuite, if the server relays it from the join payload
+        private Integer wireVersion; // Joiner's MessageCodec wire version, the same way; null for older clients
         public UserEventPayload() {}
         public String getUser() { return user; }
         public void setUser(String user) { this.user = user; }
+        public String getCipherSuite() { return cipherSuite; }
+        public void setCipherSuite(String cipherSuite) { this.cipherSuite = cipherSuite; }
+        public Integer getWireVersion() { return wireVersion; }
+        public void setWireVersion(Integer wireVersion) { this.wireVersion = wireVersion; }
     }
 }
\ No newline at end of file
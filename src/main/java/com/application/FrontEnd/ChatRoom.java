@@ -268,6 +268,16 @@ public class ChatRoom extends JPanel {
         chatList.setSelectionBackground(null);
         chatList.setSelectionBackground(new Color(80, 80, 80, 180)); // Selection color
         chatList.setSelectionForeground(Color.WHITE);
+        chatList.addMouseListener(new MouseAdapter() { // Double-clicking a file offer downloads it
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() != 2) return;
+                int index = chatList.locationToIndex(e.getPoint());
+                if (index < 0 || !chatList.getCellBounds(index, index).contains(e.getPoint())) return;
+                MessageData offer = chatListModel.getElementAt(index).getAttachment();
+                if (offer != null) initiateFileDownload(offer);
+            }
+        });
 
 
         chatScrollPane = new JScrollPane(chatList);
@@ -1045,17 +1055,17 @@ public class ChatRoom extends JPanel {
         });
     }
 
-    // To be implemented: Display file offer in chat list
-    // In ChatRoom.java
+    // Shows a file offer in the chat list; the offer rides along as the message's attachment for the download.
     public void displayFileShareOffer(MessageData offerData) {
         SwingUtilities.invokeLater(() -> {
-            System.out.println("[UI] Placeholder: Display file share offer for: " + offerData.originalFilename); // Direct field access
-            appendMessage("[File Offer]",
-                    "File: " + offerData.originalFilename + // Direct field access
-                            " (" + formatFileSize(offerData.originalFileSize) + " bytes). Click to download (not implemented).", // Direct field access
+            System.out.println("[UI] Displaying file share offer for: " + offerData.originalFilename);
+            ChatMessage msg = new ChatMessage(offerData.sender,
+                    "[File Offer] " + offerData.originalFilename +
+                            " (" + formatFileSize(offerData.originalFileSize) + "). Double-click to download.",
                     "FILE_OFFER_PLACEHOLDER");
-            // The actual implementation will add a special ChatMessage that the renderer can handle
-            // to make it clickable and show a download icon.
+            msg.setAttachment(offerData);
+            chatListModel.addElement(msg);
+            chatList.ensureIndexIsVisible(chatListModel.getSize() - 1);
         });
     }
 
@@ -1067,14 +1077,22 @@ public class ChatRoom extends JPanel {
         return String.format("%.1f %s", size / Math.pow(1024, digitGroups), units[digitGroups]);
     }
 
-    // To be implemented: Handle click on a file offer to download
+    // Asks where to save an offered file, then lets the controller pull it from the peer that shared it.
     public void initiateFileDownload(MessageData offerData) {
         SwingUtilities.invokeLater(() -> {
-            System.out.println("[UI] Placeholder: Initiate file download for: " + offerData.originalFilename);
-            // This would typically involve:
-            // 1. Showing a JFileChooser to select save location.
-            // 2. Calling a method in ChatController: chatController.downloadSharedFile(offerData, savePath);
-            JOptionPane.showMessageDialog(this, "File download for '" + offerData.originalFilename + "' is not yet implemented.", "Coming Soon", JOptionPane.INFORMATION_MESSAGE);
+            if (chatController == null) return;
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Save Shared File");
+            fileChooser.setSelectedFile(new File(new File(offerData.originalFilename).getName())); // Never trust a path from a peer
+            if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            File target = fileChooser.getSelectedFile();
+            // Parts that already match the shared file are kept, so an interrupted download resumes here
+            if (target.exists() && JOptionPane.showConfirmDialog(this, target.getName() + " already exists. Replace it (or resume an interrupted download of it)?",
+                    "Confirm Overwrite", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+                return;
+            }
+            System.out.println("[UI] Downloading " + offerData.originalFilename + " to " + target.getAbsolutePath());
+            chatController.downloadSharedFile(offerData, target);
         });
     }
 
@@ -54,6 +54,11 @@ public class PublicServerRoom extends JPanel {
     private JLayeredPane layeredPane;
     private PageBackgroundPanel pageBackgroundPanel; // For overall BG
 
+    /** Identifiers of the fixed public rooms (what joinPublicRoom expects). */
+    public static java.util.List<String> getRoomIds() {
+        return java.util.List.of(ROOM_IDS);
+    }
+
     // --- Constructor ---
     public PublicServerRoom(MainFrame mainFrame, String username, ChatController controller) {
         this.mainFrame = mainFrame;
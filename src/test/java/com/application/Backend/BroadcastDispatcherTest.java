@@ -0,0 +1,75 @@
+// src/test/java/com/application/Backend/BroadcastDispatcherTest.java
+package com.application.Backend;
+
+import dev.onvoid.webrtc.RTCDataChannelBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BroadcastDispatcherTest {
+
+    private static final String ROOM = "room";
+    private static final int BURST = 200;
+    private static final int COUNTER_OFFSET = 16 + 4; // Session id, then 4 zero bytes ahead of the 8-byte counter
+
+    @Test
+    void counterNoncesLeaveInDispatchOrder() throws Exception {
+        byte[] key = new byte[32];
+        CryptoContext.nextBytes(key);
+        EncryptionService alice = new EncryptionService();
+        EncryptionService bob = new EncryptionService();
+        alice.addRoomKey(ROOM, new RoomKey(key.clone(), "AES"));
+        bob.addRoomKey(ROOM, new RoomKey(key.clone(), "AES"));
+        alice.setNonceMode(EncryptionService.NonceMode.COUNTER);
+
+        TestSupport.FrameRecorder received = new TestSupport.FrameRecorder();
+        BroadcastDispatcher dispatcher = new BroadcastDispatcher(received::send);
+        List<String> peers = Arrays.asList("bob", "carol");
+
+        List<CompletableFuture<BroadcastDispatcher.Result>> results = new ArrayList<>();
+        for (int i = 0; i < BURST; i++) {
+            int index = i;
+            results.add(dispatcher.dispatch(peers, peerIds -> {
+                if (index % 3 == 0) Thread.sleep(1); // Uneven encode times, as with messages of different sizes
+                String encrypted = alice.encryptForRoom(ROOM, "message " + index);
+                RTCDataChannelBuffer frame = new RTCDataChannelBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(encrypted)), true);
+                Map<String, RTCDataChannelBuffer> framesByPeer = new HashMap<>();
+                peerIds.forEach(peerId -> framesByPeer.put(peerId, frame));
+                return framesByPeer;
+            }, "CHAT"));
+        }
+        for (CompletableFuture<BroadcastDispatcher.Result> result : results) {
+            assertEquals(peers, result.get(10, TimeUnit.SECONDS).sentTo);
+        }
+
+        assertEquals(peers.size() * BURST, received.frames.size());
+        for (String peer : peers) {
+            List<TestSupport.Sent> frames = received.to(peer);
+            assertEquals(BURST, frames.size(), peer);
+            long previous = -1;
+            for (int i = 0; i < BURST; i++) {
+                byte[] frame = frames.get(i).bytes;
+                long counter = ByteBuffer.wrap(frame, COUNTER_OFFSET, 8).getLong();
+                assertTrue(counter > previous, peer + ": counter " + counter + " after " + previous);
+                previous = counter;
+                if (peer.equals("bob")) {
+                    byte[] plain = new byte[EncryptionService.decryptedLength(frame.length, EncryptionService.NonceMode.COUNTER)];
+                    bob.decrypt(ROOM, ByteBuffer.wrap(frame), ByteBuffer.wrap(plain), "alice", null); // Would throw on a replay
+                    assertEquals("message " + i, new String(plain, StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+}
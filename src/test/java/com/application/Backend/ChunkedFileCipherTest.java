@@ -0,0 +1,243 @@
+// src/test/java/com/application/Backend/ChunkedFileCipherTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedFileCipherTest {
+
+    private static final int CHUNK_SIZE = 64;
+    private static final int SEALED_CHUNK = CHUNK_SIZE + ChunkedFileCipher.TAG_LENGTH;
+
+    @TempDir
+    Path dir;
+
+    private final ChunkedFileCipher cipher = new ChunkedFileCipher(CHUNK_SIZE, ForkJoinPool.commonPool());
+    private byte[] key;
+
+    @BeforeEach
+    void setUp() {
+        key = new byte[32];
+        CryptoContext.nextBytes(key);
+    }
+
+    @Test
+    void fileRoundTrip() throws Exception {
+        for (int length : new int[] {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 5 * CHUNK_SIZE + 17}) {
+            byte[] plain = randomBytes(length);
+            File container = encrypt(plain);
+            assertEquals(ChunkedFileCipher.HEADER_LENGTH + Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE) * ChunkedFileCipher.TAG_LENGTH + length,
+                    container.length(), "length " + length);
+
+            File output = dir.resolve("plain-" + length).toFile();
+            cipher.decrypt(container, output, key);
+            assertArrayEquals(plain, Files.readAllBytes(output.toPath()), "length " + length);
+            assertArrayEquals(plain, readStream(Files.readAllBytes(container.toPath())), "length " + length);
+        }
+    }
+
+    @Test
+    void singleChunkCanBeDecryptedOnItsOwn() throws Exception {
+        byte[] plain = randomBytes(3 * CHUNK_SIZE + 5);
+        File container = encrypt(plain);
+
+        try (FileChannel in = FileChannel.open(container.toPath())) {
+            ChunkedFileCipher.Header header = ChunkedFileCipher.readHeader(in);
+            assertArrayEquals(Arrays.copyOfRange(plain, 3 * CHUNK_SIZE, plain.length), ChunkedFileCipher.decryptChunk(in, header, key, 3));
+        }
+    }
+
+    @Test
+    void tamperedByteIsDetected() throws Exception {
+        byte[] sealed = Files.readAllBytes(encrypt(randomBytes(3 * CHUNK_SIZE)).toPath());
+
+        for (int i = 0; i < sealed.length; i += 7) {
+            byte[] tampered = sealed.clone();
+            tampered[i] ^= 0x01;
+            assertThrows(IOException.class, () -> readStream(tampered), "byte " + i);
+        }
+    }
+
+    @Test
+    void reorderedChunksAreDetected() throws Exception {
+        byte[] sealed = Files.readAllBytes(encrypt(randomBytes(3 * CHUNK_SIZE)).toPath());
+        byte[] swapped = sealed.clone();
+        int first = ChunkedFileCipher.HEADER_LENGTH;
+        System.arraycopy(sealed, first + SEALED_CHUNK, swapped, first, SEALED_CHUNK);
+        System.arraycopy(sealed, first, swapped, first + SEALED_CHUNK, SEALED_CHUNK);
+
+        assertThrows(IOException.class, () -> readStream(swapped));
+    }
+
+    @Test
+    void truncationIsDetected() throws Exception {
+        byte[] sealed = Files.readAllBytes(encrypt(randomBytes(3 * CHUNK_SIZE)).toPath());
+
+        // A whole chunk dropped: the last remaining chunk is not marked final
+        assertThrows(IOException.class, () -> readStream(Arrays.copyOf(sealed, sealed.length - SEALED_CHUNK)));
+        // Cut inside a chunk, and inside the header
+        assertThrows(IOException.class, () -> readStream(Arrays.copyOf(sealed, sealed.length - 1)));
+        assertThrows(IOException.class, () -> readStream(Arrays.copyOf(sealed, ChunkedFileCipher.HEADER_LENGTH - 1)));
+    }
+
+    @Test
+    void appendedDataIsDetected() throws Exception {
+        byte[] sealed = Files.readAllBytes(encrypt(randomBytes(2 * CHUNK_SIZE)).toPath());
+
+        assertThrows(IOException.class, () -> readStream(Arrays.copyOf(sealed, sealed.length + 1)));
+    }
+
+    @Test
+    void streamStaysFailedAfterAnError() throws Exception {
+        byte[] sealed = Files.readAllBytes(encrypt(randomBytes(3 * CHUNK_SIZE)).toPath());
+        sealed[ChunkedFileCipher.HEADER_LENGTH + SEALED_CHUNK + 1] ^= 0x01; // Second chunk
+
+        try (InputStream in = new ChunkedDecryptingInputStream(new ByteArrayInputStream(sealed), key)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            assertEquals(CHUNK_SIZE, in.read(buffer)); // First chunk is authentic
+            assertThrows(IOException.class, () -> in.read(buffer));
+            assertThrows(IOException.class, () -> in.read(buffer));
+        }
+    }
+
+    @Test
+    void wrongKeyIsRejected() throws Exception {
+        byte[] sealed = Files.readAllBytes(encrypt(randomBytes(CHUNK_SIZE)).toPath());
+        key[0] ^= 0x01;
+
+        assertThrows(IOException.class, () -> readStream(sealed));
+    }
+
+    @Test
+    void failedFileDecryptionLeavesNoOutput() throws Exception {
+        File container = encrypt(randomBytes(4 * CHUNK_SIZE));
+        byte[] sealed = Files.readAllBytes(container.toPath());
+        sealed[sealed.length - 1] ^= 0x01;
+        Files.write(container.toPath(), sealed);
+
+        File output = dir.resolve("partial").toFile();
+        assertThrows(Exception.class, () -> cipher.decrypt(container, output, key));
+        assertFalse(output.exists());
+    }
+
+    @Test
+    void resumeKeepsChunksAlreadyWritten() throws Exception {
+        File input = Files.createTempFile(dir, "plain", ".bin").toFile();
+        byte[] plain = randomBytes(4 * CHUNK_SIZE + 9);
+        Files.write(input.toPath(), plain);
+        File container = dir.resolve("resumed.aecf").toFile();
+        cipher.encrypt(input, container, key);
+        byte[] header = Arrays.copyOf(Files.readAllBytes(container.toPath()), ChunkedFileCipher.HEADER_LENGTH);
+
+        truncate(container, ChunkedFileCipher.HEADER_LENGTH + 2L * SEALED_CHUNK); // Interrupted after two whole chunks
+        cipher.encrypt(input, container, key);
+
+        assertArrayEquals(header, Arrays.copyOf(Files.readAllBytes(container.toPath()), ChunkedFileCipher.HEADER_LENGTH));
+        assertArrayEquals(plain, readStream(Files.readAllBytes(container.toPath())));
+    }
+
+    @Test
+    void resumeAfterUndetectedEditStartsOver() throws Exception {
+        File input = Files.createTempFile(dir, "plain", ".bin").toFile();
+        Files.write(input.toPath(), randomBytes(4 * CHUNK_SIZE));
+        File container = dir.resolve("edited.aecf").toFile();
+        cipher.encrypt(input, container, key);
+        byte[] header = Arrays.copyOf(Files.readAllBytes(container.toPath()), ChunkedFileCipher.HEADER_LENGTH);
+        truncate(container, ChunkedFileCipher.HEADER_LENGTH + 2L * SEALED_CHUNK);
+
+        // Same length and mtime (as after cp -p or touch -r), different contents
+        FileTime modified = Files.getLastModifiedTime(input.toPath());
+        byte[] edited = randomBytes(4 * CHUNK_SIZE);
+        Files.write(input.toPath(), edited);
+        Files.setLastModifiedTime(input.toPath(), modified);
+        cipher.encrypt(input, container, key);
+
+        assertFalse(Arrays.equals(header, Arrays.copyOf(Files.readAllBytes(container.toPath()), ChunkedFileCipher.HEADER_LENGTH)));
+        assertArrayEquals(edited, readStream(Files.readAllBytes(container.toPath())));
+    }
+
+    @Test
+    void tornChunkIsNeverResealedUnderTheSameNonce() throws Exception {
+        File input = Files.createTempFile(dir, "plain", ".bin").toFile();
+        byte[] plain = randomBytes(4 * CHUNK_SIZE);
+        Files.write(input.toPath(), plain);
+        File container = dir.resolve("torn.aecf").toFile();
+        cipher.encrypt(input, container, key);
+        byte[] header = Arrays.copyOf(Files.readAllBytes(container.toPath()), ChunkedFileCipher.HEADER_LENGTH);
+
+        truncate(container, ChunkedFileCipher.HEADER_LENGTH + SEALED_CHUNK + 10); // Second chunk partly written
+        cipher.encrypt(input, container, key);
+
+        assertFalse(Arrays.equals(header, Arrays.copyOf(Files.readAllBytes(container.toPath()), ChunkedFileCipher.HEADER_LENGTH)));
+        assertArrayEquals(plain, readStream(Files.readAllBytes(container.toPath())));
+    }
+
+    @Test
+    void givenKeyFilesUseTheChunkedContainer() throws Exception {
+        EncryptionService service = new EncryptionService();
+        byte[] plain = randomBytes(3 * CHUNK_SIZE + 5);
+        File input = Files.createTempFile(dir, "plain", ".bin").toFile();
+        Files.write(input.toPath(), plain);
+        File sealed = dir.resolve("given.enc").toFile();
+
+        service.encryptFileWithGivenKey(input, sealed, key);
+        assertTrue(ChunkedFileCipher.isChunkedFile(sealed));
+
+        File output = dir.resolve("given.out").toFile();
+        service.decryptFileWithGivenKey(sealed, output, key);
+        assertArrayEquals(plain, Files.readAllBytes(output.toPath()));
+        try (InputStream in = service.openDecryptingStream(Files.newInputStream(sealed.toPath()), key)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int b = in.read(); b >= 0; b = in.read()) out.write(b); // Single-byte reads
+            assertArrayEquals(plain, out.toByteArray());
+        }
+    }
+
+    private File encrypt(byte[] plain) throws Exception {
+        File input = Files.createTempFile(dir, "plain", ".bin").toFile();
+        Files.write(input.toPath(), plain);
+        File container = Files.createTempFile(dir, "sealed", ".aecf").toFile();
+        cipher.encrypt(input, container, key);
+        return container;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    private byte[] readStream(byte[] sealed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new ChunkedDecryptingInputStream(new ByteArrayInputStream(sealed), key)) {
+            in.transferTo(out);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        CryptoContext.nextBytes(bytes);
+        return bytes;
+    }
+}
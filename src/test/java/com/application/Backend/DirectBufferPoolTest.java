@@ -0,0 +1,93 @@
+// src/test/java/com/application/Backend/DirectBufferPoolTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectBufferPoolTest {
+
+    private final DirectBufferPool pool = new DirectBufferPool();
+
+    @Test
+    void requestsRoundUpToAPowerOfTwoClass() {
+        assertEquals(DirectBufferPool.MIN_CLASS_SIZE, pool.acquire(1).capacity());
+        assertEquals(DirectBufferPool.MIN_CLASS_SIZE, pool.acquire(DirectBufferPool.MIN_CLASS_SIZE).capacity());
+        assertEquals(2048, pool.acquire(DirectBufferPool.MIN_CLASS_SIZE + 1).capacity());
+        assertEquals(2048, pool.acquire(2048).capacity());
+        assertEquals(DirectBufferPool.MAX_CLASS_SIZE, pool.acquire(DirectBufferPool.MAX_CLASS_SIZE).capacity());
+        assertEquals(DirectBufferPool.MAX_CLASS_SIZE + 1, pool.acquire(DirectBufferPool.MAX_CLASS_SIZE + 1).capacity()); // Exact, unpooled
+        assertTrue(pool.acquire(100).isDirect());
+    }
+
+    @Test
+    void releasedBuffersComeBackCleared() {
+        ByteBuffer buffer = pool.acquire(3000);
+        buffer.put(new byte[100]).limit(200);
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquire(2049); // Same class
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertNotSame(buffer, pool.acquire(3000)); // Handed out once only
+    }
+
+    @Test
+    void keepsAtMostSixteenIdleBuffersPerClass() {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) buffers.add(pool.acquire(4096));
+        buffers.forEach(pool::release);
+
+        Set<ByteBuffer> returned = Collections.newSetFromMap(new IdentityHashMap<>());
+        returned.addAll(buffers);
+        int reused = 0;
+        for (int i = 0; i < 20; i++) {
+            if (returned.contains(pool.acquire(4096))) reused++;
+        }
+        assertEquals(16, reused);
+    }
+
+    @Test
+    void foreignAndOversizedBuffersAreDropped() {
+        pool.release(null);
+        pool.release(ByteBuffer.allocate(2048));                                  // Heap
+        pool.release(ByteBuffer.allocateDirect(1500));                            // Not a class size
+        pool.release(ByteBuffer.allocateDirect(512));                             // Below the smallest class
+        pool.release(pool.acquire(DirectBufferPool.MAX_CLASS_SIZE * 2));          // Oversized
+
+        assertFalse(pool.acquire(1500).capacity() == 1500);
+        assertEquals(0.0, pool.hitRate());
+    }
+
+    @Test
+    void jsonFramesLargerThanTheGuessFallBackToTheirExactSize() throws Exception {
+        // 12 000 bytes outgrow Jackson's own ~8 KB buffer too, so the overflow surfaces from inside serialize()
+        for (int length : new int[] {100, 3000, 7000, 12_000, 100_000}) {
+            MessageData message = new MessageData("alice", "A".repeat(length), "lobby");
+
+            ByteBuffer frame = WireJson.writePooled(message, 2048);
+            try {
+                byte[] json = new byte[frame.remaining()];
+                frame.duplicate().get(json);
+                assertEquals(0, frame.position());
+                MessageData decoded = WireJson.MAPPER.readValue(json, MessageData.class);
+                assertEquals(message.encryptedData, decoded.encryptedData, "length " + length);
+                assertEquals("alice", decoded.sender);
+            } finally {
+                DirectBufferPool.SHARED.release(frame);
+            }
+        }
+    }
+}
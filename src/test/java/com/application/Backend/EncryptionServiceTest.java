@@ -0,0 +1,139 @@
+// src/test/java/com/application/Backend/EncryptionServiceTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EncryptionServiceTest {
+
+    private static final String ROOM = "room";
+
+    private EncryptionService alice;
+    private EncryptionService bob;
+
+    @BeforeEach
+    void setUp() {
+        byte[] key = new byte[32];
+        CryptoContext.nextBytes(key);
+        alice = new EncryptionService();
+        bob = new EncryptionService();
+        alice.addRoomKey(ROOM, new RoomKey(key.clone(), "AES"));
+        bob.addRoomKey(ROOM, new RoomKey(key.clone(), "AES"));
+    }
+
+    @Test
+    void batchResultsKeepInputOrder() throws Exception {
+        for (EncryptionService.NonceMode mode : EncryptionService.NonceMode.values()) {
+            alice.setNonceMode(mode);
+            List<ByteBuffer> plaintexts = messages(50, 100);
+            plaintexts.add(ByteBuffer.allocate(0)); // Empty payloads still get their own IV and tag
+
+            List<ByteBuffer> frames = alice.encryptBatch(ROOM, plaintexts);
+            String sender = (mode == EncryptionService.NonceMode.COUNTER) ? "alice" : null;
+            List<ByteBuffer> decrypted = bob.decryptBatch(ROOM, frames, sender);
+
+            assertEquals(plaintexts.size(), decrypted.size());
+            for (int i = 0; i < plaintexts.size(); i++) {
+                assertEquals(plaintexts.get(i), decrypted.get(i), mode + " item " + i);
+            }
+        }
+    }
+
+    @Test
+    void batchFramesMatchSingleFrames() throws Exception {
+        List<ByteBuffer> plaintexts = messages(3, 40);
+        List<ByteBuffer> frames = alice.encryptBatch(ROOM, plaintexts);
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] plain = new byte[EncryptionService.decryptedLength(frames.get(i).remaining())];
+            bob.decrypt(ROOM, frames.get(i).duplicate(), ByteBuffer.wrap(plain), null);
+            assertEquals(plaintexts.get(i), ByteBuffer.wrap(plain));
+        }
+
+        ByteBuffer single = ByteBuffer.allocate(EncryptionService.encryptedLength(plaintexts.get(0).remaining()));
+        alice.encrypt(ROOM, plaintexts.get(0).duplicate(), single);
+        single.flip();
+        assertEquals(plaintexts.get(0), bob.decryptBatch(ROOM, List.of(single), null).get(0));
+    }
+
+    @Test
+    void oneBadFrameFailsTheWholeBatch() throws Exception {
+        alice.setNonceMode(EncryptionService.NonceMode.COUNTER);
+        List<ByteBuffer> frames = alice.encryptBatch(ROOM, messages(5, 100));
+        List<ByteBuffer> tampered = new ArrayList<>(frames);
+        tampered.set(3, flipLastByte(frames.get(3)));
+
+        assertThrows(AEADBadTagException.class, () -> bob.decryptBatch(ROOM, tampered, "alice"));
+
+        // No partial result, and the replay window did not move: the good frames still open one by one
+        for (int i = 0; i < frames.size(); i++) {
+            if (i == 3) continue;
+            byte[] plain = new byte[EncryptionService.decryptedLength(frames.get(i).remaining(), EncryptionService.NonceMode.COUNTER)];
+            bob.decrypt(ROOM, frames.get(i).duplicate(), ByteBuffer.wrap(plain), "alice");
+        }
+
+        List<ByteBuffer> withShortFrame = new ArrayList<>(frames);
+        withShortFrame.add(ByteBuffer.allocate(4));
+        assertThrows(IllegalArgumentException.class, () -> bob.decryptBatch(ROOM, withShortFrame, "alice"));
+    }
+
+    @Test
+    void batchesAroundTheParallelThresholdAgree() throws Exception {
+        int itemBytes = 4096;
+        int perThreshold = EncryptionService.BATCH_PARALLEL_THRESHOLD / itemBytes;
+        for (int count : new int[] {perThreshold / 2, perThreshold + 1, 4 * perThreshold}) { // Calling thread, then the pool
+            List<ByteBuffer> plaintexts = messages(count, itemBytes);
+            List<ByteBuffer> frames = alice.encryptBatch(ROOM, plaintexts);
+            List<ByteBuffer> decrypted = bob.decryptBatch(ROOM, frames, null);
+            for (int i = 0; i < count; i++) {
+                assertEquals(plaintexts.get(i), decrypted.get(i), count + " items, item " + i);
+            }
+
+            // A failure on a worker thread surfaces as itself, not wrapped in the pool's exception
+            List<ByteBuffer> tampered = new ArrayList<>(frames);
+            tampered.set(count - 1, flipLastByte(frames.get(count - 1)));
+            assertThrows(AEADBadTagException.class, () -> bob.decryptBatch(ROOM, tampered, null), count + " items");
+        }
+    }
+
+    @Test
+    void aReplayInsideOneBatchIsRejected() throws Exception {
+        alice.setNonceMode(EncryptionService.NonceMode.COUNTER);
+        List<ByteBuffer> frames = alice.encryptBatch(ROOM, messages(3, 20));
+
+        List<ByteBuffer> doubled = new ArrayList<>(frames);
+        doubled.add(frames.get(1).duplicate());
+        assertThrows(EncryptionService.ReplayedMessageException.class, () -> bob.decryptBatch(ROOM, doubled, "alice"));
+
+        // Rejected before decrypting anything: the batch without the copy is still fresh, and only once
+        assertEquals(3, bob.decryptBatch(ROOM, frames, "alice").size());
+        assertThrows(EncryptionService.ReplayedMessageException.class, () -> bob.decryptBatch(ROOM, List.of(frames.get(0)), "alice"));
+    }
+
+    // count payloads of `length` bytes, each distinct (its index is in the first bytes).
+    private static List<ByteBuffer> messages(int count, int length) {
+        List<ByteBuffer> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[length];
+            byte[] label = ("message " + i + " ").getBytes(StandardCharsets.UTF_8);
+            for (int b = 0; b < length; b++) bytes[b] = label[b % label.length];
+            messages.add(ByteBuffer.wrap(bytes));
+        }
+        return messages;
+    }
+
+    private static ByteBuffer flipLastByte(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        bytes[bytes.length - 1] ^= 1;
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,287 @@
+// src/test/java/com/application/Backend/FileTransferManagerTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.application.Backend.TestSupport.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileTransferManagerTest {
+
+    private static final int CHUNK = ChunkedFileCipher.DEFAULT_CHUNK_SIZE;
+
+    @TempDir
+    Path dir;
+
+    private final Loopback room = new Loopback();
+
+    @Test
+    void downloadArrivesByteIdentical() throws Exception {
+        byte[] plain = randomBytes(40 * CHUNK + 123);
+        FileTransferManager alice = room.join("alice");
+        FileTransferManager bob = room.join("bob");
+        FileTransferManager.Shared shared = alice.share(write("shared.bin", plain));
+
+        File target = dir.resolve("received.bin").toFile();
+        bob.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, target).get(30, TimeUnit.SECONDS);
+
+        assertArrayEquals(plain, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    void sharerRefusesChunksThatChangedUnderTheSameMtime() throws Exception {
+        File source = write("shared.bin", randomBytes(8 * CHUNK));
+        FileTransferManager alice = room.join("alice");
+        FileTransferManager bob = room.join("bob");
+        FileTransferManager.Shared shared = alice.share(source);
+
+        // Same length and mtime, so only the leaf check can tell: nothing may be sealed from the new bytes
+        FileTime modified = Files.getLastModifiedTime(source.toPath());
+        Files.write(source.toPath(), randomBytes(8 * CHUNK));
+        Files.setLastModifiedTime(source.toPath(), modified);
+
+        File target = dir.resolve("received.bin").toFile();
+        assertThrows(ExecutionException.class, () -> bob.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, target)
+                .get(30, TimeUnit.SECONDS));
+        assertEquals(-1, alice.chunksServed(shared.downloadUrl)); // No longer shared
+    }
+
+    @Test
+    void aWrongKeyFailsAndDeletesThePartialFile() throws Exception {
+        FileTransferManager alice = room.join("alice");
+        FileTransferManager bob = room.join("bob");
+        FileTransferManager.Shared shared = alice.share(write("shared.bin", randomBytes(4 * CHUNK)));
+        byte[] wrongKey = shared.keyMaterial.clone();
+        wrongKey[0] ^= 0x01;
+
+        File target = dir.resolve("received.bin").toFile();
+        assertThrows(ExecutionException.class, () -> bob.download("alice", shared.downloadUrl, wrongKey, shared.fileHash, target)
+                .get(30, TimeUnit.SECONDS));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    void aLostChunkIsRequestedAgain() throws Exception {
+        byte[] plain = randomBytes(8 * CHUNK);
+        FileTransferManager alice = room.join("alice");
+        FileTransferManager bob = room.join("bob");
+        FileTransferManager.Shared shared = alice.share(write("shared.bin", plain));
+
+        AtomicInteger chunkFrames = new AtomicInteger();
+        room.tap = (from, to, frame) -> MessageCodec.bulkKind(frame) == FileTransferManager.KIND_CHUNK
+                && chunkFrames.incrementAndGet() == 1 ? null : frame;
+        File target = dir.resolve("received.bin").toFile();
+        bob.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, target).get(30, TimeUnit.SECONDS); // After the stall timeout
+
+        assertArrayEquals(plain, Files.readAllBytes(target.toPath()));
+        assertEquals(9, chunkFrames.get());
+    }
+
+    @Test
+    void downloadersFetchFromEachOtherSoTheSharerUploadsLess() throws Exception {
+        int chunks = 64;
+        int downloaders = 6;
+        byte[] plain = randomBytes(chunks * CHUNK);
+        FileTransferManager alice = room.join("alice");
+        List<FileTransferManager> peers = new ArrayList<>();
+        for (int i = 0; i < downloaders; i++) peers.add(room.join("peer" + i));
+        FileTransferManager.Shared shared = alice.share(write("shared.bin", plain));
+
+        List<CompletableFuture<File>> downloads = new ArrayList<>();
+        for (int i = 0; i < downloaders; i++) {
+            File target = dir.resolve("received" + i + ".bin").toFile();
+            downloads.add(peers.get(i).download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, target));
+        }
+        for (CompletableFuture<File> download : downloads) {
+            assertArrayEquals(plain, Files.readAllBytes(download.get(60, TimeUnit.SECONDS).toPath()));
+        }
+
+        long fromSharer = alice.chunksServed(shared.downloadUrl);
+        long fromPeers = 0;
+        for (FileTransferManager peer : peers) fromPeers += peer.chunksServed(shared.downloadUrl);
+        assertTrue(fromSharer + fromPeers >= (long) downloaders * chunks);
+        // About two copies here, without an uplink cap; sharer-only delivery would be six
+        assertTrue(fromSharer <= 3L * chunks, "sharer uploaded " + fromSharer + " of " + downloaders * chunks + " chunks");
+    }
+
+    @Test
+    void aDownloaderLeavingMidTransferDoesNotStopTheOthers() throws Exception {
+        int chunks = 64;
+        byte[] plain = randomBytes(chunks * CHUNK);
+        FileTransferManager alice = room.join("alice");
+        FileTransferManager bob = room.join("bob");
+        FileTransferManager carol = room.join("carol");
+        FileTransferManager dave = room.join("dave");
+        FileTransferManager.Shared shared = alice.share(write("shared.bin", plain));
+
+        // Carol receives 8 chunks and no more, then leaves the room while the others download
+        AtomicInteger toCarol = new AtomicInteger();
+        room.tap = (from, to, frame) -> {
+            if (!to.equals("carol") || MessageCodec.bulkKind(frame) != FileTransferManager.KIND_CHUNK) return frame;
+            return (toCarol.incrementAndGet() <= 8) ? frame : null;
+        };
+        CompletableFuture<File> carolDone = carol.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, dir.resolve("carol.bin").toFile());
+        await(() -> toCarol.get() > 8, 30_000);
+        CompletableFuture<File> bobDone = bob.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, dir.resolve("bob.bin").toFile());
+        CompletableFuture<File> daveDone = dave.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, dir.resolve("dave.bin").toFile());
+        room.leave("carol");
+        carol.clear();
+
+        assertArrayEquals(plain, Files.readAllBytes(bobDone.get(60, TimeUnit.SECONDS).toPath()));
+        assertArrayEquals(plain, Files.readAllBytes(daveDone.get(60, TimeUnit.SECONDS).toPath()));
+        assertThrows(ExecutionException.class, () -> carolDone.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aMemberForgingChunksIsBannedAndTheDownloadStillMatches() throws Exception {
+        int chunks = 64;
+        byte[] plain = randomBytes(chunks * CHUNK);
+        FileTransferManager alice = room.join("alice");
+        FileTransferManager mallory = room.join("mallory");
+        FileTransferManager.Shared shared = alice.share(write("shared.bin", plain));
+        mallory.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, dir.resolve("mallory.bin").toFile())
+                .get(30, TimeUnit.SECONDS);
+
+        // Mallory holds the room key, so the chunks it sends from now on authenticate; only the leaf check catches them
+        Forger forger = new Forger(shared.keyMaterial);
+        room.tap = (from, to, frame) -> from.equals("mallory") && MessageCodec.bulkKind(frame) == FileTransferManager.KIND_CHUNK
+                ? forger.forge(frame) : frame;
+        FileTransferManager bob = room.join("bob");
+        File target = dir.resolve("bob.bin").toFile();
+        bob.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, target).get(60, TimeUnit.SECONDS);
+
+        assertArrayEquals(plain, Files.readAllBytes(target.toPath()));
+        long forged = mallory.chunksServed(shared.downloadUrl);
+        assertTrue(forged > 0, "mallory was never asked");
+        // Banned at the first bad chunk: only requests already out when it arrived are answered
+        assertTrue(forged <= FileTransferManager.PER_SOURCE_WINDOW, "mallory served " + forged + " chunks");
+    }
+
+    @Test
+    void aResumedDownloadOnlyFetchesMissingChunks() throws Exception {
+        int chunks = 64;
+        int before = 20;
+        byte[] plain = randomBytes(chunks * CHUNK);
+        FileTransferManager alice = room.join("alice");
+        FileTransferManager bob = room.join("bob");
+        FileTransferManager.Shared shared = alice.share(write("shared.bin", plain));
+
+        AtomicInteger delivered = new AtomicInteger();
+        room.tap = (from, to, frame) -> MessageCodec.bulkKind(frame) != FileTransferManager.KIND_CHUNK
+                || delivered.incrementAndGet() <= before ? frame : null;
+        File target = dir.resolve("received.bin").toFile();
+        CompletableFuture<File> first = bob.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, target);
+        await(() -> delivered.get() > before, 30_000);
+        Thread.sleep(200); // Lets the delivered chunks be written
+        bob.clear();
+        assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertTrue(target.exists()); // Kept for resuming
+
+        room.tap = (from, to, frame) -> frame;
+        long servedBefore = alice.chunksServed(shared.downloadUrl);
+        bob.download("alice", shared.downloadUrl, shared.keyMaterial, shared.fileHash, target).get(30, TimeUnit.SECONDS);
+
+        assertArrayEquals(plain, Files.readAllBytes(target.toPath()));
+        assertEquals(chunks - before, alice.chunksServed(shared.downloadUrl) - servedBefore);
+    }
+
+    private File write(String name, byte[] contents) throws Exception {
+        File file = dir.resolve(name).toFile();
+        Files.write(file.toPath(), contents);
+        return file;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        CryptoContext.nextBytes(bytes);
+        return bytes;
+    }
+
+    // Every member's bulk channel, in one JVM: a send is handed straight to the receiving manager.
+    static final class Loopback {
+        final Map<String, FileTransferManager> members = new ConcurrentHashMap<>();
+        volatile Tap tap = (from, to, frame) -> frame;
+
+        /** Sees every frame on its way; returns what is delivered instead, or null to drop it. */
+        interface Tap {
+            ByteBuffer deliver(String from, String to, ByteBuffer frame) throws Exception;
+        }
+
+        FileTransferManager join(String name) {
+            FileTransferManager manager = new FileTransferManager(new FileTransferManager.BulkLink() {
+                @Override public Collection<String> peers() {
+                    Collection<String> others = new ArrayList<>(members.keySet());
+                    others.remove(name);
+                    return others;
+                }
+                @Override public boolean isAvailable(String peerId) {
+                    return !peerId.equals(name) && members.containsKey(peerId);
+                }
+                @Override public void send(String peerId, ByteBuffer frame) throws Exception {
+                    FileTransferManager peer = members.get(peerId);
+                    if (peer == null || !members.containsKey(name)) throw new IllegalStateException("Channel " + name + " - " + peerId + " is closed");
+                    ByteBuffer delivered = tap.deliver(name, peerId, frame);
+                    if (delivered != null) peer.onBulkFrame(name, delivered);
+                }
+            });
+            members.put(name, manager);
+            return manager;
+        }
+
+        // As when a member's channels close: everyone else forgets it.
+        void leave(String name) {
+            members.remove(name);
+            members.values().forEach(manager -> manager.removePeer(name));
+        }
+    }
+
+    // A member with the file key that sends other bytes under each chunk's own nonce, so they authenticate.
+    private static final class Forger {
+        private final SecretKey key;
+        private final ChunkedFileCipher.Header header;
+
+        Forger(byte[] keyMaterial) throws Exception {
+            this.key = new SecretKeySpec(keyMaterial, 0, FileTransferManager.KEY_LENGTH, "AES");
+            this.header = ChunkedFileCipher.Header.parse(Arrays.copyOfRange(keyMaterial, FileTransferManager.KEY_LENGTH, keyMaterial.length));
+        }
+
+        ByteBuffer forge(ByteBuffer frame) throws Exception {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            int prefix = MessageCodec.BULK_HEADER_LENGTH + 16;
+            int index = ByteBuffer.wrap(bytes, prefix, 4).getInt();
+            byte[] plain = randomBytes(header.plaintextLength(index));
+            // A Cipher of its own: the serving thread's cached one was just initialised with this key and nonce
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(ChunkedFileCipher.TAG_LENGTH * 8, ChunkedFileCipher.chunkNonce(header, index)));
+            cipher.updateAAD(header.encoded);
+            cipher.doFinal(plain, 0, plain.length, bytes, prefix + 4);
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+// src/test/java/com/application/Backend/MerkleTreeTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MerkleTreeTest {
+
+    private static final int CHUNK_SIZE = 32;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void singleChunkRootIsItsLeaf() throws Exception {
+        byte[] data = randomBytes(CHUNK_SIZE - 3);
+        byte[] leaves = leaves(data);
+
+        assertEquals(MerkleTree.HASH_LENGTH, leaves.length);
+        assertArrayEquals(leaf(data), leaves);
+        assertArrayEquals(leaves, MerkleTree.root(leaves));
+    }
+
+    @Test
+    void emptyFileHasOneEmptyChunk() throws Exception {
+        byte[] leaves = leaves(new byte[0]);
+
+        assertArrayEquals(leaf(new byte[0]), leaves);
+        assertArrayEquals(leaf(new byte[0]), MerkleTree.root(leaves));
+    }
+
+    @Test
+    void oddLeafCountsCarryTheLastNodeUp() throws Exception {
+        for (int chunks = 1; chunks <= 9; chunks++) {
+            byte[] data = randomBytes(chunks * CHUNK_SIZE - 1); // Last chunk one byte short
+            byte[] leaves = leaves(data);
+
+            assertEquals(chunks * MerkleTree.HASH_LENGTH, leaves.length);
+            for (int i = 0; i < chunks; i++) {
+                byte[] chunk = Arrays.copyOfRange(data, i * CHUNK_SIZE, Math.min(data.length, (i + 1) * CHUNK_SIZE));
+                assertArrayEquals(leaf(chunk), Arrays.copyOfRange(leaves, i * MerkleTree.HASH_LENGTH, (i + 1) * MerkleTree.HASH_LENGTH));
+            }
+            assertArrayEquals(expectedRoot(leaves), MerkleTree.root(leaves), chunks + " chunks");
+        }
+    }
+
+    @Test
+    void threeLeafRootByHand() {
+        byte[] a = leaf(new byte[] {1});
+        byte[] b = leaf(new byte[] {2});
+        byte[] c = leaf(new byte[] {3});
+
+        byte[] expected = node(node(a, b), c); // c has no sibling and moves up unchanged
+        assertArrayEquals(expected, MerkleTree.root(concat(a, b, c)));
+    }
+
+    @Test
+    void malformedLeavesHaveNoRoot() {
+        assertNull(MerkleTree.root(new byte[0]));
+        assertNull(MerkleTree.root(new byte[MerkleTree.HASH_LENGTH + 1]));
+    }
+
+    @Test
+    void forgedChunkDoesNotMatchItsLeaf() throws Exception {
+        byte[] data = randomBytes(3 * CHUNK_SIZE);
+        byte[] leaves = leaves(data);
+        byte[] chunk = Arrays.copyOfRange(data, CHUNK_SIZE, 2 * CHUNK_SIZE);
+
+        assertTrue(MerkleTree.matchesLeaf(leaves, 1, chunk, chunk.length));
+
+        byte[] forged = chunk.clone();
+        forged[0] ^= 0x01;
+        assertFalse(MerkleTree.matchesLeaf(leaves, 1, forged, forged.length));
+        assertFalse(MerkleTree.matchesLeaf(leaves, 1, chunk, chunk.length - 1)); // Truncated
+        assertFalse(MerkleTree.matchesLeaf(leaves, 0, chunk, chunk.length));     // Right bytes, wrong position
+        // An inner node's children passed off as a chunk: the leaf/node prefixes keep them apart
+        byte[] children = Arrays.copyOfRange(leaves, 0, 2 * MerkleTree.HASH_LENGTH);
+        assertFalse(MerkleTree.matchesLeaf(concat(node(Arrays.copyOfRange(leaves, 0, MerkleTree.HASH_LENGTH), Arrays.copyOfRange(leaves, MerkleTree.HASH_LENGTH, 2 * MerkleTree.HASH_LENGTH))), 0, children, children.length));
+    }
+
+    @Test
+    void matchingChunksFindsOnlyIntactChunks() throws Exception {
+        byte[] data = randomBytes(4 * CHUNK_SIZE + 10);
+        byte[] leaves = leaves(data);
+        byte[] partial = Arrays.copyOf(data, 3 * CHUNK_SIZE + 5); // Chunk 3 only half written
+        partial[CHUNK_SIZE + 2] ^= 0x01;                          // Chunk 1 corrupted
+
+        Path file = Files.write(dir.resolve("partial"), partial);
+        try (FileChannel channel = FileChannel.open(file)) {
+            BitSet matching = MerkleTree.matchingChunks(channel, data.length, CHUNK_SIZE, leaves, ForkJoinPool.commonPool());
+            assertEquals(bits(0, 2), matching);
+        }
+    }
+
+    private byte[] leaves(byte[] data) throws Exception {
+        Path file = Files.write(Files.createTempFile(dir, "data", ".bin"), data);
+        try (FileChannel channel = FileChannel.open(file)) {
+            return MerkleTree.leaves(channel, data.length, CHUNK_SIZE, ForkJoinPool.commonPool());
+        }
+    }
+
+    // Straightforward recursive definition, independent of the level-by-level loop in MerkleTree.root
+    private static byte[] expectedRoot(byte[] leaves) {
+        int count = leaves.length / MerkleTree.HASH_LENGTH;
+        if (count == 1) return leaves;
+        int half = ((count + 1) / 2) * MerkleTree.HASH_LENGTH;
+        byte[] level = new byte[half];
+        for (int i = 0; i < count; i += 2) {
+            byte[] left = Arrays.copyOfRange(leaves, i * MerkleTree.HASH_LENGTH, (i + 1) * MerkleTree.HASH_LENGTH);
+            byte[] up = (i + 1 < count) ? node(left, Arrays.copyOfRange(leaves, (i + 1) * MerkleTree.HASH_LENGTH, (i + 2) * MerkleTree.HASH_LENGTH)) : left;
+            System.arraycopy(up, 0, level, (i / 2) * MerkleTree.HASH_LENGTH, MerkleTree.HASH_LENGTH);
+        }
+        return expectedRoot(level);
+    }
+
+    private static byte[] leaf(byte[] chunk) {
+        return sha256(concat(new byte[] {0}, chunk));
+    }
+
+    private static byte[] node(byte[] left, byte[] right) {
+        return sha256(concat(new byte[] {1}, left, right));
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) length += part.length;
+        byte[] out = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, out, offset, part.length);
+            offset += part.length;
+        }
+        return out;
+    }
+
+    private static BitSet bits(int... indices) {
+        BitSet bits = new BitSet();
+        for (int i : indices) bits.set(i);
+        return bits;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        CryptoContext.nextBytes(bytes);
+        return bytes;
+    }
+}
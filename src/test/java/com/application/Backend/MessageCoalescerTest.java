@@ -0,0 +1,139 @@
+// src/test/java/com/application/Backend/MessageCoalescerTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.application.Backend.TestSupport.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCoalescerTest {
+
+    private final TestSupport.FrameRecorder sent = new TestSupport.FrameRecorder();
+
+    @Test
+    void aLoneFrameIsSentUnwrappedOnceTheWindowEnds() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer(sent, 20, MessageCoalescer.DEFAULT_MAX_BATCH_BYTES);
+        coalescer.enqueue("bob", text("hello"), false);
+        assertEquals(0, sent.frames.size()); // Waits for the window
+
+        await(() -> sent.frames.size() == 1);
+        TestSupport.Sent frame = sent.frames.get(0);
+        assertEquals("bob", frame.peerId);
+        assertFalse(frame.binary); // Keeps its own type
+        assertEquals("hello", new String(frame.bytes, StandardCharsets.UTF_8));
+        assertEquals(0, coalescer.getStats().batchesSent);
+    }
+
+    @Test
+    void framesWithinTheWindowGoOutAsOneBatch() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer(sent, 200, MessageCoalescer.DEFAULT_MAX_BATCH_BYTES);
+        for (int i = 0; i < 3; i++) coalescer.enqueue("bob", text("m" + i), false);
+
+        await(() -> sent.frames.size() == 1);
+        TestSupport.Sent batch = sent.frames.get(0);
+        assertTrue(batch.binary);
+        assertEquals(List.of("m0", "m1", "m2"), entries(batch));
+        MessageCoalescer.Stats stats = coalescer.getStats();
+        assertEquals(3, stats.messagesQueued);
+        assertEquals(1, stats.framesSent);
+        assertEquals(1, stats.batchesSent);
+    }
+
+    @Test
+    void reachingMaxBatchBytesFlushesWithoutWaiting() {
+        String body = "x".repeat(250);
+        int maxBatchBytes = 4 * MessageCodec.batchEntryLength(body.length());
+        MessageCoalescer coalescer = new MessageCoalescer(sent, TimeUnit.MINUTES.toMillis(1), maxBatchBytes);
+        for (int i = 0; i < 3; i++) coalescer.enqueue("bob", text(body), false);
+        assertEquals(0, sent.frames.size());
+
+        coalescer.enqueue("bob", text(body), false); // Fills the batch: sent from this thread
+        assertEquals(1, sent.frames.size());
+        assertEquals(4, entries(sent.frames.get(0)).size());
+    }
+
+    @Test
+    void aFrameThatDoesNotFitStartsTheNextBatch() {
+        String body = "x".repeat(300);
+        MessageCoalescer coalescer = new MessageCoalescer(sent, TimeUnit.MINUTES.toMillis(1), 1000);
+        for (int i = 0; i < 4; i++) coalescer.enqueue("bob", text(body), false);
+
+        assertEquals(1, sent.frames.size()); // The first three; the fourth waits in a fresh window
+        assertEquals(3, entries(sent.frames.get(0)).size());
+        coalescer.flush("bob");
+        assertEquals(2, sent.frames.size());
+        assertEquals(body, new String(sent.frames.get(1).bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void keepsOrderPerPeerAcrossWindows() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer(sent, 1, 64);
+        for (int i = 0; i < 200; i++) {
+            coalescer.enqueue("bob", text("bob-" + i), false);
+            coalescer.enqueue("carol", text("carol-" + i), false);
+            if (i % 50 == 0) Thread.sleep(2); // Let some windows close on the timer
+        }
+        await(() -> messagesTo("bob").size() == 200 && messagesTo("carol").size() == 200);
+
+        for (String peer : new String[] {"bob", "carol"}) {
+            List<String> messages = messagesTo(peer);
+            for (int i = 0; i < 200; i++) assertEquals(peer + "-" + i, messages.get(i));
+        }
+    }
+
+    @Test
+    void clearAndFlushSendsWhatIsQueuedThroughTheFinalSink() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer(sent, 50, MessageCoalescer.DEFAULT_MAX_BATCH_BYTES);
+        coalescer.enqueue("bob", text("last words"), false);
+
+        TestSupport.FrameRecorder closing = new TestSupport.FrameRecorder();
+        coalescer.clearAndFlush(closing).get(5, TimeUnit.SECONDS);
+        assertEquals(1, closing.frames.size());
+        assertEquals("last words", new String(closing.frames.get(0).bytes, StandardCharsets.UTF_8));
+
+        Thread.sleep(100); // Past the window: the detached queue's timer must not send it again
+        assertEquals(0, sent.frames.size());
+    }
+
+    @Test
+    void removePeerDropsItsQueue() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer(sent, 20, MessageCoalescer.DEFAULT_MAX_BATCH_BYTES);
+        coalescer.enqueue("bob", text("unsent"), false);
+        coalescer.removePeer("bob");
+
+        Thread.sleep(100);
+        assertEquals(0, sent.frames.size());
+    }
+
+    private static ByteBuffer text(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The messages in a sent frame: a batch's entries, or the frame itself.
+    private static List<String> entries(TestSupport.Sent frame) {
+        List<String> messages = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(frame.bytes);
+        if (!MessageCodec.isBatchFrame(buffer)) {
+            messages.add(new String(frame.bytes, StandardCharsets.UTF_8));
+            return messages;
+        }
+        for (ByteBuffer entry : MessageCodec.splitBatch(buffer)) {
+            messages.add(StandardCharsets.UTF_8.decode(entry).toString());
+        }
+        return messages;
+    }
+
+    private List<String> messagesTo(String peerId) {
+        List<String> messages = new ArrayList<>();
+        for (TestSupport.Sent frame : sent.to(peerId)) messages.addAll(entries(frame));
+        return messages;
+    }
+}
@@ -0,0 +1,234 @@
+// src/test/java/com/application/Backend/MessageCodecTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageCodecTest {
+
+    private static final String ROOM = "room";
+
+    private EncryptionService alice;
+    private EncryptionService bob;
+
+    @BeforeEach
+    void setUp() {
+        byte[] key = new byte[32];
+        CryptoContext.nextBytes(key);
+        alice = new EncryptionService();
+        bob = new EncryptionService();
+        alice.addRoomKey(ROOM, new RoomKey(key.clone(), "AES"));
+        bob.addRoomKey(ROOM, new RoomKey(key.clone(), "AES"));
+    }
+
+    @Test
+    void messageFrameRoundTrip() {
+        MessageData message = new MessageData("alice", "report.pdf", 123456789L, "https://example.org/blob", "wrapped-key", "root-hash", ROOM);
+        message.wireVersion = (int) MessageCodec.WIRE_VERSION;
+        message.cipherSuite = CipherSuite.CHACHA20_POLY1305.name();
+
+        MessageData decoded = MessageCodec.decode(MessageCodec.encode(message));
+
+        assertEquals(MessageType.FILE_SHARE_OFFER, decoded.type);
+        assertEquals("alice", decoded.sender);
+        assertEquals(ROOM, decoded.roomContext);
+        assertEquals("report.pdf", decoded.originalFilename);
+        assertEquals(123456789L, decoded.originalFileSize);
+        assertEquals("https://example.org/blob", decoded.downloadUrl);
+        assertEquals("wrapped-key", decoded.encryptedFileKey);
+        assertEquals("root-hash", decoded.fileHash);
+        assertEquals(Integer.valueOf(MessageCodec.WIRE_VERSION), decoded.wireVersion);
+        assertEquals(CipherSuite.CHACHA20_POLY1305.name(), decoded.cipherSuite);
+        assertNull(decoded.recipient);
+    }
+
+    @Test
+    void encryptedDataTravelsAsRawBytes() {
+        byte[] payload = {1, 2, 3, 4, 5};
+        MessageData message = new MessageData("alice", Base64.getEncoder().encodeToString(payload), ROOM);
+
+        MessageData decoded = MessageCodec.decode(MessageCodec.encode(message));
+
+        assertArrayEquals(payload, decoded.encryptedPayload);
+    }
+
+    @Test
+    void unsealedFrameCannotCarryPlainText() {
+        MessageData message = new MessageData("alice", null, ROOM);
+        message.plainText = "claimed";
+
+        assertNull(MessageCodec.decode(MessageCodec.encode(message)).plainText);
+    }
+
+    @Test
+    void chatFrameRoundTrip() throws Exception {
+        assertChatRoundTrip(EncryptionService.NonceMode.RANDOM);
+        assertChatRoundTrip(EncryptionService.NonceMode.COUNTER);
+    }
+
+    private void assertChatRoundTrip(EncryptionService.NonceMode mode) throws Exception {
+        alice.setNonceMode(mode);
+        byte[] text = ("hello in " + mode).getBytes(StandardCharsets.UTF_8);
+
+        MessageData decoded = MessageCodec.decode(MessageCodec.encodeChat(alice, "alice", ROOM, text));
+
+        assertEquals(MessageType.CHAT, decoded.type);
+        assertEquals("alice", decoded.sender);
+        assertEquals(ROOM, decoded.roomContext);
+        boolean counterNonce = EncryptionService.NonceMode.COUNTER.name().equals(decoded.nonceMode);
+        assertEquals(mode == EncryptionService.NonceMode.COUNTER, counterNonce);
+        byte[] plain = new byte[EncryptionService.decryptedLength(decoded.encryptedPayload.length, mode)];
+        bob.decrypt(ROOM, ByteBuffer.wrap(decoded.encryptedPayload), ByteBuffer.wrap(plain), counterNonce ? decoded.sender : null, null);
+        assertArrayEquals(text, plain);
+    }
+
+    @Test
+    void everyBinaryFrameNeedsAnAdvertisedVersion() throws Exception {
+        // Relays hold back what a peer cannot decode; a peer that advertised nothing only takes JSON
+        ByteBuffer chat = MessageCodec.encodeChat(alice, "alice", ROOM, "hi".getBytes(StandardCharsets.UTF_8));
+        assertEquals(MessageCodec.MESSAGE_VERSION, MessageCodec.requiredWireVersion(chat, true));
+        assertEquals(MessageCodec.MESSAGE_VERSION, MessageCodec.requiredWireVersion(MessageCodec.encode(new MessageData("alice", "", ROOM)), true));
+        MessageData sealable = new MessageData("alice", null, ROOM);
+        sealable.plainText = "sealed";
+        assertEquals(MessageCodec.SEALED_VERSION, MessageCodec.requiredWireVersion(MessageCodec.encodeSealed(alice, sealable), true));
+        assertEquals(0, MessageCodec.requiredWireVersion(ByteBuffer.wrap("{}".getBytes(StandardCharsets.UTF_8)), false));
+    }
+
+    @Test
+    void sealedFrameRoundTrip() throws Exception {
+        MessageData message = new MessageData("alice", null, ROOM);
+        message.plainText = "sealed text";
+
+        MessageData opened = MessageCodec.openSealed(bob, MessageCodec.encodeSealed(alice, message));
+
+        assertEquals(MessageType.CHAT, opened.type);
+        assertEquals("alice", opened.sender);
+        assertEquals(ROOM, opened.roomContext);
+        assertEquals("sealed text", opened.plainText);
+    }
+
+    @Test
+    void sealedFrameRejectsTamperingAnywhere() throws Exception {
+        MessageData message = new MessageData("alice", null, ROOM);
+        message.plainText = "sealed text";
+        ByteBuffer frame = MessageCodec.encodeSealed(alice, message);
+
+        for (int i = 3; i < frame.limit(); i++) { // Past magic and version, which only pick the decoder
+            ByteBuffer tampered = copy(frame);
+            tampered.put(i, (byte) (tampered.get(i) ^ 0x01));
+            assertThrows(Exception.class, () -> MessageCodec.openSealed(bob, tampered), "byte " + i);
+        }
+    }
+
+    @Test
+    void sealedCounterFrameIsOpenedOnce() throws Exception {
+        alice.setNonceMode(EncryptionService.NonceMode.COUNTER);
+        MessageData message = new MessageData("alice", null, ROOM);
+        message.plainText = "once";
+        ByteBuffer frame = MessageCodec.encodeSealed(alice, message);
+
+        assertEquals("once", MessageCodec.openSealed(bob, copy(frame)).plainText);
+        assertThrows(EncryptionService.ReplayedMessageException.class, () -> MessageCodec.openSealed(bob, copy(frame)));
+    }
+
+    @Test
+    void batchRoundTrip() {
+        ByteBuffer first = MessageCodec.encode(new MessageData(MessageType.JOIN, "alice", ROOM));
+        ByteBuffer second = ByteBuffer.wrap("{\"type\":\"LEAVE\"}".getBytes(StandardCharsets.UTF_8));
+
+        List<ByteBuffer> entries = MessageCodec.splitBatch(MessageCodec.encodeBatch(Arrays.asList(first.duplicate(), second.duplicate())));
+
+        assertEquals(2, entries.size());
+        assertEquals(first, entries.get(0));
+        assertEquals(second, entries.get(1));
+    }
+
+    @Test
+    void truncatedMessageFrameIsRejected() {
+        ByteBuffer frame = MessageCodec.encode(new MessageData("alice", "recipient", "private-room", "secret", ROOM));
+        for (int length = 0; length < frame.limit(); length++) {
+            ByteBuffer truncated = copy(frame);
+            truncated.limit(length);
+            assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void truncatedChatHeaderIsRejected() throws Exception {
+        ByteBuffer frame = MessageCodec.encodeChat(alice, "alice", ROOM, new byte[0]);
+        int headerEnd = 4 + 2 + ROOM.length() + 2 + "alice".length();
+        for (int length = 0; length < headerEnd; length++) {
+            ByteBuffer truncated = copy(frame);
+            truncated.limit(length);
+            assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void truncatedSealedFrameIsRejected() throws Exception {
+        MessageData message = new MessageData("alice", null, ROOM);
+        message.plainText = "sealed text";
+        ByteBuffer frame = MessageCodec.encodeSealed(alice, message);
+        for (int length = 0; length < frame.limit(); length++) {
+            ByteBuffer truncated = copy(frame);
+            truncated.limit(length);
+            assertThrows(Exception.class, () -> MessageCodec.openSealed(bob, truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void malformedFramesAreRejected() {
+        ByteBuffer valid = MessageCodec.encode(new MessageData(MessageType.JOIN, "alice", ROOM));
+
+        ByteBuffer badMagic = copy(valid);
+        badMagic.put(0, (byte) '{');
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(badMagic));
+
+        ByteBuffer badVersion = copy(valid);
+        badVersion.put(1, (byte) 99);
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(badVersion));
+
+        ByteBuffer badType = copy(valid);
+        badType.put(2, (byte) MessageType.values().length);
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(badType));
+
+        ByteBuffer trailing = ByteBuffer.allocate(valid.limit() + 1);
+        trailing.put(valid.duplicate()).put((byte) 0).flip();
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(trailing));
+
+        ByteBuffer overlong = copy(valid);
+        overlong.put(3, (byte) 0xFF); // Presence varint that never ends within the frame
+        for (int i = 4; i < overlong.limit(); i++) overlong.put(i, (byte) 0xFF);
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(overlong));
+    }
+
+    @Test
+    void malformedBatchIsRejected() {
+        ByteBuffer batch = MessageCodec.encodeBatch(Arrays.asList(MessageCodec.encode(new MessageData(MessageType.JOIN, "alice", ROOM))));
+
+        ByteBuffer truncated = copy(batch);
+        truncated.limit(truncated.limit() - 1);
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.splitBatch(truncated));
+
+        ByteBuffer trailing = ByteBuffer.allocate(batch.limit() + 1);
+        trailing.put(batch.duplicate()).put((byte) 0).flip();
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.splitBatch(trailing));
+    }
+
+    private static ByteBuffer copy(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame.duplicate()).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,69 @@
+// src/test/java/com/application/Backend/NioFileCipherTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NioFileCipherTest {
+
+    @TempDir
+    Path dir;
+
+    private final SecretKey key = new SecretKeySpec(randomBytes(32), "AES");
+
+    @Test
+    void fileRoundTrip() throws Exception {
+        for (int length : new int[] {0, 1, NioFileCipher.IO_BUFFER_SIZE + 3}) {
+            byte[] plain = randomBytes(length);
+            File sealed = encrypt(plain);
+
+            File output = dir.resolve("plain-" + length).toFile();
+            NioFileCipher.decrypt(sealed, output, key);
+
+            assertArrayEquals(plain, Files.readAllBytes(output.toPath()), "length " + length);
+        }
+    }
+
+    @Test
+    void failedDecryptionKeepsExistingOutput() throws Exception {
+        File sealed = encrypt(randomBytes(2 * NioFileCipher.IO_BUFFER_SIZE));
+        byte[] bytes = Files.readAllBytes(sealed.toPath());
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(sealed.toPath(), bytes);
+
+        Path output = dir.resolve("existing.txt");
+        byte[] previous = randomBytes(100);
+        Files.write(output, previous);
+
+        assertThrows(Exception.class, () -> NioFileCipher.decrypt(sealed, output.toFile(), key));
+        assertArrayEquals(previous, Files.readAllBytes(output));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.filter(p -> p.toString().endsWith(".part")).count());
+        }
+    }
+
+    private File encrypt(byte[] plain) throws Exception {
+        File input = Files.createTempFile(dir, "plain", ".bin").toFile();
+        Files.write(input.toPath(), plain);
+        File sealed = Files.createTempFile(dir, "sealed", ".enc").toFile();
+        NioFileCipher.encrypt(input, sealed, key);
+        return sealed;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        CryptoContext.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,170 @@
+// src/test/java/com/application/Backend/OutboundQueueTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.application.Backend.TestSupport.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+
+    private static final int FRAME = 100;
+
+    private final FakeChannel channel = new FakeChannel();
+    private final OutboundQueue queue = new OutboundQueue(channel);
+
+    @Test
+    void sendsDirectlyBelowTheHighWatermark() throws Exception {
+        queue.setWatermarks(10 * FRAME, 2 * FRAME);
+        for (int i = 0; i < 5; i++) queue.send("bob", frame(i), true);
+
+        assertEquals(List.of(0, 1, 2, 3, 4), channel.sent("bob"));
+        OutboundQueue.Stats stats = queue.getStats().get("bob");
+        assertFalse(stats.paused);
+        assertEquals(0, stats.queuedFrames);
+    }
+
+    @Test
+    void pausesAtTheHighWatermarkAndDrainsInOrderAtTheLowOne() throws Exception {
+        queue.setWatermarks(3 * FRAME, FRAME);
+        for (int i = 0; i < 10; i++) queue.send("bob", frame(i), true);
+
+        // The third frame reaches the high watermark; the rest wait
+        assertEquals(List.of(0, 1, 2), channel.sent("bob"));
+        OutboundQueue.Stats paused = queue.getStats().get("bob");
+        assertTrue(paused.paused);
+        assertEquals(7, paused.queuedFrames);
+        assertEquals(7 * FRAME, paused.queuedBytes);
+
+        channel.buffered.set(2 * FRAME); // Above the low watermark: still paused
+        queue.onBufferedAmountChange("bob");
+        assertTrue(queue.getStats().get("bob").paused);
+
+        channel.buffered.set(0);
+        queue.onBufferedAmountChange("bob");
+        // The drain stops again at the high watermark, the poll resumes it once the channel empties
+        awaitPaused(6);
+        channel.buffered.set(0);
+        awaitPaused(9);
+        channel.buffered.set(0);
+        await(() -> channel.sent("bob").size() == 10);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), channel.sent("bob"));
+        OutboundQueue.Stats drained = queue.getStats().get("bob");
+        assertEquals(0, drained.queuedBytes);
+        assertEquals(3, drained.pauses);
+        assertEquals(10, drained.framesSent);
+    }
+
+    @Test
+    void framesSentWhileDrainingKeepTheirPlace() throws Exception {
+        queue.setWatermarks(2 * FRAME, 0);
+        for (int i = 0; i < 4; i++) queue.send("bob", frame(i), true);
+
+        channel.drainBuffered = true; // The channel empties as fast as we send
+        channel.buffered.set(0);
+        queue.onBufferedAmountChange("bob");
+        for (int i = 4; i < 8; i++) queue.send("bob", frame(i), true);
+        await(() -> channel.sent("bob").size() == 8);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), channel.sent("bob"));
+    }
+
+    @Test
+    void aPausedPeerDoesNotHoldUpOthers() throws Exception {
+        queue.setWatermarks(FRAME, 0);
+        queue.send("bob", frame(0), true);
+        queue.send("bob", frame(1), true); // Queued: bob is paused
+        channel.perPeer = true;
+        queue.send("carol", frame(2), true);
+
+        assertEquals(List.of(0), channel.sent("bob"));
+        assertEquals(List.of(2), channel.sent("carol"));
+    }
+
+    @Test
+    void rejectsFramesOnceTheQueueIsFull() throws Exception {
+        queue.setWatermarks(FRAME, 0);
+        queue.setMaxQueuedBytes(2 * FRAME);
+        queue.send("bob", frame(0), true); // Sent; pauses bob
+        queue.send("bob", frame(1), true);
+        queue.send("bob", frame(2), true);
+
+        assertThrows(IllegalStateException.class, () -> queue.send("bob", frame(3), true));
+        OutboundQueue.Stats stats = queue.getStats().get("bob");
+        assertEquals(2, stats.queuedFrames);
+        assertEquals(1, stats.framesRejected);
+
+        channel.buffered.set(0);
+        queue.onBufferedAmountChange("bob");
+        awaitPaused(2);
+        channel.buffered.set(0);
+        await(() -> channel.sent("bob").size() == 3);
+        assertEquals(List.of(0, 1, 2), channel.sent("bob")); // The rejected frame never went out
+    }
+
+    @Test
+    void removePeerDropsItsQueue() throws Exception {
+        queue.setWatermarks(FRAME, 0);
+        queue.send("bob", frame(0), true);
+        queue.send("bob", frame(1), true);
+        queue.removePeer("bob");
+
+        channel.buffered.set(0);
+        queue.onBufferedAmountChange("bob");
+        Thread.sleep(100); // Longer than the fallback poll
+        assertEquals(List.of(0), channel.sent("bob"));
+        assertFalse(queue.getStats().containsKey("bob"));
+    }
+
+    @Test
+    void rejectsInvertedWatermarks() {
+        assertThrows(IllegalArgumentException.class, () -> queue.setWatermarks(FRAME, FRAME));
+        assertThrows(IllegalArgumentException.class, () -> queue.setWatermarks(FRAME, -1));
+    }
+
+    // FRAME bytes, the first holding the frame's number.
+    private static ByteBuffer frame(int number) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME);
+        frame.put(0, (byte) number);
+        return frame;
+    }
+
+    // Waits until `sent` frames went out to bob and the drain has paused bob again.
+    private void awaitPaused(int sent) throws InterruptedException {
+        await(() -> channel.sent("bob").size() == sent && queue.getStats().get("bob").paused);
+    }
+
+    // A DataChannel whose buffered amount grows by each frame sent and only falls when the test says so.
+    private static final class FakeChannel implements OutboundQueue.Transport {
+        final AtomicLong buffered = new AtomicLong();
+        volatile boolean drainBuffered; // Frames leave the buffer at once
+        volatile boolean perPeer;       // Only bob's frames count towards the buffered amount
+        private final TestSupport.FrameRecorder recorder = new TestSupport.FrameRecorder();
+
+        @Override public long bufferedAmount(String peerId) {
+            return (perPeer && !peerId.equals("bob")) ? 0 : buffered.get();
+        }
+
+        @Override public void send(String peerId, ByteBuffer frame, boolean binary) {
+            assertEquals(FRAME, frame.remaining());
+            recorder.send(peerId, frame, binary);
+            if (!drainBuffered && !(perPeer && !peerId.equals("bob"))) buffered.addAndGet(frame.remaining());
+        }
+
+        // The numbers of the frames sent to the peer, in order.
+        List<Integer> sent(String peerId) {
+            List<Integer> numbers = new ArrayList<>();
+            for (TestSupport.Sent frame : recorder.to(peerId)) numbers.add((int) frame.bytes[0]);
+            return numbers;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+// src/test/java/com/application/Backend/RelayRouterTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RelayRouterTest {
+
+    @Test
+    void everyBroadcastReachesEveryOtherMemberOnce() {
+        for (int n : new int[] {8, 30, 100}) { // 8: the smallest room in relay mode at the test threshold
+            List<String> members = RelayTopologyTest.members(n);
+            RelayTopologyTest.Links links = RelayTopologyTest.Links.of(members);
+            Map<String, RelayRouter> routers = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                RelayRouter router = new RelayRouter();
+                router.setTopology(links.topologies.get(i));
+                routers.put(members.get(i), router);
+            }
+
+            for (String origin : members) {
+                Map<String, Integer> received = broadcast(origin, links, routers);
+                assertEquals(n - 1, received.size(), "n=" + n + ", from " + origin);
+                assertFalse(received.containsKey(origin)); // Not even back through another relay
+            }
+        }
+    }
+
+    @Test
+    void dropsFramesItHasAlreadySeen() {
+        RelayRouter router = new RelayRouter();
+        ByteBuffer frame = frame("hello");
+        assertTrue(router.firstSighting(frame));
+        assertFalse(router.firstSighting(frame.duplicate()));
+        assertTrue(router.firstSighting(frame("hello again")));
+        assertEquals(5, frame.remaining()); // Not consumed
+        assertEquals(1, router.getStats().duplicatesDropped);
+
+        router.reset();
+        assertTrue(router.firstSighting(frame));
+    }
+
+    @Test
+    void relaysForwardLeafFramesToAllAndRelayFramesToLeaves() {
+        List<String> members = RelayTopologyTest.members(100);
+        RelayTopologyTest.Links links = RelayTopologyTest.Links.of(members);
+        int relayIndex = 0, leafIndex = 0;
+        while (!links.topologies.get(relayIndex).selfIsRelay()) relayIndex++;
+        while (links.topologies.get(leafIndex).selfIsRelay()) leafIndex++;
+        String relay = members.get(relayIndex);
+        RelayRouter router = new RelayRouter();
+        router.setTopology(links.topologies.get(relayIndex));
+
+        List<String> peers = new ArrayList<>(links.of(relay));
+        String leaf = null, otherRelay = null;
+        for (String peer : peers) {
+            if (router.topology().isRelay(peer)) otherRelay = peer; else leaf = peer;
+        }
+
+        List<String> fromLeaf = router.forwardTargets(leaf, leaf, peers);
+        assertEquals(peers.size() - 1, fromLeaf.size());
+        assertFalse(fromLeaf.contains(leaf));
+
+        List<String> fromRelay = router.forwardTargets(otherRelay, leaf, peers);
+        assertFalse(fromRelay.contains(leaf)); // The origin never gets its own frame back
+        for (String target : fromRelay) assertFalse(router.topology().isRelay(target), target);
+
+        RelayRouter leafRouter = new RelayRouter();
+        leafRouter.setTopology(links.topologies.get(leafIndex));
+        assertTrue(leafRouter.forwardTargets(relay, relay, links.of(members.get(leafIndex))).isEmpty());
+    }
+
+    @Test
+    void leavesBroadcastToTheirBestOpenRelay() {
+        List<String> members = RelayTopologyTest.members(100);
+        int leafIndex = 0;
+        RelayTopologyTest.Links links = RelayTopologyTest.Links.of(members);
+        while (links.topologies.get(leafIndex).selfIsRelay()) leafIndex++;
+        RelayRouter router = new RelayRouter();
+        router.setTopology(links.topologies.get(leafIndex));
+        List<String> preference = router.topology().relayPreference();
+        List<String> peers = new ArrayList<>(links.of(members.get(leafIndex)));
+
+        assertEquals(List.of(preference.get(0)), router.broadcastTargets(peers, peer -> true));
+        assertEquals(List.of(preference.get(1)), router.broadcastTargets(peers, peer -> !peer.equals(preference.get(0))));
+        assertEquals(peers.size(), router.broadcastTargets(peers, peer -> false).size()); // No relay open yet: everyone we have
+
+        RelayRouter mesh = new RelayRouter();
+        assertEquals(peers, mesh.broadcastTargets(peers, peer -> true));
+    }
+
+    // Delivers one frame from origin through the room, hop by hop. Returns the members that took it in (copies dropped).
+    private static Map<String, Integer> broadcast(String origin, RelayTopologyTest.Links links, Map<String, RelayRouter> routers) {
+        ByteBuffer frame = frame("from " + origin);
+        Map<String, Integer> received = new HashMap<>();
+        Deque<String[]> inFlight = new ArrayDeque<>(); // {from, to}
+        for (String target : routers.get(origin).broadcastTargets(links.of(origin), peer -> true)) {
+            inFlight.add(new String[] {origin, target});
+        }
+        while (!inFlight.isEmpty()) {
+            String[] hop = inFlight.poll();
+            String from = hop[0], to = hop[1];
+            RelayRouter router = routers.get(to);
+            if (!router.firstSighting(frame)) continue;
+            received.merge(to, 1, Integer::sum);
+            for (String next : router.forwardTargets(from, origin, links.of(to))) {
+                inFlight.add(new String[] {to, next});
+            }
+        }
+        return received;
+    }
+
+    private static ByteBuffer frame(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,162 @@
+// src/test/java/com/application/Backend/RelayTopologyTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RelayTopologyTest {
+
+    private static final String ROOM = "lobby";
+    private static final int THRESHOLD = 8;
+
+    @Test
+    void smallRoomsAndAThresholdOfZeroStayAFullMesh() {
+        List<String> members = members(THRESHOLD - 1);
+        RelayTopology small = RelayTopology.elect(ROOM, members, members.get(0), THRESHOLD);
+        assertFalse(small.isRelayMode());
+        assertEquals(new HashSet<>(members.subList(1, members.size())), small.wantedLinks(Collections.emptySet()));
+
+        List<String> large = members(100);
+        assertFalse(RelayTopology.elect(ROOM, large, large.get(0), 0).isRelayMode());
+    }
+
+    @Test
+    void everyMemberElectsTheSameRelays() {
+        List<String> members = members(100);
+        RelayTopology first = RelayTopology.elect(ROOM, members, members.get(0), THRESHOLD);
+        assertTrue(first.isRelayMode());
+        assertEquals(15, first.relays().size()); // ceil(sqrt(2 * 100))
+
+        for (String self : members) {
+            // The roster as each member sees it: everyone but itself
+            List<String> others = new ArrayList<>(members);
+            others.remove(self);
+            assertEquals(first.relays(), RelayTopology.elect(ROOM, others, self, THRESHOLD).relays(), self);
+        }
+    }
+
+    @Test
+    void leavesHoldTwoLinksAndRelaysAFewDozen() {
+        List<String> members = members(100);
+        Links links = Links.of(members);
+
+        int relays = 0, maxRelayLinks = 0;
+        for (String member : members) {
+            RelayTopology topology = links.topologies.get(members.indexOf(member));
+            if (topology.selfIsRelay()) {
+                relays++;
+                maxRelayLinks = Math.max(maxRelayLinks, links.of(member).size());
+            } else {
+                assertEquals(RelayTopology.LINKS_PER_LEAF, links.of(member).size(), member);
+            }
+        }
+        assertEquals(15, relays);
+        assertTrue(maxRelayLinks <= 40, "busiest relay has " + maxRelayLinks + " links");
+        assertEquals(15 * 14 / 2 + 85 * RelayTopology.LINKS_PER_LEAF, links.count()); // Instead of 4950 in a full mesh
+    }
+
+    @Test
+    void exactlyOneSideOffersEachLink() {
+        List<String> members = members(60);
+        Links links = Links.of(members);
+        for (int a = 0; a < members.size(); a++) {
+            for (String peer : links.of(members.get(a))) {
+                RelayTopology other = links.topologies.get(members.indexOf(peer));
+                assertNotEquals(links.topologies.get(a).shouldOffer(peer), other.shouldOffer(members.get(a)), members.get(a) + " - " + peer);
+            }
+        }
+    }
+
+    @Test
+    void aJoinOrLeaveMovesAtMostOneRelay() {
+        List<String> members = members(100);
+        Set<String> before = new HashSet<>(RelayTopology.elect(ROOM, members, members.get(0), THRESHOLD).relays());
+        for (int i = 0; i < 20; i++) {
+            members.add("joiner-" + i);
+            Set<String> after = new HashSet<>(RelayTopology.elect(ROOM, members, members.get(0), THRESHOLD).relays());
+            Set<String> dropped = new HashSet<>(before);
+            dropped.removeAll(after);
+            assertTrue(dropped.size() <= 1, "join " + i + " dropped " + dropped);
+            before = after;
+        }
+        for (int i = 0; i < 20; i++) {
+            members.remove("joiner-" + i);
+            Set<String> after = new HashSet<>(RelayTopology.elect(ROOM, members, members.get(0), THRESHOLD).relays());
+            Set<String> added = new HashSet<>(after);
+            added.removeAll(before);
+            assertTrue(added.size() <= 1, "leave " + i + " added " + added);
+            before = after;
+        }
+    }
+
+    @Test
+    void aLeafPassesOverUnreachableRelays() {
+        List<String> members = members(100);
+        String leaf = null;
+        for (String member : members) {
+            if (!RelayTopology.elect(ROOM, members, member, THRESHOLD).selfIsRelay()) { leaf = member; break; }
+        }
+        RelayTopology topology = RelayTopology.elect(ROOM, members, leaf, THRESHOLD);
+        List<String> preference = topology.relayPreference();
+        assertEquals(new HashSet<>(preference.subList(0, 2)), topology.wantedLinks(Collections.emptySet()));
+
+        Set<String> unreachable = Collections.singleton(preference.get(0));
+        assertEquals(new HashSet<>(preference.subList(1, 3)), topology.wantedLinks(unreachable));
+
+        // With too few reachable relays left, unreachable ones are tried again rather than holding fewer links
+        Set<String> allButOne = new HashSet<>(preference.subList(1, preference.size()));
+        assertEquals(RelayTopology.LINKS_PER_LEAF, topology.wantedLinks(allButOne).size());
+    }
+
+    static List<String> members(int n) {
+        List<String> members = new ArrayList<>();
+        for (int i = 0; i < n; i++) members.add(String.format("user%03d", i));
+        return members;
+    }
+
+    // The connections a room ends up with: a link exists when either side wants it (the other accepts the offer).
+    static final class Links {
+        final List<String> members;
+        final List<RelayTopology> topologies = new ArrayList<>();
+        private final List<Set<String>> peers = new ArrayList<>();
+
+        private Links(List<String> members) {
+            this.members = members;
+        }
+
+        static Links of(List<String> members) {
+            Links links = new Links(members);
+            for (String self : members) {
+                links.topologies.add(RelayTopology.elect(ROOM, members, self, THRESHOLD));
+                links.peers.add(new HashSet<>());
+            }
+            for (int i = 0; i < members.size(); i++) {
+                for (String peer : links.topologies.get(i).wantedLinks(Collections.emptySet())) {
+                    links.peers.get(i).add(peer);
+                    links.peers.get(members.indexOf(peer)).add(members.get(i));
+                }
+            }
+            return links;
+        }
+
+        Set<String> of(String member) {
+            return peers.get(members.indexOf(member));
+        }
+
+        int count() {
+            int ends = 0;
+            for (Set<String> p : peers) ends += p.size();
+            return ends / 2;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+// src/test/java/com/application/Backend/ReplayWindowTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayWindowTest {
+
+    private final ReplayWindow window = new ReplayWindow();
+
+    @Test
+    void acceptsEachCounterOnce() {
+        assertEquals(-1, window.highest());
+        for (long c = 0; c < 3 * ReplayWindow.SIZE; c++) {
+            assertTrue(window.accept(c));
+            assertFalse(window.accept(c));
+            assertFalse(window.isFresh(c));
+        }
+        assertEquals(3 * ReplayWindow.SIZE - 1, window.highest());
+    }
+
+    @Test
+    void isFreshDoesNotRecord() {
+        assertTrue(window.isFresh(5));
+        assertTrue(window.isFresh(5));
+        assertEquals(-1, window.highest());
+        assertTrue(window.accept(5));
+    }
+
+    @Test
+    void acceptsReorderedCountersInsideTheWindow() {
+        List<Long> counters = new ArrayList<>();
+        for (long c = 0; c < ReplayWindow.SIZE; c++) counters.add(c);
+        Collections.shuffle(counters, new Random(42));
+
+        for (long c : counters) assertTrue(window.accept(c), "counter " + c);
+        for (long c : counters) assertFalse(window.accept(c), "replayed counter " + c);
+    }
+
+    @Test
+    void skippedCountersMayStillArrive() {
+        assertTrue(window.accept(10));
+        assertTrue(window.accept(3));
+        assertTrue(window.accept(10 + ReplayWindow.SIZE - 1)); // 10 is still the oldest counter in the window
+        assertFalse(window.accept(10));
+        assertTrue(window.accept(11));
+        assertFalse(window.accept(11));
+    }
+
+    @Test
+    void rejectsCountersOlderThanTheWindow() {
+        assertTrue(window.accept(ReplayWindow.SIZE + 100));
+        assertFalse(window.isFresh(100)); // Exactly SIZE behind: out of the window
+        assertTrue(window.isFresh(101));
+        assertFalse(window.accept(0));
+        assertFalse(window.accept(-1));
+    }
+
+    @Test
+    void aJumpBeyondTheWindowForgetsEverySlot() {
+        for (long c = 0; c < ReplayWindow.SIZE; c++) assertTrue(window.accept(c));
+        long far = 10L * ReplayWindow.SIZE;
+        assertTrue(window.accept(far));
+
+        // Slots share bit positions with the old counters; none of them may read as seen
+        for (long c = far - ReplayWindow.SIZE + 1; c < far; c++) assertTrue(window.isFresh(c), "counter " + c);
+    }
+
+    @Test
+    void concurrentDuplicatesAreAcceptedOnce() throws Exception {
+        int threads = 4;
+        int counters = 10_000;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long c = 0; c < counters; c++) {
+                    if (window.accept(c)) accepted.incrementAndGet();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        // Threads offer the counters in order, so whichever offers a counter first finds it fresh: exactly one accepts it
+        assertEquals(counters, accepted.get());
+        assertEquals(counters - 1, window.highest());
+    }
+}
@@ -0,0 +1,106 @@
+// src/test/java/com/application/Backend/RoomKeyCacheTest.java
+package com.application.Backend;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoomKeyCacheTest {
+
+    private final RoomKeyCache cache = new RoomKeyCache(3);
+
+    @Test
+    void callersGetCopiesTheyOwn() {
+        RoomKey original = key(1);
+        cache.put("lobby", "pw", original);
+        original.destroy(); // The cache stored its own copy
+
+        RoomKey first = cache.get("lobby", "pw");
+        assertArrayEquals(key(1).getEncoded(), first.getEncoded());
+        first.destroy();
+        RoomKey second = cache.get("lobby", "pw");
+        assertNotSame(first, second);
+        assertFalse(second.isDestroyed());
+        assertArrayEquals(key(1).getEncoded(), second.getEncoded());
+    }
+
+    @Test
+    void theRoomAndThePasswordBothSelectTheKey() {
+        cache.put("lobby", "pw", key(1));
+        assertNull(cache.get("lobby", "other"));
+        assertNull(cache.get("other", "pw"));
+        assertFalse(cache.contains("lobby", "PW"));
+    }
+
+    @Test
+    void evictionWipesTheLeastRecentlyUsedKey() {
+        cache.put("a", "pw", key(1));
+        cache.put("b", "pw", key(2));
+        cache.put("c", "pw", key(3));
+        RoomKey cachedA = cache.peek("a", "pw");
+        RoomKey cachedB = cache.peek("b", "pw");
+        cache.get("a", "pw").destroy(); // Use a: b is now the eldest
+
+        cache.put("d", "pw", key(4));
+        assertTrue(cache.contains("a", "pw"));
+        assertFalse(cache.contains("b", "pw"));
+        assertTrue(cachedB.isDestroyed());
+        assertThrows(IllegalStateException.class, cachedB::getEncoded);
+        assertFalse(cachedA.isDestroyed());
+
+        cache.put("e", "pw", key(5)); // Then c, then a
+        assertFalse(cache.contains("c", "pw"));
+        cache.put("f", "pw", key(6));
+        assertFalse(cache.contains("a", "pw"));
+        assertTrue(cachedA.isDestroyed());
+    }
+
+    @Test
+    void replacingOrClearingWipesTheOldKeys() {
+        cache.put("a", "pw", key(1));
+        RoomKey replaced = cache.peek("a", "pw");
+        cache.put("a", "pw", key(2));
+        assertTrue(replaced.isDestroyed());
+        assertArrayEquals(key(2).getEncoded(), cache.get("a", "pw").getEncoded());
+
+        cache.put("b", "pw", key(3));
+        RoomKey a = cache.peek("a", "pw");
+        RoomKey b = cache.peek("b", "pw");
+        cache.clear();
+        assertTrue(a.isDestroyed());
+        assertTrue(b.isDestroyed());
+        assertNull(cache.get("a", "pw"));
+    }
+
+    @Test
+    void aDiscardedKeyFromDeriveRoomKeyAsyncLeavesTheCacheIntact() throws Exception {
+        // What a superseded or failed join does with its key (ChatController.joinOrSwitchToRoom)
+        EncryptionService service = new EncryptionService();
+        SecretKey derived = service.deriveRoomKeyAsync("lobby", "pw").get(30, TimeUnit.SECONDS);
+        byte[] bytes = derived.getEncoded();
+        service.discardKey(derived);
+        assertTrue(derived.isDestroyed());
+
+        SecretKey again = service.deriveRoomKeyAsync("lobby", "pw").get(30, TimeUnit.SECONDS); // From the cache
+        assertNotSame(derived, again);
+        assertArrayEquals(bytes, again.getEncoded());
+
+        service.discardKey(null); // A failed derivation has no key
+        assertNotNull(again.getEncoded());
+    }
+
+    private static RoomKey key(int seed) {
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) (seed * 31 + i);
+        return new RoomKey(bytes, "AES");
+    }
+}
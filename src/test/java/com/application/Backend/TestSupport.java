@@ -0,0 +1,60 @@
+// src/test/java/com/application/Backend/TestSupport.java
+package com.application.Backend;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/** Helpers shared by the tests of the asynchronous send paths (queues, coalescer, dispatcher, file transfers). */
+final class TestSupport {
+
+    private TestSupport() {}
+
+    /** Polls until the condition holds; fails after five seconds. */
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        await(condition, 5000);
+    }
+
+    static void await(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out");
+            Thread.sleep(2);
+        }
+    }
+
+    /** One frame as it was sent. */
+    static final class Sent {
+        final String peerId;
+        final byte[] bytes;
+        final boolean binary;
+
+        Sent(String peerId, byte[] bytes, boolean binary) {
+            this.peerId = peerId;
+            this.bytes = bytes;
+            this.binary = binary;
+        }
+    }
+
+    // Records a copy of every frame: senders return their buffer to the pool (or reuse it) once send() returns.
+    static final class FrameRecorder implements MessageCoalescer.FrameSink {
+        final List<Sent> frames = Collections.synchronizedList(new ArrayList<>());
+
+        @Override public void send(String peerId, ByteBuffer frame, boolean binary) {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            frames.add(new Sent(peerId, bytes, binary));
+        }
+
+        /** The frames sent to one peer so far, in order. */
+        List<Sent> to(String peerId) {
+            List<Sent> sent = new ArrayList<>();
+            synchronized (frames) {
+                for (Sent frame : frames) if (frame.peerId.equals(peerId)) sent.add(frame);
+            }
+            return sent;
+        }
+    }
+}
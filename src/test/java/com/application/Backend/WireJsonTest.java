@@ -0,0 +1,219 @@
+// src/test/java/com/application/Backend/WireJsonTest.java
+package com.application.Backend;
+
+import com.application.Backend.dto.ClientSignalingMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WireJsonTest {
+
+    @Test
+    void chatAndHeartbeatRoundTrip() throws Exception {
+        MessageData chat = new MessageData("alice", "c2VjcmV0", "lobby");
+        chat.nonceMode = "COUNTER";
+        chat.cipherSuite = "CHACHA20_POLY1305";
+        MessageData decoded = roundTrip(chat);
+        assertEquals(MessageType.CHAT, decoded.type);
+        assertEquals("alice", decoded.sender);
+        assertEquals("lobby", decoded.roomContext);
+        assertEquals("c2VjcmV0", decoded.encryptedData);
+        assertEquals("COUNTER", decoded.nonceMode);
+        assertEquals("CHACHA20_POLY1305", decoded.cipherSuite);
+        assertNull(decoded.wireVersion);
+
+        MessageData heartbeat = new MessageData(MessageType.HEARTBEAT, "bob", "lobby");
+        heartbeat.wireVersion = 5;
+        assertEquals(5, roundTrip(heartbeat).wireVersion);
+    }
+
+    @Test
+    void fileOfferAndPrivateChatRoundTrip() throws Exception {
+        MessageData offer = new MessageData("alice", "notes.txt", 5_000_000_000L, "p2p://offer", "a2V5", "cm9vdA==", "lobby");
+        MessageData decodedOffer = roundTrip(offer);
+        assertEquals(MessageType.FILE_SHARE_OFFER, decodedOffer.type);
+        assertEquals("notes.txt", decodedOffer.originalFilename);
+        assertEquals(5_000_000_000L, decodedOffer.originalFileSize);
+        assertEquals("p2p://offer", decodedOffer.downloadUrl);
+        assertEquals("a2V5", decodedOffer.encryptedFileKey);
+        assertEquals("cm9vdA==", decodedOffer.fileHash);
+
+        MessageData request = new MessageData("alice", "bob", "alice-bob", "hunter2", "lobby");
+        MessageData decodedRequest = roundTrip(request);
+        assertEquals(MessageType.PRIVATE_CHAT_REQUEST, decodedRequest.type);
+        assertEquals("bob", decodedRequest.recipient);
+        assertEquals("alice-bob", decodedRequest.proposedRoomName);
+        assertEquals("hunter2", decodedRequest.proposedRoomPassword);
+    }
+
+    @Test
+    void absentFieldsAreNotWritten() throws Exception {
+        String json = WireJson.MAPPER.writeValueAsString(new MessageData(MessageType.HEARTBEAT, "bob", "lobby"));
+        assertEquals("{\"type\":\"HEARTBEAT\",\"sender\":\"bob\",\"roomContext\":\"lobby\"}", json);
+    }
+
+    @Test
+    void unknownMessageFieldsAreSkipped() throws Exception {
+        String json = "{\"type\":\"CHAT\",\"future\":{\"nested\":[1,{\"sender\":\"mallory\"}]},\"sender\":\"alice\","
+                + "\"flags\":[\"a\",\"b\"],\"roomContext\":\"lobby\",\"encryptedData\":\"eA==\",\"score\":1.5}";
+        MessageData decoded = WireJson.MAPPER.readValue(json, MessageData.class);
+        assertEquals(MessageType.CHAT, decoded.type);
+        assertEquals("alice", decoded.sender); // Not the nested one
+        assertEquals("lobby", decoded.roomContext);
+        assertEquals("eA==", decoded.encryptedData);
+    }
+
+    @Test
+    void unknownMessageTypeIsRejected() {
+        assertThrows(JsonProcessingException.class,
+                () -> WireJson.MAPPER.readValue("{\"type\":\"TELEPORT\",\"sender\":\"alice\"}", MessageData.class));
+    }
+
+    @Test
+    void sdpAndCandidateRoundTrip() throws Exception {
+        ClientSignalingMessage.SdpPayload sdp = new ClientSignalingMessage.SdpPayload();
+        sdp.setSdpType("offer");
+        sdp.setSdp("v=0\r\n");
+        ClientSignalingMessage offer = roundTrip(new ClientSignalingMessage("offer", "alice", "bob", "lobby", sdp));
+        assertEquals("offer", offer.getType());
+        assertEquals("alice", offer.getFromUser());
+        assertEquals("bob", offer.getToUser());
+        assertEquals("lobby", offer.getRoom());
+        ClientSignalingMessage.SdpPayload decodedSdp = assertInstanceOf(ClientSignalingMessage.SdpPayload.class, offer.getPayload());
+        assertEquals("offer", decodedSdp.getSdpType());
+        assertEquals("v=0\r\n", decodedSdp.getSdp());
+
+        ClientSignalingMessage.IceCandidatePayload ice = new ClientSignalingMessage.IceCandidatePayload();
+        ice.setCandidate("candidate:1 1 udp 2122260223 10.0.0.1 54321 typ host");
+        ice.setSdpMid("0");
+        ice.setSdpMLineIndex(1);
+        ClientSignalingMessage candidate = roundTrip(new ClientSignalingMessage("candidate", "alice", "bob", "lobby", ice));
+        ClientSignalingMessage.IceCandidatePayload decodedIce = assertInstanceOf(ClientSignalingMessage.IceCandidatePayload.class, candidate.getPayload());
+        assertEquals(ice.getCandidate(), decodedIce.getCandidate());
+        assertEquals("0", decodedIce.getSdpMid());
+        assertEquals(1, decodedIce.getSdpMLineIndex());
+    }
+
+    @Test
+    void peersAndUserEventsRoundTrip() throws Exception {
+        ClientSignalingMessage.RoomPeersPayload peers = new ClientSignalingMessage.RoomPeersPayload();
+        peers.setUsers(List.of("alice", "bob"));
+        ClientSignalingMessage decodedPeers = roundTrip(new ClientSignalingMessage("peers", null, "carol", "lobby", peers));
+        assertEquals(List.of("alice", "bob"), WireJson.payload(decodedPeers, ClientSignalingMessage.RoomPeersPayload.class).getUsers());
+
+        ClientSignalingMessage.UserEventPayload joined = new ClientSignalingMessage.UserEventPayload();
+        joined.setUser("carol");
+        joined.setCipherSuite("CHACHA20_POLY1305");
+        joined.setWireVersion(5);
+        ClientSignalingMessage.UserEventPayload decodedJoined = WireJson.payload(
+                roundTrip(new ClientSignalingMessage("user_joined", null, null, "lobby", joined)), ClientSignalingMessage.UserEventPayload.class);
+        assertEquals("carol", decodedJoined.getUser());
+        assertEquals("CHACHA20_POLY1305", decodedJoined.getCipherSuite());
+        assertEquals(5, decodedJoined.getWireVersion());
+
+        ClientSignalingMessage.UserEventPayload left = new ClientSignalingMessage.UserEventPayload();
+        left.setUser("carol");
+        ClientSignalingMessage.UserEventPayload decodedLeft = WireJson.payload(
+                roundTrip(new ClientSignalingMessage("user_left", null, null, "lobby", left)), ClientSignalingMessage.UserEventPayload.class);
+        assertEquals("carol", decodedLeft.getUser());
+        assertNull(decodedLeft.getCipherSuite());
+        assertNull(decodedLeft.getWireVersion());
+    }
+
+    @Test
+    void userJoinedFromAnOlderOrNewerClient() throws Exception {
+        // Join payload values are strings, relayed as is; an older client sends neither; a newer one may add fields
+        ClientSignalingMessage.UserEventPayload relayed = userEvent(
+                "{\"type\":\"user_joined\",\"payload\":{\"user\":\"carol\",\"wireVersion\":\"5\",\"avatar\":{\"size\":3}}}");
+        assertEquals("carol", relayed.getUser());
+        assertEquals(5, relayed.getWireVersion());
+
+        ClientSignalingMessage.UserEventPayload older = userEvent("{\"type\":\"user_joined\",\"payload\":{\"user\":\"dave\"}}");
+        assertEquals("dave", older.getUser());
+        assertNull(older.getWireVersion());
+        assertNull(older.getCipherSuite());
+
+        assertNull(userEvent("{\"type\":\"user_joined\",\"payload\":{\"user\":\"eve\",\"wireVersion\":\"soon\"}}").getWireVersion());
+    }
+
+    @Test
+    void joinAndWelcomePayloadsStayMaps() throws Exception {
+        ClientSignalingMessage join = new ClientSignalingMessage("join", "lobby", Map.of("user", "alice", "room", "lobby"));
+        ClientSignalingMessage decodedJoin = roundTrip(join);
+        assertEquals("alice", decodedJoin.getFromUser());
+        assertEquals(Map.of("user", "alice", "room", "lobby"), decodedJoin.getPayload());
+
+        ClientSignalingMessage welcome = WireJson.MAPPER.readValue(
+                "{\"type\":\"welcome_to_room\",\"payload\":{\"peers\":[\"bob\"],\"iceServers\":[{\"urls\":[\"stun:x\"]}]}}",
+                ClientSignalingMessage.class);
+        Map<?, ?> payload = assertInstanceOf(Map.class, welcome.getPayload());
+        assertEquals(List.of("bob"), payload.get("peers"));
+        assertInstanceOf(List.class, payload.get("iceServers"));
+    }
+
+    @Test
+    void payloadBeforeTypeIsConvertedOnRequest() throws Exception {
+        ClientSignalingMessage offer = WireJson.MAPPER.readValue(
+                "{\"payload\":{\"type\":\"answer\",\"sdp\":\"v=0\"},\"type\":\"answer\",\"fromUser\":\"bob\"}", ClientSignalingMessage.class);
+        assertInstanceOf(Map.class, offer.getPayload()); // The payload class was not known yet
+        ClientSignalingMessage.SdpPayload sdp = WireJson.payload(offer, ClientSignalingMessage.SdpPayload.class);
+        assertEquals("answer", sdp.getSdpType());
+        assertEquals("v=0", sdp.getSdp());
+
+        ClientSignalingMessage candidate = WireJson.MAPPER.readValue(
+                "{\"payload\":{\"candidate\":\"c\",\"sdpMid\":\"0\",\"sdpMLineIndex\":2},\"type\":\"candidate\"}", ClientSignalingMessage.class);
+        ClientSignalingMessage.IceCandidatePayload ice = WireJson.payload(candidate, ClientSignalingMessage.IceCandidatePayload.class);
+        assertEquals("c", ice.getCandidate());
+        assertEquals(2, ice.getSdpMLineIndex());
+
+        ClientSignalingMessage peers = WireJson.MAPPER.readValue(
+                "{\"payload\":{\"users\":[\"alice\"]},\"type\":\"peers\"}", ClientSignalingMessage.class);
+        assertEquals(List.of("alice"), WireJson.payload(peers, ClientSignalingMessage.RoomPeersPayload.class).getUsers());
+
+        ClientSignalingMessage joined = WireJson.MAPPER.readValue(
+                "{\"payload\":{\"user\":\"carol\",\"cipherSuite\":\"AES_256_GCM\",\"wireVersion\":4},\"type\":\"user_joined\"}", ClientSignalingMessage.class);
+        ClientSignalingMessage.UserEventPayload event = WireJson.payload(joined, ClientSignalingMessage.UserEventPayload.class);
+        assertEquals("carol", event.getUser());
+        assertEquals("AES_256_GCM", event.getCipherSuite());
+        assertEquals(4, event.getWireVersion());
+    }
+
+    @Test
+    void unknownSignalingFieldsAreSkipped() throws Exception {
+        ClientSignalingMessage message = WireJson.MAPPER.readValue(
+                "{\"type\":\"offer\",\"serverTime\":{\"ms\":1},\"fromUser\":\"alice\",\"payload\":{\"type\":\"offer\",\"sdp\":\"v=0\",\"extra\":[1]},\"hops\":[2]}",
+                ClientSignalingMessage.class);
+        assertEquals("alice", message.getFromUser());
+        assertEquals("v=0", WireJson.payload(message, ClientSignalingMessage.SdpPayload.class).getSdp());
+    }
+
+    @Test
+    void payloadOfTheWrongShapeIsRejected() throws Exception {
+        ClientSignalingMessage message = WireJson.MAPPER.readValue("{\"type\":\"offer\",\"payload\":\"v=0\"}", ClientSignalingMessage.class);
+        assertThrows(IllegalArgumentException.class, () -> WireJson.payload(message, ClientSignalingMessage.SdpPayload.class));
+        String json = WireJson.MAPPER.writeValueAsString(message);
+        assertTrue(json.contains("\"payload\":\"v=0\""), json);
+        assertFalse(json.contains("toUser"), json); // Absent, not null
+    }
+
+    private static MessageData roundTrip(MessageData message) throws Exception {
+        return WireJson.MAPPER.readValue(WireJson.MAPPER.writeValueAsBytes(message), MessageData.class);
+    }
+
+    private static ClientSignalingMessage roundTrip(ClientSignalingMessage message) throws Exception {
+        return WireJson.MAPPER.readValue(WireJson.MAPPER.writeValueAsString(message), ClientSignalingMessage.class);
+    }
+
+    private static ClientSignalingMessage.UserEventPayload userEvent(String json) throws Exception {
+        return WireJson.payload(WireJson.MAPPER.readValue(json, ClientSignalingMessage.class), ClientSignalingMessage.UserEventPayload.class);
+    }
+}